@@ -0,0 +1,24 @@
+package com.kas.comm;
+
+import java.io.IOException;
+import com.kas.comm.impl.InVmConnector;
+import com.kas.comm.impl.InVmMessenger;
+
+/**
+ * An in-VM acceptor is an object that serves connections made to it by name from within the same JVM,
+ * e.g. an embedded server. It's bound to its name with {@link InVmConnector#bind(String, IInVmAcceptor)}.
+ * 
+ * @author Pippo
+ */
+public interface IInVmAcceptor
+{
+  /**
+   * Accept a new connection
+   * 
+   * @param messenger
+   *   The acceptor's side of the connection
+   * @throws IOException
+   *   if the connection could not be served. The connecting side gets the exception
+   */
+  public abstract void accept(InVmMessenger messenger) throws IOException;
+}
@@ -60,6 +60,15 @@ public interface IMessenger extends IObject
    */
   public abstract IPacket sendAndReceive(IPacket request) throws IOException;
   
+  /**
+   * Limit the payload length of the packets received from now on.<br>
+   * A frame announcing a longer payload is rejected before anything is allocated for it.
+   * 
+   * @param length
+   *   The maximum payload length. Lengths are never allowed past {@link com.kas.comm.impl.PacketCodec#cMaxPayloadLength}
+   */
+  public abstract void setMaxPayloadLength(int length);
+  
   /**
    * Perform messenger's cleanup:<br>
    * Flush streams, close streams, close the socket etc.
@@ -2,15 +2,21 @@ package com.kas.comm;
 
 import java.io.IOException;
 import com.kas.comm.impl.PacketHeader;
+import com.kas.infra.base.IBinarySerializable;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.ISerializable;
 
 /**
- * A packet is a datagram sent over the network
+ * A packet is a datagram sent over the network.<br>
+ * <br>
+ * Packets are sent in the binary form of {@link IBinarySerializable}, and stored in the form of {@link ISerializable}.<br>
+ * <br>
+ * The request ID is not part of either form. It travels in the frame header, so a reply can be matched
+ * with its request while many requests are in flight on the same connection
  * 
  * @author Pippo
  */
-public interface IPacket extends ISerializable, IObject
+public interface IPacket extends ISerializable, IBinarySerializable, IObject
 {
   /**
    * Create a header describing the packet
@@ -21,4 +27,20 @@ public interface IPacket extends ISerializable, IObject
    *   if an I/O error occurs
    */
   public abstract PacketHeader createHeader();
+  
+  /**
+   * Set the ID correlating a request with its reply
+   * 
+   * @param id
+   *   The request ID. 0 means the packet is not correlated with any other packet
+   */
+  public abstract void setRequestId(int id);
+  
+  /**
+   * Get the ID correlating a request with its reply
+   * 
+   * @return
+   *   the request ID, or 0 if the packet is not correlated with any other packet
+   */
+  public abstract int getRequestId();
 }
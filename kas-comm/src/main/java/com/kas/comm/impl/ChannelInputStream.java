@@ -0,0 +1,122 @@
+package com.kas.comm.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An {@link InputStream} reading from a non-blocking {@link SocketChannel}.<br>
+ * <br>
+ * Unlike the streams of {@link java.nio.channels.Channels}, reads do not hold a lock a concurrent write waits for,
+ * and they time out like reads from a {@link java.net.Socket} with SO_TIMEOUT, by throwing {@link SocketTimeoutException}.
+ * This lets a {@link Messenger} work with channels that have no {@link java.net.Socket}, like Unix domain socket channels.
+ * 
+ * @author Pippo
+ */
+class ChannelInputStream extends InputStream
+{
+  /**
+   * The channel
+   */
+  private SocketChannel mChannel;
+  
+  /**
+   * The selector reads wait on when no data is available
+   */
+  private Selector mSelector;
+  
+  /**
+   * The read timeout, in milliseconds. 0 means reads wait indefinitely
+   */
+  private int mTimeout;
+  
+  /**
+   * Construct a {@link ChannelInputStream}
+   * 
+   * @param channel
+   *   The channel, in non-blocking mode
+   * @param timeout
+   *   The read timeout, in milliseconds. 0 means reads wait indefinitely
+   * @throws IOException
+   *   if the selector could not be opened
+   */
+  ChannelInputStream(SocketChannel channel, int timeout) throws IOException
+  {
+    mChannel = channel;
+    mTimeout = timeout;
+    mSelector = Selector.open();
+    mChannel.register(mSelector, SelectionKey.OP_READ);
+  }
+  
+  /**
+   * Read a single byte
+   * 
+   * @return
+   *   the byte, or -1 at the end of the stream
+   * @throws IOException
+   *   if an I/O error occurs or the read timed out
+   */
+  public int read() throws IOException
+  {
+    byte [] bytes = new byte[1];
+    int n = read(bytes, 0, 1);
+    return n < 0 ? -1 : bytes[0] & 0xFF;
+  }
+  
+  /**
+   * Read up to {@code length} bytes, waiting for at least one to be available
+   * 
+   * @param bytes
+   *   The array to read into
+   * @param offset
+   *   The offset in {@code bytes}
+   * @param length
+   *   The maximum number of bytes to read
+   * @return
+   *   the number of bytes read, or -1 at the end of the stream
+   * @throws IOException
+   *   if an I/O error occurs or the read timed out. If the stream or the channel was closed, a {@link SocketException}
+   */
+  public int read(byte [] bytes, int offset, int length) throws IOException
+  {
+    if (length == 0)
+      return 0;
+    
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+    try
+    {
+      while (true)
+      {
+        int n = mChannel.read(buffer);
+        if (n != 0)
+          return n;
+        
+        if ((mSelector.select(mTimeout) == 0) && (mTimeout > 0))
+          throw new SocketTimeoutException("Read timed out");
+        mSelector.selectedKeys().clear();
+      }
+    }
+    catch (ClosedChannelException | ClosedSelectorException e)
+    {
+      throw new SocketException("Socket closed");
+    }
+  }
+  
+  /**
+   * Close the stream's selector. The channel is closed by its owner
+   * 
+   * @throws IOException
+   *   if the selector could not be closed
+   */
+  public void close() throws IOException
+  {
+    mSelector.close();
+  }
+}
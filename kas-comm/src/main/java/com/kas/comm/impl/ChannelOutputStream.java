@@ -0,0 +1,103 @@
+package com.kas.comm.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An {@link OutputStream} writing to a non-blocking {@link SocketChannel}.<br>
+ * <br>
+ * Writes wait for the channel to accept all their bytes, so they behave like writes to a {@link java.net.Socket},
+ * without holding a lock a concurrent read on a {@link ChannelInputStream} waits for.
+ * 
+ * @author Pippo
+ */
+class ChannelOutputStream extends OutputStream
+{
+  /**
+   * The channel
+   */
+  private SocketChannel mChannel;
+  
+  /**
+   * The selector writes wait on when the channel's send buffer is full
+   */
+  private Selector mSelector;
+  
+  /**
+   * Construct a {@link ChannelOutputStream}
+   * 
+   * @param channel
+   *   The channel, in non-blocking mode
+   * @throws IOException
+   *   if the selector could not be opened
+   */
+  ChannelOutputStream(SocketChannel channel) throws IOException
+  {
+    mChannel = channel;
+    mSelector = Selector.open();
+    mChannel.register(mSelector, SelectionKey.OP_WRITE);
+  }
+  
+  /**
+   * Write a single byte
+   * 
+   * @param b
+   *   The byte
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  public void write(int b) throws IOException
+  {
+    write(new byte [] { (byte)b }, 0, 1);
+  }
+  
+  /**
+   * Write {@code length} bytes, waiting for the channel to accept all of them
+   * 
+   * @param bytes
+   *   The array to write from
+   * @param offset
+   *   The offset in {@code bytes}
+   * @param length
+   *   The number of bytes to write
+   * @throws IOException
+   *   if an I/O error occurs. If the stream or the channel was closed, a {@link SocketException}
+   */
+  public void write(byte [] bytes, int offset, int length) throws IOException
+  {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+    try
+    {
+      while (buffer.hasRemaining())
+      {
+        if (mChannel.write(buffer) == 0)
+        {
+          mSelector.select();
+          mSelector.selectedKeys().clear();
+        }
+      }
+    }
+    catch (ClosedChannelException | ClosedSelectorException e)
+    {
+      throw new SocketException("Socket closed");
+    }
+  }
+  
+  /**
+   * Close the stream's selector. The channel is closed by its owner
+   * 
+   * @throws IOException
+   *   if the selector could not be closed
+   */
+  public void close() throws IOException
+  {
+    mSelector.close();
+  }
+}
@@ -0,0 +1,119 @@
+package com.kas.comm.impl;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.util.concurrent.ConcurrentHashMap;
+import com.kas.comm.IInVmAcceptor;
+
+/**
+ * The registry of {@link IInVmAcceptor acceptors} of connections within the JVM.<br>
+ * <br>
+ * An acceptor is designated by a host of the form {@value #cHostPrefix}<i>name</i>, and the port is ignored.
+ * Such hosts are accepted wherever a host name is, so a client connects to an embedded server
+ * just by being configured with its name. The connection is a pair of {@link InVmMessenger in-VM messengers}.
+ * 
+ * @author Pippo
+ */
+public class InVmConnector
+{
+  /**
+   * The prefix of hosts designating an in-VM acceptor
+   */
+  static public final String cHostPrefix = "vm:";
+  
+  /**
+   * Acceptors by name
+   */
+  static private ConcurrentHashMap<String, IInVmAcceptor> sAcceptors = new ConcurrentHashMap<String, IInVmAcceptor>();
+  
+  /**
+   * Get an indication whether a host designates an in-VM acceptor
+   * 
+   * @param host
+   *   The host
+   * @return
+   *   {@code true} if {@code host} is of the form {@value #cHostPrefix}<i>name</i>, {@code false} otherwise
+   */
+  static public boolean isInVmHost(String host)
+  {
+    return (host != null) && (host.length() > cHostPrefix.length()) && host.startsWith(cHostPrefix);
+  }
+  
+  /**
+   * Get the host designating an acceptor
+   * 
+   * @param name
+   *   The acceptor's name
+   * @return
+   *   the host, {@value #cHostPrefix}<i>name</i>
+   */
+  static public String getHost(String name)
+  {
+    return cHostPrefix + name;
+  }
+  
+  /**
+   * Bind an acceptor to a name
+   * 
+   * @param name
+   *   The name
+   * @param acceptor
+   *   The acceptor
+   * @throws BindException
+   *   if another acceptor is bound to the name
+   */
+  static public void bind(String name, IInVmAcceptor acceptor) throws BindException
+  {
+    if (sAcceptors.putIfAbsent(name, acceptor) != null)
+      throw new BindException("In-VM name " + name + " is already in use");
+  }
+  
+  /**
+   * Unbind an acceptor from its name. Connections it already accepted are not affected
+   * 
+   * @param name
+   *   The name
+   * @param acceptor
+   *   The acceptor
+   */
+  static public void unbind(String name, IInVmAcceptor acceptor)
+  {
+    sAcceptors.remove(name, acceptor);
+  }
+  
+  /**
+   * Connect to an acceptor
+   * 
+   * @param host
+   *   The host designating the acceptor
+   * @return
+   *   the connecting side of the connection
+   * @throws IOException
+   *   if no acceptor is bound to the name, or it failed to accept the connection
+   */
+  static public InVmMessenger connect(String host) throws IOException
+  {
+    IInVmAcceptor acceptor = sAcceptors.get(host.substring(cHostPrefix.length()));
+    if (acceptor == null)
+      throw new ConnectException("No in-VM acceptor is bound to " + host);
+    
+    NetworkAddress address = new NetworkAddress(host, 0);
+    InVmMessenger client = new InVmMessenger(address);
+    InVmMessenger server = new InVmMessenger(address);
+    client.setPeer(server);
+    server.setPeer(client);
+    
+    try
+    {
+      acceptor.accept(server);
+    }
+    catch (IOException e)
+    {
+      client.cleanup();
+      server.cleanup();
+      throw e;
+    }
+    return client;
+  }
+}
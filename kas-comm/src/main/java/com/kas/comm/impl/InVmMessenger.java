@@ -0,0 +1,280 @@
+package com.kas.comm.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.comm.IMessenger;
+import com.kas.comm.IPacket;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.KasException;
+
+/**
+ * An in-VM messenger is one side of a connection within the JVM, made by {@link InVmConnector#connect(String)}.<br>
+ * <br>
+ * Each packet is handed to the other side as a copy, made by serializing its payload and deserializing it again, without frames
+ * or the network stack. The sender and the receiver never share an instance, so either may keep, modify or send its packets again,
+ * e.g. overwrite their request IDs, and the sender's packet changes the way serializing it over a socket would. Receiving behaves like with a {@link Messenger}:
+ * it waits for a packet up to the timeout, if one was set, and fails with {@link EOFException} once the other side
+ * cleaned up and all the packets it sent were received.
+ * 
+ * @author Pippo
+ */
+public class InVmMessenger extends AKasObject implements IMessenger
+{
+  /**
+   * The interval, in milliseconds, at which a waiting receive checks whether either side cleaned up
+   */
+  static private final long cPollInterval = 100;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The address of the acceptor
+   */
+  private NetworkAddress mAddress;
+  
+  /**
+   * The packets sent by the other side and not received yet
+   */
+  private LinkedBlockingQueue<IPacket> mInbox = new LinkedBlockingQueue<IPacket>();
+  
+  /**
+   * The other side
+   */
+  private InVmMessenger mPeer;
+  
+  /**
+   * The receive timeout, in milliseconds. 0 means receives wait indefinitely
+   */
+  private volatile int mTimeout = 0;
+  
+  /**
+   * Set once this side cleaned up
+   */
+  private volatile boolean mClosed = false;
+  
+  /**
+   * Construct an {@link InVmMessenger}
+   * 
+   * @param address
+   *   The address of the acceptor
+   */
+  InVmMessenger(NetworkAddress address)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mAddress = address;
+  }
+  
+  /**
+   * Set the other side
+   * 
+   * @param peer
+   *   The other side
+   */
+  void setPeer(InVmMessenger peer)
+  {
+    mPeer = peer;
+  }
+  
+  /**
+   * Set the receive timeout
+   * 
+   * @param timeout
+   *   The timeout, in milliseconds. 0 means receives wait indefinitely
+   */
+  public void setTimeout(int timeout)
+  {
+    mTimeout = timeout;
+  }
+  
+  /**
+   * Get the messenger connectivity status
+   * 
+   * @return
+   *   {@code true} if neither side cleaned up, {@code false} otherwise
+   */
+  public boolean isConnected()
+  {
+    return !mClosed && !mPeer.mClosed;
+  }
+  
+  /**
+   * Get the messenger remote address
+   * 
+   * @return
+   *   the {@link NetworkAddress} of the acceptor, with host {@value InVmConnector#cHostPrefix}<i>name</i>
+   */
+  public NetworkAddress getAddress()
+  {
+    return mAddress;
+  }
+  
+  /**
+   * Hand a copy of a packet to the other side
+   * 
+   * @param packet
+   *   The packet to send
+   * @throws IOException
+   *   if either side cleaned up or the packet could not be copied
+   */
+  public void send(IPacket packet) throws IOException
+  {
+    mLogger.trace("InVmMessenger::send() - IN");
+    
+    if (mClosed)
+      throw new SocketException("Socket closed");
+    if (mPeer.mClosed)
+      throw new SocketException("Connection closed by peer");
+    mPeer.mInbox.add(copy(packet));
+    
+    mLogger.trace("InVmMessenger::send() - OUT");
+  }
+  
+  /**
+   * Copy a packet by serializing its payload and deserializing it again, the way a socket would carry it
+   * 
+   * @param packet
+   *   The packet
+   * @return
+   *   the copy, with the same request ID
+   * @throws IOException
+   *   if the packet could not be serialized or deserialized
+   */
+  static private IPacket copy(IPacket packet) throws IOException
+  {
+    byte [] payload = PacketCodec.toByteArray(packet);
+    IPacket copy;
+    try
+    {
+      copy = PacketCodec.decode(payload, 0, payload.length);
+    }
+    catch (KasException e)
+    {
+      throw new IOException("Failed to copy packet", e);
+    }
+    
+    if (copy == null)
+      throw new IOException("Failed to copy packet, its class is not registered");
+    copy.setRequestId(packet.getRequestId());
+    return copy;
+  }
+  
+  /**
+   * Receive a packet sent by the other side.<br>
+   * If a packet is not available, the call will block until one is or the timeout expires.
+   * 
+   * @return
+   *   the packet
+   * @throws IOException
+   *   if this side cleaned up, the other side cleaned up and there are no more packets, or the timeout expired
+   */
+  public IPacket receive() throws IOException
+  {
+    mLogger.trace("InVmMessenger::receive() - IN");
+    
+    long timeout = mTimeout;
+    long deadline = System.currentTimeMillis() + timeout;
+    IPacket packet = null;
+    try
+    {
+      while (packet == null)
+      {
+        if (mClosed)
+          throw new SocketException("Socket closed");
+        
+        boolean peerClosed = mPeer.mClosed;
+        packet = mInbox.poll(cPollInterval, TimeUnit.MILLISECONDS);
+        if ((packet == null) && peerClosed)
+          throw new EOFException("Connection closed by peer");
+        if ((packet == null) && (timeout > 0) && (System.currentTimeMillis() >= deadline))
+          throw new SocketTimeoutException("Receive timed out");
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a packet", e);
+    }
+    
+    mLogger.trace("InVmMessenger::receive() - OUT");
+    return packet;
+  }
+  
+  /**
+   * Hand a copy of a packet to the other side and wait indefinitely for a reply.
+   * 
+   * @param request
+   *   A request packet
+   * @return
+   *   a response packet
+   * @throws IOException
+   *   if either side cleaned up or the packet could not be copied
+   */
+  public IPacket sendAndReceive(IPacket request) throws IOException
+  {
+    send(request);
+    return receive();
+  }
+  
+  /**
+   * Packets are handed over as objects, without frames, so there's nothing to limit
+   * 
+   * @param length
+   *   The maximum payload length, ignored
+   */
+  public void setMaxPayloadLength(int length)
+  {
+  }
+  
+  /**
+   * Perform messenger's cleanup:<br>
+   * Packets the other side sends from now on fail, and waiting receives on either side fail once
+   * there are no more packets for them
+   */
+  public void cleanup()
+  {
+    mLogger.trace("InVmMessenger::cleanup() - IN");
+    mClosed = true;
+    mLogger.trace("InVmMessenger::cleanup() - OUT");
+  }
+  
+  /**
+   * Return the string representation.
+   * 
+   * @return
+   *   the string representation
+   */
+  public String toString()
+  {
+    return mAddress.toString();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Address=").append(mAddress).append("\n")
+      .append(pad).append("  Pending=").append(mInbox.size()).append("\n")
+      .append(pad).append("  Connected=").append(isConnected()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -1,10 +1,12 @@
 package com.kas.comm.impl;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.kas.comm.IPacket;
@@ -12,14 +14,30 @@ import com.kas.comm.IMessenger;
 import com.kas.infra.base.AKasObject;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.KasException;
+import com.kas.infra.base.KeyDictionary;
 
 /**
- * A messenger object is the basic implementation of the {@link IMessenger} 
+ * A messenger object is the basic implementation of the {@link IMessenger}.<br>
+ * <br>
+ * Packets are sent in the binary frames of {@link PacketCodec}. Each frame is written to the socket
+ * as a whole, and read into memory before it's decoded. Large frames are read into a direct buffer.<br>
+ * <br>
+ * Property keys are sent as IDs of a {@link KeyDictionary} kept for each direction of the connection.
+ * A messenger that opened the connection does so from the start, while one created for an accepted socket
+ * starts doing so only after it received such a frame, so it never sends one to a peer that cannot read it.<br>
+ * <br>
+ * A messenger is connected either over a {@link Socket}, or over a {@link SocketChannel} that has none,
+ * like one connected to a {@link UnixSockets Unix domain socket}.
  * 
  * @author Pippo
  */
 public class Messenger extends AKasObject implements IMessenger
 {
+  /**
+   * Size of the buffer reads from the socket go through
+   */
+  static private final int cInputBufferSize = 64 * 1024;
+  
   /**
    * Logger
    */
@@ -31,16 +49,37 @@ public class Messenger extends AKasObject implements IMessenger
   protected Socket mSocket;
   
   /**
-   * Output and Input streams for writing and reading objects
+   * Channel used to transfer packets back and forth, if the messenger is not connected over a socket
+   */
+  protected SocketChannel mChannel;
+  
+  /**
+   * Output and Input streams for writing and reading frames
    */
-  protected ObjectOutputStream mOutputStream;
-  protected ObjectInputStream  mInputStream;
+  protected OutputStream mOutputStream;
+  protected InputStream  mInputStream;
   
   /**
    * Host and port
    */
   protected NetworkAddress mAddress;
   
+  /**
+   * The dictionaries of property keys sent and received. Keys are sent in full while there's no dictionary for them
+   */
+  private volatile KeyDictionary mOutputKeys = null;
+  private KeyDictionary mInputKeys = new KeyDictionary();
+  
+  /**
+   * The maximum payload length of received frames
+   */
+  private volatile int mMaxPayloadLength = PacketCodec.cMaxPayloadLength;
+  
+  /**
+   * Serializes {@link #cleanup()}
+   */
+  private final Object mCleanupLock = new Object();
+  
   /**
    * Constructs a {@link Messenger} object using the specified host and port.
    * 
@@ -54,6 +93,7 @@ public class Messenger extends AKasObject implements IMessenger
   Messenger(String host, int port) throws IOException
   {
     this(new Socket(host, port));
+    mOutputKeys = new KeyDictionary();
   }
   
   /**
@@ -71,6 +111,21 @@ public class Messenger extends AKasObject implements IMessenger
   Messenger(String host, int port, int timeout) throws IOException
   {
     this(new Socket(host, port), timeout);
+    mOutputKeys = new KeyDictionary();
+  }
+  
+  /**
+   * Constructs a {@link Messenger} object connected to a Unix domain socket.
+   * 
+   * @param host
+   *   The host designating the socket, {@value UnixSockets#cHostPrefix}<i>path</i>
+   * @throws IOException
+   *   if Unix domain sockets are not available, or I/O error occurs during connection or streams creation
+   */
+  Messenger(String host) throws IOException
+  {
+    this(UnixSockets.connect(host), 0);
+    mOutputKeys = new KeyDictionary();
   }
   
   /**
@@ -105,11 +160,36 @@ public class Messenger extends AKasObject implements IMessenger
     mSocket = socket;
     mAddress = new NetworkAddress(socket);
     
-    mOutputStream = new ObjectOutputStream(mSocket.getOutputStream());
-    mInputStream = new ObjectInputStream(mSocket.getInputStream());
+    mOutputStream = mSocket.getOutputStream();
+    mInputStream = new BufferedInputStream(mSocket.getInputStream(), cInputBufferSize);
     mSocket.setSoTimeout(timeout);
   }
   
+  /**
+   * Constructs a {@link Messenger} object using the specified channel and timeout.<br>
+   * The channel is set to non-blocking mode, and read and written through streams that behave like those of a socket.
+   * 
+   * @param channel
+   *   The connected channel that will serve this {@link Messenger}
+   * @param timeout
+   *   The read timeout
+   * @throws IOException
+   *   if I/O error occurs during streams creation
+   */
+  Messenger(SocketChannel channel, int timeout) throws IOException
+  {
+    if (channel == null) throw new IOException("Null channel");
+    
+    mLogger = LogManager.getLogger(getClass());
+    
+    mChannel = channel;
+    mAddress = new NetworkAddress(channel);
+    
+    mChannel.configureBlocking(false);
+    mOutputStream = new ChannelOutputStream(mChannel);
+    mInputStream = new BufferedInputStream(new ChannelInputStream(mChannel, timeout), cInputBufferSize);
+  }
+  
   /**
    * Get the messenger connectivity status
    * 
@@ -121,6 +201,9 @@ public class Messenger extends AKasObject implements IMessenger
    */
   public boolean isConnected()
   {
+    SocketChannel channel = mChannel;
+    if (channel != null)
+      return channel.isConnected() && channel.isOpen();
     return mSocket == null ? false : mSocket.isConnected() && !mSocket.isClosed();
   }
   
@@ -132,7 +215,7 @@ public class Messenger extends AKasObject implements IMessenger
    */
   public NetworkAddress getAddress()
   {
-    return new NetworkAddress(mSocket);
+    return mAddress;
   }
   
   /**
@@ -149,13 +232,12 @@ public class Messenger extends AKasObject implements IMessenger
   {
     mLogger.trace("Messenger::send() - IN");
     
-    if (mOutputStream == null) throw new IOException("Null output stream; Messenger is probably not connected");
+    OutputStream ostream = mOutputStream;
+    if (ostream == null) throw new IOException("Null output stream; Messenger is probably not connected");
     
     try
     {
-      PacketHeader header = packet.createHeader();
-      header.serialize(mOutputStream);
-      packet.serialize(mOutputStream);
+      PacketCodec.write(packet, ostream, mOutputKeys);
     }
     catch (SocketException e)
     {
@@ -182,13 +264,15 @@ public class Messenger extends AKasObject implements IMessenger
   {
     mLogger.trace("Messenger::receive() - IN");
     
-    if (mInputStream == null) throw new IOException("Null input stream; Messenger is probably not connected");
+    InputStream istream = mInputStream;
+    if (istream == null) throw new IOException("Null input stream; Messenger is probably not connected");
     
     IPacket packet = null;
     try
     {
-      PacketHeader header = new PacketHeader(mInputStream);
-      packet = header.read(mInputStream);
+      packet = PacketCodec.read(istream, mInputKeys, mMaxPayloadLength);
+      if ((mOutputKeys == null) && mInputKeys.isActive())
+        mOutputKeys = new KeyDictionary();
     }
     catch (SocketException e)
     {
@@ -206,6 +290,17 @@ public class Messenger extends AKasObject implements IMessenger
     return packet;
   }
   
+  /**
+   * Limit the payload length of the packets received from now on
+   * 
+   * @param length
+   *   The maximum payload length
+   */
+  public void setMaxPayloadLength(int length)
+  {
+    mMaxPayloadLength = length;
+  }
+  
   /**
    * Sends a {@link IPacket} and wait indefinitely for a reply.
    * 
@@ -225,46 +320,55 @@ public class Messenger extends AKasObject implements IMessenger
   
   /**
    * Perform messenger's cleanup:<br>
-   * Flush streams, close streams, close the socket etc.
+   * Flush streams, close streams, close the socket or channel etc.<br>
+   * Serialized by a lock of its own, since a reader or writer that fails because another thread is cleaning up
+   * cleans up as well. Threads sending with the messenger locked may be the ones waiting for the cleanup.
    */
   public void cleanup()
   {
     mLogger.trace("Messenger::cleanup() - IN");
     
-    if (!isConnected())
+    synchronized (mCleanupLock)
     {
-      mLogger.trace("Messenger::cleanup() - Messenger not connected, nothing to cleanup");
-    }
-    else
-    {
-      mLogger.trace("Messenger::cleanup() - Flushing and closing streams, closing the socket...");
-      try
+      if (!isConnected())
       {
-        mOutputStream.flush();
+        mLogger.trace("Messenger::cleanup() - Messenger not connected, nothing to cleanup");
       }
-      catch (IOException e) {}
-      
-      try
+      else
       {
+        mLogger.trace("Messenger::cleanup() - Flushing and closing streams, closing the socket...");
+        try
+        {
+          mOutputStream.flush();
+        }
+        catch (IOException e) {}
+        
+        try
+        {
         mOutputStream.close();
+        }
+        catch (IOException e) {}
+        
+        try
+        {
+          mInputStream.close();
+        }
+        catch (IOException e) {}
+        
+        try
+        {
+          if (mChannel != null)
+            mChannel.close();
+          else
+            mSocket.close();
+        }
+        catch (IOException e) {}
+        
+        mOutputStream = null;
+        mInputStream = null;
+        mSocket = null;
+        mChannel = null;
       }
-      catch (IOException e) {}
-      
-      try
-      {
-        mInputStream.close();
-      }
-      catch (IOException e) {}
-      
-      try
-      {
-        mSocket.close();
-      }
-      catch (IOException e) {}
-      
-      mOutputStream = null;
-      mInputStream = null;
-      mSocket = null;
     }
     
     mLogger.trace("Messenger::cleanup() - OUT");
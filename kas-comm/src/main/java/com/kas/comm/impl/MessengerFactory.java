@@ -3,9 +3,11 @@ package com.kas.comm.impl;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import com.kas.comm.IMessenger;
 
 /**
- * A factory for creating {@link Messenger} objects
+ * A factory for creating {@link IMessenger} objects
  * 
  * @author Pippo
  */
@@ -47,21 +49,50 @@ public class MessengerFactory
     return new Messenger(socket, timeout);
   }
   
+  /**
+   * Create a {@link Messenger} object with an active channel.<br>
+   * This method is intended for use by server-side applications where
+   * a new channel was accepted, e.g. on a {@link UnixSockets Unix domain socket}
+   * 
+   * @param channel
+   *   An active channel
+   * @param timeout
+   *   The read timeout
+   * @return
+   *   a newly-created {@link Messenger} object
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  static public Messenger create(SocketChannel channel, int timeout) throws IOException
+  {
+    return new Messenger(channel, timeout);
+  }
+  
   /**
    * Create a {@link Messenger} object with an active socket.<br> 
    * This method is intended for use by client-side applications where the socket
    * was not created yet, and the {@link Messenger} object will be the one to establish
-   * the connection.
+   * the connection.<br>
+   * If {@code host} is of the form {@value UnixSockets#cHostPrefix}<i>path</i>, the connection is made
+   * over that Unix domain socket and {@code port} is ignored.
+   * If {@code host} is of the form {@value InVmConnector#cHostPrefix}<i>name</i>, the connection is made
+   * to that {@link InVmConnector in-VM acceptor}, an {@link InVmMessenger} is returned and {@code port} is ignored.
    * 
-   * @param socket
-   *   An active socket
+   * @param host
+   *   The remote host
+   * @param port
+   *   Remote host listening port
    * @return
-   *   a newly-created {@link Messenger} object
+   *   a newly-created {@link IMessenger} object
    * @throws IOException
    *   if an I/O error occurs
    */
-  static public Messenger create(String host, int port) throws IOException
+  static public IMessenger create(String host, int port) throws IOException
   {
+    if (InVmConnector.isInVmHost(host))
+      return InVmConnector.connect(host);
+    if (UnixSockets.isUnixHost(host))
+      return new Messenger(host);
     return new Messenger(host, port);
   }
 }
@@ -1,12 +1,19 @@
 package com.kas.comm.impl;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import com.kas.infra.base.AKasObject;
 import com.kas.infra.base.IObject;
 import com.kas.infra.utils.Validators;
 
 /**
- * An object used to simplify data extraction from {@link Socket} object
+ * An object used to simplify data extraction from {@link Socket} object<br>
+ * <br>
+ * An address of a Unix domain socket has a host of the form {@value UnixSockets#cHostPrefix}<i>path</i> and port 0.
+ * An address of an {@link InVmConnector in-VM acceptor} has a host of the form {@value InVmConnector#cHostPrefix}<i>name</i> and port 0.
  * 
  * @author Pippo
  */
@@ -33,26 +40,54 @@ public class NetworkAddress extends AKasObject
     this(socket.getInetAddress().getHostName(), socket.getPort());
   }
   
+  /**
+   * Construct a {@link NetworkAddress} using a connected {@link SocketChannel}
+   * 
+   * @param channel
+   *   The channel from which to extract data
+   * @throws IOException
+   *   if the channel is closed
+   */
+  public NetworkAddress(SocketChannel channel) throws IOException
+  {
+    SocketAddress remote = channel.getRemoteAddress();
+    if (remote instanceof InetSocketAddress)
+    {
+      mHost = ((InetSocketAddress)remote).getAddress().getHostName();
+      mPort = ((InetSocketAddress)remote).getPort();
+    }
+    else
+    {
+      String path = remote.toString();
+      if (path.isEmpty())
+        path = channel.getLocalAddress().toString();
+      mHost = UnixSockets.cHostPrefix + path;
+      mPort = 0;
+    }
+  }
+  
   /**
    * Construct a {@link NetworkAddress} using the host and port
    * 
    * @param host
-   *   Host name or IP address
+   *   Host name or IP address, or {@value UnixSockets#cHostPrefix}<i>path</i> for a Unix domain socket,
+   *   or {@value InVmConnector#cHostPrefix}<i>name</i> for an in-VM acceptor
    * @param port
-   *   The port number
+   *   The port number. Ignored for a Unix domain socket and an in-VM acceptor
    * @throws IllegalArgumentException
-   *   if {@code host} doesn't designate a valid host name nor a valid IP address,
+   *   if {@code host} doesn't designate a valid host name nor a valid IP address nor a Unix domain socket nor an in-VM acceptor,
    *   or if {@code port} doesn't designate a valid port number
    */
   public NetworkAddress(String host, int port)
   {
-    if ((!Validators.isHostName(host))  && (!Validators.isIpAddress(host)))
+    boolean local = UnixSockets.isUnixHost(host) || InVmConnector.isInVmHost(host);
+    if ((!local) && (!Validators.isHostName(host))  && (!Validators.isIpAddress(host)))
       throw new IllegalArgumentException("Invalid host name: " + host);
-    if (!Validators.isPort(port))
+    if ((!local) && (!Validators.isPort(port)))
       throw new IllegalArgumentException("Invalid port number: " + port);
     
     mHost = host;
-    mPort = port;
+    mPort = local ? 0 : port;
   }
   
   /**
@@ -77,6 +112,28 @@ public class NetworkAddress extends AKasObject
     return mPort;
   }
   
+  /**
+   * Get an indication whether this is the address of a Unix domain socket
+   * 
+   * @return
+   *   {@code true} if the host designates a Unix domain socket, {@code false} otherwise
+   */
+  public boolean isUnix()
+  {
+    return UnixSockets.isUnixHost(mHost);
+  }
+  
+  /**
+   * Get an indication whether this is the address of an in-VM acceptor
+   * 
+   * @return
+   *   {@code true} if the host designates an {@link InVmConnector in-VM acceptor}, {@code false} otherwise
+   */
+  public boolean isInVm()
+  {
+    return InVmConnector.isInVmHost(mHost);
+  }
+  
   /**
    * Get the string representation
    * 
@@ -85,6 +142,9 @@ public class NetworkAddress extends AKasObject
    */
   public String toString()
   {
+    if (isUnix() || isInVm())
+      return mHost;
+    
     StringBuilder sb = new StringBuilder()
       .append(mHost).append(':').append(mPort);
     return sb.toString();
@@ -0,0 +1,598 @@
+package com.kas.comm.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import com.kas.comm.IPacket;
+import com.kas.comm.serializer.Deserializer;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.BinaryWriter;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.KasException;
+import com.kas.infra.base.KeyDictionary;
+
+/**
+ * The binary wire format of {@link IPacket packets}.<br>
+ * <br>
+ * Each packet is sent as a frame: a fixed 12-byte header holding the "KAS" eye-catcher, the format version,
+ * the packet's {@link IPacket#getRequestId() request ID} and the payload length, followed by the payload.
+ * The payload is the packet's class ID as a variable length integer, followed by what the packet's
+ * {@link IPacket#serialize(BinaryWriter)} wrote.<br>
+ * <br>
+ * The length lets the receiver read a whole frame with a single call and decode it from memory,
+ * and the version lets it reject a peer that speaks a different format before decoding anything.
+ * The request ID lets a receiver match a reply with its request without decoding the payload,
+ * so replies need not arrive in the order the requests were sent.<br>
+ * <br>
+ * Payloads of at least {@value #cDirectPayloadLength} bytes are read into a direct buffer, and their large values are
+ * decoded as views of it, so they never reach the heap. Large values {@link BinaryWriter#writeBuffer(java.nio.ByteBuffer) spliced}
+ * into an encoded frame are written as they are.<br>
+ * <br>
+ * A frame encoded with the sender's {@link KeyDictionary} for the connection has format version {@value #cVersionKeyed}.
+ * Its property keys are written as dictionary IDs, and its payload ends with the keys that were added to the dictionary
+ * while it was encoded, followed by their length as a 4-byte integer. The receiver adds them to its own dictionary before
+ * decoding the packet, even if it cannot decode the packet itself, so both dictionaries always agree.
+ * 
+ * @author Pippo
+ */
+public class PacketCodec
+{
+  /**
+   * The eye-catcher, the format versions of frames without and with a key dictionary, and the header length
+   */
+  static public final byte [] cEyeCatcher = { 'K', 'A', 'S' };
+  static public final byte    cVersion = 2;
+  static public final byte    cVersionKeyed = 3;
+  static public final int     cHeaderLength = 12;
+  
+  /**
+   * Frames longer than this are rejected, as they are more likely garbage than a packet
+   */
+  static public final int cMaxPayloadLength = 512 * 1024 * 1024;
+  
+  /**
+   * Frames longer than this are rejected from a peer that did not log in yet, so it cannot have large buffers allocated
+   */
+  static public final int cMaxLoginPayloadLength = 64 * 1024;
+  
+  /**
+   * Payloads this long or longer are read into a direct buffer
+   */
+  static public final int cDirectPayloadLength = 256 * 1024;
+  
+  /**
+   * Size of the chunks a payload is read in on its way to a direct buffer
+   */
+  static private final int cReadChunkLength = 64 * 1024;
+  
+  /**
+   * The number of read timeouts in a row, with no bytes read, after which a frame that started is given up
+   */
+  static private final int cMaxStalledReads = 3;
+  
+  /**
+   * Write a packet's payload: its class ID followed by its fields
+   * 
+   * @param packet
+   *   The packet
+   * @param writer
+   *   The writer
+   * @throws IOException
+   *   if the packet could not be serialized
+   */
+  static public void writePayload(IPacket packet, BinaryWriter writer) throws IOException
+  {
+    writer.writeVarInt(packet.createHeader().getClassId().ordinal());
+    packet.serialize(writer);
+  }
+  
+  /**
+   * Encode a packet as a frame
+   * 
+   * @param packet
+   *   The packet
+   * @return
+   *   the {@link BinaryWriter} holding the frame
+   * @throws IOException
+   *   if the packet could not be serialized
+   */
+  static public BinaryWriter encode(IPacket packet) throws IOException
+  {
+    return encode(packet, null);
+  }
+  
+  /**
+   * Encode a packet as a frame, with property keys written as IDs of the sender's dictionary.<br>
+   * The frame must reach the receiver after all frames encoded earlier with the same dictionary.
+   * 
+   * @param packet
+   *   The packet
+   * @param keys
+   *   The sender's dictionary, or {@code null} to write keys in full
+   * @return
+   *   the {@link BinaryWriter} holding the frame
+   * @throws IOException
+   *   if the packet could not be serialized
+   */
+  static public BinaryWriter encode(IPacket packet, KeyDictionary keys) throws IOException
+  {
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeRaw(cEyeCatcher, 0, cEyeCatcher.length);
+    writer.writeByte(keys == null ? cVersion : cVersionKeyed);
+    writer.writeInt(packet.getRequestId());
+    writer.writeInt(0);
+    if (keys == null)
+    {
+      writePayload(packet, writer);
+    }
+    else
+    {
+      try
+      {
+        writer.setKeys(keys);
+        writePayload(packet, writer);
+      }
+      catch (IOException | RuntimeException e)
+      {
+        keys.discardAdded();
+        throw e;
+      }
+      
+      int start = writer.size();
+      List<String> added = keys.takeAdded();
+      writer.writeVarInt(added.size());
+      for (String key : added)
+        writer.writeString(key);
+      writer.writeInt(writer.size() - start);
+    }
+    writer.putInt(8, writer.size() - cHeaderLength);
+    return writer;
+  }
+  
+  /**
+   * Write a packet as a frame to {@code ostream}.<br>
+   * The frame is written while holding the stream's lock, so frames of concurrent writers never interleave,
+   * even when spliced values take several calls to write.
+   * 
+   * @param packet
+   *   The packet
+   * @param ostream
+   *   The output stream
+   * @throws IOException
+   *   if the packet could not be serialized or an I/O error occurs
+   */
+  static public void write(IPacket packet, OutputStream ostream) throws IOException
+  {
+    write(packet, ostream, null);
+  }
+  
+  /**
+   * Write a packet as a frame to {@code ostream}, with property keys written as IDs of the sender's dictionary.<br>
+   * The frame is encoded and written while holding the stream's lock, so frames of concurrent writers never interleave,
+   * and reach the receiver in the order they were encoded.
+   * 
+   * @param packet
+   *   The packet
+   * @param ostream
+   *   The output stream
+   * @param keys
+   *   The sender's dictionary, or {@code null} to write keys in full
+   * @throws IOException
+   *   if the packet could not be serialized or an I/O error occurs
+   */
+  static public void write(IPacket packet, OutputStream ostream, KeyDictionary keys) throws IOException
+  {
+    if (keys == null)
+    {
+      BinaryWriter writer = encode(packet);
+      synchronized (ostream)
+      {
+        writer.writeTo(ostream);
+      }
+      return;
+    }
+    
+    synchronized (ostream)
+    {
+      encode(packet, keys).writeTo(ostream);
+    }
+  }
+  
+  /**
+   * Read a frame from {@code istream} and decode its packet.<br>
+   * If the stream has a read timeout that expires before the frame starts, the {@link SocketTimeoutException} is thrown.
+   * Once the frame started, reading carries on through timeouts, unless {@value #cMaxStalledReads} of them expire in a row.
+   * The stream is then left in the middle of the frame, so an {@link IOException} is thrown and the connection must be dropped.
+   * 
+   * @param istream
+   *   The input stream
+   * @return
+   *   the packet, or {@code null} if its class ID is not registered
+   * @throws IOException
+   *   if an I/O error occurs
+   * @throws KasException
+   *   if the frame is not a valid frame of the supported version, or its packet could not be decoded
+   */
+  static public IPacket read(InputStream istream) throws IOException, KasException
+  {
+    return read(istream, null);
+  }
+  
+  /**
+   * Read a frame from {@code istream} and decode its packet, reading property keys of a
+   * {@value #cVersionKeyed} frame from the receiver's dictionary.<br>
+   * If the stream has a read timeout that expires before the frame starts, the {@link SocketTimeoutException} is thrown.
+   * Once the frame started, reading carries on through timeouts, unless {@value #cMaxStalledReads} of them expire in a row.
+   * The stream is then left in the middle of the frame, so an {@link IOException} is thrown and the connection must be dropped.
+   * 
+   * @param istream
+   *   The input stream
+   * @param keys
+   *   The receiver's dictionary, or {@code null} if the sender does not use one
+   * @return
+   *   the packet, or {@code null} if its class ID is not registered
+   * @throws IOException
+   *   if an I/O error occurs
+   * @throws KasException
+   *   if the frame is not a valid frame of the supported versions, or its packet could not be decoded
+   */
+  static public IPacket read(InputStream istream, KeyDictionary keys) throws IOException, KasException
+  {
+    return read(istream, keys, cMaxPayloadLength);
+  }
+  
+  /**
+   * Read a frame from {@code istream} and decode its packet, rejecting frames whose payload is longer than {@code maxLength}.
+   * 
+   * @param istream
+   *   The input stream
+   * @param keys
+   *   The receiver's dictionary, or {@code null} if the sender does not use one
+   * @param maxLength
+   *   The maximum payload length
+   * @return
+   *   the packet, or {@code null} if its class ID is not registered
+   * @throws IOException
+   *   if an I/O error occurs
+   * @throws KasException
+   *   if the frame is not a valid frame of the supported versions, it's too long, or its packet could not be decoded
+   * 
+   * @see #read(InputStream, KeyDictionary)
+   */
+  static public IPacket read(InputStream istream, KeyDictionary keys, int maxLength) throws IOException, KasException
+  {
+    byte [] header = new byte [cHeaderLength];
+    readFully(istream, header, false);
+    int length = decodeHeader(header, 0, maxLength);
+    
+    ByteBuffer payload;
+    if (length < cDirectPayloadLength)
+    {
+      byte [] bytes = new byte [length];
+      readFully(istream, bytes, true);
+      payload = ByteBuffer.wrap(bytes);
+    }
+    else
+    {
+      payload = ByteBuffer.allocateDirect(length);
+      readFully(istream, payload);
+      payload.flip();
+    }
+    
+    IPacket packet = decode(payload, isKeyed(header, 0) ? dictionary(keys) : null);
+    if (packet != null)
+      packet.setRequestId(decodeRequestId(header, 0));
+    return packet;
+  }
+  
+  /**
+   * Verify a frame header and get the length of the payload that follows it
+   * 
+   * @param bytes
+   *   The bytes holding the header
+   * @param offset
+   *   The header offset. {@link #cHeaderLength} bytes must be available from it
+   * @return
+   *   the payload length
+   * @throws KasException
+   *   if the header is not a valid header of the supported version
+   */
+  static public int decodeHeader(byte [] bytes, int offset) throws KasException
+  {
+    return decodeHeader(bytes, offset, cMaxPayloadLength);
+  }
+  
+  /**
+   * Verify a frame header and get the length of the payload that follows it, which must not be longer than {@code maxLength}
+   * 
+   * @param bytes
+   *   The bytes holding the header
+   * @param offset
+   *   The header offset. {@link #cHeaderLength} bytes must be available from it
+   * @param maxLength
+   *   The maximum payload length. Lengths past {@link #cMaxPayloadLength} are rejected anyway
+   * @return
+   *   the payload length
+   * @throws KasException
+   *   if the header is not a valid header of the supported version, or the payload is too long
+   */
+  static public int decodeHeader(byte [] bytes, int offset, int maxLength) throws KasException
+  {
+    if ((bytes[offset] != cEyeCatcher[0]) || (bytes[offset + 1] != cEyeCatcher[1]) || (bytes[offset + 2] != cEyeCatcher[2]))
+      throw new KasException("Packet header failed verification, invalid eye-catcher");
+    if ((bytes[offset + 3] != cVersion) && (bytes[offset + 3] != cVersionKeyed))
+      throw new KasException("Unsupported packet format version: " + bytes[offset + 3]);
+    
+    int length = getInt(bytes, offset + 8);
+    if ((length <= 0) || (length > Math.min(maxLength, cMaxPayloadLength)))
+      throw new KasException("Invalid packet length: " + length);
+    return length;
+  }
+  
+  /**
+   * Get an indication whether a frame, whose header was verified by {@link #decodeHeader(byte[], int)},
+   * was encoded with a key dictionary
+   * 
+   * @param bytes
+   *   The bytes holding the header
+   * @param offset
+   *   The header offset
+   * @return
+   *   {@code true} if the frame's property keys are dictionary IDs, {@code false} otherwise
+   */
+  static public boolean isKeyed(byte [] bytes, int offset)
+  {
+    return bytes[offset + 3] == cVersionKeyed;
+  }
+  
+  /**
+   * Make sure there's a dictionary for a frame that was encoded with one
+   * 
+   * @param keys
+   *   The receiver's dictionary
+   * @return
+   *   {@code keys}
+   * @throws KasException
+   *   if {@code keys} is {@code null}
+   */
+  static private KeyDictionary dictionary(KeyDictionary keys) throws KasException
+  {
+    if (keys == null)
+      throw new KasException("Packet was encoded with a key dictionary, but the receiver has none");
+    return keys;
+  }
+  
+  /**
+   * Get the request ID from a frame header that was verified by {@link #decodeHeader(byte[], int)}
+   * 
+   * @param bytes
+   *   The bytes holding the header
+   * @param offset
+   *   The header offset
+   * @return
+   *   the request ID
+   */
+  static public int decodeRequestId(byte [] bytes, int offset)
+  {
+    return getInt(bytes, offset + 4);
+  }
+  
+  /**
+   * Get a big-endian integer
+   * 
+   * @param bytes
+   *   The bytes holding the integer
+   * @param offset
+   *   The integer offset
+   * @return
+   *   the integer
+   */
+  static private int getInt(byte [] bytes, int offset)
+  {
+    return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) |
+      ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+  }
+  
+  /**
+   * Decode a packet from its payload
+   * 
+   * @param bytes
+   *   The bytes holding the payload
+   * @param offset
+   *   The payload offset
+   * @param length
+   *   The payload length
+   * @return
+   *   the packet, or {@code null} if its class ID is not registered
+   * @throws KasException
+   *   if the packet could not be decoded
+   */
+  static public IPacket decode(byte [] bytes, int offset, int length) throws KasException
+  {
+    return decode(new BinaryReader(bytes, offset, length));
+  }
+  
+  /**
+   * Decode a packet from its payload.<br>
+   * Large values of the packet may be views of {@code payload}, so it must not be modified afterwards.
+   * 
+   * @param payload
+   *   The payload, from the buffer's position to its limit
+   * @return
+   *   the packet, or {@code null} if its class ID is not registered
+   * @throws KasException
+   *   if the packet could not be decoded
+   */
+  static public IPacket decode(ByteBuffer payload) throws KasException
+  {
+    return decode(new BinaryReader(payload));
+  }
+  
+  /**
+   * Decode a packet from the payload of a frame, whose header tells whether it was encoded with a key dictionary.<br>
+   * Keys the sender added to its dictionary are added to {@code keys} first.
+   * Large values of the packet may be views of {@code payload}, so it must not be modified afterwards.
+   * 
+   * @param payload
+   *   The payload, from the buffer's position to its limit
+   * @param keys
+   *   The receiver's dictionary if the frame was encoded with one, or {@code null}
+   * @return
+   *   the packet, or {@code null} if its class ID is not registered
+   * @throws KasException
+   *   if the key definitions are malformed or the packet could not be decoded
+   */
+  static public IPacket decode(ByteBuffer payload, KeyDictionary keys) throws KasException
+  {
+    if (keys == null)
+      return decode(payload);
+    
+    ByteBuffer body = payload.duplicate();
+    int end = payload.limit() - 4;
+    int length = end < payload.position() ? -1 : payload.getInt(end);
+    if ((length < 0) || (length > end - payload.position()))
+      throw new KasException("Invalid key definitions length: " + length);
+    
+    ByteBuffer definitions = payload.duplicate();
+    definitions.limit(end);
+    definitions.position(end - length);
+    BinaryReader reader = new BinaryReader(definitions);
+    try
+    {
+      int count = reader.readVarInt();
+      for (int i = 0; i < count; ++i)
+      {
+        String key = reader.readString();
+        if (key == null)
+          throw new IOException("Key definition " + i + " is null");
+        keys.define(key);
+      }
+    }
+    catch (IOException e)
+    {
+      throw new KasException("Failed to read key definitions", e);
+    }
+    keys.setActive();
+    
+    body.limit(end - length);
+    reader = new BinaryReader(body);
+    reader.setKeys(keys);
+    return decode(reader);
+  }
+  
+  /**
+   * Decode a packet from a reader positioned at its payload
+   * 
+   * @param reader
+   *   The reader
+   * @return
+   *   the packet, or {@code null} if its class ID is not registered
+   * @throws KasException
+   *   if the packet could not be decoded
+   */
+  static private IPacket decode(BinaryReader reader) throws KasException
+  {
+    IObject iObject;
+    try
+    {
+      iObject = Deserializer.deserialize(reader.readVarInt(), reader);
+    }
+    catch (IOException e)
+    {
+      throw new KasException("Failed to read packet class ID", e);
+    }
+    
+    if ((iObject != null) && !(iObject instanceof IPacket))
+      throw new KasException("Created object is not a valid IPacket");
+    return (IPacket)iObject;
+  }
+  
+  /**
+   * Serialize a packet's payload, without the frame header
+   * 
+   * @param packet
+   *   The packet
+   * @return
+   *   the payload
+   * @throws IOException
+   *   if the packet could not be serialized
+   */
+  static public byte [] toByteArray(IPacket packet) throws IOException
+  {
+    BinaryWriter writer = new BinaryWriter();
+    writePayload(packet, writer);
+    return writer.toByteArray();
+  }
+  
+  /**
+   * Fill {@code bytes} from {@code istream}
+   * 
+   * @param istream
+   *   The input stream
+   * @param bytes
+   *   The buffer to fill
+   * @param started
+   *   {@code true} if part of the frame was already read, so read timeouts should be retried
+   * @throws IOException
+   *   if the stream ended, the frame stalled or an I/O error occurs
+   */
+  static private void readFully(InputStream istream, byte [] bytes, boolean started) throws IOException
+  {
+    int total = 0;
+    int stalled = 0;
+    while (total < bytes.length)
+    {
+      try
+      {
+        int count = istream.read(bytes, total, bytes.length - total);
+        if (count < 0)
+          throw new EOFException("Stream ended after " + total + " of " + bytes.length + " bytes");
+        total += count;
+        stalled = 0;
+      }
+      catch (SocketTimeoutException e)
+      {
+        if (!started && (total == 0))
+          throw e;
+        if (++stalled >= cMaxStalledReads)
+          throw new IOException("Frame stalled after " + total + " of " + bytes.length + " bytes, no data for " + stalled + " read timeouts");
+      }
+    }
+  }
+  
+  /**
+   * Fill {@code buffer} from {@code istream}, once part of the frame was already read, so read timeouts are retried
+   * 
+   * @param istream
+   *   The input stream
+   * @param buffer
+   *   The buffer to fill, from its position to its limit
+   * @throws IOException
+   *   if the stream ended, the frame stalled or an I/O error occurs
+   */
+  static private void readFully(InputStream istream, ByteBuffer buffer) throws IOException
+  {
+    byte [] chunk = new byte [Math.min(cReadChunkLength, buffer.remaining())];
+    int stalled = 0;
+    while (buffer.hasRemaining())
+    {
+      try
+      {
+        int count = istream.read(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+        if (count < 0)
+          throw new EOFException("Stream ended with " + buffer.remaining() + " bytes left to read");
+        buffer.put(chunk, 0, count);
+        stalled = 0;
+      }
+      catch (SocketTimeoutException e)
+      {
+        if (++stalled >= cMaxStalledReads)
+          throw new IOException("Frame stalled with " + buffer.remaining() + " bytes left to read, no data for " + stalled + " read timeouts");
+      }
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package com.kas.comm.impl;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Utility methods for connections over Unix domain sockets.<br>
+ * <br>
+ * A Unix domain socket is designated by a host of the form {@value #cHostPrefix}<i>path</i>, where <i>path</i>
+ * is the socket file, and the port is ignored. Such hosts are accepted wherever a host name is, so a client
+ * running on the same host as the server connects over the socket just by being configured with it.<br>
+ * <br>
+ * Unix domain socket channels are available on Java 16 and later, and are looked up at run time.
+ * On earlier runtimes, {@link #isAvailable()} returns {@code false} and opening a channel throws.
+ * 
+ * @author Pippo
+ */
+public class UnixSockets
+{
+  /**
+   * The prefix of hosts designating a Unix domain socket
+   */
+  static public final String cHostPrefix = "unix:";
+  
+  /**
+   * {@code StandardProtocolFamily.UNIX}, {@code UnixDomainSocketAddress.of(String)}, {@code SocketChannel.open(ProtocolFamily)}
+   * and {@code ServerSocketChannel.open(ProtocolFamily)}, or {@code null} if not available
+   */
+  static private ProtocolFamily sUnixFamily = null;
+  static private Method sAddressOf = null;
+  static private Method sOpenChannel = null;
+  static private Method sOpenServerChannel = null;
+  
+  static
+  {
+    try
+    {
+      ProtocolFamily family = Enum.valueOf(StandardProtocolFamily.class, "UNIX");
+      sAddressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+      sOpenChannel = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+      sOpenServerChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+      sUnixFamily = family;
+    }
+    catch (IllegalArgumentException | ReflectiveOperationException e)
+    {
+      sUnixFamily = null;
+    }
+  }
+  
+  /**
+   * Get an indication whether Unix domain sockets are available on this runtime
+   * 
+   * @return
+   *   {@code true} if they are available, {@code false} otherwise
+   */
+  static public boolean isAvailable()
+  {
+    return sUnixFamily != null;
+  }
+  
+  /**
+   * Get an indication whether a host designates a Unix domain socket
+   * 
+   * @param host
+   *   The host
+   * @return
+   *   {@code true} if {@code host} is of the form {@value #cHostPrefix}<i>path</i>, {@code false} otherwise
+   */
+  static public boolean isUnixHost(String host)
+  {
+    return (host != null) && (host.length() > cHostPrefix.length()) && host.startsWith(cHostPrefix);
+  }
+  
+  /**
+   * Get the socket file of a host designating a Unix domain socket
+   * 
+   * @param host
+   *   The host
+   * @return
+   *   the path of the socket file
+   */
+  static public String getPath(String host)
+  {
+    return host.substring(cHostPrefix.length());
+  }
+  
+  /**
+   * Get an indication whether a channel is connected over a Unix domain socket
+   * 
+   * @param channel
+   *   The channel
+   * @return
+   *   {@code true} if the channel's address is not an Internet address, {@code false} otherwise
+   * @throws IOException
+   *   if the channel is closed
+   */
+  static public boolean isUnixChannel(SocketChannel channel) throws IOException
+  {
+    return !(channel.getLocalAddress() instanceof InetSocketAddress);
+  }
+  
+  /**
+   * Connect to a Unix domain socket
+   * 
+   * @param host
+   *   The host designating the socket
+   * @return
+   *   the connected channel, in blocking mode
+   * @throws IOException
+   *   if Unix domain sockets are not available, or the connection failed
+   */
+  static public SocketChannel connect(String host) throws IOException
+  {
+    SocketChannel channel = (SocketChannel)invoke(sOpenChannel, null, sUnixFamily);
+    try
+    {
+      channel.connect(toAddress(getPath(host)));
+    }
+    catch (IOException e)
+    {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+  
+  /**
+   * Listen on a Unix domain socket.<br>
+   * A socket file left over at {@code path}, e.g. by a server that was killed, is deleted first.
+   * 
+   * @param path
+   *   The path of the socket file
+   * @return
+   *   the bound channel, in blocking mode
+   * @throws IOException
+   *   if Unix domain sockets are not available, or the socket could not be bound
+   */
+  static public ServerSocketChannel bind(String path) throws IOException
+  {
+    ServerSocketChannel channel = (ServerSocketChannel)invoke(sOpenServerChannel, null, sUnixFamily);
+    try
+    {
+      Files.deleteIfExists(Paths.get(path));
+      channel.bind(toAddress(path));
+    }
+    catch (IOException e)
+    {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+  
+  /**
+   * Close a channel listening on a Unix domain socket and delete its socket file
+   * 
+   * @param channel
+   *   The channel
+   * @param path
+   *   The path of the socket file
+   * @throws IOException
+   *   if the channel could not be closed or the file could not be deleted
+   */
+  static public void unbind(ServerSocketChannel channel, String path) throws IOException
+  {
+    channel.close();
+    Files.deleteIfExists(Paths.get(path));
+  }
+  
+  /**
+   * Get the address of a socket file
+   * 
+   * @param path
+   *   The path of the socket file
+   * @return
+   *   the {@code UnixDomainSocketAddress}
+   * @throws IOException
+   *   if Unix domain sockets are not available
+   */
+  static private SocketAddress toAddress(String path) throws IOException
+  {
+    return (SocketAddress)invoke(sAddressOf, null, path);
+  }
+  
+  /**
+   * Invoke one of the looked up methods
+   * 
+   * @param method
+   *   The method
+   * @param target
+   *   The target object, or {@code null} for a static method
+   * @param arg
+   *   The argument
+   * @return
+   *   the value returned by the method
+   * @throws IOException
+   *   if Unix domain sockets are not available, or the method threw
+   */
+  static private Object invoke(Method method, Object target, Object arg) throws IOException
+  {
+    if (!isAvailable())
+      throw new IOException("Unix domain sockets are not available on Java " + System.getProperty("java.version"));
+    
+    try
+    {
+      return method.invoke(target, arg);
+    }
+    catch (InvocationTargetException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException)cause;
+      throw new IOException(cause);
+    }
+    catch (IllegalAccessException e)
+    {
+      throw new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.kas.comm.serializer;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import com.kas.comm.IPacket;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.KasException;
+
+/**
+ * A {@link ConstructorPacketFactory} constructs packets with the public constructors of their class
+ * that take a {@link BinaryReader} or an {@link ObjectInputStream}.<br>
+ * <br>
+ * The constructors are looked up once, when the factory is created, and are invoked through {@link MethodHandle method handles}
+ * adapted to return an {@link IPacket}, so no reflective lookup or access check is done per packet.
+ * 
+ * @author Pippo
+ */
+public class ConstructorPacketFactory implements IPacketFactory
+{
+  /**
+   * The constructors, as {@code (BinaryReader)IPacket} and {@code (ObjectInputStream)IPacket}
+   */
+  private final MethodHandle mReaderConstructor;
+  private final MethodHandle mStreamConstructor;
+  
+  /**
+   * Construct a {@link ConstructorPacketFactory}, looking up the constructors of {@code cls}
+   * 
+   * @param cls
+   *   The packet class
+   * @throws KasException
+   *   if the class does not have both constructors, or they are not accessible
+   */
+  public ConstructorPacketFactory(Class<? extends IPacket> cls) throws KasException
+  {
+    mReaderConstructor = find(cls, BinaryReader.class);
+    mStreamConstructor = find(cls, ObjectInputStream.class);
+  }
+  
+  /**
+   * Look up a public single-argument constructor and adapt it to return an {@link IPacket}
+   * 
+   * @param cls
+   *   The packet class
+   * @param argument
+   *   The constructor's argument type
+   * @return
+   *   the adapted method handle
+   * @throws KasException
+   *   if there's no such constructor or it's not accessible
+   */
+  static private MethodHandle find(Class<? extends IPacket> cls, Class<?> argument) throws KasException
+  {
+    try
+    {
+      MethodHandle ctor = MethodHandles.publicLookup().findConstructor(cls, MethodType.methodType(void.class, argument));
+      return ctor.asType(MethodType.methodType(IPacket.class, argument));
+    }
+    catch (NoSuchMethodException | IllegalAccessException e)
+    {
+      throw new KasException("Failed to find or access constructor " + cls.getName() + "(" + argument.getSimpleName() + ")", e);
+    }
+  }
+  
+  /**
+   * Construct a packet from its binary form
+   * 
+   * @param reader
+   *   The {@link BinaryReader} positioned at the packet's fields
+   * @return
+   *   the packet
+   * @throws IOException
+   *   if the packet could not be read
+   */
+  public IPacket create(BinaryReader reader) throws IOException
+  {
+    try
+    {
+      return (IPacket)mReaderConstructor.invokeExact(reader);
+    }
+    catch (IOException | RuntimeException | Error e)
+    {
+      throw e;
+    }
+    catch (Throwable e)
+    {
+      throw new IOException(e);
+    }
+  }
+  
+  /**
+   * Construct a packet from its Java serialization form
+   * 
+   * @param istream
+   *   The {@link ObjectInputStream} positioned at the packet's fields
+   * @return
+   *   the packet
+   * @throws IOException
+   *   if the packet could not be read
+   */
+  public IPacket create(ObjectInputStream istream) throws IOException
+  {
+    try
+    {
+      return (IPacket)mStreamConstructor.invokeExact(istream);
+    }
+    catch (IOException | RuntimeException | Error e)
+    {
+      throw e;
+    }
+    catch (Throwable e)
+    {
+      throw new IOException(e);
+    }
+  }
+}
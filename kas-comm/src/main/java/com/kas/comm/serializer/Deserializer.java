@@ -1,17 +1,19 @@
 package com.kas.comm.serializer;
 
 import java.io.ObjectInputStream;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.kas.comm.IPacket;
 import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.BinaryReader;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.KasException;
 
 /**
- * An object that is responsible for deserialization
+ * An object that is responsible for deserialization<br>
+ * <br>
+ * Each registered class gets an {@link IPacketFactory}, resolved once when the class is registered,
+ * so deserializing a packet does not look up or check access to its constructor.
  * 
  * @author Pippo
  */
@@ -43,6 +45,12 @@ public class Deserializer extends AKasObject
    */
   private ClassIdMap mClassesMap;
   
+  /**
+   * Packet factories, indexed by the ordinal of their class ID.
+   * Replaced as a whole on registration, so deserialization reads it without locking
+   */
+  private volatile IPacketFactory [] mFactories;
+  
   /**
    * Construct the {@link Deserializer}
    */
@@ -50,6 +58,7 @@ public class Deserializer extends AKasObject
   {
     mLogger = LogManager.getLogger(getClass());
     mClassesMap = new ClassIdMap();
+    mFactories = new IPacketFactory[EClassId.values().length];
   }
   
   /**
@@ -70,28 +79,59 @@ public class Deserializer extends AKasObject
     
     Object object = null;
     
-    Class<? extends IPacket> cls = mClassesMap.get(id);
-    if (cls == null)
+    IPacketFactory factory = mFactories[id.ordinal()];
+    if (factory == null)
     {
       mLogger.trace("Deserializer::deserialize() - Unknown class ID={}", id);
     }
     else
     {
-      String className = cls.getName();
-      mLogger.trace("Deserializer::deserialize() - Deserializing object with class ID={}, ClassName=[{}]", id, className);
+      mLogger.trace("Deserializer::deserialize() - Deserializing object with class ID={}", id);
       
       try
       {
-        Constructor<?> ctor = cls.getConstructor(ObjectInputStream.class);
-        object = ctor.newInstance(istream);
+        object = factory.create(istream);
       }
-      catch (NoSuchMethodException | SecurityException e)
+      catch (Throwable e)
       {
-        throw new KasException("Failed to find or access constructor " + className + "(ObjectInputStream)", e);
+        throw new KasException("Exception caught during deserialization of class with ID: (" + id + ")", e);
       }
-      catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e)
+    }
+    
+    mLogger.trace("Deserializer::deserialize() - OUT");
+    return (IObject)object;
+  }
+  
+  /**
+   * Deserialize an object with class id {@code id} from {@code reader}.
+   * 
+   * @param id
+   *   The class ID as defined in configuration
+   * @param reader
+   *   The {@link BinaryReader} which holds the object to be deserialized
+   * @return
+   *   a {@link IObject} that was dynamically reconstructed from the reader
+   * @throws KasException
+   *   if some sort of reflection error occurred
+   */
+  private IObject deserializeObjectWithId(EClassId id, BinaryReader reader) throws KasException
+  {
+    mLogger.trace("Deserializer::deserialize() - IN, ID={}", id);
+    
+    Object object = null;
+    
+    IPacketFactory factory = mFactories[id.ordinal()];
+    if (factory == null)
+    {
+      mLogger.trace("Deserializer::deserialize() - Unknown class ID={}", id);
+    }
+    else
+    {
+      mLogger.trace("Deserializer::deserialize() - Deserializing object with class ID={}", id);
+      
+      try
       {
-        throw new KasException("Failed to instantiate " + className, e);
+        object = factory.create(reader);
       }
       catch (Throwable e)
       {
@@ -104,14 +144,15 @@ public class Deserializer extends AKasObject
   }
   
   /**
-   * Register an {@link IPacket} class with associated ID
+   * Register an {@link IPacket} class with associated ID.<br>
+   * <br>
+   * The class is deserialized by its public constructors that take a {@link BinaryReader} and an {@link ObjectInputStream},
+   * which are looked up now. If either is missing, the class is not registered.
    * 
    * @param newClass
    *   The class
    * @param newId
    *   The associated ID
-   * @return
-   *   the old class that was associated with the specified ID
    */
   public void register(Class<? extends IPacket> newClass, EClassId newId)
   {
@@ -123,12 +164,54 @@ public class Deserializer extends AKasObject
     }
     else
     {
-      mClassesMap.put(newId, newClass);
+      try
+      {
+        register(newClass, newId, new ConstructorPacketFactory(newClass));
+      }
+      catch (KasException e)
+      {
+        mLogger.warn("Class [{}] is not valid for registration with Serializing mechanism. Exception: ", newClass.getName(), e);
+      }
     }
     
     mLogger.trace("Deserializer::register() - OUT");
   }
   
+  /**
+   * Register an {@link IPacket} class with associated ID, and the factory that constructs its packets
+   * 
+   * @param newClass
+   *   The class
+   * @param newId
+   *   The associated ID
+   * @param factory
+   *   The factory that constructs packets of the class
+   */
+  public synchronized void register(Class<? extends IPacket> newClass, EClassId newId, IPacketFactory factory)
+  {
+    mLogger.trace("Deserializer::register() - IN, ID={}, Class=[{}], Factory=[{}]", newId, newClass.getName(), factory.getClass().getName());
+    
+    IPacketFactory [] factories = mFactories.clone();
+    factories[newId.ordinal()] = factory;
+    mFactories = factories;
+    mClassesMap.put(newId, newClass);
+    
+    mLogger.trace("Deserializer::register() - OUT");
+  }
+  
+  /**
+   * Get the class registered with the specified ID
+   * 
+   * @param id
+   *   The class ID
+   * @return
+   *   the class, or {@code null} if no class is registered with that ID
+   */
+  public Class<? extends IPacket> getRegisteredClass(EClassId id)
+  {
+    return mClassesMap.get(id);
+  }
+  
   /**
    * Deserialize {@link IObject} with class ID {@code id} from input stream {@code istream}
    * 
@@ -149,6 +232,27 @@ public class Deserializer extends AKasObject
     
     return deserializer.deserializeObjectWithId(clsid, istream);
   }
+  
+  /**
+   * Deserialize {@link IObject} with class ID {@code id} from {@code reader}
+   * 
+   * @param id
+   *   The object's class ID
+   * @param reader
+   *   The binary reader
+   * @return
+   *   the {@link IObject} that was deserialized
+   */
+  static public IObject deserialize(int id, BinaryReader reader) throws KasException
+  {
+    Deserializer deserializer = Deserializer.getInstance();
+    
+    EClassId clsid = EClassId.fromInt(id);
+    if (clsid == EClassId.cUnknown)
+      return null;
+    
+    return deserializer.deserializeObjectWithId(clsid, reader);
+  }
 
   /**
    * Returns the {@link IObject} string representation.
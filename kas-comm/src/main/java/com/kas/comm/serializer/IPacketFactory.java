@@ -0,0 +1,41 @@
+package com.kas.comm.serializer;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import com.kas.comm.IPacket;
+import com.kas.infra.base.BinaryReader;
+
+/**
+ * A packet factory constructs the packets of one class, from either of their serialized forms.<br>
+ * <br>
+ * The {@link Deserializer} keeps a factory for each registered {@link EClassId}, resolved when the class
+ * is registered, so decoding a packet costs a single call rather than a reflective lookup.
+ * 
+ * @author Pippo
+ */
+public interface IPacketFactory
+{
+  /**
+   * Construct a packet from its binary form
+   * 
+   * @param reader
+   *   The {@link BinaryReader} positioned at the packet's fields
+   * @return
+   *   the packet
+   * @throws IOException
+   *   if the packet could not be read
+   */
+  public abstract IPacket create(BinaryReader reader) throws IOException;
+  
+  /**
+   * Construct a packet from its Java serialization form
+   * 
+   * @param istream
+   *   The {@link ObjectInputStream} positioned at the packet's fields
+   * @return
+   *   the packet
+   * @throws IOException
+   *   if the packet could not be read
+   */
+  public abstract IPacket create(ObjectInputStream istream) throws IOException;
+}
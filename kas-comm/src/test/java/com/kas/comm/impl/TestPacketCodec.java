@@ -0,0 +1,224 @@
+package com.kas.comm.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.comm.IPacket;
+import com.kas.comm.serializer.Deserializer;
+import com.kas.comm.serializer.EClassId;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.BinaryWriter;
+import com.kas.infra.base.KasException;
+
+public class TestPacketCodec
+{
+  // a minimal packet, registered under a class ID no real packet uses
+  static public class TestPacket extends AKasObject implements IPacket
+  {
+    private String mBody;
+    private int mRequestId = 0;
+    
+    public TestPacket(String body)
+    {
+      mBody = body;
+    }
+    
+    public TestPacket(BinaryReader reader) throws IOException
+    {
+      mBody = reader.readString();
+    }
+    
+    public TestPacket(ObjectInputStream istream) throws IOException
+    {
+      mBody = istream.readUTF();
+    }
+    
+    public PacketHeader createHeader()
+    {
+      return new PacketHeader(EClassId.cPlaceHolder00);
+    }
+    
+    public void setRequestId(int id)
+    {
+      mRequestId = id;
+    }
+    
+    public int getRequestId()
+    {
+      return mRequestId;
+    }
+    
+    public void serialize(BinaryWriter writer) throws IOException
+    {
+      writer.writeString(mBody);
+    }
+    
+    public void serialize(ObjectOutputStream ostream) throws IOException
+    {
+      ostream.writeUTF(mBody);
+    }
+    
+    public String getBody()
+    {
+      return mBody;
+    }
+    
+    public String toPrintableString(int level)
+    {
+      return mBody;
+    }
+  }
+  
+  // a stream over a frame, whose reads time out or return a few bytes as scripted, and time out once the script ends
+  static private class ScriptedInputStream extends InputStream
+  {
+    private byte [] mBytes;
+    private int mPosition = 0;
+    private ArrayDeque<Integer> mScript = new ArrayDeque<Integer>();
+    
+    ScriptedInputStream(byte [] bytes, int ... script)
+    {
+      mBytes = bytes;
+      for (int step : script)
+        mScript.add(step);
+    }
+    
+    public int read() throws IOException
+    {
+      byte [] one = new byte [1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+    
+    public int read(byte [] bytes, int offset, int length) throws IOException
+    {
+      Integer step = mScript.poll();
+      if ((step == null) || (step == 0))
+        throw new SocketTimeoutException("Read timed out");
+      if (mPosition == mBytes.length)
+        return -1;
+      int count = Math.min(Math.min(step, length), mBytes.length - mPosition);
+      System.arraycopy(mBytes, mPosition, bytes, offset, count);
+      mPosition += count;
+      return count;
+    }
+  }
+  
+  @Before
+  public void setUp()
+  {
+    Deserializer.getInstance().register(TestPacket.class, EClassId.cPlaceHolder00);
+  }
+  
+  private TestPacket newPacket(String body, int requestId)
+  {
+    TestPacket packet = new TestPacket(body);
+    packet.setRequestId(requestId);
+    return packet;
+  }
+  
+  @Test
+  public void testRequestIdInHeader() throws IOException, KasException
+  {
+    byte [] frame = PacketCodec.encode(newPacket("hello", 42)).toByteArray();
+    
+    Assert.assertEquals( frame.length - PacketCodec.cHeaderLength, PacketCodec.decodeHeader(frame, 0) );
+    Assert.assertEquals( 42, PacketCodec.decodeRequestId(frame, 0) );
+    Assert.assertFalse ( PacketCodec.isKeyed(frame, 0) );
+  }
+  
+  @Test
+  public void testRequestIdRoundTrip() throws IOException, KasException
+  {
+    byte [] first = PacketCodec.encode(newPacket("first", Integer.MAX_VALUE)).toByteArray();
+    byte [] second = PacketCodec.encode(newPacket("second", 0)).toByteArray();
+    byte [] frames = new byte [first.length + second.length];
+    System.arraycopy(first, 0, frames, 0, first.length);
+    System.arraycopy(second, 0, frames, first.length, second.length);
+    
+    ByteArrayInputStream istream = new ByteArrayInputStream(frames);
+    TestPacket packet = (TestPacket)PacketCodec.read(istream);
+    Assert.assertEquals( "first", packet.getBody() );
+    Assert.assertEquals( Integer.MAX_VALUE, packet.getRequestId() );
+    packet = (TestPacket)PacketCodec.read(istream);
+    Assert.assertEquals( "second", packet.getBody() );
+    Assert.assertEquals( 0, packet.getRequestId() );
+  }
+  
+  @Test(expected = KasException.class)
+  public void testUnsupportedVersion() throws IOException, KasException
+  {
+    byte [] frame = PacketCodec.encode(newPacket("hello", 1)).toByteArray();
+    frame[3] = 1;
+    PacketCodec.read(new ByteArrayInputStream(frame));
+  }
+  
+  @Test
+  public void testFrameLongerThanLimit() throws IOException, KasException
+  {
+    byte [] frame = PacketCodec.encode(newPacket("hello", 1)).toByteArray();
+    int length = frame.length - PacketCodec.cHeaderLength;
+    Assert.assertEquals( "hello", ((TestPacket)PacketCodec.read(new ByteArrayInputStream(frame), null, length)).getBody() );
+    try
+    {
+      PacketCodec.read(new ByteArrayInputStream(frame), null, length - 1);
+      Assert.fail("Frame longer than the limit was read");
+    }
+    catch (KasException e) {}
+  }
+  
+  @Test(expected = SocketTimeoutException.class)
+  public void testTimeoutBeforeFrame() throws IOException, KasException
+  {
+    byte [] frame = PacketCodec.encode(newPacket("hello", 1)).toByteArray();
+    PacketCodec.read(new ScriptedInputStream(frame, 0, frame.length));
+  }
+  
+  @Test
+  public void testTimeoutsWithinFrameRetried() throws IOException, KasException
+  {
+    byte [] frame = PacketCodec.encode(newPacket("hello", 1)).toByteArray();
+    TestPacket packet = (TestPacket)PacketCodec.read(new ScriptedInputStream(frame, 5, 0, 0, 10, 0, 0, frame.length));
+    Assert.assertEquals( "hello", packet.getBody() );
+  }
+  
+  @Test
+  public void testStalledFrame() throws IOException, KasException
+  {
+    byte [] frame = PacketCodec.encode(newPacket("hello", 1)).toByteArray();
+    try
+    {
+      PacketCodec.read(new ScriptedInputStream(frame, PacketCodec.cHeaderLength, 2));
+      Assert.fail("Stalled frame was read");
+    }
+    catch (IOException e)
+    {
+      Assert.assertFalse( e instanceof SocketTimeoutException );
+    }
+  }
+  
+  @Test
+  public void testStalledLargeFrame() throws IOException, KasException
+  {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < PacketCodec.cDirectPayloadLength)
+      sb.append("0123456789");
+    byte [] frame = PacketCodec.encode(newPacket(sb.toString(), 1)).toByteArray();
+    try
+    {
+      PacketCodec.read(new ScriptedInputStream(frame, PacketCodec.cHeaderLength, 1024, 0, 0, 1024));
+      Assert.fail("Stalled frame was read");
+    }
+    catch (IOException e)
+    {
+      Assert.assertFalse( e instanceof SocketTimeoutException );
+    }
+  }
+}
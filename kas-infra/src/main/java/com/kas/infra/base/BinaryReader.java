@@ -0,0 +1,483 @@
+package com.kas.infra.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * A {@link BinaryReader} reads the values written by a {@link BinaryWriter} from a byte array or a {@link ByteBuffer}.<br>
+ * <br>
+ * Every read is checked against the end of the data, so a truncated or corrupted input ends with
+ * an {@link IOException} rather than with a runaway allocation.<br>
+ * <br>
+ * {@link #readBuffer()} returns a view of the data rather than a copy, so large values can be passed on
+ * without ever being copied to the heap. The data must not be modified for as long as such views are in use.<br>
+ * <br>
+ * Property keys are read with {@link #readKey()}, from the reader's {@link KeyDictionary} if it was given one.
+ * 
+ * @author Pippo
+ */
+public class BinaryReader
+{
+  /**
+   * The data, the position of the next byte to read and the position past the last byte
+   */
+  private ByteBuffer mBuffer;
+  private int mPosition;
+  private int mLimit;
+  
+  /**
+   * The dictionary property keys are read with, if any
+   */
+  private KeyDictionary mKeys = null;
+  
+  /**
+   * Construct a {@link BinaryReader} reading the whole of {@code bytes}
+   * 
+   * @param bytes
+   *   The data
+   */
+  public BinaryReader(byte [] bytes)
+  {
+    this(bytes, 0, bytes.length);
+  }
+  
+  /**
+   * Construct a {@link BinaryReader} reading part of {@code bytes}
+   * 
+   * @param bytes
+   *   The data
+   * @param offset
+   *   The offset of the first byte to read
+   * @param length
+   *   The number of bytes to read
+   */
+  public BinaryReader(byte [] bytes, int offset, int length)
+  {
+    mBuffer = ByteBuffer.wrap(bytes);
+    mPosition = offset;
+    mLimit = offset + length;
+  }
+  
+  /**
+   * Construct a {@link BinaryReader} reading {@code buffer} from its position to its limit.<br>
+   * The buffer's position is not changed.
+   * 
+   * @param buffer
+   *   The data, in a heap, direct or mapped buffer
+   */
+  public BinaryReader(ByteBuffer buffer)
+  {
+    mBuffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    mPosition = buffer.position();
+    mLimit = buffer.limit();
+  }
+  
+  /**
+   * Make sure {@code length} more bytes can be read
+   * 
+   * @param length
+   *   The number of bytes about to be read
+   * @throws EOFException
+   *   if there are fewer bytes left
+   */
+  private void require(int length) throws EOFException
+  {
+    if ((length < 0) || (length > mLimit - mPosition))
+      throw new EOFException("Truncated input: " + length + " bytes required, " + (mLimit - mPosition) + " left");
+  }
+  
+  /**
+   * Get the number of bytes left to read
+   * 
+   * @return
+   *   the number of bytes left
+   */
+  public int remaining()
+  {
+    return mLimit - mPosition;
+  }
+  
+  /**
+   * Read a single byte
+   * 
+   * @return
+   *   the byte
+   * @throws IOException
+   *   if there's no more data
+   */
+  public byte readByte() throws IOException
+  {
+    require(1);
+    return mBuffer.get(mPosition++);
+  }
+  
+  /**
+   * Read bytes written as they are
+   * 
+   * @param length
+   *   The number of bytes
+   * @return
+   *   the bytes
+   * @throws IOException
+   *   if there are fewer bytes left
+   */
+  public byte [] readRaw(int length) throws IOException
+  {
+    require(length);
+    byte [] bytes = new byte [length];
+    ByteBuffer source = mBuffer.duplicate();
+    source.position(mPosition);
+    source.get(bytes);
+    mPosition += length;
+    return bytes;
+  }
+  
+  /**
+   * Get a view of the next {@code length} bytes, without copying them
+   * 
+   * @param length
+   *   The number of bytes
+   * @return
+   *   a buffer sharing the bytes with the data, positioned at the first of them and limited to the last
+   * @throws IOException
+   *   if there are fewer bytes left
+   */
+  public ByteBuffer readView(int length) throws IOException
+  {
+    require(length);
+    ByteBuffer view = mBuffer.duplicate();
+    view.limit(mPosition + length);
+    view.position(mPosition);
+    mPosition += length;
+    return view.slice();
+  }
+  
+  /**
+   * Read a boolean
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if there's no more data
+   */
+  public boolean readBool() throws IOException
+  {
+    return readByte() != 0;
+  }
+  
+  /**
+   * Read a 4-byte big-endian integer
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if there are fewer than 4 bytes left
+   */
+  public int readInt() throws IOException
+  {
+    require(4);
+    int value = mBuffer.getInt(mPosition);
+    mPosition += 4;
+    return value;
+  }
+  
+  /**
+   * Read an 8-byte big-endian long
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if there are fewer than 8 bytes left
+   */
+  public long readLong() throws IOException
+  {
+    long high = readInt() & 0xFFFFFFFFL;
+    long low = readInt() & 0xFFFFFFFFL;
+    return (high << 32) | low;
+  }
+  
+  /**
+   * Read an unsigned variable length integer
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if the data ends or the value is longer than 5 bytes
+   */
+  public int readVarInt() throws IOException
+  {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7)
+    {
+      byte b = readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+  
+  /**
+   * Read an unsigned variable length long
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if the data ends or the value is longer than 10 bytes
+   */
+  public long readVarLong() throws IOException
+  {
+    long value = 0;
+    for (int shift = 0; shift < 70; shift += 7)
+    {
+      byte b = readByte();
+      value |= (long)(b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IOException("Malformed variable length long");
+  }
+  
+  /**
+   * Read a zig-zag encoded signed variable length integer
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if the data ends or the value is malformed
+   */
+  public int readSignedVarInt() throws IOException
+  {
+    int value = readVarInt();
+    return (value >>> 1) ^ -(value & 1);
+  }
+  
+  /**
+   * Read a zig-zag encoded signed variable length long
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if the data ends or the value is malformed
+   */
+  public long readSignedVarLong() throws IOException
+  {
+    long value = readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+  
+  /**
+   * Read a float
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if there are fewer than 4 bytes left
+   */
+  public float readFloat() throws IOException
+  {
+    return Float.intBitsToFloat(readInt());
+  }
+  
+  /**
+   * Read a double
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if there are fewer than 8 bytes left
+   */
+  public double readDouble() throws IOException
+  {
+    return Double.longBitsToDouble(readLong());
+  }
+  
+  /**
+   * Read a string
+   * 
+   * @return
+   *   the string, or {@code null}
+   * @throws IOException
+   *   if the data ends or the length is malformed
+   */
+  public String readString() throws IOException
+  {
+    int length = readVarInt() - 1;
+    if (length == -1)
+      return null;
+    
+    if (!mBuffer.hasArray())
+      return new String(readRaw(length), StandardCharsets.UTF_8);
+    
+    require(length);
+    String value = new String(mBuffer.array(), mBuffer.arrayOffset() + mPosition, length, StandardCharsets.UTF_8);
+    mPosition += length;
+    return value;
+  }
+  
+  /**
+   * Set the dictionary property keys are read with
+   * 
+   * @param keys
+   *   The dictionary, or {@code null} if keys were written in full
+   */
+  public void setKeys(KeyDictionary keys)
+  {
+    mKeys = keys;
+  }
+  
+  /**
+   * Read a property key written by {@link BinaryWriter#writeKey(String)}
+   * 
+   * @return
+   *   the key, or {@code null}
+   * @throws IOException
+   *   if the data ends, the length is malformed or the key ID is not in the dictionary
+   */
+  public String readKey() throws IOException
+  {
+    if (mKeys == null)
+      return readString();
+    
+    int value = readVarInt();
+    if (value == 0)
+      return null;
+    
+    if ((value & 1) != 0)
+    {
+      String key = mKeys.keyOf(value >>> 1);
+      if (key == null)
+        throw new IOException("Unknown key ID: " + (value >>> 1));
+      return key;
+    }
+    
+    int length = (value >>> 1) - 1;
+    return new String(readRaw(length), StandardCharsets.UTF_8).intern();
+  }
+  
+  /**
+   * Read a byte array
+   * 
+   * @return
+   *   the byte array, or {@code null}
+   * @throws IOException
+   *   if the data ends or the length is malformed
+   */
+  public byte [] readBytes() throws IOException
+  {
+    int length = readVarInt() - 1;
+    if (length == -1)
+      return null;
+    return readRaw(length);
+  }
+  
+  /**
+   * Read a byte array as a view of the data, without copying it
+   * 
+   * @return
+   *   a buffer sharing the bytes with the data, or {@code null}
+   * @throws IOException
+   *   if the data ends or the length is malformed
+   */
+  public ByteBuffer readBuffer() throws IOException
+  {
+    int length = readVarInt() - 1;
+    if (length == -1)
+      return null;
+    return readView(length);
+  }
+  
+  /**
+   * Read a {@link UniqueId}
+   * 
+   * @return
+   *   the unique ID
+   * @throws IOException
+   *   if there are fewer than 16 bytes left
+   */
+  public UniqueId readUniqueId() throws IOException
+  {
+    long high = readLong();
+    long low = readLong();
+    return new UniqueId(new UUID(high, low));
+  }
+  
+  /**
+   * Read a value written by {@link BinaryWriter#writeObject(Object)}
+   * 
+   * @return
+   *   the value, or {@code null}
+   * @throws IOException
+   *   if the data ends, the type tag is unknown or the value could not be deserialized
+   */
+  public Object readObject() throws IOException
+  {
+    byte type = readByte();
+    switch (type)
+    {
+      case BinaryWriter.cTypeNull:
+        return null;
+      case BinaryWriter.cTypeString:
+        return readString();
+      case BinaryWriter.cTypeInt:
+        return readSignedVarInt();
+      case BinaryWriter.cTypeLong:
+        return readSignedVarLong();
+      case BinaryWriter.cTypeBool:
+        return readBool();
+      case BinaryWriter.cTypeByte:
+        return readByte();
+      case BinaryWriter.cTypeShort:
+        return (short)readSignedVarInt();
+      case BinaryWriter.cTypeChar:
+        return (char)readVarInt();
+      case BinaryWriter.cTypeFloat:
+        return readFloat();
+      case BinaryWriter.cTypeDouble:
+        return readDouble();
+      case BinaryWriter.cTypeBytes:
+        return readBytes();
+      case BinaryWriter.cTypeUniqueId:
+        return readUniqueId();
+      case BinaryWriter.cTypeJava:
+        return readJavaObject();
+      default:
+        throw new IOException("Unknown value type: " + type);
+    }
+  }
+  
+  /**
+   * Read a value written with Java serialization
+   * 
+   * @return
+   *   the value
+   * @throws IOException
+   *   if the value could not be deserialized
+   */
+  private Object readJavaObject() throws IOException
+  {
+    byte [] bytes = readBytes();
+    if (bytes == null)
+      return null;
+    
+    ObjectInputStream istream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    try
+    {
+      return istream.readObject();
+    }
+    catch (ClassNotFoundException e)
+    {
+      throw new IOException(e);
+    }
+    finally
+    {
+      istream.close();
+    }
+  }
+}
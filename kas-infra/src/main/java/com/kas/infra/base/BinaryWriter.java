@@ -0,0 +1,642 @@
+package com.kas.infra.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link BinaryWriter} writes values in a compact binary form into a growing byte array.<br>
+ * <br>
+ * Integers are written as variable length quantities (7 bits per byte, least significant group first),
+ * so small values take a single byte. Signed values are zig-zag encoded first, so small negative values
+ * are short too. Strings and byte arrays are prefixed by their length plus one, leaving zero for {@code null}.<br>
+ * <br>
+ * Buffers of at least {@value #cSpliceLength} bytes passed to {@link #writeBuffer(ByteBuffer)} are not copied:
+ * they are spliced into the output, and {@link #toByteBuffers()} returns them as they are between the bytes
+ * written around them, ready for a gather write.<br>
+ * <br>
+ * Property keys are written with {@link #writeKey(String)}. If the writer was given a {@link KeyDictionary},
+ * a key is written as its dictionary ID, and otherwise in full, the same way as any other string.<br>
+ * <br>
+ * The values are read back by {@link BinaryReader}.
+ * 
+ * @author Pippo
+ */
+public class BinaryWriter
+{
+  /**
+   * Type tags of values written by {@link #writeObject(Object)}
+   */
+  static final byte cTypeNull     = 0;
+  static final byte cTypeString   = 1;
+  static final byte cTypeInt      = 2;
+  static final byte cTypeLong     = 3;
+  static final byte cTypeBool     = 4;
+  static final byte cTypeByte     = 5;
+  static final byte cTypeShort    = 6;
+  static final byte cTypeChar     = 7;
+  static final byte cTypeFloat    = 8;
+  static final byte cTypeDouble   = 9;
+  static final byte cTypeBytes    = 10;
+  static final byte cTypeUniqueId = 11;
+  static final byte cTypeJava     = 127;
+  
+  /**
+   * Buffers this long or longer are spliced into the output rather than copied
+   */
+  static public final int cSpliceLength = 32 * 1024;
+  
+  /**
+   * Size of the chunks spliced direct buffers are copied in when written to a stream
+   */
+  static private final int cStreamChunkLength = 64 * 1024;
+  
+  /**
+   * The buffer and the number of bytes written to it
+   */
+  private byte [] mBuffer;
+  private int mCount;
+  
+  /**
+   * Spliced buffers, the number of buffer bytes written before each of them, and their total length
+   */
+  private List<ByteBuffer> mSplices = null;
+  private List<Integer> mSpliceOffsets = null;
+  private int mSplicedLength = 0;
+  
+  /**
+   * The dictionary property keys are written with, if any
+   */
+  private KeyDictionary mKeys = null;
+  
+  /**
+   * Construct a {@link BinaryWriter} with a default initial capacity
+   */
+  public BinaryWriter()
+  {
+    this(256);
+  }
+  
+  /**
+   * Construct a {@link BinaryWriter}
+   * 
+   * @param capacity
+   *   The initial capacity, in bytes
+   */
+  public BinaryWriter(int capacity)
+  {
+    mBuffer = new byte [Math.max(16, capacity)];
+    mCount = 0;
+  }
+  
+  /**
+   * Make room for {@code length} more bytes
+   * 
+   * @param length
+   *   The number of bytes about to be written
+   */
+  private void ensure(int length)
+  {
+    int required = mCount + length;
+    if (required < 0)
+      throw new OutOfMemoryError("BinaryWriter capacity exceeded");
+    
+    if (required > mBuffer.length)
+      mBuffer = Arrays.copyOf(mBuffer, Math.max(required, mBuffer.length << 1));
+  }
+  
+  /**
+   * Write a single byte
+   * 
+   * @param value
+   *   The byte, in the lower 8 bits of {@code value}
+   */
+  public void writeByte(int value)
+  {
+    ensure(1);
+    mBuffer[mCount++] = (byte)value;
+  }
+  
+  /**
+   * Write bytes as they are, without a length prefix
+   * 
+   * @param bytes
+   *   The bytes
+   * @param offset
+   *   The offset of the first byte
+   * @param length
+   *   The number of bytes
+   */
+  public void writeRaw(byte [] bytes, int offset, int length)
+  {
+    ensure(length);
+    System.arraycopy(bytes, offset, mBuffer, mCount, length);
+    mCount += length;
+  }
+  
+  /**
+   * Write a boolean as a single byte
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeBool(boolean value)
+  {
+    writeByte(value ? 1 : 0);
+  }
+  
+  /**
+   * Write a 4-byte big-endian integer
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeInt(int value)
+  {
+    ensure(4);
+    putInt(mCount, value);
+    mCount += 4;
+  }
+  
+  /**
+   * Overwrite a 4-byte big-endian integer that was already written, e.g. a length that's known only later
+   * 
+   * @param position
+   *   The position of the integer. It must precede all spliced buffers
+   * @param value
+   *   The value
+   */
+  public void putInt(int position, int value)
+  {
+    mBuffer[position]     = (byte)(value >>> 24);
+    mBuffer[position + 1] = (byte)(value >>> 16);
+    mBuffer[position + 2] = (byte)(value >>> 8);
+    mBuffer[position + 3] = (byte)value;
+  }
+  
+  /**
+   * Write an 8-byte big-endian long
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeLong(long value)
+  {
+    writeInt((int)(value >>> 32));
+    writeInt((int)value);
+  }
+  
+  /**
+   * Write an unsigned variable length integer. Negative values take 5 bytes
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeVarInt(int value)
+  {
+    ensure(5);
+    while ((value & ~0x7F) != 0)
+    {
+      mBuffer[mCount++] = (byte)((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    mBuffer[mCount++] = (byte)value;
+  }
+  
+  /**
+   * Write an unsigned variable length long. Negative values take 10 bytes
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeVarLong(long value)
+  {
+    ensure(10);
+    while ((value & ~0x7FL) != 0)
+    {
+      mBuffer[mCount++] = (byte)((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    mBuffer[mCount++] = (byte)value;
+  }
+  
+  /**
+   * Write a signed variable length integer, zig-zag encoded
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeSignedVarInt(int value)
+  {
+    writeVarInt((value << 1) ^ (value >> 31));
+  }
+  
+  /**
+   * Write a signed variable length long, zig-zag encoded
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeSignedVarLong(long value)
+  {
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+  
+  /**
+   * Write a float as its 4-byte IEEE 754 representation
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeFloat(float value)
+  {
+    writeInt(Float.floatToIntBits(value));
+  }
+  
+  /**
+   * Write a double as its 8-byte IEEE 754 representation
+   * 
+   * @param value
+   *   The value
+   */
+  public void writeDouble(double value)
+  {
+    writeLong(Double.doubleToLongBits(value));
+  }
+  
+  /**
+   * Write a string as its UTF-8 bytes, prefixed by their number plus one
+   * 
+   * @param value
+   *   The string, or {@code null}
+   */
+  public void writeString(String value)
+  {
+    if (value == null)
+    {
+      writeVarInt(0);
+      return;
+    }
+    
+    // most strings on the wire are plain ASCII names, which are copied without an encoder
+    int length = value.length();
+    boolean ascii = true;
+    for (int i = 0; (i < length) && ascii; ++i)
+      ascii = value.charAt(i) < 0x80;
+    
+    if (ascii)
+    {
+      writeVarInt(length + 1);
+      ensure(length);
+      for (int i = 0; i < length; ++i)
+        mBuffer[mCount++] = (byte)value.charAt(i);
+    }
+    else
+    {
+      byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(bytes.length + 1);
+      writeRaw(bytes, 0, bytes.length);
+    }
+  }
+  
+  /**
+   * Set the dictionary property keys are written with
+   * 
+   * @param keys
+   *   The dictionary, or {@code null} to write keys in full
+   */
+  public void setKeys(KeyDictionary keys)
+  {
+    mKeys = keys;
+  }
+  
+  /**
+   * Get the dictionary property keys are written with
+   * 
+   * @return
+   *   the dictionary, or {@code null} if keys are written in full
+   */
+  public KeyDictionary getKeys()
+  {
+    return mKeys;
+  }
+  
+  /**
+   * Write a property key.<br>
+   * Without a dictionary, the key is written with {@link #writeString(String)}. With a dictionary, it's written
+   * as a variable length integer: twice its ID plus one, or, if the dictionary is full, twice the length
+   * of its UTF-8 bytes plus one, followed by the bytes.
+   * 
+   * @param key
+   *   The key
+   */
+  public void writeKey(String key)
+  {
+    if (mKeys == null)
+    {
+      writeString(key);
+      return;
+    }
+    
+    int id = mKeys.idOf(key);
+    if (id >= 0)
+    {
+      writeVarInt((id << 1) | 1);
+      return;
+    }
+    
+    byte [] bytes = key.getBytes(StandardCharsets.UTF_8);
+    writeVarInt((bytes.length + 1) << 1);
+    writeRaw(bytes, 0, bytes.length);
+  }
+  
+  /**
+   * Write a byte array, prefixed by its length plus one
+   * 
+   * @param value
+   *   The byte array, or {@code null}
+   */
+  public void writeBytes(byte [] value)
+  {
+    if (value == null)
+    {
+      writeVarInt(0);
+      return;
+    }
+    
+    writeVarInt(value.length + 1);
+    writeRaw(value, 0, value.length);
+  }
+  
+  /**
+   * Write the contents of a buffer from its position to its limit, prefixed by their length plus one,
+   * the same way {@link #writeBytes(byte[])} writes a byte array.<br>
+   * A buffer of at least {@value #cSpliceLength} bytes is spliced rather than copied, so it must not be modified
+   * until the output was written. The buffer's position is not changed.
+   * 
+   * @param value
+   *   The buffer, or {@code null}
+   */
+  public void writeBuffer(ByteBuffer value)
+  {
+    if (value == null)
+    {
+      writeVarInt(0);
+      return;
+    }
+    
+    int length = value.remaining();
+    writeVarInt(length + 1);
+    if (length < cSpliceLength)
+    {
+      ensure(length);
+      value.duplicate().get(mBuffer, mCount, length);
+      mCount += length;
+      return;
+    }
+    
+    if (mSplices == null)
+    {
+      mSplices = new ArrayList<ByteBuffer>();
+      mSpliceOffsets = new ArrayList<Integer>();
+    }
+    mSplices.add(value.slice());
+    mSpliceOffsets.add(mCount);
+    mSplicedLength += length;
+  }
+  
+  /**
+   * Write a {@link UniqueId} as its 16 bytes
+   * 
+   * @param value
+   *   The unique ID
+   */
+  public void writeUniqueId(UniqueId value)
+  {
+    writeLong(value.getUuid().getMostSignificantBits());
+    writeLong(value.getUuid().getLeastSignificantBits());
+  }
+  
+  /**
+   * Write a value prefixed by a tag naming its type.<br>
+   * Types without a tag of their own are written with Java serialization, and must be {@link Serializable}.
+   * 
+   * @param value
+   *   The value, or {@code null}
+   * @throws IOException
+   *   if the value has no tag of its own and is not serializable
+   */
+  public void writeObject(Object value) throws IOException
+  {
+    if (value == null)
+    {
+      writeByte(cTypeNull);
+    }
+    else if (value instanceof String)
+    {
+      writeByte(cTypeString);
+      writeString((String)value);
+    }
+    else if (value instanceof Integer)
+    {
+      writeByte(cTypeInt);
+      writeSignedVarInt((Integer)value);
+    }
+    else if (value instanceof Long)
+    {
+      writeByte(cTypeLong);
+      writeSignedVarLong((Long)value);
+    }
+    else if (value instanceof Boolean)
+    {
+      writeByte(cTypeBool);
+      writeBool((Boolean)value);
+    }
+    else if (value instanceof Byte)
+    {
+      writeByte(cTypeByte);
+      writeByte((Byte)value);
+    }
+    else if (value instanceof Short)
+    {
+      writeByte(cTypeShort);
+      writeSignedVarInt((Short)value);
+    }
+    else if (value instanceof Character)
+    {
+      writeByte(cTypeChar);
+      writeVarInt((Character)value);
+    }
+    else if (value instanceof Float)
+    {
+      writeByte(cTypeFloat);
+      writeFloat((Float)value);
+    }
+    else if (value instanceof Double)
+    {
+      writeByte(cTypeDouble);
+      writeDouble((Double)value);
+    }
+    else if (value instanceof byte [])
+    {
+      writeByte(cTypeBytes);
+      writeBytes((byte [])value);
+    }
+    else if (value instanceof UniqueId)
+    {
+      writeByte(cTypeUniqueId);
+      writeUniqueId((UniqueId)value);
+    }
+    else if (value instanceof Serializable)
+    {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ObjectOutputStream ostream = new ObjectOutputStream(baos);
+      ostream.writeObject(value);
+      ostream.close();
+      writeByte(cTypeJava);
+      writeBytes(baos.toByteArray());
+    }
+    else
+    {
+      throw new IOException("Value of type " + value.getClass().getName() + " cannot be written");
+    }
+  }
+  
+  /**
+   * Get the number of bytes written, including spliced buffers
+   * 
+   * @return
+   *   the number of bytes written
+   */
+  public int size()
+  {
+    return mCount + mSplicedLength;
+  }
+  
+  /**
+   * Get an indication whether buffers were spliced into the output
+   * 
+   * @return
+   *   {@code true} if buffers were spliced, {@code false} if all bytes are in the writer's own buffer
+   */
+  public boolean isSpliced()
+  {
+    return mSplices != null;
+  }
+  
+  /**
+   * Discard everything written, keeping the buffer for reuse
+   */
+  public void reset()
+  {
+    mCount = 0;
+    mSplices = null;
+    mSpliceOffsets = null;
+    mSplicedLength = 0;
+  }
+  
+  /**
+   * Get a copy of the bytes written
+   * 
+   * @return
+   *   the bytes written
+   */
+  public byte [] toByteArray()
+  {
+    if (mSplices == null)
+    return Arrays.copyOf(mBuffer, mCount);
+    
+    ByteBuffer buffer = ByteBuffer.allocate(size());
+    for (ByteBuffer part : toByteBuffers())
+      buffer.put(part);
+    return buffer.array();
+  }
+  
+  /**
+   * Get the bytes written in a single {@link ByteBuffer}.<br>
+   * Unless buffers were spliced, the bytes are wrapped rather than copied, and the writer must not be written to
+   * or reset while the buffer is in use.
+   * 
+   * @return
+   *   a buffer positioned at the first byte written, and limited to the last
+   */
+  public ByteBuffer toByteBuffer()
+  {
+    if (mSplices == null)
+    return ByteBuffer.wrap(mBuffer, 0, mCount);
+    return ByteBuffer.wrap(toByteArray());
+  }
+  
+  /**
+   * Get the bytes written as a sequence of buffers, for a gather write.<br>
+   * Neither the bytes written nor the spliced buffers are copied, so the writer must not be written to
+   * or reset while the buffers are in use.
+   * 
+   * @return
+   *   the buffers, each positioned at its first byte and limited to its last
+   */
+  public ByteBuffer [] toByteBuffers()
+  {
+    if (mSplices == null)
+      return new ByteBuffer [] { toByteBuffer() };
+    
+    List<ByteBuffer> parts = new ArrayList<ByteBuffer>();
+    int offset = 0;
+    for (int i = 0; i < mSplices.size(); ++i)
+    {
+      int end = mSpliceOffsets.get(i);
+      if (end > offset)
+        parts.add(ByteBuffer.wrap(mBuffer, offset, end - offset));
+      parts.add(mSplices.get(i).duplicate());
+      offset = end;
+    }
+    if (mCount > offset)
+      parts.add(ByteBuffer.wrap(mBuffer, offset, mCount - offset));
+    return parts.toArray(new ByteBuffer [parts.size()]);
+  }
+  
+  /**
+   * Write everything written so far to {@code ostream}.<br>
+   * Unless buffers were spliced, this is done with a single call. Spliced heap buffers are written as they are,
+   * and spliced direct buffers are copied in small chunks, so large values never need a large heap array.
+   * 
+   * @param ostream
+   *   The output stream
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  public void writeTo(OutputStream ostream) throws IOException
+  {
+    if (mSplices == null)
+    {
+    ostream.write(mBuffer, 0, mCount);
+      return;
+    }
+    
+    byte [] chunk = null;
+    for (ByteBuffer part : toByteBuffers())
+    {
+      if (part.hasArray())
+      {
+        ostream.write(part.array(), part.arrayOffset() + part.position(), part.remaining());
+        continue;
+      }
+      
+      if (chunk == null)
+        chunk = new byte [cStreamChunkLength];
+      while (part.hasRemaining())
+      {
+        int length = Math.min(chunk.length, part.remaining());
+        part.get(chunk, 0, length);
+        ostream.write(chunk, 0, length);
+      }
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.kas.infra.base;
+
+import java.io.IOException;
+
+/**
+ * An object that can be written in the compact binary form of {@link BinaryWriter}.<br>
+ * <br>
+ * Implementing classes are expected to have a constructor that accepts a {@link BinaryReader}
+ * and reads back what {@link #serialize(BinaryWriter)} wrote.
+ * 
+ * @author Pippo
+ */
+public interface IBinarySerializable
+{
+  /**
+   * Serialize an object to the specified writer
+   * 
+   * @param writer
+   *   {@link BinaryWriter} to which the object will be serialized
+   * 
+   * @throws IOException
+   *   if the object could not be written
+   */
+  public abstract void serialize(BinaryWriter writer) throws IOException;
+}
@@ -0,0 +1,173 @@
+package com.kas.infra.base;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link KeyDictionary} maps property keys sent over one direction of a connection to small integer IDs.<br>
+ * <br>
+ * The writing side assigns the next ID to each key the first time it's written, and tells the reading side
+ * about it, which assigns it the same ID. From then on the key is written as its ID. Both sides stop adding
+ * keys once {@value #cMaxKeys} were assigned, and keys beyond that are written in full.<br>
+ * <br>
+ * Keys held by the reading side are {@link String#intern() interned}, so all messages share the same key
+ * instances, and those are the very constants the keys are usually looked up with.<br>
+ * <br>
+ * A dictionary is not thread-safe: its writing side must be used by one writer at a time, and in the order
+ * the writes reach the other side.
+ * 
+ * @author Pippo
+ */
+public class KeyDictionary extends AKasObject
+{
+  /**
+   * Maximum number of keys in a dictionary
+   */
+  static public final int cMaxKeys = 1024;
+  
+  /**
+   * Key IDs by key, and keys by ID
+   */
+  private Map<String, Integer> mIds = new HashMap<String, Integer>();
+  private List<String> mKeys = new ArrayList<String>();
+  
+  /**
+   * Keys added by the writing side that the reading side was not told about yet
+   */
+  private List<String> mAdded = new ArrayList<String>();
+  
+  /**
+   * Whether the dictionary was used to read
+   */
+  private volatile boolean mActive = false;
+  
+  /**
+   * Get the ID of a key, adding it to the dictionary if it's not there yet and there's room for it
+   * 
+   * @param key
+   *   The key
+   * @return
+   *   the key ID, or -1 if the key is not in the dictionary and the dictionary is full
+   */
+  public int idOf(String key)
+  {
+    Integer id = mIds.get(key);
+    if (id != null)
+      return id;
+    
+    if (mKeys.size() >= cMaxKeys)
+      return -1;
+    
+    int newId = mKeys.size();
+    mIds.put(key, newId);
+    mKeys.add(key);
+    mAdded.add(key);
+    return newId;
+  }
+  
+  /**
+   * Get the keys added since the last call, so the reading side can be told about them
+   * 
+   * @return
+   *   the added keys, in the order of their IDs
+   */
+  public List<String> takeAdded()
+  {
+    List<String> added = mAdded;
+    mAdded = new ArrayList<String>();
+    return added;
+  }
+  
+  /**
+   * Remove the keys added since the last call to {@link #takeAdded()}, e.g. if what they were written to
+   * is never going to reach the reading side
+   */
+  public void discardAdded()
+  {
+    for (int i = mAdded.size() - 1; i >= 0; --i)
+    {
+      mIds.remove(mAdded.get(i));
+      mKeys.remove(mKeys.size() - 1);
+    }
+    mAdded.clear();
+  }
+  
+  /**
+   * Add a key the writing side added, assigning it the next ID
+   * 
+   * @param key
+   *   The key
+   * @throws KasException
+   *   if the dictionary is full
+   */
+  public void define(String key) throws KasException
+  {
+    if (mKeys.size() >= cMaxKeys)
+      throw new KasException("Key dictionary is full, cannot add key " + key);
+    mKeys.add(key.intern());
+  }
+  
+  /**
+   * Get the key with the specified ID
+   * 
+   * @param id
+   *   The key ID
+   * @return
+   *   the key, or {@code null} if there's no key with that ID
+   */
+  public String keyOf(int id)
+  {
+    return (id >= 0) && (id < mKeys.size()) ? mKeys.get(id) : null;
+  }
+  
+  /**
+   * Mark the dictionary as used to read, meaning the other side writes keys as IDs
+   */
+  public void setActive()
+  {
+    mActive = true;
+  }
+  
+  /**
+   * Get an indication whether the dictionary was used to read
+   * 
+   * @return
+   *   {@code true} if the other side writes keys as IDs, {@code false} otherwise
+   */
+  public boolean isActive()
+  {
+    return mActive;
+  }
+  
+  /**
+   * Get the number of keys in the dictionary
+   * 
+   * @return
+   *   the number of keys
+   */
+  public int size()
+  {
+    return mKeys.size();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Keys=").append(mKeys.size()).append("\n")
+      .append(pad).append("  Active=").append(mActive).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
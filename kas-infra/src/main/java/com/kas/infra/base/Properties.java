@@ -3,6 +3,8 @@ package com.kas.infra.base;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.LogManager;
@@ -16,7 +18,7 @@ import com.kas.infra.utils.StringUtils;
  * 
  * @author Pippo
  */
-public class Properties extends ConcurrentHashMap<Object, Object> implements ISerializable
+public class Properties extends ConcurrentHashMap<Object, Object> implements ISerializable, IBinarySerializable
 {
   static private final long serialVersionUID = 1L;
   static private Logger sLogger = LogManager.getLogger(Properties.class);
@@ -96,6 +98,50 @@ public class Properties extends ConcurrentHashMap<Object, Object> implements ISe
     }
   }
   
+  /**
+   * Constructs a set of {@link Properties} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   If the properties could not be read
+   */
+  public Properties(BinaryReader reader) throws IOException
+  {
+    int totalEntries = reader.readVarInt();
+    for (int i = 0; i < totalEntries; ++i)
+    {
+      String name = reader.readKey();
+      Object value = reader.readObject();
+      if ((name == null) || (value == null))
+        throw new IOException("Invalid property entry: Key=" + name + ", Value=" + value);
+      put(name, value);
+    }
+  }
+  
+  /**
+   * Serialize the {@link Properties} to the specified {@link BinaryWriter}.<br>
+   * Each value is written with a tag naming its type, so the common types take a few bytes
+   * rather than a serialized Java object each. Keys are written with {@link BinaryWriter#writeKey(String)},
+   * so on a connection they take a byte or two once they were sent.
+   * 
+   * @param writer
+   *   The {@link BinaryWriter} to which the properties will be serialized
+   * @throws IOException
+   *   If a value could not be written
+   */
+  public void serialize(BinaryWriter writer) throws IOException
+  {
+    // take a snapshot, so the count matches the entries even if the map changes meanwhile
+    List<Map.Entry<Object, Object>> entries = new ArrayList<Map.Entry<Object, Object>>(entrySet());
+    writer.writeVarInt(entries.size());
+    for (Map.Entry<Object, Object> entry : entries)
+    {
+      writer.writeKey((String)entry.getKey());
+      writer.writeObject(entry.getValue());
+    }
+  }
+  
   /**
    * Get a property from the map.<br>
    * If {@code key} is {@code null}, a return value of {@code null} is returned.<br>
@@ -0,0 +1,198 @@
+package com.kas.infra.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBinaryWriter
+{
+  @Test
+  public void testVarInts() throws IOException
+  {
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeVarInt(0);
+    writer.writeVarInt(127);
+    writer.writeVarInt(128);
+    writer.writeVarInt(Integer.MAX_VALUE);
+    writer.writeVarInt(-1);
+    writer.writeSignedVarInt(-1);
+    writer.writeSignedVarInt(Integer.MIN_VALUE);
+    writer.writeVarLong(Long.MAX_VALUE);
+    writer.writeSignedVarLong(Long.MIN_VALUE);
+    
+    BinaryReader reader = new BinaryReader(writer.toByteArray());
+    Assert.assertEquals(0, reader.readVarInt());
+    Assert.assertEquals(127, reader.readVarInt());
+    Assert.assertEquals(128, reader.readVarInt());
+    Assert.assertEquals(Integer.MAX_VALUE, reader.readVarInt());
+    Assert.assertEquals(-1, reader.readVarInt());
+    Assert.assertEquals(-1, reader.readSignedVarInt());
+    Assert.assertEquals(Integer.MIN_VALUE, reader.readSignedVarInt());
+    Assert.assertEquals(Long.MAX_VALUE, reader.readVarLong());
+    Assert.assertEquals(Long.MIN_VALUE, reader.readSignedVarLong());
+    Assert.assertEquals(0, reader.remaining());
+  }
+  
+  @Test
+  public void testSmallValuesTakeOneByte()
+  {
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeVarInt(100);
+    writer.writeSignedVarInt(-50);
+    Assert.assertEquals(2, writer.size());
+  }
+  
+  @Test
+  public void testStringsAndBytes() throws IOException
+  {
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeString("KAS.QUEUE");
+    writer.writeString("\u05e9\u05dc\u05d5\u05dd");
+    writer.writeString(null);
+    writer.writeString("");
+    writer.writeBytes(new byte [] { 1, 2, 3 });
+    writer.writeBytes(null);
+    
+    BinaryReader reader = new BinaryReader(writer.toByteArray());
+    Assert.assertEquals("KAS.QUEUE", reader.readString());
+    Assert.assertEquals("\u05e9\u05dc\u05d5\u05dd", reader.readString());
+    Assert.assertNull(reader.readString());
+    Assert.assertEquals("", reader.readString());
+    Assert.assertArrayEquals(new byte [] { 1, 2, 3 }, reader.readBytes());
+    Assert.assertNull(reader.readBytes());
+  }
+  
+  @Test
+  public void testProperties() throws IOException
+  {
+    Properties props = new Properties();
+    props.setBoolProperty("key.bool", true);
+    props.setByteProperty("key.byte", (byte)3);
+    props.setCharProperty("key.char", 'x');
+    props.setFloatProperty("key.float", 1.2f);
+    props.setIntProperty("key.int", -9);
+    props.setLongProperty("key.long", 123456789000L);
+    props.setShortProperty("key.short", (short)320);
+    props.setStringProperty("key.string", "SHY");
+    props.setObjectProperty("key.double", 0.002);
+    props.setObjectProperty("key.uuid", UniqueId.generate());
+    props.setObjectProperty("key.object", new java.util.Date(0));
+    
+    BinaryWriter writer = new BinaryWriter();
+    props.serialize(writer);
+    Properties copy = new Properties(new BinaryReader(writer.toByteArray()));
+    
+    Assert.assertEquals(props, copy);
+  }
+  
+  @Test
+  public void testTruncatedInput()
+  {
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeString("truncated");
+    byte [] bytes = writer.toByteArray();
+    
+    BinaryReader reader = new BinaryReader(bytes, 0, bytes.length - 1);
+    try
+    {
+      reader.readString();
+      Assert.fail("Truncated string was read");
+    }
+    catch (IOException e)
+    {
+      Assert.assertTrue(e.getMessage().startsWith("Truncated input"));
+    }
+  }
+  
+  @Test
+  public void testSplicedBuffers() throws IOException
+  {
+    ByteBuffer large = ByteBuffer.allocateDirect(BinaryWriter.cSpliceLength + 10);
+    for (int i = 0; i < large.capacity(); ++i)
+      large.put((byte)i);
+    large.flip();
+    
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeString("before");
+    writer.writeBuffer(large);
+    writer.writeBuffer(ByteBuffer.wrap(new byte [] { 4, 5 }));
+    writer.writeString("after");
+    Assert.assertTrue(writer.isSpliced());
+    Assert.assertEquals(0, large.position());
+    
+    ByteBuffer [] parts = writer.toByteBuffers();
+    Assert.assertEquals(3, parts.length);
+    Assert.assertEquals(large.capacity(), parts[1].remaining());
+    
+    byte [] bytes = writer.toByteArray();
+    Assert.assertEquals(writer.size(), bytes.length);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    writer.writeTo(baos);
+    Assert.assertArrayEquals(bytes, baos.toByteArray());
+    
+    BinaryReader reader = new BinaryReader(bytes);
+    Assert.assertEquals("before", reader.readString());
+    Assert.assertEquals(large, reader.readBuffer());
+    Assert.assertArrayEquals(new byte [] { 4, 5 }, reader.readBytes());
+    Assert.assertEquals("after", reader.readString());
+    Assert.assertEquals(0, reader.remaining());
+  }
+  
+  @Test
+  public void testReadFromDirectBuffer() throws IOException
+  {
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeString("\u05e9\u05dc\u05d5\u05dd");
+    writer.writeInt(-7);
+    writer.writeBytes(new byte [] { 1, 2, 3 });
+    byte [] bytes = writer.toByteArray();
+    
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes);
+    direct.flip();
+    
+    BinaryReader reader = new BinaryReader(direct);
+    Assert.assertEquals("\u05e9\u05dc\u05d5\u05dd", reader.readString());
+    Assert.assertEquals(-7, reader.readInt());
+    ByteBuffer view = reader.readBuffer();
+    Assert.assertTrue(view.isDirect());
+    Assert.assertEquals(ByteBuffer.wrap(new byte [] { 1, 2, 3 }), view);
+    Assert.assertEquals(0, reader.remaining());
+    Assert.assertEquals(0, direct.position());
+  }
+  
+  @Test
+  public void testKeyDictionary() throws IOException, KasException
+  {
+    Properties props = new Properties();
+    props.setStringProperty("kas.mq.put.queue", "Q1");
+    props.setIntProperty("kas.mq.put.count", 3);
+    
+    KeyDictionary sent = new KeyDictionary();
+    KeyDictionary received = new KeyDictionary();
+    
+    BinaryWriter first = new BinaryWriter();
+    first.setKeys(sent);
+    props.serialize(first);
+    for (String key : sent.takeAdded())
+      received.define(key);
+    
+    BinaryWriter second = new BinaryWriter();
+    second.setKeys(sent);
+    props.serialize(second);
+    Assert.assertTrue(sent.takeAdded().isEmpty());
+    
+    BinaryWriter plain = new BinaryWriter();
+    props.serialize(plain);
+    Assert.assertTrue(second.size() < plain.size() - 20);
+    
+    BinaryReader reader = new BinaryReader(second.toByteArray());
+    reader.setKeys(received);
+    Properties copy = new Properties(reader);
+    Assert.assertEquals(props, copy);
+    for (Object key : copy.keySet())
+      Assert.assertTrue(key == ((String)key).intern());
+  }
+}
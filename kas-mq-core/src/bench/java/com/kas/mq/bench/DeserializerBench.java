@@ -0,0 +1,96 @@
+package com.kas.mq.bench;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import com.kas.comm.IPacket;
+import com.kas.comm.impl.PacketCodec;
+import com.kas.comm.serializer.Deserializer;
+import com.kas.comm.serializer.EClassId;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.KasException;
+import com.kas.mq.impl.messages.MqMessageFactory;
+
+/**
+ * A JMH micro-benchmark that measures the cost of constructing packets while deserializing them.<br>
+ * <br>
+ * It decodes the same payload over and over, once by looking up the packet's constructor by reflection for each packet,
+ * the way the {@link Deserializer} used to, and once through the {@link Deserializer}, which uses the factories it resolved
+ * when the packet classes were registered. Decoded packets are handed to a {@link Blackhole}, so the JIT cannot drop the decoding.<br>
+ * <br>
+ * It lives in the {@code bench} source set, which is never packaged, and is run by {@code gradle :kas-mq-core:bench}.
+ * Run it with the same JVM options as the server, since the gap depends on what the JIT inlines.
+ * 
+ * @author Pippo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class DeserializerBench
+{
+  /**
+   * The payload being decoded
+   */
+  private byte [] mPayload;
+  
+  /**
+   * Encode the payload of a small string message
+   * 
+   * @throws IOException
+   *   if the message could not be serialized
+   */
+  @Setup
+  public void setup() throws IOException
+  {
+    mPayload = PacketCodec.toByteArray(MqMessageFactory.createStringMessage("bench"));
+  }
+  
+  /**
+   * Decode the payload, looking up the packet's constructor for each packet
+   * 
+   * @param blackhole
+   *   Consumes the decoded packet
+   * @throws Exception
+   *   if the packet could not be decoded
+   */
+  @Benchmark
+  public void reflective(Blackhole blackhole) throws Exception
+  {
+    BinaryReader reader = new BinaryReader(mPayload);
+    EClassId id = EClassId.fromInt(reader.readVarInt());
+    Class<? extends IPacket> cls = Deserializer.getInstance().getRegisteredClass(id);
+    Constructor<? extends IPacket> ctor = cls.getConstructor(BinaryReader.class);
+    blackhole.consume(ctor.newInstance(reader));
+  }
+  
+  /**
+   * Decode the payload through the {@link Deserializer}
+   * 
+   * @param blackhole
+   *   Consumes the decoded packet
+   * @throws IOException
+   *   if the class ID could not be read
+   * @throws KasException
+   *   if the packet could not be decoded
+   */
+  @Benchmark
+  public void registered(Blackhole blackhole) throws IOException, KasException
+  {
+    BinaryReader reader = new BinaryReader(mPayload);
+    blackhole.consume(Deserializer.deserialize(reader.readVarInt(), reader));
+  }
+}
@@ -1,9 +1,11 @@
 package com.kas.mq.impl;
 
 import java.net.Socket;
+import java.util.List;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.UniqueId;
 import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.internal.EMqCode;
 import com.kas.mq.internal.MqConnection;
 
 public interface IMqConnection extends IObject
@@ -65,6 +67,24 @@ public interface IMqConnection extends IObject
    */
   public abstract IMqMessage get(String queue, long timeout, long interval);
   
+  /**
+   * Get up to {@code maxMessages} messages from queue in a single request.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param maxMessages
+   *   The maximum number of messages to get
+   * @param maxBytes
+   *   The number of bytes after which no more messages are added
+   * @param timeout
+   *   The number of milliseconds to wait until a message available
+   * @param interval
+   *   The number in milliseconds the thread execution is suspended between each polling operation
+   * @return
+   *   the list of messages, which is empty if no message is available
+   */
+  public abstract List<IMqMessage> getBatch(String queue, int maxMessages, int maxBytes, long timeout, long interval);
+  
   /**
    * Put a message into the specified queue.
    * 
@@ -77,6 +97,51 @@ public interface IMqConnection extends IObject
    */
   public abstract IMqMessage put(String queue, IMqMessage message);
   
+  /**
+   * Put several messages, each into its own queue, in a single request.
+   * 
+   * @param queues
+   *   The target queue names, one for each message
+   * @param messages
+   *   The messages to be put
+   * @return
+   *   the {@link EMqCode} of each message, in the order of {@code messages},
+   *   or {@link EMqCode#cError} for all of them if the request itself failed
+   */
+  public abstract List<EMqCode> putBatch(List<String> queues, List<IMqMessage> messages);
+  
+  /**
+   * Subscribe to a queue, so its messages are pushed to the connection as they arrive.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param credit
+   *   The maximum number of messages pushed but not yet received
+   * @return
+   *   the subscription ID, or {@code null} if the subscription failed
+   */
+  public abstract UniqueId subscribe(String queue, int credit);
+  
+  /**
+   * Cancel a subscription.
+   * 
+   * @param id
+   *   The subscription ID
+   * @return
+   *   {@code true} if the subscription was cancelled, {@code false} otherwise
+   */
+  public abstract boolean unsubscribe(UniqueId id);
+  
+  /**
+   * Receive a message pushed to one of the connection's subscriptions.
+   * 
+   * @param timeout
+   *   The number of milliseconds to wait until a message arrives. A value of 0 means to wait indefinitely.
+   * @return
+   *   the {@link IMqMessage} object or {@code null} if no message arrived
+   */
+  public abstract IMqMessage receive(long timeout);
+  
   /**
    * Get the connection ID
    * 
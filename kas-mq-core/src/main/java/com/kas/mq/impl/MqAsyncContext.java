@@ -0,0 +1,518 @@
+package com.kas.mq.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.comm.impl.InVmConnector;
+import com.kas.comm.impl.UnixSockets;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.KasException;
+import com.kas.infra.base.Properties;
+import com.kas.infra.base.TimeStamp;
+import com.kas.infra.utils.Validators;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqStringMessage;
+import com.kas.mq.internal.AMqAsyncReply;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.EQueueDisp;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqAckReply;
+import com.kas.mq.internal.MqContextConnection;
+import com.kas.mq.internal.MqGetBatchReply;
+import com.kas.mq.internal.MqGetReply;
+import com.kas.mq.internal.MqMessageBatch;
+import com.kas.mq.internal.MqPutBatchReply;
+import com.kas.mq.internal.MqQueryReply;
+import com.kas.mq.internal.MqRequestFactory;
+
+/**
+ * A KAS/MQ asynchronous context is a KAS/MQ client whose calls return as soon as the request was sent.<br>
+ * <br>
+ * Each call returns a {@link CompletableFuture} of its result. The future completes when the reply arrives,
+ * and it completes exceptionally with a {@link KasException} holding the server's response if the request failed,
+ * or with an {@link IOException} if the connection was lost. Any number of requests may be in flight at the same time.<br>
+ * <br>
+ * A single reader thread reads all replies of the context's connection and completes their futures,
+ * so no thread waits for any particular reply. Requests are written by the calling thread, each with a single write.
+ * Stages chained to a future with the non-{@code Async} methods of {@link CompletableFuture} run on the reader thread,
+ * so they must not block. Anything that may block should be chained with the {@code Async} methods.<br>
+ * <br>
+ * Connecting and disconnecting are synchronous, as in {@link MqContext}.
+ * 
+ * @author Pippo
+ */
+public final class MqAsyncContext extends AKasObject
+{
+  /**
+   * Logger
+   */
+  private Logger mLogger = LogManager.getLogger(getClass());
+  
+  /**
+   * The actual client
+   */
+  private MqContextConnection mConnection;
+  
+  /**
+   * Construct the client
+   * 
+   * @param clientName
+   *   The client application name
+   */
+  public MqAsyncContext(String clientName)
+  {
+    mConnection = new MqContextConnection(clientName);
+  }
+  
+  /**
+   * Connect client to the KAS/MQ server and login.
+   * 
+   * @param host
+   *   The host name or IP address, or {@code unix:}<i>path</i> to connect over the server's Unix domain socket,
+   *   or {@code vm:}<i>name</i> to connect to a server embedded in this JVM
+   * @param port
+   *   The port number. Ignored when connecting over a Unix domain socket or to an embedded server
+   * @param user
+   *   The user's name
+   * @param pwd
+   *   The user's password
+   * @throws KasException
+   *   if client failed to connect to KAS/MQ server
+   */
+  public void connect(String host, int port, String user, String pwd) throws KasException
+  {
+    mLogger.trace("MqAsyncContext::connect() - IN, Host={}, Port={}, User={}", host, port, user);
+    
+    boolean local = UnixSockets.isUnixHost(host) || InVmConnector.isInVmHost(host);
+    if (!local && !Validators.isHostName(host) && !Validators.isIpAddress(host))
+      throw new KasException("Validation failed. '" + host + "' is neither a valid host name, a valid IP address, a Unix domain socket nor an embedded server");
+    if (!local && !Validators.isPort(port))
+      throw new KasException("Validation failed. '" + port + "' is not a valid port number");
+    if (!Validators.isUserName(user))
+      throw new KasException("Validation failed. '" + user + "' is not a valid user name");
+    
+    mConnection.connect(host, port);
+    if (!isConnected())
+      throw new KasException("Error - connect() failed. Client response: " + mConnection.getResponse());
+    
+    boolean authenticated = mConnection.login(user, pwd);
+    if (!authenticated)
+      throw new KasException("Error - login() failed. Client response: " + mConnection.getResponse());
+    
+    mLogger.trace("MqAsyncContext::connect() - OUT");
+  }
+  
+  /**
+   * Disconnect from the remote KAS/MQ server.<br>
+   * Requests still in flight complete exceptionally.
+   * 
+   * @throws KasException
+   *   if client failed to disconnect from KAS/MQ server
+   */
+  public void disconnect() throws KasException
+  {
+    mLogger.trace("MqAsyncContext::disconnect() - IN");
+    
+    mConnection.disconnect();
+    if (isConnected())
+      throw new KasException("Error - disconnect() failed. Client response: " + mConnection.getResponse());
+    
+    mLogger.trace("MqAsyncContext::disconnect() - OUT");
+  }
+  
+  /**
+   * Get the connection status.
+   * 
+   * @return
+   *   {@code true} if client is connected, {@code false} otherwise
+   */
+  public boolean isConnected()
+  {
+    return mConnection.isConnected();
+  }
+  
+  /**
+   * Put a message into the specified queue.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param message
+   *   The message to be put
+   * @return
+   *   a future completed once the server put the message
+   */
+  public CompletableFuture<Void> put(String queue, IMqMessage message)
+  {
+    mLogger.trace("MqAsyncContext::put() - IN, Queue={}", queue);
+    
+    CompletableFuture<Void> result;
+    if (!Validators.isQueueName(queue))
+    {
+      result = failed("Failed to put message, invalid queue name: " + queue);
+    }
+    else if (!isConnected())
+    {
+      result = failed("Not connected to host");
+    }
+    else
+    {
+      mConnection.setPutProperties(message, queue, TimeStamp.now().toString());
+      result = send(message, new MqAckReply());
+    }
+    
+    mLogger.trace("MqAsyncContext::put() - OUT");
+    return result;
+  }
+  
+  /**
+   * Put a batch of messages into the specified queue with a single request.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param messages
+   *   The messages to be put
+   * @return
+   *   a future of the result of each message's put, in the order of {@code messages}
+   */
+  public CompletableFuture<List<EMqCode>> putBatch(String queue, List<IMqMessage> messages)
+  {
+    return putBatch(Collections.nCopies(messages.size(), queue), messages);
+  }
+  
+  /**
+   * Put a batch of messages, each into its own queue, with a single request.
+   * 
+   * @param queues
+   *   The target queue name of each message
+   * @param messages
+   *   The messages to be put
+   * @return
+   *   a future of the result of each message's put, in the order of {@code messages}
+   */
+  public CompletableFuture<List<EMqCode>> putBatch(List<String> queues, List<IMqMessage> messages)
+  {
+    mLogger.trace("MqAsyncContext::putBatch() - IN, Messages={}", messages.size());
+    
+    String invalid = null;
+    for (int i = 0; (i < queues.size()) && (invalid == null); ++i)
+    {
+      if (!Validators.isQueueName(queues.get(i)))
+        invalid = queues.get(i);
+    }
+    
+    CompletableFuture<List<EMqCode>> result;
+    if (queues.size() != messages.size())
+    {
+      result = failed("Failed to put messages, " + queues.size() + " queue names for " + messages.size() + " messages");
+    }
+    else if (invalid != null)
+    {
+      result = failed("Failed to put messages, invalid queue name: " + invalid);
+    }
+    else if (!isConnected())
+    {
+      result = failed("Not connected to host");
+    }
+    else
+    {
+      try
+      {
+        String now = TimeStamp.now().toString();
+        MqMessageBatch batch = new MqMessageBatch();
+        for (int i = 0; i < messages.size(); ++i)
+        {
+          IMqMessage message = messages.get(i);
+          mConnection.setPutProperties(message, queues.get(i), now);
+          batch.add(message);
+        }
+        
+        IMqMessage request = MqRequestFactory.createPutBatchRequest(batch.toByteArray());
+        result = send(request, new MqPutBatchReply(messages.size()));
+      }
+      catch (IOException e)
+      {
+        result = new CompletableFuture<List<EMqCode>>();
+        result.completeExceptionally(e);
+      }
+    }
+    
+    mLogger.trace("MqAsyncContext::putBatch() - OUT");
+    return result;
+  }
+  
+  /**
+   * Get a message from the specified queue.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param timeout
+   *   The number of milliseconds the server waits for a message to arrive
+   * @param interval
+   *   The number of milliseconds between the server's checks for a message
+   * @return
+   *   a future of the message, or of {@code null} if no message arrived in time
+   */
+  public CompletableFuture<IMqMessage> get(String queue, long timeout, long interval)
+  {
+    mLogger.trace("MqAsyncContext::get() - IN, Queue={}, Timeout={}, Interval={}", queue, timeout, interval);
+    
+    CompletableFuture<IMqMessage> result;
+    if (!Validators.isQueueName(queue))
+    {
+      result = failed("Failed to get message, invalid queue name: " + queue);
+    }
+    else
+    {
+      IMqMessage request = MqRequestFactory.createGetRequest(queue.toUpperCase(), timeout, interval);
+      result = send(request, new MqGetReply(mConnection));
+    }
+    
+    mLogger.trace("MqAsyncContext::get() - OUT");
+    return result;
+  }
+  
+  /**
+   * Get a batch of messages from the specified queue with a single request.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param maxMessages
+   *   The maximum number of messages to get
+   * @param maxBytes
+   *   The maximum number of bytes to get
+   * @param timeout
+   *   The number of milliseconds the server waits for a first message to arrive
+   * @param interval
+   *   The number of milliseconds between the server's checks for a message
+   * @return
+   *   a future of the messages. The list is empty if no message arrived in time
+   */
+  public CompletableFuture<List<IMqMessage>> getBatch(String queue, int maxMessages, int maxBytes, long timeout, long interval)
+  {
+    mLogger.trace("MqAsyncContext::getBatch() - IN, Queue={}, MaxMessages={}, MaxBytes={}", queue, maxMessages, maxBytes);
+    
+    CompletableFuture<List<IMqMessage>> result;
+    if (!Validators.isQueueName(queue))
+    {
+      result = failed("Failed to get messages, invalid queue name: " + queue);
+    }
+    else if (maxMessages <= 0)
+    {
+      result = failed("Failed to get messages, invalid maximum number of messages: " + maxMessages);
+    }
+    else if (maxBytes <= 0)
+    {
+      result = failed("Failed to get messages, invalid maximum number of bytes: " + maxBytes);
+    }
+    else
+    {
+      IMqMessage request = MqRequestFactory.createGetBatchRequest(queue.toUpperCase(), maxMessages, maxBytes, timeout, interval);
+      result = send(request, new MqGetBatchReply(mConnection));
+    }
+    
+    mLogger.trace("MqAsyncContext::getBatch() - OUT");
+    return result;
+  }
+  
+  /**
+   * Define a new queue.
+   * 
+   * @param queue
+   *   The name of the queue to define
+   * @param desc
+   *   The queue description
+   * @param threshold
+   *   The queue threshold
+   * @param disp
+   *   The queue disposition
+   * @return
+   *   a future completed once the queue was defined
+   */
+  public CompletableFuture<Void> defineQueue(String queue, String desc, int threshold, EQueueDisp disp)
+  {
+    mLogger.trace("MqAsyncContext::defineQueue() - IN, Queue={}", queue);
+    
+    CompletableFuture<Void> result;
+    if (!Validators.isQueueName(queue))
+    {
+      result = failed("Failed to define queue, invalid queue name: " + queue);
+    }
+    else if (threshold <= 0)
+    {
+      result = failed("Failed to define queue, invalid threshold: " + threshold);
+    }
+    else
+    {
+      IMqMessage request = MqRequestFactory.createDefineQueueRequest(queue.toUpperCase(), desc, threshold, disp);
+      result = sendAdmin(request, new MqAckReply());
+    }
+    
+    mLogger.trace("MqAsyncContext::defineQueue() - OUT");
+    return result;
+  }
+  
+  /**
+   * Delete an existing queue.
+   * 
+   * @param queue
+   *   The name of the queue to delete
+   * @param force
+   *   Should the queue be deleted even if its not empty
+   * @return
+   *   a future completed once the queue was deleted
+   */
+  public CompletableFuture<Void> deleteQueue(String queue, boolean force)
+  {
+    mLogger.trace("MqAsyncContext::deleteQueue() - IN, Queue={}", queue);
+    
+    CompletableFuture<Void> result;
+    if (!Validators.isQueueName(queue))
+    {
+      result = failed("Failed to delete queue, invalid queue name: " + queue);
+    }
+    else
+    {
+      IMqMessage request = MqRequestFactory.createDeleteQueueRequest(queue.toUpperCase(), force);
+      result = sendAdmin(request, new MqAckReply());
+    }
+    
+    mLogger.trace("MqAsyncContext::deleteQueue() - OUT");
+    return result;
+  }
+  
+  /**
+   * Alter an existing queue.
+   * 
+   * @param queue
+   *   The name of the queue to alter
+   * @param qProps
+   *   The queue attributes to alter
+   * @return
+   *   a future completed once the queue was altered
+   */
+  public CompletableFuture<Void> alterQueue(String queue, Properties qProps)
+  {
+    mLogger.trace("MqAsyncContext::alterQueue() - IN, Queue={}", queue);
+    
+    CompletableFuture<Void> result;
+    if (!Validators.isQueueName(queue))
+    {
+      result = failed("Failed to alter queue, invalid queue name: " + queue);
+    }
+    else
+    {
+      IMqMessage request = MqRequestFactory.createAlterQueueRequest(queue.toUpperCase(), qProps);
+      result = sendAdmin(request, new MqAckReply());
+    }
+    
+    mLogger.trace("MqAsyncContext::alterQueue() - OUT");
+    return result;
+  }
+  
+  /**
+   * Query queue information.
+   * 
+   * @param queue
+   *   The queue name or prefix
+   * @param prefix
+   *   If {@code true}, {@code queue} is a prefix of the queues to query
+   * @param alldata
+   *   If {@code true}, all of the queues' attributes are queried
+   * @return
+   *   a future of the reply, holding the query's output in its body
+   */
+  public CompletableFuture<MqStringMessage> queryQueue(String queue, boolean prefix, boolean alldata)
+  {
+    mLogger.trace("MqAsyncContext::queryQueue() - IN, Queue={}, Prefix={}, All={}", queue, prefix, alldata);
+    
+    IMqMessage request = MqRequestFactory.createQueryQueueRequest(queue, prefix, alldata, true);
+    CompletableFuture<MqStringMessage> result = sendAdmin(request, new MqQueryReply());
+    
+    mLogger.trace("MqAsyncContext::queryQueue() - OUT");
+    return result;
+  }
+  
+  /**
+   * Send an administrative request. Like {@link MqContextConnection}, it's put to the administrative queue
+   * 
+   * @param request
+   *   The request
+   * @param reply
+   *   Turns the reply into the request's result
+   * @return
+   *   the request's result
+   */
+  private <T> CompletableFuture<T> sendAdmin(IMqMessage request, AMqAsyncReply<T> reply)
+  {
+    if (!isConnected())
+      return failed("Not connected to host");
+    
+    mConnection.setPutProperties(request, IMqConstants.cAdminQueueName, TimeStamp.now().toString());
+    return send(request, reply);
+  }
+  
+  /**
+   * Send a request, and let {@code reply} complete the result once the reply arrives
+   * 
+   * @param request
+   *   The request
+   * @param reply
+   *   Turns the reply into the request's result
+   * @return
+   *   the request's result
+   */
+  private <T> CompletableFuture<T> send(IMqMessage request, AMqAsyncReply<T> reply)
+  {
+    mLogger.trace("MqAsyncContext::send() - Sending request of type: {}", request.getRequestType());
+    mConnection.sendAsync(request).whenComplete(reply);
+    return reply.getResult();
+  }
+  
+  /**
+   * Create a result of a request that was not sent
+   * 
+   * @param message
+   *   The reason the request was not sent
+   * @return
+   *   a future completed exceptionally with a {@link KasException} holding {@code message}
+   */
+  static private <T> CompletableFuture<T> failed(String message)
+  {
+    CompletableFuture<T> result = new CompletableFuture<T>();
+    result.completeExceptionally(new KasException(message));
+    return result;
+  }
+  
+  /**
+   * Returns the {@link MqAsyncContext} simple string representation.
+   * 
+   * @return
+   *   the string representation
+   */
+  public String toString()
+  {
+    return mConnection.toString();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Connection=(").append(mConnection.toPrintableString(0)).append(")\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -1,21 +1,32 @@
 package com.kas.mq.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import com.kas.comm.impl.InVmConnector;
+import com.kas.comm.impl.UnixSockets;
 import com.kas.infra.base.AKasObject;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.KasException;
 import com.kas.infra.base.Properties;
+import com.kas.infra.base.UniqueId;
 import com.kas.infra.utils.StringUtils;
 import com.kas.infra.utils.Validators;
 import com.kas.mq.impl.messages.IMqMessage;
 import com.kas.mq.impl.messages.MqStringMessage;
+import com.kas.mq.internal.EMqCode;
 import com.kas.mq.internal.EQueueDisp;
 import com.kas.mq.internal.MqContextConnection;
 
 /**
  * A KAS/MQ context is basically a KAS/MQ client, providing all basic
- * functionality a client will need in order to exploit KAS/MQ services.
+ * functionality a client will need in order to exploit KAS/MQ services.<br>
+ * <br>
+ * A context is safe to share across threads. Their requests are in flight on the same connection at the same time,
+ * so a thread waiting for a reply, e.g. a {@link #get(String, long, long) get} with a long timeout, doesn't hold
+ * back the others. {@link #getResponse()} returns the response of the calling thread's last call.
  * 
  * @author Pippo
  */
@@ -46,9 +57,10 @@ public final class MqContext extends AKasObject
    * Connect client to the KAS/MQ server.
    * 
    * @param host
-   *   The host name or IP address
+   *   The host name or IP address, or {@code unix:}<i>path</i> to connect over the server's Unix domain socket,
+   *   or {@code vm:}<i>name</i> to connect to a server embedded in this JVM
    * @param port
-   *   The port number
+   *   The port number. Ignored when connecting over a Unix domain socket or to an embedded server
    * @param user
    *   The user's name
    * @param pwd
@@ -60,9 +72,10 @@ public final class MqContext extends AKasObject
   {
     mLogger.trace("MqContext::connect() - IN, Host={}, Port={}, User={}, Pwd={}", host, port, user, pwd);
     
-    if (!Validators.isHostName(host) && !Validators.isIpAddress(host))
-      throw new KasException("Validation failed. '" + host + "' is neither a valid host name nor a valid IP address");
-    if (!Validators.isPort(port))
+    boolean local = UnixSockets.isUnixHost(host) || InVmConnector.isInVmHost(host);
+    if (!local && !Validators.isHostName(host) && !Validators.isIpAddress(host))
+      throw new KasException("Validation failed. '" + host + "' is neither a valid host name, a valid IP address, a Unix domain socket nor an embedded server");
+    if (!local && !Validators.isPort(port))
       throw new KasException("Validation failed. '" + port + "' is not a valid port number");
     if (!Validators.isUserName(user))
       throw new KasException("Validation failed. '" + user + "' is not a valid user name");
@@ -244,6 +257,51 @@ public final class MqContext extends AKasObject
     return result;
   }
   
+  /**
+   * Get up to {@code maxMessages} messages from queue in a single round trip.<br>
+   * The call waits up to {@code timeout} milliseconds for the first message, and then returns it along with
+   * whatever other messages are available right away, until {@code maxMessages} messages or {@code maxBytes} bytes
+   * were collected.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param maxMessages
+   *   The maximum number of messages to get
+   * @param maxBytes
+   *   The number of bytes after which no more messages are added. The first message is returned regardless of its size
+   * @param timeout
+   *   The number of milliseconds to wait until a message available. A value of 0 means to wait indefinitely.
+   * @param interval
+   *   The number in milliseconds the thread execution is suspended between each polling operation
+   * @return
+   *   the list of {@link IMqMessage} objects, which is empty if no message is available
+   */
+  public List<IMqMessage> getBatch(String queue, int maxMessages, int maxBytes, long timeout, long interval)
+  {
+    mLogger.trace("MqContext::getBatch() - IN, MaxMessages={}, MaxBytes={}, Timeout={}, Interval={}", maxMessages, maxBytes, timeout, interval);
+    
+    List<IMqMessage> result = new ArrayList<IMqMessage>();
+    if (!Validators.isQueueName(queue))
+    {
+      setResponse("Failed to get messages, invalid queue name: " + queue);
+    }
+    else if (maxMessages <= 0)
+    {
+      setResponse("Failed to get messages, invalid maximum number of messages: " + maxMessages);
+    }
+    else if (maxBytes <= 0)
+    {
+      setResponse("Failed to get messages, invalid maximum number of bytes: " + maxBytes);
+    }
+    else
+    {
+      result = mConnection.getBatch(queue, maxMessages, maxBytes, timeout, interval);
+    }
+    
+    mLogger.trace("MqContext::getBatch() - OUT, Returns={} messages", result.size());
+    return result;
+  }
+  
   /**
    * Put a message into queue.
    * 
@@ -268,6 +326,147 @@ public final class MqContext extends AKasObject
     mLogger.trace("MqContext::put() - OUT");
   }
   
+  /**
+   * Put several messages into queue in a single round trip.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param messages
+   *   The messages to be put
+   * @return
+   *   the {@link EMqCode} of each message, in the order of {@code messages}
+   */
+  public List<EMqCode> putBatch(String queue, List<IMqMessage> messages)
+  {
+    return putBatch(Collections.nCopies(messages.size(), queue), messages);
+  }
+  
+  /**
+   * Put several messages, each into its own queue, in a single round trip.<br>
+   * The KAS/MQ server checks the user's access once per queue and acknowledges the whole batch with a single reply.
+   * 
+   * @param queues
+   *   The target queue names, one for each message
+   * @param messages
+   *   The messages to be put
+   * @return
+   *   the {@link EMqCode} of each message, in the order of {@code messages}
+   */
+  public List<EMqCode> putBatch(List<String> queues, List<IMqMessage> messages)
+  {
+    mLogger.trace("MqContext::putBatch() - IN, Messages={}", messages.size());
+    
+    String invalid = null;
+    for (int i = 0; (i < queues.size()) && (invalid == null); ++i)
+    {
+      if (!Validators.isQueueName(queues.get(i)))
+        invalid = queues.get(i);
+    }
+    
+    List<EMqCode> result = new ArrayList<EMqCode>();
+    if (queues.size() != messages.size())
+    {
+      setResponse("Failed to put messages, " + queues.size() + " queue names for " + messages.size() + " messages");
+    }
+    else if (invalid != null)
+    {
+      setResponse("Failed to put messages, invalid queue name: " + invalid);
+    }
+    else
+    {
+      result = mConnection.putBatch(queues, messages);
+    }
+    
+    if (result.isEmpty())
+    {
+      for (int i = 0; i < messages.size(); ++i)
+        result.add(EMqCode.cFail);
+    }
+    
+    mLogger.trace("MqContext::putBatch() - OUT");
+    return result;
+  }
+  
+  /**
+   * Subscribe to a queue, so its messages are pushed to the context as they arrive.<br>
+   * The server pushes up to {@code credit} messages ahead of {@link #receive(long)}, which grants more credit
+   * as the messages are received. A larger credit hides more of the network latency, at the cost of messages
+   * that wait in the client rather than in the queue.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param credit
+   *   The maximum number of messages pushed but not yet received
+   * @return
+   *   the subscription ID, or {@code null} if the subscription failed
+   */
+  public UniqueId subscribe(String queue, int credit)
+  {
+    mLogger.trace("MqContext::subscribe() - IN, Queue={}, Credit={}", queue, credit);
+    
+    UniqueId result = null;
+    if (!Validators.isQueueName(queue))
+    {
+      setResponse("Failed to subscribe, invalid queue name: " + queue);
+    }
+    else if (credit <= 0)
+    {
+      setResponse("Failed to subscribe, invalid credit: " + credit);
+    }
+    else
+    {
+      result = mConnection.subscribe(queue, credit);
+    }
+    
+    mLogger.trace("MqContext::subscribe() - OUT, Returns={}", result);
+    return result;
+  }
+  
+  /**
+   * Cancel a subscription.<br>
+   * Messages pushed before the subscription was cancelled can still be received.
+   * 
+   * @param id
+   *   The subscription ID
+   * @return
+   *   {@code true} if the subscription was cancelled, {@code false} otherwise
+   */
+  public boolean unsubscribe(UniqueId id)
+  {
+    mLogger.trace("MqContext::unsubscribe() - IN, Subscription={}", id);
+    
+    boolean result = false;
+    if (id == null)
+    {
+      setResponse("Failed to unsubscribe, invalid subscription ID: null");
+    }
+    else
+    {
+      result = mConnection.unsubscribe(id);
+    }
+    
+    mLogger.trace("MqContext::unsubscribe() - OUT, Returns={}", result);
+    return result;
+  }
+  
+  /**
+   * Receive a message pushed to one of the context's subscriptions.
+   * 
+   * @param timeout
+   *   The number of milliseconds to wait until a message arrives. A value of 0 means to wait indefinitely.
+   * @return
+   *   the {@link IMqMessage} object or {@code null} if no message arrived
+   */
+  public IMqMessage receive(long timeout)
+  {
+    mLogger.trace("MqContext::receive() - IN, Timeout={}", timeout);
+    
+    IMqMessage result = mConnection.receive(timeout);
+    
+    mLogger.trace("MqContext::receive() - OUT, Returns={}", StringUtils.asPrintableString(result));
+    return result;
+  }
+  
   /**
    * Get response from last call.
    * 
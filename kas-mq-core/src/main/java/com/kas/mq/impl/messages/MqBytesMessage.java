@@ -3,15 +3,20 @@ package com.kas.mq.impl.messages;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import com.kas.comm.impl.PacketHeader;
 import com.kas.comm.serializer.EClassId;
+import com.kas.infra.base.BinaryReader;
 import com.kas.infra.base.IObject;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.internal.ABaseBytesMessage;
 
 /**
  * A KAS/MQ message with a byte array payload.<br>
- * The message body is a byte []
+ * The message body is a byte []<br>
+ * <br>
+ * Large bodies can be set and read as {@link ByteBuffer buffers}, e.g. direct or mapped ones,
+ * and are then sent and received without being copied to the heap.
  * 
  * @author Pippo
  */
@@ -39,6 +44,19 @@ public final class MqBytesMessage extends ABaseBytesMessage
     super(istream);
   }
   
+  /**
+   * Constructs a {@link MqBytesMessage} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the message could not be read
+   */
+  public MqBytesMessage(BinaryReader reader) throws IOException
+  {
+    super(reader);
+  }
+  
   /**
    * Serialize the {@link MqBytesMessage} to the specified {@link ObjectOutputStream}
    * 
@@ -61,17 +79,55 @@ public final class MqBytesMessage extends ABaseBytesMessage
   public void setBody(byte [] body)
   {
     mBody = body;
+    mBodyView = null;
+  }
+  
+  /**
+   * Set the message body to the contents of a buffer, from its position to its limit, without copying them.<br>
+   * The buffer must not be modified until the message was sent.
+   * 
+   * @param body
+   *   The message body
+   */
+  public void setBody(ByteBuffer body)
+  {
+    mBody = null;
+    mBodyView = ((body == null) || !body.hasRemaining()) ? null : body.slice();
   }
   
   /**
-   * Get the message body
+   * Get the message body.<br>
+   * A large body that was received as a view is copied to a byte array the first time it's asked for.
+   * Use {@link #getBodyBuffer()} to avoid the copy.
    * 
    * @return
    *   the message body
    */
   public byte [] getBody()
   {
-    return mBody;
+    return getBodyBytes();
+  }
+  
+  /**
+   * Get the message body as a read-only buffer, without copying it
+   * 
+   * @return
+   *   the message body, or {@code null}
+   */
+  public ByteBuffer getBodyBuffer()
+  {
+    return getBodyView();
+  }
+  
+  /**
+   * Get the message body length
+   * 
+   * @return
+   *   the number of bytes in the message body
+   */
+  public int getBodyLength()
+  {
+    return super.getBodyLength();
   }
   
   /**
@@ -99,7 +155,7 @@ public final class MqBytesMessage extends ABaseBytesMessage
     StringBuilder sb = new StringBuilder();
     sb.append(name()).append("(\n")
       .append(super.toPrintableString(level))
-      .append(pad).append("  Body=(").append(StringUtils.asString(mBody)).append(")\n")
+      .append(pad).append("  Body=(").append(mBodyView == null ? StringUtils.asString(mBody) : mBodyView.remaining() + " bytes").append(")\n")
       .append(pad).append(")");
     return sb.toString();
   }
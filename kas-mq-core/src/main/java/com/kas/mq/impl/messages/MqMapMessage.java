@@ -7,6 +7,8 @@ import java.util.Enumeration;
 import java.util.Map;
 import com.kas.comm.impl.PacketHeader;
 import com.kas.comm.serializer.EClassId;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.BinaryWriter;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.Properties;
 import com.kas.infra.utils.StringUtils;
@@ -58,6 +60,21 @@ public final class MqMapMessage extends ABaseMessage
     mBody = new Properties(istream);
   }
   
+  /**
+   * Constructs a {@link MqMapMessage} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the message could not be read
+   */
+  public MqMapMessage(BinaryReader reader) throws IOException
+  {
+    super(reader);
+    
+    mBody = reader.readBool() ? new Properties(reader) : null;
+  }
+  
   /**
    * Serialize the {@link MqMapMessage} to the specified {@link ObjectOutputStream}
    * 
@@ -73,6 +90,23 @@ public final class MqMapMessage extends ABaseMessage
     mProperties.serialize(ostream);
   }
   
+  /**
+   * Serialize the {@link MqMapMessage} to the specified {@link BinaryWriter}
+   * 
+   * @param writer
+   *   The {@link BinaryWriter} to which the message will be serialized
+   * @throws IOException
+   *   if the message could not be written
+   */
+  public void serialize(BinaryWriter writer) throws IOException
+  {
+    super.serialize(writer);
+    
+    writer.writeBool(mBody != null);
+    if (mBody != null)
+      mBody.serialize(writer);
+  }
+  
   /**
    * Get an {@link Enumeration} of all keys
    * 
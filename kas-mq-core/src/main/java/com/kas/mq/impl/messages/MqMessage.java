@@ -5,6 +5,7 @@ import java.io.ObjectInputStream;
 import com.kas.comm.IPacket;
 import com.kas.comm.impl.PacketHeader;
 import com.kas.comm.serializer.EClassId;
+import com.kas.infra.base.BinaryReader;
 import com.kas.mq.internal.ABaseMessage;
 
 /**
@@ -34,6 +35,19 @@ public final class MqMessage extends ABaseMessage implements IPacket
     super(istream);
   }
   
+  /**
+   * Constructs a {@link MqMessage} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the message could not be read
+   */
+  public MqMessage(BinaryReader reader) throws IOException
+  {
+    super(reader);
+  }
+  
   /**
    * Create the {@link PacketHeader} describing this {@link ABaseMessage}
    * 
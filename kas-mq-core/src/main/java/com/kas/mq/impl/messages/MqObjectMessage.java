@@ -7,6 +7,7 @@ import java.io.Serializable;
 import com.kas.comm.impl.PacketHeader;
 import com.kas.comm.serializer.EClassId;
 import com.kas.comm.serializer.Serializer;
+import com.kas.infra.base.BinaryReader;
 import com.kas.infra.base.IObject;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.internal.ABaseBytesMessage;
@@ -46,6 +47,19 @@ public final class MqObjectMessage extends ABaseBytesMessage
     super(istream);
   }
   
+  /**
+   * Constructs a {@link MqObjectMessage} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the message could not be read
+   */
+  public MqObjectMessage(BinaryReader reader) throws IOException
+  {
+    super(reader);
+  }
+  
   /**
    * Serialize the {@link MqObjectMessage} to the specified {@link ObjectOutputStream}
    * 
@@ -7,6 +7,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import com.kas.comm.impl.PacketHeader;
 import com.kas.comm.serializer.EClassId;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.BinaryWriter;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.KasException;
 import com.kas.infra.utils.StringUtils;
@@ -50,6 +52,21 @@ public final class MqStreamMessage extends ABaseBytesMessage
     setReadOnly();
   }
   
+  /**
+   * Constructs a {@link MqStreamMessage} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the message could not be read
+   */
+  public MqStreamMessage(BinaryReader reader) throws IOException
+  {
+    super(reader);
+    getBodyBytes();
+    setReadOnly();
+  }
+  
   /**
    * Serialize the {@link MqStreamMessage} to the specified {@link ObjectOutputStream}
    * 
@@ -64,6 +81,20 @@ public final class MqStreamMessage extends ABaseBytesMessage
     super.serialize(ostream);
   }
   
+  /**
+   * Serialize the {@link MqStreamMessage} to the specified {@link BinaryWriter}
+   * 
+   * @param writer
+   *   The {@link BinaryWriter} to which the message will be serialized
+   * @throws IOException
+   *   if the message could not be written
+   */
+  public void serialize(BinaryWriter writer) throws IOException
+  {
+    setReadOnly();
+    super.serialize(writer);
+  }
+  
   /**
    * Return the message's state
    * 
@@ -5,6 +5,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import com.kas.comm.impl.PacketHeader;
 import com.kas.comm.serializer.EClassId;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.BinaryWriter;
 import com.kas.infra.base.IObject;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.internal.ABaseMessage;
@@ -56,6 +58,20 @@ public final class MqStringMessage extends ABaseMessage
     }
   }
   
+  /**
+   * Constructs a {@link MqStringMessage} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the message could not be read
+   */
+  public MqStringMessage(BinaryReader reader) throws IOException
+  {
+    super(reader);
+    mBody = reader.readString();
+  }
+  
   /**
    * Serialize the {@link MqStringMessage} to the specified {@link ObjectOutputStream}
    * 
@@ -71,6 +87,21 @@ public final class MqStringMessage extends ABaseMessage
     ostream.writeObject(mBody);
   }
   
+  /**
+   * Serialize the {@link MqStringMessage} to the specified {@link BinaryWriter}
+   * 
+   * @param writer
+   *   The {@link BinaryWriter} to which the message will be serialized
+   * @throws IOException
+   *   if the message could not be written
+   */
+  public void serialize(BinaryWriter writer) throws IOException
+  {
+    super.serialize(writer);
+    
+    writer.writeString(mBody);
+  }
+  
   /**
    * Set the message body
    * 
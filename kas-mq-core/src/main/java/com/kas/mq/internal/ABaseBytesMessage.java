@@ -3,23 +3,45 @@ package com.kas.mq.internal;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.BinaryWriter;
 import com.kas.infra.base.IObject;
 
 /**
  * A KAS/MQ base message, with a byte array payload.<br>
  * <br>
  * Some of the messages that are exposed to the user make use of a byte array
- * as their payload. To simplify things and code reuse purposes I created this class.
+ * as their payload. To simplify things and code reuse purposes I created this class.<br>
+ * <br>
+ * A payload of at least {@value #cViewBodyLength} bytes that's read with a {@link BinaryReader} is kept
+ * as a view of the frame or of the store record it was read from, and is copied to a byte array only
+ * if someone asks for one. Until then, it's written out with the rest of the message without being copied.
  * 
  * @author Pippo
  */
 public abstract class ABaseBytesMessage extends ABaseMessage
 {
+  /**
+   * Payloads this long or longer are kept as views rather than copied when read
+   */
+  static public final int cViewBodyLength = 64 * 1024;
+  
+  /**
+   * Chunk size for writing a payload view to an {@link ObjectOutputStream}
+   */
+  static private final int cStreamChunkLength = 64 * 1024;
+  
   /**
    * The payload (byte array) 
    */
   protected byte [] mBody;
   
+  /**
+   * The payload, if it's kept as a view. At most one of {@link #mBody} and {@link #mBodyView} is set
+   */
+  protected ByteBuffer mBodyView = null;
+  
   /**
    * Construct a default string message object
    */
@@ -46,7 +68,7 @@ public abstract class ABaseBytesMessage extends ABaseMessage
       if (len > 0)
       {
         mBody = new byte [len];
-        istream.read(mBody);
+        istream.readFully(mBody);
       }
     }
     catch (IOException e)
@@ -59,6 +81,68 @@ public abstract class ABaseBytesMessage extends ABaseMessage
     }
   }
   
+  /**
+   * Constructs a {@link ABaseBytesMessage} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the message could not be read
+   */
+  public ABaseBytesMessage(BinaryReader reader) throws IOException
+  {
+    super(reader);
+    int len = reader.readVarInt() - 1;
+    if (len >= cViewBodyLength)
+      mBodyView = reader.readView(len);
+    else if (len > 0)
+      mBody = reader.readRaw(len);
+  }
+  
+  /**
+   * Get the payload as a byte array, copying it from its view first if needed
+   * 
+   * @return
+   *   the payload
+   */
+  protected byte [] getBodyBytes()
+  {
+    if (mBodyView != null)
+    {
+      byte [] body = new byte [mBodyView.remaining()];
+      mBodyView.duplicate().get(body);
+      mBody = body;
+      mBodyView = null;
+    }
+    return mBody;
+  }
+  
+  /**
+   * Get the payload as a read-only buffer, without copying it
+   * 
+   * @return
+   *   the payload, or {@code null}
+   */
+  protected ByteBuffer getBodyView()
+  {
+    if (mBodyView != null)
+      return mBodyView.asReadOnlyBuffer();
+    return mBody == null ? null : ByteBuffer.wrap(mBody).asReadOnlyBuffer();
+  }
+  
+  /**
+   * Get the payload length
+   * 
+   * @return
+   *   the number of bytes in the payload
+   */
+  protected int getBodyLength()
+  {
+    if (mBodyView != null)
+      return mBodyView.remaining();
+    return mBody == null ? 0 : mBody.length;
+  }
+  
   /**
    * Serialize the {@link ABaseBytesMessage} to the specified {@link ObjectOutputStream}
    * 
@@ -71,17 +155,47 @@ public abstract class ABaseBytesMessage extends ABaseMessage
   {
     super.serialize(ostream);
     
-    int len = (mBody == null ? 0 : mBody.length);
+    int len = getBodyLength();
     ostream.writeInt(len);
     ostream.reset();
     
-    if (len > 0)
+    if (mBodyView != null)
+    {
+      ByteBuffer view = mBodyView.duplicate();
+      byte [] chunk = new byte [Math.min(cStreamChunkLength, len)];
+      while (view.hasRemaining())
+      {
+        int count = Math.min(chunk.length, view.remaining());
+        view.get(chunk, 0, count);
+        ostream.write(chunk, 0, count);
+      }
+      ostream.reset();
+    }
+    else if (len > 0)
     {
       ostream.write(mBody);
       ostream.reset();
     }
   }
   
+  /**
+   * Serialize the {@link ABaseBytesMessage} to the specified {@link BinaryWriter}
+   * 
+   * @param writer
+   *   The {@link BinaryWriter} to which the message will be serialized
+   * @throws IOException
+   *   if the message could not be written
+   */
+  public void serialize(BinaryWriter writer) throws IOException
+  {
+    super.serialize(writer);
+    
+    if (mBodyView != null)
+      writer.writeBuffer(mBodyView);
+    else
+    writer.writeBytes(mBody);
+  }
+  
   /**
    * Returns the {@link IObject} string representation.
    * 
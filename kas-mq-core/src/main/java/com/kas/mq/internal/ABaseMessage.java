@@ -5,6 +5,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import com.kas.comm.impl.PacketHeader;
 import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.BinaryWriter;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.Properties;
 import com.kas.infra.base.UniqueId;
@@ -66,6 +68,11 @@ public abstract class ABaseMessage extends AKasObject implements IMqMessage
    */
   protected Properties mProperties;
   
+  /**
+   * The ID correlating a request with its reply. Carried by the frame header, so it's neither serialized nor stored
+   */
+  protected int mRequestId = 0;
+  
   /**
    * Construct a default string message object
    */
@@ -121,6 +128,26 @@ public abstract class ABaseMessage extends AKasObject implements IMqMessage
     }
   }
   
+  /**
+   * Constructs a {@link ABaseMessage} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the message could not be read
+   */
+  public ABaseMessage(BinaryReader reader) throws IOException
+  {
+    mMessageId = reader.readUniqueId();
+    mReferenceId = reader.readUniqueId();
+    mPriority = reader.readVarInt();
+    mRequestType = ERequestType.fromInt(reader.readVarInt());
+    mTimeStamp = reader.readVarLong();
+    mExpiration = reader.readVarLong();
+    mResponse = new MqResponse(reader);
+    mProperties = new Properties(reader);
+  }
+  
   /**
    * Serialize the {@link ABaseMessage} to the specified {@link ObjectOutputStream}
    * 
@@ -156,6 +183,26 @@ public abstract class ABaseMessage extends AKasObject implements IMqMessage
     mProperties.serialize(ostream);
   }
   
+  /**
+   * Serialize the {@link ABaseMessage} to the specified {@link BinaryWriter}
+   * 
+   * @param writer
+   *   The {@link BinaryWriter} to which the message will be serialized
+   * @throws IOException
+   *   if the message could not be written
+   */
+  public void serialize(BinaryWriter writer) throws IOException
+  {
+    writer.writeUniqueId(mMessageId);
+    writer.writeUniqueId(mReferenceId);
+    writer.writeVarInt(mPriority);
+    writer.writeVarInt(mRequestType.ordinal());
+    writer.writeVarLong(mTimeStamp);
+    writer.writeVarLong(mExpiration);
+    mResponse.serialize(writer);
+    mProperties.serialize(writer);
+  }
+  
   /**
    * Create a header describing the packet
    * 
@@ -199,6 +246,28 @@ public abstract class ABaseMessage extends AKasObject implements IMqMessage
     return mReferenceId;
   }
   
+  /**
+   * Set the request ID
+   * 
+   * @param id
+   *   The request ID to set
+   */
+  public void setRequestId(int id)
+  {
+    mRequestId = id;
+  }
+  
+  /**
+   * Get the request ID
+   * 
+   * @return
+   *   the request ID
+   */
+  public int getRequestId()
+  {
+    return mRequestId;
+  }
+  
   /**
    * Set the message priority
    * 
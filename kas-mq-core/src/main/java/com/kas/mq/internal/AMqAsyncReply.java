@@ -0,0 +1,112 @@
+package com.kas.mq.internal;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.KasException;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link AMqAsyncReply} turns the reply to an asynchronous request into the request's result.<br>
+ * <br>
+ * It's registered to be invoked once the reply future returned by {@link MqConnection#sendAsync(IMqMessage)}
+ * completes, and it completes the {@link #getResult() result} with whatever {@link #convert(IMqMessage)} makes
+ * of the reply. A reply the server marked as failed completes the result exceptionally, with a {@link KasException}
+ * holding the server's response description, and so does a lost connection.
+ * 
+ * @param <T>
+ *   The type of the result
+ * 
+ * @author Pippo
+ */
+public abstract class AMqAsyncReply<T> extends AKasObject implements BiConsumer<IMqMessage, Throwable>
+{
+  /**
+   * The request's result
+   */
+  protected CompletableFuture<T> mResult = new CompletableFuture<T>();
+  
+  /**
+   * Get the request's result
+   * 
+   * @return
+   *   the request's result
+   */
+  public CompletableFuture<T> getResult()
+  {
+    return mResult;
+  }
+  
+  /**
+   * Complete the result once the reply arrived, or the request failed
+   * 
+   * @param reply
+   *   The reply, or {@code null} if the request failed
+   * @param error
+   *   The failure, or {@code null} if the reply arrived
+   */
+  public void accept(IMqMessage reply, Throwable error)
+  {
+    if (error != null)
+    {
+      mResult.completeExceptionally(error);
+      return;
+    }
+    
+    try
+    {
+      mResult.complete(convert(reply));
+    }
+    catch (KasException | IOException | RuntimeException e)
+    {
+      mResult.completeExceptionally(e);
+    }
+  }
+  
+  /**
+   * Turn the reply into the request's result
+   * 
+   * @param reply
+   *   The reply
+   * @return
+   *   the request's result
+   * @throws KasException
+   *   if the reply tells the request failed
+   * @throws IOException
+   *   if the reply could not be decoded
+   */
+  protected abstract T convert(IMqMessage reply) throws KasException, IOException;
+  
+  /**
+   * Create the exception telling the request failed
+   * 
+   * @param reply
+   *   The reply
+   * @return
+   *   the exception, holding the server's response description
+   */
+  static protected KasException failure(IMqMessage reply)
+  {
+    return new KasException(reply.getResponse().getCode() + ": " + reply.getResponse().getDesc());
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Done=").append(mResult.isDone()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -67,6 +67,24 @@ public enum ERequestType implements IObject
    */
   cNotifySysState,
   cNotifyRepoUpdate,
+  
+  /**
+   * Batch requests. These are added last, so the ordinals of older request types are kept
+   */
+  cGetBatch,
+  cPutBatch,
+  
+  /**
+   * Subscriptions
+   */
+  cSubscribe,
+  cUnsubscribe,
+  cCredit,
+  
+  /**
+   * Queue directory synchronization
+   */
+  cNotifyRepoSync,
   ;
   
   static final private ERequestType [] cValues = ERequestType.values();
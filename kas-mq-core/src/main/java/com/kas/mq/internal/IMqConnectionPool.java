@@ -9,4 +9,15 @@ import com.kas.infra.base.IPool;
  */
 public interface IMqConnectionPool extends IPool<MqConnection>
 {
+  /**
+   * Allocate a connection to a KAS/MQ server that is already connected and logged in.<br>
+   * The connection must be returned to the pool with {@link #release(Object)} once it's no longer used,
+   * and the pool may then hand it to the next caller.
+   * 
+   * @param manager
+   *   The {@link MqManager} of the KAS/MQ server
+   * @return
+   *   the connection, or {@code null} if none could be connected or all are in use
+   */
+  public abstract MqConnection allocate(MqManager manager);
 }
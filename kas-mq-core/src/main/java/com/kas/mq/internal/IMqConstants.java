@@ -34,6 +34,12 @@ public interface IMqConstants
    */
   static public final long cDefaultTimeout = 0L;
   
+  /**
+   * Batch get limits: messages per reply and bytes per reply
+   */
+  static public final int cDefaultBatchMessages = 100;
+  static public final int cDefaultBatchBytes = 1024 * 1024;
+  
   /**
    * Admin queue name<br>
    * This queue does not actually exist
@@ -97,6 +103,8 @@ public interface IMqConstants
   static public final String cKasPropertyGetTimeStamp = cKasPropertyPrefix + "get.timestamp";
   static public final String cKasPropertyGetUserName  = cKasPropertyPrefix + "get.username";
   static public final String cKasPropertyGetQueueName = cKasPropertyPrefix + "get.queue";
+  static public final String cKasPropertyGetMaxMsgs   = cKasPropertyPrefix + "get.maxmsgs";
+  static public final String cKasPropertyGetMaxBytes  = cKasPropertyPrefix + "get.maxbytes";
   
   /**
    * Put
@@ -105,6 +113,14 @@ public interface IMqConstants
   static public final String cKasPropertyPutQueueName = cKasPropertyPrefix + "put.queue";
   static public final String cKasPropertyPutTimeStamp = cKasPropertyPrefix + "put.timestamp";
   
+  /**
+   * Subscribe
+   */
+  static public final String cKasPropertySubQueueName = cKasPropertyPrefix + "sub.queue";
+  static public final String cKasPropertySubId        = cKasPropertyPrefix + "sub.id";
+  static public final String cKasPropertySubCredit    = cKasPropertyPrefix + "sub.credit";
+  static public final String cKasPropertySubDelivery  = cKasPropertyPrefix + "sub.delivery";
+  
   /**
    * System state
    */
@@ -118,6 +134,16 @@ public interface IMqConstants
   static public final String cKasPropertyRepoQmgrName  = cKasPropertyPrefix + "repo.qmgr";
   static public final String cKasPropertyRepoQueueName = cKasPropertyPrefix + "repo.queue";
   static public final String cKasPropertyRepoOperation = cKasPropertyPrefix + "repo.added";
+  static public final String cKasPropertyRepoEpoch     = cKasPropertyPrefix + "repo.epoch";
+  static public final String cKasPropertyRepoSequence  = cKasPropertyPrefix + "repo.seq";
+  
+  /**
+   * Repository synchronization. The version and digest are the sender's view of the receiver's queue directory
+   */
+  static public final String cKasPropertyRsyncQmgrName = cKasPropertyPrefix + "rsync.qmgr";
+  static public final String cKasPropertyRsyncEpoch    = cKasPropertyPrefix + "rsync.epoch";
+  static public final String cKasPropertyRsyncSequence = cKasPropertyPrefix + "rsync.seq";
+  static public final String cKasPropertyRsyncDigest   = cKasPropertyPrefix + "rsync.digest";
   
   /**
    * Query
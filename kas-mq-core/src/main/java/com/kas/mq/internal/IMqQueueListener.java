@@ -0,0 +1,18 @@
+package com.kas.mq.internal;
+
+/**
+ * A listener that is told when messages are added to a {@link MqLocalQueue}
+ * 
+ * @author Pippo
+ */
+public interface IMqQueueListener
+{
+  /**
+   * A message was added to {@code queue}.<br>
+   * This is called on the thread that added the message, so it should return quickly.
+   * 
+   * @param queue
+   *   The queue
+   */
+  public abstract void onMessageAvailable(MqLocalQueue queue);
+}
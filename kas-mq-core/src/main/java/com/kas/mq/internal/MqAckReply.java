@@ -0,0 +1,30 @@
+package com.kas.mq.internal;
+
+import com.kas.infra.base.KasException;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link MqAckReply} completes the result of a request that only tells whether it succeeded, such as a put
+ * or an administrative request
+ * 
+ * @author Pippo
+ */
+public class MqAckReply extends AMqAsyncReply<Void>
+{
+  /**
+   * Check the request succeeded
+   * 
+   * @param reply
+   *   The reply
+   * @return
+   *   nothing
+   * @throws KasException
+   *   if the request failed
+   */
+  protected Void convert(IMqMessage reply) throws KasException
+  {
+    if (reply.getResponse().getCode() != EMqCode.cOkay)
+      throw failure(reply);
+    return null;
+  }
+}
@@ -4,22 +4,36 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.kas.comm.IMessenger;
+import com.kas.comm.IPacket;
 import com.kas.comm.impl.MessengerFactory;
 import com.kas.comm.impl.NetworkAddress;
 import com.kas.infra.base.AKasObject;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.TimeStamp;
 import com.kas.infra.base.UniqueId;
+import com.kas.infra.base.threads.KasRunnableThread;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.impl.IMqConnection;
 import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqBytesMessage;
 
 /**
  * A connection is the object that responsible for connecting, authenticating etc.
- * Basically, it wraps the simple functions of the {@link IMessenger}.
+ * Basically, it wraps the simple functions of the {@link IMessenger}.<br>
+ * <br>
+ * A connection may be shared by many threads. Each request carries a request ID of its own, and a
+ * {@link MqConnectionReader} hands each reply to the thread waiting for it, so threads don't wait
+ * for each other's replies. The response of the last call is kept per thread.
  * 
  * @author Pippo
  */
@@ -33,7 +47,7 @@ public class MqConnection extends AKasObject implements IMqConnection
   /**
    * Messenger
    */
-  protected IMessenger mMessenger;
+  protected volatile IMessenger mMessenger;
   
   /**
    * Client Application name
@@ -44,7 +58,7 @@ public class MqConnection extends AKasObject implements IMqConnection
    * Active user.<br>
    * This data member is set after each successful {@link #login(String, String) login}.
    */
-  protected String mUser = null;
+  protected volatile String mUser = null;
   
   /**
    * Connection ID
@@ -54,12 +68,33 @@ public class MqConnection extends AKasObject implements IMqConnection
   /**
    * The session ID the connection is serving
    */
-  private UniqueId mSessionId = null;
+  private volatile UniqueId mSessionId = null;
   
   /**
-   * The response from last call
+   * The response from last call, of each thread
    */
-  private String mResponse;
+  private ThreadLocal<String> mResponse = new ThreadLocal<String>();
+  
+  /**
+   * Reads all incoming packets, so replies and pushed messages can arrive in any order
+   */
+  private volatile MqConnectionReader mReader = null;
+  
+  /**
+   * The ID of the last request sent
+   */
+  private AtomicInteger mRequestId = new AtomicInteger(0);
+  
+  /**
+   * Serializes sends. A lock rather than a monitor, so a virtual thread blocked in a send does not pin its carrier
+   */
+  private final ReentrantLock mSendLock = new ReentrantLock();
+  
+  /**
+   * The credit window of each subscription, and the number of messages received since credit was last granted
+   */
+  private Map<UniqueId, Integer> mWindows = new ConcurrentHashMap<UniqueId, Integer>();
+  private Map<UniqueId, Integer> mConsumed = new ConcurrentHashMap<UniqueId, Integer>();
   
   /**
    * Constructing the connection
@@ -84,17 +119,18 @@ public class MqConnection extends AKasObject implements IMqConnection
    * @param port
    *   The port number
    */
-  public void connect(String host, int port)
+  public synchronized void connect(String host, int port)
   {
     mLogger.trace("MqConnection::connect() - IN");
     
-    if (isConnected()) disconnect();
+    if ((mMessenger != null) && (mMessenger.isConnected())) disconnect();
     
     NetworkAddress addr = new NetworkAddress(host, port);
     
     try
     {
       mMessenger = MessengerFactory.create(host, port);
+      startReader();
       setResponse("Successfully connected to " + addr);
     }
     catch (ConnectException | UnknownHostException e)
@@ -122,18 +158,23 @@ public class MqConnection extends AKasObject implements IMqConnection
    * Note we allocate a new {@link Socket} following the call to {@link Socket#close() close()} because
    * a closed socket cannot be reused.
    */
-  public void disconnect()
+  public synchronized void disconnect()
   {
     mLogger.trace("MqConnection::disconnect() - IN");
     
-    if (!isConnected())
+    if ((mMessenger == null) || (!mMessenger.isConnected()))
     {
       logInfoAndSetResponse("Not connected to host");
     }
     else
     {
       NetworkAddress addr = mMessenger.getAddress();
+      if (mReader != null)
+        mReader.stop();
       mMessenger.cleanup();
+      mReader = null;
+      mWindows.clear();
+      mConsumed.clear();
       
       logInfoAndSetResponse("Connection terminated with " + addr.toString());
       
@@ -146,7 +187,8 @@ public class MqConnection extends AKasObject implements IMqConnection
 
   /**
    * Get the connection status.<br>
-   * A connected socket is one that is marked as connected AND not closed.
+   * A connected socket is one that is marked as connected AND not closed, and that its reader
+   * did not find to be lost, e.g. because the server closed it.
    * 
    * @return
    *   {@code true} if socket is connected and not closed, {@code false} otherwise
@@ -155,7 +197,11 @@ public class MqConnection extends AKasObject implements IMqConnection
    */
   public boolean isConnected()
   {
-    return mMessenger == null ? false : mMessenger.isConnected();
+    if ((mMessenger == null) || (!mMessenger.isConnected()))
+      return false;
+    
+    MqConnectionReader reader = mReader;
+    return (reader == null) || (!reader.isFailed());
   }
   
   /**
@@ -168,7 +214,7 @@ public class MqConnection extends AKasObject implements IMqConnection
    * @return
    *   {@code true} if {@code password} matches the user's password
    */
-  public boolean login(String user, String pwd)
+  public synchronized boolean login(String user, String pwd)
   {
     mLogger.trace("MqConnection::login() - IN");
     
@@ -184,7 +230,7 @@ public class MqConnection extends AKasObject implements IMqConnection
       mLogger.trace("MqConnection::login() - sending login request: " + StringUtils.asPrintableString(request));
       try
       {
-        IMqMessage reply = (IMqMessage)mMessenger.sendAndReceive(request);
+        IMqMessage reply = sendAndReceive(request);
         mLogger.trace("MqConnection::login() - received response: " + StringUtils.asPrintableString(reply));
         if (reply.getResponse().getCode() == EMqCode.cOkay)
         {
@@ -238,12 +284,11 @@ public class MqConnection extends AKasObject implements IMqConnection
         String qname = queue.toUpperCase();
         IMqMessage request = MqRequestFactory.createGetRequest(qname, timeout, interval);
         mLogger.trace("MqConnection::get() - sending get request: " + StringUtils.asPrintableString(request));
-        IMqMessage reply = (IMqMessage)mMessenger.sendAndReceive(request);
+        IMqMessage reply = sendAndReceive(request);
         mLogger.trace("MqConnection::get() - received response: " + StringUtils.asPrintableString(reply));
         if (reply.getResponse().getCode() == EMqCode.cOkay)
         {
-          reply.setStringProperty(IMqConstants.cKasPropertyGetUserName, mUser);
-          reply.setStringProperty(IMqConstants.cKasPropertyGetTimeStamp, TimeStamp.now().toString());
+          setGetProperties(reply, TimeStamp.now().toString());
           result = reply;
           setResponse("Successfully got a message from queue " + queue + ", MessageID: " + reply.getMessageId());
         }
@@ -265,6 +310,70 @@ public class MqConnection extends AKasObject implements IMqConnection
     return result;
   }
   
+  /**
+   * Get up to {@code maxMessages} messages from queue in a single request.<br>
+   * The server waits up to {@code timeout} milliseconds for the first message, then adds whatever other messages
+   * are available right away, until {@code maxMessages} messages or {@code maxBytes} bytes were collected.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param maxMessages
+   *   The maximum number of messages to get
+   * @param maxBytes
+   *   The number of bytes after which no more messages are added. The first message is returned regardless of its size
+   * @param timeout
+   *   The number of milliseconds to wait until a message available
+   * @param interval
+   *   The number in milliseconds the thread execution is suspended between each polling operation
+   * @return
+   *   the list of messages, which is empty if no message is available
+   */
+  public List<IMqMessage> getBatch(String queue, int maxMessages, int maxBytes, long timeout, long interval)
+  {
+    mLogger.trace("MqConnection::getBatch() - IN");
+    
+    List<IMqMessage> result = new ArrayList<IMqMessage>();
+    if (!isConnected())
+    {
+      logErrorAndSetResponse("Not connected to host");
+    }
+    else
+    {
+      try
+      {
+        String qname = queue.toUpperCase();
+        IMqMessage request = MqRequestFactory.createGetBatchRequest(qname, maxMessages, maxBytes, timeout, interval);
+        mLogger.trace("MqConnection::getBatch() - sending get request: " + StringUtils.asPrintableString(request));
+        IMqMessage reply = sendAndReceive(request);
+        mLogger.trace("MqConnection::getBatch() - received response: " + StringUtils.asPrintableString(reply));
+        if ((reply.getResponse().getCode() == EMqCode.cOkay) && (reply instanceof MqBytesMessage))
+        {
+          String now = TimeStamp.now().toString();
+          for (IMqMessage message : MqMessageBatch.unpack(((MqBytesMessage)reply).getBody()))
+          {
+            setGetProperties(message, now);
+            result.add(message);
+          }
+          setResponse("Successfully got " + result.size() + " messages from queue " + queue);
+        }
+        else
+        {
+          logInfoAndSetResponse(reply.getResponse().getDesc());
+        }
+      }
+      catch (IOException e)
+      {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Exception occurred while trying to get messages from queue [")
+          .append(queue).append("]. Exception: ").append(StringUtils.format(e));
+        logErrorAndSetResponse(sb.toString());
+      }
+    }
+    
+    mLogger.trace("MqConnection::getBatch() - OUT, Returns=" + result.size() + " messages");
+    return result;
+  }
+  
   /**
    * Put a message into the specified queue.
    * 
@@ -288,13 +397,10 @@ public class MqConnection extends AKasObject implements IMqConnection
     {
       try
       {
-        String qname = queue.toUpperCase();
-        message.setStringProperty(IMqConstants.cKasPropertyPutQueueName, qname);
-        message.setStringProperty(IMqConstants.cKasPropertyPutUserName, mUser.toUpperCase());
-        message.setStringProperty(IMqConstants.cKasPropertyPutTimeStamp, TimeStamp.now().toString());
+        setPutProperties(message, queue, TimeStamp.now().toString());
         
         mLogger.trace("MqConnection::put() - sending message: " + StringUtils.asPrintableString(message));
-        reply = (IMqMessage)mMessenger.sendAndReceive(message);
+        reply = sendAndReceive(message);
         mLogger.trace("MqConnection::put() - received response: " + StringUtils.asPrintableString(reply));
         setResponse(reply.getResponse().getDesc());
       }
@@ -311,6 +417,405 @@ public class MqConnection extends AKasObject implements IMqConnection
     return reply;
   }
   
+  /**
+   * Put several messages, each into its own queue, in a single request.<br>
+   * The server replies once for the whole batch, with the outcome of each message.
+   * 
+   * @param queues
+   *   The target queue names, one for each message
+   * @param messages
+   *   The messages to be put
+   * @return
+   *   the {@link EMqCode} of each message, in the order of {@code messages}.
+   *   If the request itself failed, e.g. because the connection was lost, all messages are reported as
+   *   {@link EMqCode#cError}, since they may or may not have been put
+   */
+  public List<EMqCode> putBatch(List<String> queues, List<IMqMessage> messages)
+  {
+    mLogger.trace("MqConnection::putBatch() - IN");
+    
+    List<EMqCode> result = new ArrayList<EMqCode>();
+    if (!isConnected())
+    {
+      logErrorAndSetResponse("Not connected to host");
+    }
+    else
+    {
+      try
+      {
+        String now = TimeStamp.now().toString();
+        MqMessageBatch batch = new MqMessageBatch();
+        for (int i = 0; i < messages.size(); ++i)
+        {
+          IMqMessage message = messages.get(i);
+          setPutProperties(message, queues.get(i), now);
+          batch.add(message);
+        }
+        
+        IMqMessage request = MqRequestFactory.createPutBatchRequest(batch.toByteArray());
+        mLogger.trace("MqConnection::putBatch() - sending " + batch.size() + " messages");
+        IMqMessage reply = sendAndReceive(request);
+        mLogger.trace("MqConnection::putBatch() - received response: " + StringUtils.asPrintableString(reply));
+        
+        byte [] codes = reply instanceof MqBytesMessage ? ((MqBytesMessage)reply).getBody() : null;
+        if ((codes != null) && (codes.length == messages.size()))
+        {
+          for (byte code : codes)
+            result.add(EMqCode.fromInt(code));
+        }
+        setResponse(reply.getResponse().getDesc());
+      }
+      catch (IOException e)
+      {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Exception occurred while trying to put a batch of ").append(messages.size())
+          .append(" messages. Exception: ").append(StringUtils.format(e));
+        logErrorAndSetResponse(sb.toString());
+      }
+    }
+    
+    if (result.isEmpty())
+    {
+      for (int i = 0; i < messages.size(); ++i)
+        result.add(EMqCode.cError);
+    }
+    
+    mLogger.trace("MqConnection::putBatch() - OUT");
+    return result;
+  }
+  
+  /**
+   * Subscribe to a queue, so its messages are pushed to the connection as they arrive.<br>
+   * The server pushes up to {@code credit} messages ahead of the client. Pushed messages are taken by
+   * {@link #receive(long)}, which grants more credit as they are consumed.
+   * 
+   * @param queue
+   *   The target queue name
+   * @param credit
+   *   The maximum number of messages pushed but not yet received
+   * @return
+   *   the subscription ID, or {@code null} if the subscription failed
+   */
+  public UniqueId subscribe(String queue, int credit)
+  {
+    mLogger.trace("MqConnection::subscribe() - IN");
+    
+    UniqueId result = null;
+    if (!isConnected())
+    {
+      logErrorAndSetResponse("Not connected to host");
+    }
+    else
+    {
+      try
+      {
+        String qname = queue.toUpperCase();
+        IMqMessage request = MqRequestFactory.createSubscribeRequest(qname, credit);
+        mLogger.trace("MqConnection::subscribe() - sending subscribe request: " + StringUtils.asPrintableString(request));
+        IMqMessage reply = sendAndReceive(request);
+        mLogger.trace("MqConnection::subscribe() - received response: " + StringUtils.asPrintableString(reply));
+        String id = reply.getStringProperty(IMqConstants.cKasPropertySubId, null);
+        if ((reply.getResponse().getCode() == EMqCode.cOkay) && (id != null))
+        {
+          result = UniqueId.fromString(id);
+          mWindows.put(result, credit);
+          mConsumed.put(result, 0);
+          setResponse("Successfully subscribed to queue " + queue + ", SubscriptionID: " + result);
+        }
+        else
+        {
+          logInfoAndSetResponse(reply.getResponse().getDesc());
+        }
+      }
+      catch (IOException e)
+      {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Exception occurred while trying to subscribe to queue [")
+          .append(queue).append("]. Exception: ").append(StringUtils.format(e));
+        logErrorAndSetResponse(sb.toString());
+      }
+    }
+    
+    mLogger.trace("MqConnection::subscribe() - OUT, Returns=" + StringUtils.asString(result));
+    return result;
+  }
+  
+  /**
+   * Cancel a subscription.<br>
+   * Messages pushed before the subscription was cancelled can still be received.
+   * 
+   * @param id
+   *   The subscription ID
+   * @return
+   *   {@code true} if the subscription was cancelled, {@code false} otherwise
+   */
+  public boolean unsubscribe(UniqueId id)
+  {
+    mLogger.trace("MqConnection::unsubscribe() - IN");
+    
+    boolean success = false;
+    if (!isConnected())
+    {
+      logErrorAndSetResponse("Not connected to host");
+    }
+    else
+    {
+      try
+      {
+        IMqMessage request = MqRequestFactory.createUnsubscribeRequest(id);
+        mLogger.trace("MqConnection::unsubscribe() - sending unsubscribe request: " + StringUtils.asPrintableString(request));
+        IMqMessage reply = sendAndReceive(request);
+        mLogger.trace("MqConnection::unsubscribe() - received response: " + StringUtils.asPrintableString(reply));
+        success = reply.getResponse().getCode() == EMqCode.cOkay;
+        mWindows.remove(id);
+        mConsumed.remove(id);
+        setResponse(reply.getResponse().getDesc());
+      }
+      catch (IOException e)
+      {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Exception occurred while trying to cancel subscription [")
+          .append(id).append("]. Exception: ").append(StringUtils.format(e));
+        logErrorAndSetResponse(sb.toString());
+      }
+    }
+    
+    mLogger.trace("MqConnection::unsubscribe() - OUT, Returns=" + success);
+    return success;
+  }
+  
+  /**
+   * Receive a message pushed to one of the connection's subscriptions.<br>
+   * Once half of a subscription's credit window was received, the consumed credit is granted back to the server.
+   * 
+   * @param timeout
+   *   The number of milliseconds to wait until a message arrives. A value of 0 means to wait indefinitely.
+   * @return
+   *   the {@link IMqMessage} object or {@code null} if no message arrived
+   */
+  public IMqMessage receive(long timeout)
+  {
+    mLogger.trace("MqConnection::receive() - IN");
+    
+    IMqMessage result = null;
+    MqConnectionReader reader = mReader;
+    if ((reader == null) || mWindows.isEmpty())
+    {
+      logErrorAndSetResponse("No active subscriptions");
+    }
+    else
+    {
+      result = reader.takePushed(timeout);
+      if (result == null)
+      {
+        setResponse(reader.isFailed() ? "Connection to host was lost" : "No message arrived");
+      }
+      else
+      {
+        String sub = result.getStringProperty(IMqConstants.cKasPropertySubDelivery, "");
+        result.setStringProperty(IMqConstants.cKasPropertySubDelivery, "");
+        setGetProperties(result, TimeStamp.now().toString());
+        consumed(UniqueId.fromString(sub));
+        setResponse("Successfully received a message from subscription " + sub + ", MessageID: " + result.getMessageId());
+      }
+    }
+    
+    mLogger.trace("MqConnection::receive() - OUT");
+    return result;
+  }
+  
+  /**
+   * Account for a received message, and grant credit back once half of the subscription's window was consumed.<br>
+   * Credit requests have no reply.
+   * 
+   * @param id
+   *   The subscription ID
+   */
+  private void consumed(UniqueId id)
+  {
+    int consumed;
+    synchronized (mConsumed)
+    {
+      Integer window = mWindows.get(id);
+      Integer count = mConsumed.get(id);
+      if ((window == null) || (count == null))
+        return;
+      
+      consumed = count + 1;
+      if (consumed < Math.max(1, window / 2))
+      {
+        mConsumed.put(id, consumed);
+        return;
+      }
+      mConsumed.put(id, 0);
+    }
+    
+    try
+    {
+      send(MqRequestFactory.createCreditRequest(id, consumed));
+    }
+    catch (IOException e)
+    {
+      logErrorAndSetResponse("Exception occurred while trying to grant credit to subscription [" + id + "]. Exception: " + StringUtils.format(e));
+    }
+  }
+  
+  /**
+   * Start reading incoming packets of a new messenger on a separate thread.<br>
+   * A reader left from a previous messenger, e.g. one that was lost, is stopped.
+   */
+  private void startReader()
+  {
+    if (mReader != null)
+      mReader.stop();
+    
+    mReader = new MqConnectionReader(mMessenger);
+    KasRunnableThread thread = new KasRunnableThread("KasReader-" + mConnectionId, mReader);
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  /**
+   * Send a request and wait for its reply.<br>
+   * The request gets a request ID of its own, and the {@link MqConnectionReader} hands over the reply carrying
+   * the same ID, so other threads may send requests while this one waits.
+   * 
+   * @param request
+   *   The request
+   * @return
+   *   the reply
+   * @throws IOException
+   *   if the request could not be sent or the reply could not be read
+   */
+  private IMqMessage sendAndReceive(IMqMessage request) throws IOException
+  {
+    MqConnectionReader reader = mReader;
+    if (reader == null)
+      throw new IOException("Not connected to host");
+    
+    CompletableFuture<IMqMessage> reply = sendAsync(request, reader);
+    return reader.takeReply(request.getRequestId(), reply);
+  }
+  
+  /**
+   * Send a request without waiting for its reply.<br>
+   * The reply is completed by the {@link MqConnectionReader} thread, so whatever depends on it runs on that thread,
+   * unless it's chained with one of the {@code Async} methods of {@link CompletableFuture}.
+   * 
+   * @param request
+   *   The request
+   * @return
+   *   the reply, completed exceptionally if the request could not be sent or the connection is lost before the reply arrives
+   */
+  public CompletableFuture<IMqMessage> sendAsync(IMqMessage request)
+  {
+    MqConnectionReader reader = mReader;
+    if (reader == null)
+    {
+      CompletableFuture<IMqMessage> reply = new CompletableFuture<IMqMessage>();
+      reply.completeExceptionally(new IOException("Not connected to host"));
+      return reply;
+    }
+    return sendAsync(request, reader);
+  }
+  
+  /**
+   * Send a request, expecting its reply from {@code reader}
+   * 
+   * @param request
+   *   The request
+   * @param reader
+   *   The reader of the connection
+   * @return
+   *   the reply, completed exceptionally if the request could not be sent or the connection is lost before the reply arrives
+   */
+  private CompletableFuture<IMqMessage> sendAsync(IMqMessage request, MqConnectionReader reader)
+  {
+    int id = nextRequestId();
+    request.setRequestId(id);
+    CompletableFuture<IMqMessage> reply = reader.expectReply(id);
+    try
+    {
+      send(request);
+    }
+    catch (IOException e)
+    {
+      reader.forgetReply(id);
+      reply.completeExceptionally(e);
+    }
+    return reply;
+  }
+  
+  /**
+   * Set the properties describing a put: the target queue, the putting user and the time of the put
+   * 
+   * @param message
+   *   The message to put
+   * @param queue
+   *   The queue name
+   * @param timestamp
+   *   The time of the put
+   */
+  public void setPutProperties(IMqMessage message, String queue, String timestamp)
+  {
+    message.setStringProperty(IMqConstants.cKasPropertyPutQueueName, queue.toUpperCase());
+    message.setStringProperty(IMqConstants.cKasPropertyPutUserName, mUser.toUpperCase());
+    message.setStringProperty(IMqConstants.cKasPropertyPutTimeStamp, timestamp);
+  }
+  
+  /**
+   * Set the properties describing a get: the getting user and the time of the get
+   * 
+   * @param message
+   *   The message that was got
+   * @param timestamp
+   *   The time of the get
+   */
+  public void setGetProperties(IMqMessage message, String timestamp)
+  {
+    message.setStringProperty(IMqConstants.cKasPropertyGetUserName, mUser);
+    message.setStringProperty(IMqConstants.cKasPropertyGetTimeStamp, timestamp);
+  }
+  
+  /**
+   * Send a packet. Sends of different threads are serialized, so their frames never interleave
+   * 
+   * @param packet
+   *   The packet
+   * @throws IOException
+   *   if the connection is closed or an I/O error occurs
+   */
+  private void send(IPacket packet) throws IOException
+  {
+    IMessenger messenger = mMessenger;
+    if (messenger == null)
+      throw new IOException("Not connected to host");
+    
+    mSendLock.lock();
+    try
+    {
+      messenger.send(packet);
+    }
+    finally
+    {
+      mSendLock.unlock();
+    }
+  }
+  
+  /**
+   * Get the ID of the next request. 0 is skipped, as it marks packets that are not correlated with a request
+   * 
+   * @return
+   *   the request ID
+   */
+  private int nextRequestId()
+  {
+    int id = mRequestId.incrementAndGet();
+    if (id == 0)
+      id = mRequestId.incrementAndGet();
+    return id;
+  }
+  
   /**
    * Get the connection ID
    * 
@@ -323,14 +828,14 @@ public class MqConnection extends AKasObject implements IMqConnection
   }
   
   /**
-   * Get last response from last {@link IMqConnection} call.
+   * Get last response from last {@link IMqConnection} call made by the calling thread.
    * 
    * @return
    *   the last message the {@link IMqConnection} issued for a call.
    */
   public String getResponse()
   {
-    return mResponse;
+    return mResponse.get();
   }
   
   /**
@@ -341,7 +846,7 @@ public class MqConnection extends AKasObject implements IMqConnection
    */
   public void setResponse(String response)
   {
-    mResponse = response;
+    mResponse.set(response);
   }
   
   /**
@@ -385,6 +890,7 @@ public class MqConnection extends AKasObject implements IMqConnection
       .append(pad).append("  ClientAppName=").append(mClientName).append("\n")
       .append(pad).append("  SessionId=").append(StringUtils.asString(mSessionId)).append("\n")
       .append(pad).append("  User=").append(StringUtils.asString(mUser)).append("\n")
+      .append(pad).append("  Reader=").append(StringUtils.asPrintableString(mReader, level+1)).append("\n")
       .append(pad).append("  Messenger=").append(StringUtils.asPrintableString(mMessenger, level+1)).append("\n")
       .append(pad).append(")");
     return sb.toString();
@@ -0,0 +1,285 @@
+package com.kas.mq.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.comm.IMessenger;
+import com.kas.comm.IPacket;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.AKasRunnable;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link MqConnectionReader} reads all packets arriving on a connection.<br>
+ * <br>
+ * Each request is sent with a request ID of its own, and the server echoes it on the reply. The reader completes
+ * the reply expected for that ID, so any number of threads may have requests in flight on the same connection,
+ * and replies may arrive in any order.<br>
+ * <br>
+ * Messages pushed to a subscription carry a non-empty {@link IMqConstants#cKasPropertySubDelivery} property
+ * and are queued separately, to be taken by whoever waits for them.
+ * 
+ * @author Pippo
+ */
+public class MqConnectionReader extends AKasRunnable
+{
+  /**
+   * The interval, in milliseconds, at which waiters check whether the reader failed
+   */
+  static private final long cCheckMillis = 500L;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The messenger to read from
+   */
+  private IMessenger mMessenger;
+  
+  /**
+   * Replies expected for requests in flight, by request ID
+   */
+  private Map<Integer, CompletableFuture<IMqMessage>> mPending = new ConcurrentHashMap<Integer, CompletableFuture<IMqMessage>>();
+  
+  /**
+   * Messages pushed to subscriptions
+   */
+  private LinkedBlockingQueue<IMqMessage> mPushed = new LinkedBlockingQueue<IMqMessage>();
+  
+  /**
+   * Set when reading failed. No more packets will arrive
+   */
+  private volatile boolean mFailed = false;
+  
+  /**
+   * Construct a {@link MqConnectionReader}
+   * 
+   * @param messenger
+   *   The messenger to read from
+   */
+  MqConnectionReader(IMessenger messenger)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mMessenger = messenger;
+  }
+  
+  /**
+   * Keep reading packets until stopped or the connection is lost
+   */
+  public void run()
+  {
+    mLogger.trace("MqConnectionReader::run() - IN");
+    
+    while (!isStopped())
+    {
+      try
+      {
+        IPacket packet = mMessenger.receive();
+        if (packet == null)
+          throw new IOException("Failed to read packet from input stream");
+        
+        IMqMessage message = (IMqMessage)packet;
+        String sub = message.getStringProperty(IMqConstants.cKasPropertySubDelivery, "");
+        if (sub.length() > 0)
+        {
+          mPushed.put(message);
+        }
+        else
+        {
+          CompletableFuture<IMqMessage> reply = mPending.remove(message.getRequestId());
+          if (reply != null)
+            reply.complete(message);
+          else
+            mLogger.debug("MqConnectionReader::run() - Reply to unknown request ID " + message.getRequestId() + " was dropped");
+        }
+      }
+      catch (IOException e)
+      {
+        if (!isStopped())
+          mLogger.debug("MqConnectionReader::run() - Stopped reading from connection. Exception: ", e);
+        mFailed = true;
+        stop();
+      }
+      catch (InterruptedException e)
+      {
+        mFailed = true;
+        stop();
+      }
+    }
+    
+    failPending();
+    mLogger.trace("MqConnectionReader::run() - OUT");
+  }
+  
+  /**
+   * Get an indication whether the reader was stopped
+   * 
+   * @return
+   *   {@code true} if the reader was stopped, {@code false} otherwise
+   */
+  private synchronized boolean isStopped()
+  {
+    return mStop;
+  }
+  
+  /**
+   * Fail all replies still expected, as no more packets will arrive
+   */
+  private void failPending()
+  {
+    Iterator<CompletableFuture<IMqMessage>> iter = mPending.values().iterator();
+    while (iter.hasNext())
+    {
+      CompletableFuture<IMqMessage> reply = iter.next();
+      iter.remove();
+      reply.completeExceptionally(new IOException("Connection was lost while waiting for a reply"));
+    }
+  }
+  
+  /**
+   * Expect a reply to a request. Must be called before the request is sent, so the reply cannot arrive first
+   * 
+   * @param requestId
+   *   The ID of the request
+   * @return
+   *   the reply, completed once it arrives, or completed exceptionally if the connection is lost before it does
+   */
+  CompletableFuture<IMqMessage> expectReply(int requestId)
+  {
+    CompletableFuture<IMqMessage> reply = new CompletableFuture<IMqMessage>();
+    mPending.put(requestId, reply);
+    if (mFailed)
+      failPending();
+    return reply;
+  }
+  
+  /**
+   * Stop expecting a reply, e.g. since the request could not be sent
+   * 
+   * @param requestId
+   *   The ID of the request
+   */
+  void forgetReply(int requestId)
+  {
+    mPending.remove(requestId);
+  }
+  
+  /**
+   * Wait for the reply to a request
+   * 
+   * @param requestId
+   *   The ID of the request
+   * @param reply
+   *   The reply returned by {@link #expectReply(int)}
+   * @return
+   *   the reply
+   * @throws IOException
+   *   if the connection was lost before the reply arrived, or the waiting thread was interrupted
+   */
+  IMqMessage takeReply(int requestId, CompletableFuture<IMqMessage> reply) throws IOException
+  {
+    try
+    {
+      return reply.get();
+    }
+    catch (InterruptedException e)
+    {
+      forgetReply(requestId);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a reply");
+    }
+    catch (ExecutionException e)
+    {
+      throw new IOException("Connection was lost while waiting for a reply", e.getCause());
+    }
+  }
+  
+  /**
+   * Wait for a pushed message
+   * 
+   * @param timeout
+   *   The number of milliseconds to wait. A value of 0 means to wait indefinitely
+   * @return
+   *   the pushed message, or {@code null} if none arrived in time or the connection was lost
+   */
+  IMqMessage takePushed(long timeout)
+  {
+    return take(mPushed, timeout);
+  }
+  
+  /**
+   * Wait for a message to arrive on one of the queues
+   * 
+   * @param queue
+   *   The queue to take from
+   * @param timeout
+   *   The number of milliseconds to wait. A value of 0 means to wait until the reader fails
+   * @return
+   *   the message, or {@code null} if none arrived in time or the reader failed
+   */
+  private IMqMessage take(LinkedBlockingQueue<IMqMessage> queue, long timeout)
+  {
+    long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+    try
+    {
+      while (true)
+      {
+        long wait = Math.min(cCheckMillis, deadline - System.currentTimeMillis());
+        if (wait <= 0)
+          return queue.poll();
+        
+        IMqMessage message = queue.poll(wait, TimeUnit.MILLISECONDS);
+        if (message != null)
+          return message;
+        if (mFailed)
+          return queue.poll();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+  
+  /**
+   * Get an indication whether the reader stopped reading
+   * 
+   * @return
+   *   {@code true} if no more packets will arrive, {@code false} otherwise
+   */
+  boolean isFailed()
+  {
+    return mFailed;
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Failed=").append(mFailed).append("\n")
+      .append(pad).append("  Pending=").append(mPending.size()).append("\n")
+      .append(pad).append("  Pushed=").append(mPushed.size()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,275 @@
+package com.kas.mq.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+
+/**
+ * A {@link MqDirectoryDelta} describes how the queue directory of a KAS/MQ server changed since a given version,
+ * so it can travel as the body of a single message.<br>
+ * <br>
+ * A directory version is an epoch, set when the server starts, and a sequence number, incremented with each
+ * queue defined or deleted. The delta lists the queues added and removed since the base version, or, if it's
+ * a full delta, all the queues in the directory. It also holds the directory's digest, the sum of
+ * the {@link #hash(String) hashes} of all queue names, so the receiver can verify that applying the delta
+ * left it with the same queues as the sender.
+ * 
+ * @author Pippo
+ */
+public class MqDirectoryDelta extends AKasObject
+{
+  /**
+   * The version the delta brings the receiver to
+   */
+  private long mEpoch;
+  private long mSequence;
+  
+  /**
+   * The digest of the directory at that version
+   */
+  private long mDigest;
+  
+  /**
+   * Whether the delta holds all the queues rather than the changes
+   */
+  private boolean mFull;
+  
+  /**
+   * Names of the queues added and removed
+   */
+  private List<String> mAdded = new ArrayList<String>();
+  private List<String> mRemoved = new ArrayList<String>();
+  
+  /**
+   * Construct a {@link MqDirectoryDelta}
+   * 
+   * @param epoch
+   *   The epoch of the version the delta brings the receiver to
+   * @param sequence
+   *   The sequence number of that version
+   * @param digest
+   *   The digest of the directory at that version
+   * @param full
+   *   If {@code true}, the added queues are all the queues in the directory
+   */
+  public MqDirectoryDelta(long epoch, long sequence, long digest, boolean full)
+  {
+    mEpoch = epoch;
+    mSequence = sequence;
+    mDigest = digest;
+    mFull = full;
+  }
+  
+  /**
+   * Get the epoch of the version the delta brings the receiver to
+   * 
+   * @return
+   *   the epoch
+   */
+  public long getEpoch()
+  {
+    return mEpoch;
+  }
+  
+  /**
+   * Get the sequence number of the version the delta brings the receiver to
+   * 
+   * @return
+   *   the sequence number
+   */
+  public long getSequence()
+  {
+    return mSequence;
+  }
+  
+  /**
+   * Get the digest of the directory at the version the delta brings the receiver to
+   * 
+   * @return
+   *   the digest
+   */
+  public long getDigest()
+  {
+    return mDigest;
+  }
+  
+  /**
+   * Get an indication whether the delta holds all the queues in the directory
+   * 
+   * @return
+   *   {@code true} if the receiver should drop the queues it has that are not added, {@code false} otherwise
+   */
+  public boolean isFull()
+  {
+    return mFull;
+  }
+  
+  /**
+   * Get the names of the added queues
+   * 
+   * @return
+   *   the names of the added queues
+   */
+  public List<String> getAdded()
+  {
+    return mAdded;
+  }
+  
+  /**
+   * Get the names of the removed queues
+   * 
+   * @return
+   *   the names of the removed queues
+   */
+  public List<String> getRemoved()
+  {
+    return mRemoved;
+  }
+  
+  /**
+   * Get an indication whether the delta holds no changes
+   * 
+   * @return
+   *   {@code true} if no queue was added or removed, {@code false} otherwise
+   */
+  public boolean isEmpty()
+  {
+    return mAdded.isEmpty() && mRemoved.isEmpty();
+  }
+  
+  /**
+   * Serialize the delta
+   * 
+   * @return
+   *   the byte array holding the delta
+   */
+  public byte [] toByteArray()
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 16 * (mAdded.size() + mRemoved.size()));
+    DataOutputStream ostream = new DataOutputStream(bytes);
+    try
+    {
+      ostream.writeLong(mEpoch);
+      ostream.writeLong(mSequence);
+      ostream.writeLong(mDigest);
+      ostream.writeBoolean(mFull);
+      writeNames(ostream, mAdded);
+      writeNames(ostream, mRemoved);
+      ostream.flush();
+    }
+    catch (IOException e)
+    {
+      // a ByteArrayOutputStream does not throw
+    }
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Write a list of names
+   * 
+   * @param ostream
+   *   The output stream
+   * @param names
+   *   The names
+   * @throws IOException
+   *   if writing fails
+   */
+  static private void writeNames(DataOutputStream ostream, List<String> names) throws IOException
+  {
+    ostream.writeInt(names.size());
+    for (String name : names)
+      ostream.writeUTF(name);
+  }
+  
+  /**
+   * Deserialize a delta serialized by {@link #toByteArray()}
+   * 
+   * @param bytes
+   *   The serialized delta
+   * @return
+   *   the {@link MqDirectoryDelta}
+   * @throws IOException
+   *   if {@code bytes} do not hold a valid delta
+   */
+  static public MqDirectoryDelta fromByteArray(byte [] bytes) throws IOException
+  {
+    if (bytes == null)
+      throw new IOException("Directory delta is missing");
+    
+    DataInputStream istream = new DataInputStream(new ByteArrayInputStream(bytes));
+    MqDirectoryDelta delta = new MqDirectoryDelta(istream.readLong(), istream.readLong(), istream.readLong(), istream.readBoolean());
+    readNames(istream, delta.mAdded);
+    readNames(istream, delta.mRemoved);
+    if (istream.available() > 0)
+      throw new IOException("Directory delta has " + istream.available() + " trailing bytes");
+    return delta;
+  }
+  
+  /**
+   * Read a list of names
+   * 
+   * @param istream
+   *   The input stream
+   * @param names
+   *   The list the names are added to
+   * @throws IOException
+   *   if reading fails
+   */
+  static private void readNames(DataInputStream istream, List<String> names) throws IOException
+  {
+    int count = istream.readInt();
+    if ((count < 0) || (count > istream.available() / 2))
+      throw new IOException("Invalid name count in directory delta: " + count);
+    
+    for (int i = 0; i < count; ++i)
+      names.add(istream.readUTF());
+  }
+  
+  /**
+   * Hash a queue name for a directory digest, using 64-bit FNV-1a
+   * 
+   * @param name
+   *   The upper-case queue name
+   * @return
+   *   the hash
+   */
+  static public long hash(String name)
+  {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < name.length(); ++i)
+    {
+      hash ^= name.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Epoch=").append(mEpoch).append("\n")
+      .append(pad).append("  Sequence=").append(mSequence).append("\n")
+      .append(pad).append("  Digest=").append(Long.toHexString(mDigest)).append("\n")
+      .append(pad).append("  Full=").append(mFull).append("\n")
+      .append(pad).append("  Added=").append(mAdded.size()).append("\n")
+      .append(pad).append("  Removed=").append(mRemoved.size()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
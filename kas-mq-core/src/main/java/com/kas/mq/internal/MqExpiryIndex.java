@@ -0,0 +1,231 @@
+package com.kas.mq.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link MqExpiryIndex} orders the messages held by a {@link MqLocalQueue} by the time they expire,
+ * which is their time stamp plus their expiration.<br>
+ * <br>
+ * Messages are kept in buckets of {@link #cTickMillis} milliseconds, sorted by tick, so finding the messages
+ * that expired takes time proportional to their number rather than to the number of messages in the queue.<br>
+ * <br>
+ * Removing a message from the index is how a message is claimed: a message is either consumed, if the
+ * consumer removed it first, or expired, if {@link #pollExpired(long)} did. A message that was expired
+ * is no longer in the index, although it may still be in its {@code MessageQueue} until a consumer
+ * reaches it and skips it.
+ * 
+ * @author Pippo
+ */
+public class MqExpiryIndex extends AKasObject
+{
+  /**
+   * Bucket width, in milliseconds
+   */
+  static public final long cTickMillis = 100L;
+  
+  /**
+   * A bucket of messages that expire in the same tick.<br>
+   * Buckets are guarded by their own monitor. A bucket that was emptied or expired is marked as dropped
+   * before it's taken out of the index, so a thread that looked it up just before that tries again.
+   */
+  static private class Bucket
+  {
+    private Set<IMqMessage> mMessages = new HashSet<IMqMessage>();
+    private boolean mDropped = false;
+  }
+  
+  /**
+   * Buckets of messages, keyed by the tick in which they expire
+   */
+  private ConcurrentSkipListMap<Long, Bucket> mBuckets = new ConcurrentSkipListMap<Long, Bucket>();
+  
+  /**
+   * Get the time at which {@code message} expires
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   the time, in milliseconds, after which the message is expired, or -1 if it never expires
+   */
+  static public long getDeadline(IMqMessage message)
+  {
+    long timestamp = message.getTimeStamp();
+    long expiration = message.getExpiration();
+    if ((expiration > 0) && (timestamp > Long.MAX_VALUE - expiration))
+      return -1;
+    return Math.max(0, timestamp + expiration);
+  }
+  
+  /**
+   * Add a message to the index.<br>
+   * The message must be added before it's offered to its {@code MessageQueue}, so whoever takes it
+   * from there finds it in the index.
+   * 
+   * @param message
+   *   The message
+   */
+  public void add(IMqMessage message)
+  {
+    long deadline = getDeadline(message);
+    if (deadline < 0)
+      return;
+    
+    Long tick = deadline / cTickMillis;
+    while (true)
+    {
+      Bucket bucket = mBuckets.get(tick);
+      if (bucket == null)
+      {
+        Bucket created = new Bucket();
+        bucket = mBuckets.putIfAbsent(tick, created);
+        if (bucket == null)
+          bucket = created;
+      }
+      
+      synchronized (bucket)
+      {
+        if (!bucket.mDropped)
+        {
+          bucket.mMessages.add(message);
+          return;
+        }
+      }
+      
+      // the bucket was dropped after we looked it up
+      mBuckets.remove(tick, bucket);
+    }
+  }
+  
+  /**
+   * Remove a message that is being taken from its {@code MessageQueue}.<br>
+   * A bucket left empty is dropped.
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   {@code true} if the message was removed or it never expires,
+   *   {@code false} if it was already removed by {@link #pollExpired(long)}
+   */
+  public boolean remove(IMqMessage message)
+  {
+    long deadline = getDeadline(message);
+    if (deadline < 0)
+      return true;
+    
+    Long tick = deadline / cTickMillis;
+    while (true)
+    {
+      Bucket bucket = mBuckets.get(tick);
+      if (bucket == null)
+        return false;
+      
+      synchronized (bucket)
+      {
+        if (!bucket.mDropped)
+        {
+          boolean removed = bucket.mMessages.remove(message);
+          if ((removed) && (bucket.mMessages.isEmpty()))
+          {
+            bucket.mDropped = true;
+            mBuckets.remove(tick, bucket);
+          }
+          return removed;
+        }
+      }
+      
+      // the bucket was dropped after we looked it up. the message may be in the one that replaced it
+      mBuckets.remove(tick, bucket);
+    }
+  }
+  
+  /**
+   * Get an indication whether a message is still in the index
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   {@code true} if the message is in the index or it never expires,
+   *   {@code false} if it was removed by {@link #pollExpired(long)}
+   */
+  public boolean contains(IMqMessage message)
+  {
+    long deadline = getDeadline(message);
+    if (deadline < 0)
+      return true;
+    
+    Long tick = deadline / cTickMillis;
+    while (true)
+    {
+      Bucket bucket = mBuckets.get(tick);
+      if (bucket == null)
+        return false;
+      
+      synchronized (bucket)
+      {
+        if (!bucket.mDropped)
+          return bucket.mMessages.contains(message);
+      }
+      mBuckets.remove(tick, bucket);
+    }
+  }
+  
+  /**
+   * Remove all messages that expired by {@code now}.<br>
+   * Only buckets whose whole tick has passed are removed, so a message may be expired up to
+   * {@link #cTickMillis} milliseconds late.
+   * 
+   * @param now
+   *   The current time, in milliseconds
+   * @return
+   *   the expired messages. The caller owns them, as no consumer can claim them anymore
+   */
+  public List<IMqMessage> pollExpired(long now)
+  {
+    List<IMqMessage> expired = new ArrayList<IMqMessage>();
+    long current = now / cTickMillis;
+    
+    Map.Entry<Long, Bucket> entry;
+    while (((entry = mBuckets.firstEntry()) != null) && (entry.getKey() < current))
+    {
+      Bucket bucket = entry.getValue();
+      synchronized (bucket)
+      {
+        if (!bucket.mDropped)
+        {
+          bucket.mDropped = true;
+          expired.addAll(bucket.mMessages);
+          bucket.mMessages.clear();
+        }
+      }
+      mBuckets.remove(entry.getKey(), bucket);
+    }
+    return expired;
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  TickMillis=").append(cTickMillis).append("\n")
+      .append(pad).append("  Buckets=").append(mBuckets.size()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
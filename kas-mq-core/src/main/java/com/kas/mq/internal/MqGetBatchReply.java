@@ -0,0 +1,64 @@
+package com.kas.mq.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import com.kas.infra.base.KasException;
+import com.kas.infra.base.TimeStamp;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqBytesMessage;
+
+/**
+ * A {@link MqGetBatchReply} completes the result of a batch get request with the messages that were got.
+ * The list is empty if no message arrived in time
+ * 
+ * @author Pippo
+ */
+public class MqGetBatchReply extends AMqAsyncReply<List<IMqMessage>>
+{
+  /**
+   * The connection the request was sent on
+   */
+  private MqConnection mConnection;
+  
+  /**
+   * Construct a {@link MqGetBatchReply}
+   * 
+   * @param connection
+   *   The connection the request was sent on
+   */
+  public MqGetBatchReply(MqConnection connection)
+  {
+    mConnection = connection;
+  }
+  
+  /**
+   * Unpack the messages from the reply
+   * 
+   * @param reply
+   *   The reply
+   * @return
+   *   the messages
+   * @throws KasException
+   *   if the request failed
+   * @throws IOException
+   *   if the messages could not be unpacked
+   */
+  protected List<IMqMessage> convert(IMqMessage reply) throws KasException, IOException
+  {
+    List<IMqMessage> result = new ArrayList<IMqMessage>();
+    EMqCode code = reply.getResponse().getCode();
+    if (code == EMqCode.cWarn)
+      return result;
+    if ((code != EMqCode.cOkay) || !(reply instanceof MqBytesMessage))
+      throw failure(reply);
+    
+    String now = TimeStamp.now().toString();
+    for (IMqMessage message : MqMessageBatch.unpack(((MqBytesMessage)reply).getBody()))
+    {
+      mConnection.setGetProperties(message, now);
+      result.add(message);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,52 @@
+package com.kas.mq.internal;
+
+import com.kas.infra.base.KasException;
+import com.kas.infra.base.TimeStamp;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link MqGetReply} completes the result of a get request with the message that was got,
+ * or with {@code null} if no message arrived in time
+ * 
+ * @author Pippo
+ */
+public class MqGetReply extends AMqAsyncReply<IMqMessage>
+{
+  /**
+   * The connection the request was sent on
+   */
+  private MqConnection mConnection;
+  
+  /**
+   * Construct a {@link MqGetReply}
+   * 
+   * @param connection
+   *   The connection the request was sent on
+   */
+  public MqGetReply(MqConnection connection)
+  {
+    mConnection = connection;
+  }
+  
+  /**
+   * Get the message from the reply
+   * 
+   * @param reply
+   *   The reply
+   * @return
+   *   the message, or {@code null} if no message arrived in time
+   * @throws KasException
+   *   if the request failed
+   */
+  protected IMqMessage convert(IMqMessage reply) throws KasException
+  {
+    EMqCode code = reply.getResponse().getCode();
+    if (code == EMqCode.cWarn)
+      return null;
+    if (code != EMqCode.cOkay)
+      throw failure(reply);
+    
+    mConnection.setGetProperties(reply, TimeStamp.now().toString());
+    return reply;
+  }
+}
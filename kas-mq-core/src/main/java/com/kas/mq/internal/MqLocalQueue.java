@@ -1,15 +1,41 @@
 package com.kas.mq.internal;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import com.kas.comm.IPacket;
 import com.kas.comm.impl.PacketHeader;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.TimeStamp;
+import com.kas.infra.base.UniqueId;
 import com.kas.infra.utils.FileUtils;
 import com.kas.infra.utils.RunTimeUtils;
 import com.kas.infra.utils.StringUtils;
@@ -23,6 +49,12 @@ import com.kas.mq.typedef.MessageQueue;
  */
 public class MqLocalQueue extends MqQueue
 {
+  /**
+   * Backup file eye-catcher and version
+   */
+  static private final int cBackupMagic = 0x4B514244;
+  static private final int cBackupVersion = 1;
+  
   /**
    * Queue description
    */
@@ -39,6 +71,11 @@ public class MqLocalQueue extends MqQueue
    */
   private EQueueDisp mDisposition;
   
+  /**
+   * The repository directory, holding the queue backup file, journal and store
+   */
+  private File mRepositoryDir;
+  
   /**
    * Last access
    */
@@ -60,7 +97,98 @@ public class MqLocalQueue extends MqQueue
   protected transient File mBackupFile = null;
   
   /**
-   * Constructing a {@link MqLocalQueue} object with the specified name.
+   * The journal of this {@link MqLocalQueue}, or {@code null} if puts and gets are not journaled
+   */
+  private volatile MqQueueJournal mJournal = null;
+  
+  /**
+   * The store holding the queue contents on the file system, and the size of its segment files
+   */
+  private volatile MqSegmentStore mStore;
+  private int mSegmentSize = MqSegmentStore.cDefaultSegmentSize;
+  
+  /**
+   * Checkpoints are serialized on {@link #mCheckpointLock}. A checkpoint that compacts the store
+   * holds the write lock of {@link #mStoreLock}, and paging a message holds its read lock, so no
+   * message is paged to a store generation that is being replaced
+   */
+  private final Object mCheckpointLock = new Object();
+  private final ReentrantReadWriteLock mStoreLock = new ReentrantReadWriteLock();
+  
+  /**
+   * The number of changes made to the queue contents or definition so far, and its value when the store was
+   * last written in full. A queue without a journal skips checkpoints while the two are equal.
+   * The latter is guarded by {@link #mCheckpointLock}
+   */
+  private final AtomicLong mChanges = new AtomicLong(0);
+  private long mCheckpointChanges = 0;
+  
+  /**
+   * The number of messages kept on the heap before new messages are {@link MqPagedMessage paged} to the store
+   * (0 means messages are never paged), and the number of queued messages that are paged
+   */
+  private int mHeapLimit = 0;
+  private final AtomicInteger mPaged = new AtomicInteger(0);
+  
+  /**
+   * IDs of queued messages that were paged to the store when they were put. Their journal PUT records
+   * need not be applied to the store by the next checkpoint
+   */
+  private final Set<UniqueId> mPagedIds = Collections.newSetFromMap(new ConcurrentHashMap<UniqueId, Boolean>());
+  
+  /**
+   * Messages taken by {@link #take(long)} whose removal was not yet {@link #commit(List) committed}, by their IDs.
+   * Checkpoints write them as if they were still queued
+   */
+  private final Map<UniqueId, IMqMessage> mPending = new ConcurrentHashMap<UniqueId, IMqMessage>();
+  
+  /**
+   * Released when a restore announced by {@link #beginRestore()} completes. Until then, puts and gets wait
+   */
+  private volatile CountDownLatch mRestoreLatch = null;
+  
+  /**
+   * Minimum number of expired messages left in the {@link MessageQueue} objects before they are worth compacting
+   */
+  static private final int cCompactionMinimum = 1024;
+  
+  /**
+   * Queued messages ordered by the time they expire. A message expired by {@link #expire()} stays in its
+   * {@link MessageQueue} until a consumer reaches it or the queue is compacted, but it's no longer in the index, so it's skipped
+   */
+  private final MqExpiryIndex mExpiryIndex = new MqExpiryIndex();
+  
+  /**
+   * Messages expired by {@link #expire()} that are still linked in their {@link MessageQueue}.
+   * Whoever removes one from this set unlinks it, so each is dropped exactly once
+   */
+  private final Set<IMqMessage> mExpired = Collections.newSetFromMap(new ConcurrentHashMap<IMqMessage, Boolean>());
+  
+  /**
+   * Consumers waiting for a message queue up in {@link #mWaitQueue}, each parked on a condition of its own
+   * bound to {@link #mGetLock}. Only the consumer at the head takes messages, so waiting sessions are handed
+   * messages in the order they started waiting, and a consumer woken for a message someone else got keeps its place.<br>
+   * {@link #mWaiters} lets {@link #internalPut(IMqMessage, boolean)} skip the lock when no one is waiting.
+   */
+  private final ReentrantLock mGetLock = new ReentrantLock(true);
+  private final ArrayDeque<Condition> mWaitQueue = new ArrayDeque<Condition>();
+  private final AtomicInteger mWaiters = new AtomicInteger(0);
+  
+  /**
+   * Listeners told about every message added to the queue
+   */
+  private final List<IMqQueueListener> mListeners = new CopyOnWriteArrayList<IMqQueueListener>();
+  
+  /**
+   * The number of messages held by all priority queues, and a bitmap of priorities whose
+   * {@link MessageQueue} may be non-empty (bit {@code n} stands for priority {@code n}).<br>
+   * Both are maintained on every put and get so neither has to walk the {@link MessageQueue} objects.
+   */
+  private final AtomicInteger mSize = new AtomicInteger(0);
+  private final AtomicInteger mPriorityMap = new AtomicInteger(0);
+  
+  /**
+   * Constructing a {@link MqLocalQueue} object with the specified name, whose files are kept in the {@code repo} directory.
    * 
    * @param mgr
    *   The name of the manager that owns this {@link MqLocalQueue}
@@ -74,14 +202,37 @@ public class MqLocalQueue extends MqQueue
    *   Queue disposition
    */
   public MqLocalQueue(MqManager mgr, String name, String desc, int threshold, EQueueDisp disp)
+  {
+    this(mgr, name, desc, threshold, disp, new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo"));
+  }
+  
+  /**
+   * Constructing a {@link MqLocalQueue} object with the specified name, whose files are kept in {@code repoDir}.
+   * 
+   * @param mgr
+   *   The name of the manager that owns this {@link MqLocalQueue}
+   * @param name
+   *   The name of this {@link MqLocalQueue} object.
+   * @param desc
+   *   The description of this {@link MqLocalQueue} object.
+   * @param threshold
+   *   The maximum message capacity this {@link MqLocalQueue} can hold
+   * @param disp
+   *   Queue disposition
+   * @param repoDir
+   *   The repository directory
+   */
+  public MqLocalQueue(MqManager mgr, String name, String desc, int threshold, EQueueDisp disp, File repoDir)
   {
     super(mgr, name);
+    mRepositoryDir = repoDir;
     mDescription = desc;
     mThreshold = threshold;
     mDisposition = disp;
     mQueueArray = new MessageQueue[ IMqConstants.cMaximumPriority + 1 ];
     for (int i = 0; i <= IMqConstants.cMaximumPriority; ++i)
       mQueueArray[i] = new MessageQueue();
+    mStore = new MqSegmentStore(mRepositoryDir, name, mSegmentSize, 0);
   }
   
   /**
@@ -115,6 +266,7 @@ public class MqLocalQueue extends MqQueue
   public void setThreshold(int threshold)
   {
     mThreshold = threshold;
+    mChanges.incrementAndGet();
   }
   
   /**
@@ -137,6 +289,7 @@ public class MqLocalQueue extends MqQueue
   public void setDisposition(EQueueDisp disp)
   {
     mDisposition = disp;
+    mChanges.incrementAndGet();
   }
   
   /**
@@ -147,34 +300,113 @@ public class MqLocalQueue extends MqQueue
    */
   public int size()
   {
-    int sum = 0;
-    for (int i = 0; i < mQueueArray.length; ++i)
-      sum += mQueueArray[i].size();
-    return sum;
+    return mSize.get();
   }
   
   /**
    * Restore the {@link MqLocalQueue} contents and definition from the file system.<br>
    * Regardless of how the object was created, its definitions are restored from the file system.
    * That means, that even if the queue was created with a threshold of 5 messages, this definition
-   * will be changed to the threshold that was specified during initial definition.
+   * will be changed to the threshold that was specified during initial definition.<br>
+   * <br>
+   * The backup file holds the queue definition and the generation of the {@link MqSegmentStore} holding
+   * its contents. Messages are restored as {@link MqPagedMessage paged messages}, so they are not read
+   * until they are delivered. A backup file written by an older version, which holds the messages themselves,
+   * is read as well and converted on the spot.<br>
+   * <br>
+   * If the queue has a {@link MqQueueJournal journal}, the journal is replayed on top of the store
+   * and then {@link #checkpoint() applied} to it.
    * 
    * @return
    *   {@code true} if queue contents restored successfully, {@code false} otherwise
    */
   public synchronized boolean restore()
+  {
+    try
+    {
+      return internalRestore();
+    }
+    finally
+    {
+      CountDownLatch latch = mRestoreLatch;
+      if (latch != null)
+        latch.countDown();
+    }
+  }
+  
+  /**
+   * Announce that the queue is about to be {@link #restore() restored} by another thread.<br>
+   * From now on and until the restore completes, puts and gets on this queue wait for it, while
+   * checkpoints and expiration are skipped.
+   */
+  public void beginRestore()
+  {
+    mRestoreLatch = new CountDownLatch(1);
+  }
+  
+  /**
+   * Get an indication whether the queue contents are being restored
+   * 
+   * @return
+   *   {@code true} if a restore was announced and has not completed yet, {@code false} otherwise
+   */
+  public boolean isRestoring()
+  {
+    CountDownLatch latch = mRestoreLatch;
+    return (latch != null) && (latch.getCount() > 0);
+  }
+  
+  /**
+   * Wait for a restore in progress to complete
+   * 
+   * @param timeout
+   *   The maximum number of milliseconds to wait, or 0 to wait indefinitely
+   * @return
+   *   {@code true} if the queue is not being restored, {@code false} if the timeout expired or the thread was interrupted
+   */
+  private boolean awaitRestore(long timeout)
+  {
+    CountDownLatch latch = mRestoreLatch;
+    if ((latch == null) || (latch.getCount() == 0))
+      return true;
+    
+    mLogger.debug("MqLocalQueue::awaitRestore() - Waiting for queue " + mName + " to be restored");
+    try
+    {
+      if (timeout == 0)
+      {
+        latch.await();
+        return true;
+      }
+      return latch.await(timeout, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+  
+  /**
+   * Restore the queue contents, see {@link #restore()}
+   * 
+   * @return
+   *   {@code true} if queue contents restored successfully, {@code false} otherwise
+   */
+  private boolean internalRestore()
   {
     mLogger.trace("MqLocalQueue::restore() - IN");
     boolean success = true;
+    boolean legacy = false;
     
-    String fullFileName = RunTimeUtils.getProductHomeDir() + File.separator + "repo" + File.separator + mName + ".qbk";
+    String fullFileName = getBackupFileName();
     mBackupFile = new File(fullFileName);
     mLogger.trace("MqLocalQueue::restore() - Backup file: [" + mBackupFile.getAbsolutePath() + "]");
     
-    if (!mBackupFile.exists())
+    Map<UniqueId, IMqMessage> messages = new LinkedHashMap<UniqueId, IMqMessage>();
+    if ((!mBackupFile.exists()) || (mBackupFile.length() == 0))
     {
-      success = FileUtils.createFile(fullFileName);
-      mLogger.trace("MqLocalQueue::restore() - Backup file doesn't exist. Creating it... " + success);
+      mLogger.trace("MqLocalQueue::restore() - Backup file doesn't exist or is empty, nothing to restore");
     }
     else if (!mBackupFile.canRead())
     {
@@ -188,314 +420,1410 @@ public class MqLocalQueue extends MqQueue
     }
     else
     {
-      FileInputStream fis = null;
-      ObjectInputStream istream = null;
+      DataInputStream istream = null;
       try
       {
-        boolean eof = false;
-        boolean err = false;
-        
-        fis = new FileInputStream(mBackupFile);
-        istream = new ObjectInputStream(fis);
-        
-        // read queue details
-        try
+        istream = new DataInputStream(new BufferedInputStream(new FileInputStream(mBackupFile)));
+        if (istream.readInt() != cBackupMagic)
         {
-          mDescription = (String)istream.readObject();
-          mThreshold = istream.readInt();
-          mLastAccessUser = (String)istream.readObject();
-          mLastAccessTimeStamp = TimeStamp.toTimeStamp(istream.readLong());
-          mLastAccessMethod = (String)istream.readObject();
-          mLogger.trace("MqLocalQueue::restore() - Threshold=" + mThreshold + "; LastAccess=(" + getLastAccess() + ")");
+          legacy = true;
         }
-        catch (Throwable e) {}
-        
-        while ((!eof) && (!err))
+        else
         {
-          try
-          {
-            PacketHeader header = new PacketHeader(istream);
-            IPacket packet = header.read(istream);
-            IMqMessage message = (IMqMessage)packet;
-            mLogger.trace("MqLocalQueue::restore() - Header="  + StringUtils.asPrintableString(header));
-            mLogger.trace("MqLocalQueue::restore() - Message=" + StringUtils.asPrintableString(message));
-            
-            internalPut(message, false);
-          }
-          catch (IOException e)
-          {
-            eof = true;
-          }
-          catch (Throwable e)
-          {
-            mLogger.warn("Exception caught while trying to restore queue " + mName + " contents. Exception: ", e);
-            err = true;
-            success = false;
-          }
+          int version = istream.readInt();
+          if (version != cBackupVersion)
+            throw new IOException("Unsupported backup file version " + version);
+          
+          mDescription = istream.readUTF();
+          mThreshold = istream.readInt();
+          mLastAccessUser = istream.readUTF();
+          mLastAccessTimeStamp = TimeStamp.toTimeStamp(istream.readLong());
+          mLastAccessMethod = istream.readUTF();
+          long generation = istream.readLong();
+          mLogger.trace("MqLocalQueue::restore() - Threshold=" + mThreshold + "; LastAccess=(" + getLastAccess() + "); Generation=" + generation);
+          
+          mStore = new MqSegmentStore(mRepositoryDir, mName, mSegmentSize, generation);
+          int total = mStore.load(messages);
+          mLogger.trace("MqLocalQueue::restore() - Loaded " + total + " messages from store");
         }
       }
       catch (IOException e)
       {
-        mLogger.warn("Exception caught while trying to open queue " + mName + " backup file. Exception: ", e);
+        mLogger.warn("Exception caught while trying to restore queue " + mName + " contents. Exception: ", e);
         success = false;
       }
       finally
       {
         try
         {
-          if (fis != null) fis.close();
           if (istream != null) istream.close();
         }
         catch (Throwable e) {}
       }
       
-      if (success)
+      if (legacy)
+        success = restoreLegacy(messages);
+    }
+    
+    int records = 0;
+    if (mJournal != null)
+    {
+      records = mJournal.replay(messages);
+      mLogger.trace("MqLocalQueue::restore() - Replayed " + records + " journal records");
+    }
+    
+    for (IMqMessage message : messages.values())
+      enqueue(message);
+    
+    if (success)
+    {
+      synchronized (mCheckpointLock)
+      {
+        mCheckpointChanges = mChanges.get();
+      }
+      
+      if (legacy)
+      {
+        synchronized (mCheckpointLock)
+        {
+          success = writeCheckpoint(false, null);
+        }
+        if ((success) && (mJournal != null))
+          success = mJournal.truncate();
+      }
+      else if (records > 0)
       {
-        FileUtils.deleteFile(mBackupFile.getAbsolutePath());
-        mLogger.info("Queue " + mName + " contents successfully restored; Total read messages [" + size() + "]");
+        success = internalCheckpoint();
       }
+      mLogger.info("Queue " + mName + " contents successfully restored; Total read messages [" + size() + "]");
     }
     
     mLogger.trace("MqLocalQueue::restore() - OUT, Returns=" + Boolean.toString(success));
     return success;
   }
-
+  
   /**
-   * Backup the {@link MqLocalQueue} contents to file system
+   * Read a backup file written by an older version, in which the queue definition and all messages
+   * were written with an {@link ObjectOutputStream}
    * 
+   * @param messages
+   *   The map to which messages are added, keyed by message ID
    * @return
-   *   {@code true} if completed writing all queue contents successfully, {@code false} otherwise
+   *   {@code true} if the backup file was read successfully, {@code false} otherwise
    */
-  public synchronized boolean backup()
+  private boolean restoreLegacy(Map<UniqueId, IMqMessage> messages)
   {
-    mLogger.trace("MqLocalQueue::backup() - IN, name=[" + mName + "]");
+    mLogger.trace("MqLocalQueue::restoreLegacy() - IN");
     boolean success = true;
     
-    if (mDisposition == EQueueDisp.PERMANENT)
+    FileInputStream fis = null;
+    ObjectInputStream istream = null;
+    try
     {
-      String fullFileName = RunTimeUtils.getProductHomeDir() + File.separator + "repo" + File.separator + mName + ".qbk";
-      mBackupFile = new File(fullFileName);
-      mLogger.trace("MqLocalQueue::backup() - Backup file: [" + mBackupFile.getAbsolutePath() + "]");
-      
-      if (mBackupFile.exists())
-      {
-        success = FileUtils.deleteFile(fullFileName);
-        mLogger.trace("MqLocalQueue::backup() - Backup file already exists. Deleting it... " + Boolean.toString(success));
-      }
+      boolean eof = false;
+      boolean err = false;
       
-      if (success && (!mBackupFile.exists()))
-      {
-        success = FileUtils.createFile(fullFileName);
-        mLogger.trace("MqLocalQueue::backup() - Backup file doesn't exist. Creating it... " + Boolean.toString(success));
-      }
+      fis = new FileInputStream(mBackupFile);
+      istream = new ObjectInputStream(fis);
       
-      if (success && (!mBackupFile.canWrite()))
+      // read queue details
+      try
       {
-        mLogger.warn("Cannot write contents to backup file [" + fullFileName + "], file is not writable...");
-        success = false;
+        mDescription = (String)istream.readObject();
+        mThreshold = istream.readInt();
+        mLastAccessUser = (String)istream.readObject();
+        mLastAccessTimeStamp = TimeStamp.toTimeStamp(istream.readLong());
+        mLastAccessMethod = (String)istream.readObject();
+        mLogger.trace("MqLocalQueue::restoreLegacy() - Threshold=" + mThreshold + "; LastAccess=(" + getLastAccess() + ")");
       }
+      catch (Throwable e) {}
       
-      if (success && (!mBackupFile.isFile()))
-      {
-        mLogger.warn("Backup file " + fullFileName + " doesn't designate a regular file");
-        success = false;
-      }
-
-      if (success)
+      while ((!eof) && (!err))
       {
-        // save all messages to file
-        int msgs = 0;
-        FileOutputStream fos = null;
-        ObjectOutputStream ostream = null;
-        
         try
         {
-          fos = new FileOutputStream(mBackupFile);
-          ostream = new ObjectOutputStream(fos);
+          PacketHeader header = new PacketHeader(istream);
+          IPacket packet = header.read(istream);
+          IMqMessage message = (IMqMessage)packet;
+          mLogger.trace("MqLocalQueue::restoreLegacy() - Header="  + StringUtils.asPrintableString(header));
+          mLogger.trace("MqLocalQueue::restoreLegacy() - Message=" + StringUtils.asPrintableString(message));
           
-          try
-          {
-            // write queue details
-            mLogger.trace("MqLocalQueue::backup() - Threshold=" + mThreshold + "; LastAccess=(" + getLastAccess() + ")");
-            ostream.writeObject(mDescription);
-            ostream.writeInt(mThreshold);
-            ostream.writeObject(mLastAccessUser);
-            ostream.writeLong(mLastAccessTimeStamp.getTimeInMillis());
-            ostream.writeObject(mLastAccessMethod);
-            
-            for (int i = 0; i < mQueueArray.length; ++i)
-            {
-              MessageQueue mq = mQueueArray[i];
-              while (!mq.isEmpty())
-              {
-                IMqMessage message = mq.poll();
-                
-                PacketHeader header = message.createHeader();
-                header.serialize(ostream);
-                message.serialize(ostream);
-                mLogger.trace("MqLocalQueue::backup() - Header="  + StringUtils.asPrintableString(header));
-                mLogger.trace("MqLocalQueue::backup() - Message=" + StringUtils.asPrintableString(message));
-                
-                ++msgs;
-              }
-            }
-          }
-          catch (Throwable e)
-          {
-            mLogger.warn("Exception caught while trying to write to queue " + mName + " backup file. Exception: ", e);
-            success = false;
-          }
+          messages.put(message.getMessageId(), message);
         }
         catch (IOException e)
         {
-          mLogger.warn("Exception caught while trying to open queue " + mName + " backup file. Exception: ", e);
-          success = false;
+          eof = true;
         }
-        
-        // cleanup
-        try
+        catch (Throwable e)
         {
-          ostream.flush();
-          ostream.close();
-          fos.flush();
-          fos.close();
+          mLogger.warn("Exception caught while trying to restore queue " + mName + " contents. Exception: ", e);
+          err = true;
+          success = false;
         }
-        catch (Throwable e) {}
-        
-        if (success) mLogger.info("Total messages saved to queue " + mName + " backup file: " + msgs);
       }
     }
-    
-    mLogger.trace("MqLocalQueue::backup() - OUT, Returns=" + Boolean.toString(success));
-    return success;
-  }
-  
-  /**
-   * Expire old messages
-   * 
-   * @return
-   *   the total number of messages expired
-   */
-  public int expire()
-  {
-    mLogger.trace("MqLocalQueue::expire() - IN");
-    
-    int total = 0;
-    for (int prio = IMqConstants.cMaximumPriority; prio >= IMqConstants.cMinimumPriority; --prio)
+    catch (IOException e)
+    {
+      mLogger.warn("Exception caught while trying to open queue " + mName + " backup file. Exception: ", e);
+      success = false;
+    }
+    finally
     {
-      MessageQueue mdq = mQueueArray[prio];
-      for (IMqMessage msg : mdq)
+      try
       {
-        if (msg.isExpired())
-          mdq.remove(msg);
+        if (fis != null) fis.close();
+        if (istream != null) istream.close();
       }
+      catch (Throwable e) {}
     }
     
-    setLastAccess(IMqConstants.cSystemUserName, "expire");
-    
-    mLogger.trace("MqLocalQueue::expire() - OUT, Returns=" + total);
-    return total;
+    mLogger.trace("MqLocalQueue::restoreLegacy() - OUT, Returns=" + Boolean.toString(success));
+    return success;
   }
-  
+
   /**
-   * Put a message into this {@link MqLocalQueue} object.
+   * Backup the {@link MqLocalQueue} contents to file system.<br>
+   * A journaled queue only needs a last {@link #checkpoint()}, writing what changed since the previous one.
+   * Otherwise, the queue is drained into a new store generation.
    * 
-   * @param message
-   *   The message that should be stored at this {@link MqLocalQueue} object.
-   * @param updateLastAccess
-   *   whether to update the last access fields for this operation
    * @return
-   *   {@code true} if message was added, {@code false} otherwise.
+   *   {@code true} if completed writing all queue contents successfully, {@code false} otherwise
    */
-  public boolean internalPut(IMqMessage message, boolean updateLastAccess)
+  public synchronized boolean backup()
   {
-    mLogger.trace("MqLocalQueue::internalPut() - IN");
+    mLogger.trace("MqLocalQueue::backup() - IN, name=[" + mName + "]");
+    boolean success = true;
     
-    boolean success = false;
-    if ((mThreshold == 0) || (size() < mThreshold))
+    if (mDisposition == EQueueDisp.PERMANENT)
     {
-      int prio = message.getPriority();
-      success = mQueueArray[prio].offer(message);
-      
-      String user = message.getStringProperty(IMqConstants.cKasPropertyPutUserName, IMqConstants.cSystemUserName);
-      if (updateLastAccess) setLastAccess(user, "put");
+      if (mJournal != null)
+      {
+        success = checkpoint();
+        mJournal.close();
+      }
+      else
+      {
+        synchronized (mCheckpointLock)
+        {
+          success = writeCheckpoint(true, null);
+        }
+      }
     }
     
-    mLogger.trace("MqLocalQueue::internalPut() - OUT, Returns=" + success);
+    mLogger.trace("MqLocalQueue::backup() - OUT, Returns=" + Boolean.toString(success));
     return success;
   }
   
   /**
-   * Put a message into this {@link MqLocalQueue} object.
+   * Write what changed since the last checkpoint to the {@link MqSegmentStore}, without removing messages
+   * from the queue and while puts and gets keep running.<br>
+   * <br>
+   * The journal is rotated, and the records written since the last checkpoint are appended to the store
+   * as they are: PUT records become message records and GET records become tombstones. Once the store is
+   * forced to disk, the rotated records are deleted. If most of the store is taken by removed messages,
+   * the queue contents are written to a new store generation instead.<br>
+   * A queue without a journal has no record of what changed, so its contents are written to a new generation,
+   * unless no message was added or removed since they were last written.<br>
+   * While the queue is being restored, the checkpoint is skipped.
    * 
-   * @param message The message that should be stored at this {@link MqLocalQueue} object.
-   * @return {@code true} if message was added, {@code false} otherwise.
+   * @return
+   *   {@code true} if the checkpoint was written successfully, {@code false} otherwise
    */
-  public boolean internalPut(IMqMessage message)
+  public boolean checkpoint()
   {
-    return internalPut(message, true);
+    if (isRestoring())
+      return true;
+    return internalCheckpoint();
   }
   
   /**
-   * Get the {@link IMqMessage message} with the highest priority from this {@link MqLocalQueue} object.<br>
-   * Since the actual message container is implemented by {@link MessageQueue}, the actual "get" operations
-   * are translated to {@link MessageQueue#poll()}.<br>
-   * Polling is done by calling the {@link MessageQueue#poll()} method and then suspend the thread
-   * execution for {@code interval} milliseconds.<br>
-   * If a message is not available, the method will poll for one until {@code timeout} expires.
-   * If {@code timeout} is 0, the method will poll indefinitely.
+   * Write a checkpoint, see {@link #checkpoint()}
    * 
-   * @param timeout
-   *   The timeout until which the method will give up
-   * @param interval
-   *   The gap length between polling operations
    * @return
-   *   the {@link IMqMessage} or {@code null} if one is unavailable
+   *   {@code true} if the checkpoint was written successfully, {@code false} otherwise
    */
-  protected IMqMessage internalGet(long timeout, long interval)
+  private boolean internalCheckpoint()
   {
-    mLogger.trace("MqLocalQueue::get() - IN, Timeout=" + timeout + ", Interval=" + interval);
-    
-    IMqMessage result = null;
+    mLogger.trace("MqLocalQueue::checkpoint() - IN, name=[" + mName + "]");
+    boolean success = true;
     
-    long millisPassed = 0;
-    boolean timeoutExpired = false;
-    while ((result == null) && (!timeoutExpired))
+    if (mDisposition == EQueueDisp.PERMANENT)
     {
-      int priority = internalGetPriorityIndex();
-      if (priority > -1)
-      {
-        result = mQueueArray[priority].poll();
-      }
-      else
+      synchronized (mCheckpointLock)
       {
-        RunTimeUtils.sleepForMilliSeconds(interval);
-        millisPassed += interval;
-        
-        if (timeout != 0)
-          timeoutExpired = millisPassed >= timeout;
+        MqQueueJournal journal = mJournal;
+        MqSegmentStore store = mStore;
+        if (journal == null)
+        {
+          if (mChanges.get() != mCheckpointChanges)
+            success = writeCheckpoint(false, null);
+        }
+        else if (!journal.rotate())
+        {
+          success = false;
+        }
+        else if (store.needsCompaction())
+        {
+          success = writeCheckpoint(false, journal) && journal.deletePending();
+        }
+        else
+        {
+          int records = journal.apply(store, mPagedIds);
+          store.force();
+          success = (records >= 0) && journal.deletePending();
+          mLogger.debug("MqLocalQueue::checkpoint() - Applied " + records + " journal records to queue " + mName + " store");
+        }
       }
     }
     
-    mLogger.trace("MqLocalQueue::get() - OUT");
-    return result;
+    mLogger.trace("MqLocalQueue::checkpoint() - OUT, Returns=" + Boolean.toString(success));
+    return success;
   }
   
   /**
-   * Find the first non-empty {@link MessageQueue} object in the queue array.
+   * Write the queue contents to a new generation of the {@link MqSegmentStore}, then point the backup file at it.<br>
+   * Paged messages are copied from segment to segment as is, without deserializing them.
+   * The previous generation is deleted only once the backup file was replaced, so a failure
+   * half-way leaves the previous generation intact.<br>
+   * <br>
+   * When not draining, puts and gets keep running while the queue contents are written. Records of the
+   * rotated {@code journal} are then applied to the new generation as well, so messages whose put was
+   * journaled but that were not yet queued when they were written are not lost.<br>
+   * The caller must hold {@link #mCheckpointLock}.
    * 
+   * @param drain
+   *   If {@code true}, messages are removed from the queue as they are written
+   * @param journal
+   *   The journal whose pending records are applied to the new generation, or {@code null}
    * @return
-   *   the index of the first non-empty queue, or -1 if all are empty.
+   *   {@code true} if the checkpoint was written successfully, {@code false} otherwise
+   */
+  private boolean writeCheckpoint(boolean drain, MqQueueJournal journal)
+  {
+    mLogger.trace("MqLocalQueue::writeCheckpoint() - IN, Drain=" + drain);
+    boolean success = true;
+    
+    mStoreLock.writeLock().lock();
+    
+    // changes made while the checkpoint is written may be missed, so they are left for the next one
+    long changes = mChanges.get();
+    MqSegmentStore store = mStore;
+    MqSegmentStore next = store.nextGeneration();
+    
+    // paged messages are pointed at their copies only once the checkpoint is complete
+    List<MqPagedMessage> moved = new ArrayList<MqPagedMessage>();
+    List<MqPagedMessage> copies = new ArrayList<MqPagedMessage>();
+    
+    int msgs = 0;
+    try
+    {
+      for (int i = 0; i < mQueueArray.length; ++i)
+      {
+        MessageQueue mq = mQueueArray[i];
+        if (drain)
+        {
+          IMqMessage message;
+          while ((message = pollPriority(i)) != null)
+          {
+            writeMessage(next, message);
+            ++msgs;
+          }
+        }
+        else
+        {
+          for (IMqMessage message : mq)
+          {
+            if (!mExpiryIndex.contains(message))
+              continue;
+            
+            MqPagedMessage copy = writeMessage(next, message);
+            if (message instanceof MqPagedMessage)
+            {
+              moved.add((MqPagedMessage)message);
+              copies.add(copy);
+            }
+            ++msgs;
+          }
+        }
+      }
+      
+      for (IMqMessage message : mPending.values())
+      {
+        writeMessage(next, message);
+        ++msgs;
+      }
+      
+      if ((journal != null) && (journal.apply(next, mPagedIds) < 0))
+        throw new IOException("Failed to apply journal records");
+      
+      next.force();
+      writeBackupFile(next.getGeneration());
+    }
+    catch (Throwable e)
+    {
+      mLogger.warn("Exception caught while trying to write queue " + mName + " checkpoint. Exception: ", e);
+      success = false;
+    }
+    
+    if (success)
+    {
+      for (int i = 0; i < moved.size(); ++i)
+        moved.get(i).relocate(copies.get(i));
+      
+      mStore = next;
+      mCheckpointChanges = changes;
+      store.delete();
+      mLogger.info("Total messages saved to queue " + mName + " store: " + msgs);
+    }
+    else
+    {
+      next.delete();
+    }
+    
+    mStoreLock.writeLock().unlock();
+    
+    mLogger.trace("MqLocalQueue::writeCheckpoint() - OUT, Returns=" + Boolean.toString(success));
+    return success;
+  }
+  
+  /**
+   * Write a single message to the store
+   * 
+   * @param store
+   *   The store
+   * @param message
+   *   The message to write
+   * @return
+   *   the {@link MqPagedMessage} standing for the written message
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  private MqPagedMessage writeMessage(MqSegmentStore store, IMqMessage message) throws IOException
+  {
+    mLogger.trace("MqLocalQueue::writeMessage() - Message=" + StringUtils.asPrintableString(message));
+    if (message instanceof MqPagedMessage)
+      return store.append((MqPagedMessage)message);
+    return store.append(message);
+  }
+  
+  /**
+   * Write the queue definition and the store generation to the backup file.<br>
+   * The data is first written to a temporary file which then replaces the backup file.
+   * 
+   * @param generation
+   *   The generation of the store holding the queue contents
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  private void writeBackupFile(long generation) throws IOException
+  {
+    String fullFileName = getBackupFileName();
+    mBackupFile = new File(fullFileName);
+    File tempFile = new File(fullFileName + ".tmp");
+    mLogger.trace("MqLocalQueue::writeBackupFile() - Backup file: [" + mBackupFile.getAbsolutePath() + "], Generation=" + generation);
+    
+    if ((mBackupFile.exists()) && (!mBackupFile.isFile()))
+      throw new IOException("Backup file " + fullFileName + " doesn't designate a regular file");
+    
+    FileOutputStream fos = new FileOutputStream(tempFile);
+    try
+    {
+      DataOutputStream ostream = new DataOutputStream(new BufferedOutputStream(fos));
+      ostream.writeInt(cBackupMagic);
+      ostream.writeInt(cBackupVersion);
+      ostream.writeUTF(mDescription == null ? "" : mDescription);
+      ostream.writeInt(mThreshold);
+      ostream.writeUTF(mLastAccessUser);
+      ostream.writeLong(mLastAccessTimeStamp.getTimeInMillis());
+      ostream.writeUTF(mLastAccessMethod);
+      ostream.writeLong(generation);
+      ostream.flush();
+      fos.getFD().sync();
+    }
+    catch (IOException e)
+    {
+      fos.close();
+      FileUtils.deleteFile(tempFile.getAbsolutePath());
+      throw e;
+    }
+    fos.close();
+    
+    try
+    {
+      Files.move(tempFile.toPath(), mBackupFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e)
+    {
+      Files.move(tempFile.toPath(), mBackupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+  
+  /**
+   * Set how the queue contents are kept in its {@link MqSegmentStore}
+   * 
+   * @param segmentSize
+   *   The size of newly created segment files
+   * @param heapLimit
+   *   The number of messages kept on the heap, beyond which new messages are paged to the store.
+   *   0 means messages are never paged
+   */
+  public synchronized void configureStore(int segmentSize, int heapLimit)
+  {
+    mSegmentSize = segmentSize;
+    mHeapLimit = heapLimit;
+    mStore.setSegmentSize(segmentSize);
+  }
+  
+  /**
+   * Add a newly put message to the queue. If the queue keeps too many messages on the heap, the message
+   * is written to the store and a {@link MqPagedMessage} is queued instead.<br>
+   * While the store is being compacted, messages are kept on the heap.
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   {@code true} if message was added, {@code false} otherwise
+   */
+  private boolean offerOrPage(IMqMessage message)
+  {
+    if ((mHeapLimit <= 0) || (mDisposition != EQueueDisp.PERMANENT) || (mSize.get() - mPaged.get() <= mHeapLimit))
+      return offer(message);
+    
+    if (!mStoreLock.readLock().tryLock())
+      return offer(message);
+    
+    try
+    {
+      IMqMessage stored = message;
+      try
+      {
+        stored = mStore.append(message);
+        mPagedIds.add(message.getMessageId());
+      }
+      catch (IOException e)
+      {
+        mLogger.warn("Exception caught while trying to page a message to queue " + mName + " store. Exception: ", e);
+      }
+      return offer(stored);
+    }
+    finally
+    {
+      mStoreLock.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Read a paged message from the store
+   * 
+   * @param message
+   *   The message removed from the queue
+   * @return
+   *   the message itself, the message read from the store if it was paged,
+   *   or {@code null} if it could not be read
+   */
+  private IMqMessage unpage(IMqMessage message)
+  {
+    if (!(message instanceof MqPagedMessage))
+      return message;
+    
+    try
+    {
+      return ((MqPagedMessage)message).load();
+    }
+    catch (IllegalStateException e)
+    {
+      mLogger.warn("Exception caught while trying to read a message from queue " + mName + " store. Exception: ", e);
+      return null;
+    }
+  }
+  
+  /**
+   * Get the full path of the backup file
+   * 
+   * @return
+   *   the full path of the backup file
+   */
+  private String getBackupFileName()
+  {
+    return mRepositoryDir.getPath() + File.separator + mName + ".qbk";
+  }
+  
+  /**
+   * Start journaling puts and gets to {@code journal}.<br>
+   * A {@code fresh} journal belongs to a newly defined queue: whatever the journal file holds is discarded
+   * and a first checkpoint, holding the queue definition, is written.
+   * Otherwise, existing records are kept so {@link #restore()} can replay them.
+   * 
+   * @param journal
+   *   The journal
+   * @param fresh
+   *   Whether this is a new journal
+   * @return
+   *   {@code true} if the journal was attached successfully, {@code false} otherwise
+   */
+  public synchronized boolean attachJournal(MqQueueJournal journal, boolean fresh)
+  {
+    mLogger.trace("MqLocalQueue::attachJournal() - IN, Fresh=" + fresh);
+    
+    boolean success = journal.open();
+    if (success && fresh)
+      success = journal.truncate();
+    
+    if (success)
+    {
+      synchronized (mCheckpointLock)
+      {
+        mJournal = journal;
+        if (fresh) success = writeCheckpoint(false, null);
+      }
+    }
+    else
+    {
+      journal.close();
+    }
+    
+    mLogger.trace("MqLocalQueue::attachJournal() - OUT, Returns=" + success);
+    return success;
+  }
+  
+  /**
+   * Get an indication whether puts and gets are journaled
+   * 
+   * @return
+   *   {@code true} if the queue has a journal, {@code false} otherwise
+   */
+  public boolean isJournaled()
+  {
+    return mJournal != null;
+  }
+  
+  /**
+   * Drop everything this queue keeps on the file system: the journal, the backup file and the store.<br>
+   * This is called when the queue is deleted or is no longer permanent.
+   */
+  public synchronized void discard()
+  {
+    mLogger.trace("MqLocalQueue::discard() - IN");
+    
+    synchronized (mCheckpointLock)
+    {
+      MqQueueJournal journal = mJournal;
+      mJournal = null;
+      if (journal != null)
+        journal.delete();
+      
+      File backupFile = new File(getBackupFileName());
+      if (backupFile.exists())
+        FileUtils.deleteFile(backupFile.getAbsolutePath());
+      
+      // messages still paged to the store remain readable through their mapping
+      mStore.deleteAll();
+      mStore = new MqSegmentStore(mRepositoryDir, mName, mSegmentSize, 0);
+    }
+    
+    mLogger.trace("MqLocalQueue::discard() - OUT");
+  }
+  
+  /**
+   * Expire old messages.<br>
+   * <br>
+   * Expired messages are taken from the {@link MqExpiryIndex}, so only messages that actually expired are visited.
+   * They are not searched for in their {@link MessageQueue}: they are accounted for right away and skipped
+   * by consumers when they reach them. Expired messages at the head of a {@link MessageQueue} are dropped here,
+   * and once expired messages outnumber the live ones the {@link MessageQueue} objects are {@link #compact() compacted}.
+   * 
+   * @return
+   *   the total number of messages expired
+   */
+  public int expire()
+  {
+    mLogger.trace("MqLocalQueue::expire() - IN");
+    
+    int total = 0;
+    if (isRestoring())
+    {
+      mLogger.trace("MqLocalQueue::expire() - OUT, Queue is being restored");
+      return total;
+    }
+    
+    for (IMqMessage msg : mExpiryIndex.pollExpired(System.currentTimeMillis()))
+    {
+      mSize.decrementAndGet();
+      mChanges.incrementAndGet();
+      if (msg instanceof MqPagedMessage)
+      {
+        mPaged.decrementAndGet();
+        mPagedIds.remove(msg.getMessageId());
+      }
+      mExpired.add(msg);
+      journalGet(msg);
+      ++total;
+    }
+    
+    if (total > 0)
+    {
+      for (int prio = IMqConstants.cMaximumPriority; prio >= IMqConstants.cMinimumPriority; --prio)
+      {
+        MessageQueue mdq = mQueueArray[prio];
+        IMqMessage head;
+        while (((head = mdq.peek()) != null) && (mExpired.contains(head)) && (mdq.remove(head)))
+          mExpired.remove(head);
+      }
+      
+      int expired = mExpired.size();
+      if ((expired >= cCompactionMinimum) && (expired >= mSize.get()))
+        compact();
+    }
+    
+    setLastAccess(IMqConstants.cSystemUserName, "expire");
+    
+    mLogger.trace("MqLocalQueue::expire() - OUT, Returns=" + total);
+    return total;
+  }
+  
+  /**
+   * Unlink the expired messages that are still in the {@link MessageQueue} objects, behind live messages.
+   * 
+   * @return
+   *   the number of messages unlinked
+   */
+  private int compact()
+  {
+    mLogger.trace("MqLocalQueue::compact() - IN, Expired=" + mExpired.size());
+    
+    int total = 0;
+    for (MessageQueue mq : mQueueArray)
+    {
+      for (Iterator<IMqMessage> iter = mq.iterator(); iter.hasNext();)
+      {
+        IMqMessage message = iter.next();
+        if (mExpired.remove(message))
+        {
+          iter.remove();
+          ++total;
+        }
+      }
+    }
+    
+    mLogger.trace("MqLocalQueue::compact() - OUT, Returns=" + total);
+    return total;
+  }
+  
+  /**
+   * Put a message into this {@link MqLocalQueue} object.<br>
+   * If the queue is being restored, the put waits for the restore to complete.<br>
+   * A put refused because its journal commit failed is normally cancelled in the journal, but if that fails
+   * too the message may be restored after a restart (at-least-once).
+   * 
+   * @param message
+   *   The message that should be stored at this {@link MqLocalQueue} object.
+   * @param updateLastAccess
+   *   whether to update the last access fields for this operation
+   * @return
+   *   {@code true} if message was added, {@code false} otherwise.
+   */
+  public boolean internalPut(IMqMessage message, boolean updateLastAccess)
+  {
+    mLogger.trace("MqLocalQueue::internalPut() - IN");
+    
+    boolean success = false;
+    if ((awaitRestore(0)) && (reserve()))
+    {
+      if (journalPut(message))
+        success = offerOrPage(message);
+      else
+        mSize.decrementAndGet();
+      
+      String user = message.getStringProperty(IMqConstants.cKasPropertyPutUserName, IMqConstants.cSystemUserName);
+      if (updateLastAccess) setLastAccess(user, "put");
+    }
+    
+    mLogger.trace("MqLocalQueue::internalPut() - OUT, Returns=" + success);
+    return success;
+  }
+  
+  /**
+   * Put several messages into this {@link MqLocalQueue} object.<br>
+   * All PUT records are written to the journal first and committed together, so the batch waits for
+   * a single commit instead of one per message. Messages are added to the queue once they are committed.<br>
+   * If the commit fails, the whole batch is refused and its PUT records are cancelled with GET records.
+   * Should cancelling fail as well, a refused message may be restored after a restart, so a {@code false}
+   * result means the message was not queued now, but it may still be delivered (at-least-once).
+   * 
+   * @param messages
+   *   The messages that should be stored at this {@link MqLocalQueue} object
+   * @return
+   *   an array holding, for each message, {@code true} if it was added, {@code false} otherwise
+   */
+  protected boolean [] internalPut(List<IMqMessage> messages)
+  {
+    mLogger.trace("MqLocalQueue::internalPut() - IN, Messages=" + messages.size());
+    
+    boolean [] results = new boolean [messages.size()];
+    if (!awaitRestore(0))
+    {
+      mLogger.trace("MqLocalQueue::internalPut() - OUT, Queue restore did not complete");
+      return results;
+    }
+    
+    MqQueueJournal journal = mJournal;
+    long seq = -1;
+    List<IMqMessage> logged = new ArrayList<IMqMessage>();
+    for (int i = 0; i < results.length; ++i)
+    {
+      if (!reserve())
+        continue;
+      
+      try
+      {
+        if (journal != null)
+          seq = journal.logPut(messages.get(i));
+        results[i] = true;
+        logged.add(messages.get(i));
+      }
+      catch (IOException e)
+      {
+        mLogger.warn("Exception caught while trying to write to queue " + mName + " journal. Exception: ", e);
+        mSize.decrementAndGet();
+      }
+    }
+    
+    if ((journal != null) && (journal.isSyncOnPut()) && (seq >= 0))
+    {
+      try
+      {
+        journal.commit(seq);
+      }
+      catch (IOException e)
+      {
+        mLogger.warn("Exception caught while trying to commit queue " + mName + " journal. Exception: ", e);
+        journalCancel(journal, logged);
+        Arrays.fill(results, false);
+        mSize.addAndGet(-logged.size());
+      }
+    }
+    
+    String user = IMqConstants.cSystemUserName;
+    for (int i = 0; i < results.length; ++i)
+    {
+      if (results[i])
+      {
+        IMqMessage message = messages.get(i);
+        results[i] = offerOrPage(message);
+        user = message.getStringProperty(IMqConstants.cKasPropertyPutUserName, user);
+      }
+    }
+    setLastAccess(user, "put");
+    
+    mLogger.trace("MqLocalQueue::internalPut() - OUT");
+    return results;
+  }
+  
+  /**
+   * Put a message into this {@link MqLocalQueue} object.
+   * 
+   * @param message The message that should be stored at this {@link MqLocalQueue} object.
+   * @return {@code true} if message was added, {@code false} otherwise.
+   */
+  public boolean internalPut(IMqMessage message)
+  {
+    return internalPut(message, true);
+  }
+  
+  /**
+   * Get the {@link IMqMessage message} with the highest priority from this {@link MqLocalQueue} object.<br>
+   * Since the actual message container is implemented by {@link MessageQueue}, the actual "get" operations
+   * are translated to {@link MessageQueue#poll()}.<br>
+   * If a message is not available, the calling thread is parked until {@link #internalPut(IMqMessage, boolean)}
+   * signals that one has arrived or until {@code timeout} expires. If {@code timeout} is 0, the method will wait indefinitely.<br>
+   * When several consumers are waiting, messages are handed to them in the order they started waiting.<br>
+   * Messages that expired but were not yet removed by {@link #expire()} are removed and skipped.<br>
+   * If the queue is being restored, waiting for the restore to complete counts against {@code timeout}.<br>
+   * <br>
+   * Note that {@code interval} is kept for compatibility with {@link MqQueue#get(long, long)}; it has no effect
+   * on local queues.
+   * 
+   * @param timeout
+   *   The timeout until which the method will give up
+   * @param interval
+   *   Ignored
+   * @return
+   *   the {@link IMqMessage} or {@code null} if one is unavailable
+   */
+  protected IMqMessage internalGet(long timeout, long interval)
+  {
+    mLogger.trace("MqLocalQueue::get() - IN, Timeout=" + timeout + ", Interval=" + interval);
+    
+    IMqMessage result = awaitMessage(timeout, false);
+    
+    mLogger.trace("MqLocalQueue::get() - OUT");
+    return result;
+  }
+  
+  /**
+   * Remove the message with the highest priority, waiting for one as described in {@link #internalGet(long, long)}
+   * 
+   * @param timeout
+   *   The timeout until which the method will give up
+   * @param pending
+   *   If {@code true}, the message is left {@link #take(long) pending} rather than journaled as removed
+   * @return
+   *   the {@link IMqMessage} or {@code null} if one is unavailable
+   */
+  private IMqMessage awaitMessage(long timeout, boolean pending)
+  {
+    IMqMessage result = null;
+    
+    long start = System.currentTimeMillis();
+    if (!awaitRestore(timeout))
+    {
+      mLogger.trace("MqLocalQueue::awaitMessage() - Queue restore did not complete in time");
+      return null;
+    }
+    if (timeout > 0)
+      timeout = Math.max(1, timeout - (System.currentTimeMillis() - start));
+    
+    // fast path: nobody is waiting ahead of us
+    if (mWaiters.get() == 0)
+      result = internalPoll(pending);
+    
+    if (result == null)
+    {
+      long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+      mGetLock.lock();
+      try
+      {
+        Condition turn = mGetLock.newCondition();
+        mWaitQueue.addLast(turn);
+        mWaiters.incrementAndGet();
+        try
+        {
+          boolean timeoutExpired = false;
+          while (true)
+          {
+            if (mWaitQueue.peekFirst() == turn)
+            {
+              result = internalPoll(pending);
+              if (result != null)
+                break;
+            }
+            if (timeoutExpired)
+              break;
+            
+            if (timeout == 0)
+            {
+              turn.await();
+            }
+            else
+            {
+              nanos = turn.awaitNanos(nanos);
+              timeoutExpired = nanos <= 0;
+            }
+          }
+        }
+        catch (InterruptedException e)
+        {
+          mLogger.trace("MqLocalQueue::awaitMessage() - Interrupted while waiting for a message");
+          Thread.currentThread().interrupt();
+        }
+        finally
+        {
+          mWaitQueue.remove(turn);
+          mWaiters.decrementAndGet();
+        }
+        
+        // hand the turn on if there are still messages and other consumers waiting for them
+        Condition next = mWaitQueue.peekFirst();
+        if ((next != null) && (internalGetPriorityIndex() > -1))
+          next.signal();
+      }
+      finally
+      {
+        mGetLock.unlock();
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Get the message with the highest priority if one is available right away, without waiting.<br>
+   * Consumers that are already waiting for a message are not passed, and neither is a restore in progress.
+   * 
+   * @return
+   *   the {@link IMqMessage} or {@code null} if one is unavailable
    */
-  private int internalGetPriorityIndex()
+  public IMqMessage poll()
+  {
+    if ((isRestoring()) || (mWaiters.get() > 0))
+      return null;
+    return internalPoll(false);
+  }
+  
+  /**
+   * Take the message with the highest priority like {@link #get(long)} does, but leave it pending:
+   * its removal is not journaled until it's {@link #commit(List) committed}, and checkpoints keep writing it,
+   * so it's restored after a restart unless it was committed.<br>
+   * This lets a consumer hand a message on and remove it for good only once it was delivered.
+   * A message that could not be delivered is put back with {@link #rollback(List)}.
+   * 
+   * @param timeout
+   *   The timeout until which the method will give up, 0 to wait indefinitely
+   * @return
+   *   the {@link IMqMessage} or {@code null} if one is unavailable
+   */
+  public IMqMessage take(long timeout)
+  {
+    mLogger.trace("MqLocalQueue::take() - IN, Timeout=" + timeout);
+    
+    IMqMessage result = awaitMessage(timeout, true);
+    
+    mLogger.trace("MqLocalQueue::take() - OUT");
+    return result;
+  }
+  
+  /**
+   * Take the message with the highest priority if one is available right away, like {@link #poll()} does,
+   * leaving it pending as {@link #take(long)} does
+   * 
+   * @return
+   *   the {@link IMqMessage} or {@code null} if one is unavailable
+   */
+  public IMqMessage takeNow()
+  {
+    if ((isRestoring()) || (mWaiters.get() > 0))
+      return null;
+    return internalPoll(true);
+  }
+  
+  /**
+   * Remove pending messages for good, journaling them as removed
+   * 
+   * @param messages
+   *   Messages previously returned by {@link #take(long)} or {@link #takeNow()}
+   */
+  public void commit(List<IMqMessage> messages)
+  {
+    for (IMqMessage message : messages)
+    {
+      journalGet(message);
+      if (mPending.remove(message.getMessageId()) != null)
+        mChanges.incrementAndGet();
+    }
+  }
+  
+  /**
+   * Put pending messages back in the queue. Their PUT records still stand, so they're not journaled again.<br>
+   * They're put back at the head of the {@link MessageQueue} of their priority, in the order they're listed,
+   * so they're taken again before the messages put since they were taken, in their original order.<br>
+   * A message that no longer fits in the queue is left pending, to be restored after a restart.
+   * 
+   * @param messages
+   *   Messages previously returned by {@link #take(long)} or {@link #takeNow()}, in the order they were taken
+   * @return
+   *   the number of messages put back
+   */
+  public int rollback(List<IMqMessage> messages)
+  {
+    List<IMqMessage> reserved = new ArrayList<IMqMessage>();
+    for (IMqMessage message : messages)
+    {
+      if ((mPending.containsKey(message.getMessageId())) && (reserve()))
+        reserved.add(message);
+    }
+    
+    // each message is pushed in front of the ones listed after it
+    int total = 0;
+    for (int i = reserved.size() - 1; i >= 0; --i)
+    {
+      IMqMessage message = reserved.get(i);
+      if (offer(message, true))
+      {
+        mPending.remove(message.getMessageId());
+        ++total;
+      }
+    }
+    return total;
+  }
+  
+  /**
+   * Remove the message with the highest priority, without waiting.<br>
+   * Expired messages are journaled as removed and skipped.<br>
+   * A {@code pending} message is taken under the read lock of {@link #mStoreLock}, so a checkpoint
+   * writes it either as queued or as pending.
+   * 
+   * @param pending
+   *   If {@code true}, the message is left {@link #take(long) pending} rather than journaled as removed
+   * @return
+   *   the {@link IMqMessage} or {@code null} if all priority queues are empty
+   */
+  private IMqMessage internalPoll(boolean pending)
+  {
+    if (pending)
+      mStoreLock.readLock().lock();
+    
+    try
+    {
+      IMqMessage result = null;
+      int priority = internalGetPriorityIndex();
+      while ((result == null) && (priority > -1))
+      {
+        result = pollPriority(priority);
+        if (result == null)
+        {
+          priority = internalGetPriorityIndex();
+        }
+        else if (result.isExpired())
+        {
+          journalGet(result);
+          mLogger.debug("MqLocalQueue::internalPoll() - Message " + result.getMessageId() + " expired, skipping it");
+          result = null;
+        }
+        else
+        {
+          IMqMessage removed = result;
+          result = unpage(removed);
+          if ((pending) && (result != null))
+            mPending.put(result.getMessageId(), result);
+          else
+            journalGet(removed);
+        }
+      }
+      return result;
+    }
+    finally
+    {
+      if (pending)
+        mStoreLock.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Add a message to the tail of the {@link MessageQueue} of its priority, once room was {@link #reserve() reserved} for it.
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   {@code true} if message was added, {@code false} otherwise
+   */
+  private boolean offer(IMqMessage message)
+  {
+    return offer(message, false);
+  }
+  
+  /**
+   * Add a message to the {@link MessageQueue} of its priority, once room was {@link #reserve() reserved} for it.
+   * 
+   * @param message
+   *   The message
+   * @param first
+   *   If {@code true}, the message is added at the head of the {@link MessageQueue}, otherwise at its tail
+   * @return
+   *   {@code true} if message was added, {@code false} otherwise
+   */
+  private boolean offer(IMqMessage message, boolean first)
+  {
+    int prio = message.getPriority();
+    mExpiryIndex.add(message);
+    boolean success = first ? mQueueArray[prio].offerFirst(message) : mQueueArray[prio].offer(message);
+    if (success)
+    {
+      mChanges.incrementAndGet();
+      if (message instanceof MqPagedMessage)
+        mPaged.incrementAndGet();
+      setPriorityBit(prio);
+      signalWaiter();
+      notifyListeners();
+    }
+    else if (mExpiryIndex.remove(message))
+    {
+      mSize.decrementAndGet();
+    }
+    return success;
+  }
+  
+  /**
+   * Add a restored message to the queue. The message is not journaled.
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   {@code true} if message was added, {@code false} if the queue is full
+   */
+  private boolean enqueue(IMqMessage message)
+  {
+    if (!reserve())
+      return false;
+    return offer(message);
+  }
+  
+  /**
+   * Write a PUT record to the journal, if there is one, and wait for it to be committed
+   * if the journal requires so.<br>
+   * If the commit fails the PUT record is {@link #journalCancel(MqQueueJournal, List) cancelled}.
+   * 
+   * @param message
+   *   The message being put
+   * @return
+   *   {@code true} if the message may be added to the queue, {@code false} if journaling failed
+   */
+  private boolean journalPut(IMqMessage message)
+  {
+    MqQueueJournal journal = mJournal;
+    if (journal == null)
+      return true;
+    
+    long seq;
+    try
+    {
+      seq = journal.logPut(message);
+    }
+    catch (IOException e)
+    {
+      mLogger.warn("Exception caught while trying to write to queue " + mName + " journal. Exception: ", e);
+      return false;
+    }
+    
+    try
+    {
+      if (journal.isSyncOnPut())
+        journal.commit(seq);
+      return true;
+    }
+    catch (IOException e)
+    {
+      mLogger.warn("Exception caught while trying to commit queue " + mName + " journal. Exception: ", e);
+      journalCancel(journal, Collections.singletonList(message));
+      return false;
+    }
+  }
+  
+  /**
+   * Cancel the PUT records of messages that were refused after their records were written, by writing
+   * a GET record for each of them and committing the GET records.<br>
+   * The PUT records may have reached the disk even though their commit failed. Without the GET records
+   * the refused messages would reappear when the journal is replayed.
+   * 
+   * @param journal
+   *   The journal the PUT records were written to
+   * @param messages
+   *   The refused messages
+   * @return
+   *   {@code true} if the GET records were committed, {@code false} if the refused messages may be restored after a restart
+   */
+  private boolean journalCancel(MqQueueJournal journal, List<IMqMessage> messages)
+  {
+    try
+    {
+      long seq = -1;
+      for (IMqMessage message : messages)
+        seq = journal.logGet(message);
+      if (seq >= 0)
+        journal.commit(seq);
+      return true;
+    }
+    catch (IOException e)
+    {
+      mLogger.error("Failed to cancel " + messages.size() + " refused puts in queue " + mName + " journal, they may be restored after a restart. Exception: ", e);
+      return false;
+    }
+  }
+  
+  /**
+   * Write a GET record to the journal, if there is one.<br>
+   * GET records are not committed: if one is lost in a crash, the message is delivered again.
+   * 
+   * @param message
+   *   The message that was removed
+   */
+  private void journalGet(IMqMessage message)
+  {
+    MqQueueJournal journal = mJournal;
+    if (journal == null)
+      return;
+    
+    try
+    {
+      journal.logGet(message);
+    }
+    catch (IOException e)
+    {
+      mLogger.warn("Exception caught while trying to write to queue " + mName + " journal. Exception: ", e);
+    }
+  }
+  
+  /**
+   * Remove the head of the {@link MessageQueue} of the specified priority, keeping the queue depth
+   * and the priority bitmap up to date.<br>
+   * Messages already removed by {@link #expire()} were accounted for then, so they are dropped.
+   * 
+   * @param prio
+   *   The priority
+   * @return
+   *   the {@link IMqMessage} or {@code null} if the {@link MessageQueue} is empty
+   */
+  private IMqMessage pollPriority(int prio)
+  {
+    MessageQueue mq = mQueueArray[prio];
+    IMqMessage result;
+    while ((result = mq.poll()) != null)
+    {
+      if (mExpiryIndex.remove(result))
+      {
+        mSize.decrementAndGet();
+        mChanges.incrementAndGet();
+        if (result instanceof MqPagedMessage)
+        {
+          mPaged.decrementAndGet();
+          mPagedIds.remove(result.getMessageId());
+        }
+        return result;
+      }
+      mExpired.remove(result);
+    }
+    
+    clearPriorityBit(prio);
+    return null;
+  }
+  
+  /**
+   * Reserve room for one more message, making sure the threshold is not exceeded.
+   * 
+   * @return
+   *   {@code true} if room was reserved, {@code false} if the queue is full
+   */
+  private boolean reserve()
+  {
+    while (true)
+    {
+      int size = mSize.get();
+      if ((mThreshold != 0) && (size >= mThreshold))
+        return false;
+      if (mSize.compareAndSet(size, size + 1))
+        return true;
+    }
+  }
+  
+  /**
+   * Mark the {@link MessageQueue} of the specified priority as non-empty
+   * 
+   * @param prio
+   *   The priority
+   */
+  private void setPriorityBit(int prio)
+  {
+    int bit = 1 << prio;
+    int map;
+    do
+    {
+      map = mPriorityMap.get();
+      if ((map & bit) != 0) return;
+    }
+    while (!mPriorityMap.compareAndSet(map, map | bit));
+  }
+  
+  /**
+   * Mark the {@link MessageQueue} of the specified priority as empty.<br>
+   * A put to that priority may have raced with us, so the {@link MessageQueue} is checked again
+   * after the bit is cleared and the bit is restored if it's not empty.
+   * 
+   * @param prio
+   *   The priority
+   */
+  private void clearPriorityBit(int prio)
+  {
+    int bit = 1 << prio;
+    int map;
+    do
+    {
+      map = mPriorityMap.get();
+      if ((map & bit) == 0) return;
+    }
+    while (!mPriorityMap.compareAndSet(map, map & ~bit));
+    
+    if (!mQueueArray[prio].isEmpty())
+      setPriorityBit(prio);
+  }
+  
+  /**
+   * Wake up the consumer at the head of {@link #mWaitQueue}, if there is one.
+   */
+  private void signalWaiter()
   {
-    for (int prio = IMqConstants.cMaximumPriority; prio >= IMqConstants.cMinimumPriority; --prio)
+    if (mWaiters.get() > 0)
     {
-      int size;
-      size = mQueueArray[prio].size();
-      if (size > 0) return prio;
+      mGetLock.lock();
+      try
+      {
+        Condition head = mWaitQueue.peekFirst();
+        if (head != null)
+          head.signal();
+      }
+      finally
+      {
+        mGetLock.unlock();
+      }
     }
-    return -1;
+  }
+  
+  /**
+   * Register a listener to be told when messages are added to the queue
+   * 
+   * @param listener
+   *   The listener
+   */
+  public void addListener(IMqQueueListener listener)
+  {
+    mListeners.add(listener);
+    if (size() > 0)
+      listener.onMessageAvailable(this);
+  }
+  
+  /**
+   * Unregister a listener
+   * 
+   * @param listener
+   *   The listener
+   */
+  public void removeListener(IMqQueueListener listener)
+  {
+    mListeners.remove(listener);
+  }
+  
+  /**
+   * Tell all registered listeners that a message was added to the queue
+   */
+  private void notifyListeners()
+  {
+    if (mListeners.isEmpty())
+      return;
+    
+    for (IMqQueueListener listener : mListeners)
+      listener.onMessageAvailable(this);
+  }
+  
+  /**
+   * Find the first non-empty {@link MessageQueue} object in the queue array.
+   * 
+   * @return
+   *   the index of the first non-empty queue, or -1 if all are empty.
+   */
+  private int internalGetPriorityIndex()
+  {
+    int map = mPriorityMap.get();
+    if (map == 0) return -1;
+    return 31 - Integer.numberOfLeadingZeros(map);
+  }
+  
+  /**
+   * Get the bitmap of priorities whose {@link MessageQueue} is not empty. Bit {@code n} stands for priority {@code n}
+   * 
+   * @return
+   *   the bitmap
+   */
+  int getPriorityMap()
+  {
+    return mPriorityMap.get();
   }
   
   /**
@@ -0,0 +1,147 @@
+package com.kas.mq.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import com.kas.comm.impl.PacketCodec;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.KasException;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link MqMessageBatch} packs several messages into a single byte array, so they can travel
+ * as the body of a single message.<br>
+ * <br>
+ * Each message is written as {@code [length][serialized message]}, where the serialized message
+ * is the payload of the message's {@link PacketCodec} frame.
+ * 
+ * @author Pippo
+ */
+public class MqMessageBatch extends AKasObject
+{
+  /**
+   * The packed messages
+   */
+  private ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+  
+  /**
+   * The number of packed messages
+   */
+  private int mCount = 0;
+  
+  /**
+   * Pack a message
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   the number of bytes the message took
+   * @throws IOException
+   *   if the message could not be serialized
+   */
+  public int add(IMqMessage message) throws IOException
+  {
+    byte [] bytes = PacketCodec.toByteArray(message);
+    mBytes.write(ByteBuffer.allocate(4).putInt(bytes.length).array());
+    mBytes.write(bytes);
+    ++mCount;
+    return 4 + bytes.length;
+  }
+  
+  /**
+   * Get the number of packed messages
+   * 
+   * @return
+   *   the number of packed messages
+   */
+  public int size()
+  {
+    return mCount;
+  }
+  
+  /**
+   * Get the number of bytes packed so far
+   * 
+   * @return
+   *   the number of bytes
+   */
+  public int getByteCount()
+  {
+    return mBytes.size();
+  }
+  
+  /**
+   * Get the packed messages
+   * 
+   * @return
+   *   the byte array holding all packed messages
+   */
+  public byte [] toByteArray()
+  {
+    return mBytes.toByteArray();
+  }
+  
+  /**
+   * Unpack the messages packed by a {@link MqMessageBatch}
+   * 
+   * @param bytes
+   *   The packed messages
+   * @return
+   *   the messages, in the order they were packed
+   * @throws IOException
+   *   if {@code bytes} do not hold valid messages
+   */
+  static public List<IMqMessage> unpack(byte [] bytes) throws IOException
+  {
+    List<IMqMessage> messages = new ArrayList<IMqMessage>();
+    if (bytes == null)
+      return messages;
+    
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.remaining() >= 4)
+    {
+      int length = buffer.getInt();
+      if ((length <= 0) || (length > buffer.remaining()))
+        throw new IOException("Invalid message length in batch: " + length);
+      
+      try
+      {
+        IMqMessage message = (IMqMessage)PacketCodec.decode(bytes, buffer.position(), length);
+        if (message == null)
+          throw new IOException("Batch holds a message of an unknown class");
+        messages.add(message);
+      }
+      catch (KasException e)
+      {
+        throw new IOException("Failed to deserialize message", e);
+      }
+      buffer.position(buffer.position() + length);
+    }
+    
+    if (buffer.hasRemaining())
+      throw new IOException("Batch has " + buffer.remaining() + " trailing bytes");
+    return messages;
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Messages=").append(mCount).append("\n")
+      .append(pad).append("  Bytes=").append(mBytes.size()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
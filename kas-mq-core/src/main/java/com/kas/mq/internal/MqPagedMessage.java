@@ -0,0 +1,642 @@
+package com.kas.mq.internal;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import com.kas.comm.impl.PacketHeader;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.BinaryWriter;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.Properties;
+import com.kas.infra.base.UniqueId;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link MqPagedMessage} stands for a message that was written to a {@link MqSegmentStore} and is
+ * not kept on the heap.<br>
+ * <br>
+ * The message ID, priority, timestamp and expiration are kept in the object, so the message can be
+ * queued, ordered and expired without reading it. Everything else is answered by {@link #load() reading}
+ * the message from its segment. {@link MqLocalQueue} hands out the loaded message, never the {@link MqPagedMessage}.
+ * 
+ * @author Pippo
+ */
+public class MqPagedMessage extends AKasObject implements IMqMessage
+{
+  /**
+   * The segment holding the message and the offset of its record
+   */
+  private volatile MqStoreSegment mSegment;
+  private volatile int mOffset;
+  
+  /**
+   * The message attributes needed while it's queued
+   */
+  private UniqueId mMessageId;
+  private int mPriority;
+  private long mTimeStamp;
+  private long mExpiration;
+  
+  /**
+   * Construct a {@link MqPagedMessage}
+   * 
+   * @param segment
+   *   The segment holding the message
+   * @param offset
+   *   The offset of the message record within the segment
+   * @param id
+   *   The message ID
+   * @param priority
+   *   The message priority
+   * @param timestamp
+   *   The message creation time
+   * @param expiration
+   *   The message expiration
+   */
+  MqPagedMessage(MqStoreSegment segment, int offset, UniqueId id, int priority, long timestamp, long expiration)
+  {
+    mSegment = segment;
+    mOffset = offset;
+    mMessageId = id;
+    mPriority = priority;
+    mTimeStamp = timestamp;
+    mExpiration = expiration;
+  }
+  
+  /**
+   * Read the message from its segment
+   * 
+   * @return
+   *   the message
+   * @throws IllegalStateException
+   *   if the message could not be read
+   */
+  public IMqMessage load()
+  {
+    try
+    {
+      return MqSegmentStore.read(mSegment, mOffset);
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException("Failed to read message " + mMessageId + " from " + mSegment.getFile().getName(), e);
+    }
+  }
+  
+  /**
+   * Point this message at a copy of its record, after it was moved to another segment
+   * 
+   * @param other
+   *   The {@link MqPagedMessage} returned when the record was copied
+   */
+  void relocate(MqPagedMessage other)
+  {
+    mSegment = other.mSegment;
+    mOffset = other.mOffset;
+  }
+  
+  /**
+   * Get the record body, for copying it as is
+   * 
+   * @return
+   *   a read-only view of the record body
+   */
+  ByteBuffer getBody()
+  {
+    return mSegment.getBody(mOffset);
+  }
+  
+  /**
+   * Get the message ID
+   * 
+   * @return
+   *   the message id
+   */
+  public UniqueId getMessageId()
+  {
+    return mMessageId;
+  }
+  
+  /**
+   * Get the message priority
+   * 
+   * @return
+   *   the message priority
+   */
+  public int getPriority()
+  {
+    return mPriority;
+  }
+  
+  /**
+   * Get the message creation time
+   * 
+   * @return
+   *   the message creation time
+   */
+  public long getTimeStamp()
+  {
+    return mTimeStamp;
+  }
+  
+  /**
+   * Get the message expiration
+   * 
+   * @return
+   *   the message expiration
+   */
+  public long getExpiration()
+  {
+    return mExpiration;
+  }
+  
+  /**
+   * Get an indication whether the message has expired
+   * 
+   * @return
+   *   {@code true} if the message has expired, {@code false} otherwise
+   */
+  public boolean isExpired()
+  {
+    long millisFromCreation = System.currentTimeMillis() - mTimeStamp;
+    return millisFromCreation > mExpiration;
+  }
+  
+  /**
+   * Create the {@link PacketHeader} of the stored message
+   * 
+   * @return
+   *   the packet header
+   */
+  public PacketHeader createHeader()
+  {
+    return load().createHeader();
+  }
+  
+  /**
+   * Serialize the stored message to the specified {@link ObjectOutputStream}
+   * 
+   * @param ostream
+   *   The {@link ObjectOutputStream} to which the message will be serialized
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  public void serialize(ObjectOutputStream ostream) throws IOException
+  {
+    load().serialize(ostream);
+  }
+  
+  /**
+   * Serialize the stored message to the specified {@link BinaryWriter}
+   * 
+   * @param writer
+   *   The {@link BinaryWriter} to which the message will be serialized
+   * @throws IOException
+   *   if the message could not be loaded or written
+   */
+  public void serialize(BinaryWriter writer) throws IOException
+  {
+    load().serialize(writer);
+  }
+  
+  /**
+   * Get the reference ID of the stored message
+   * 
+   * @return
+   *   the reference id
+   */
+  public UniqueId getReferenceId()
+  {
+    return load().getReferenceId();
+  }
+  
+  /**
+   * Get the request ID. A paged message was never received on a connection, so it has none
+   * 
+   * @return
+   *   0
+   */
+  public int getRequestId()
+  {
+    return 0;
+  }
+  
+  /**
+   * Get the request type of the stored message
+   * 
+   * @return
+   *   the request type
+   */
+  public ERequestType getRequestType()
+  {
+    return load().getRequestType();
+  }
+  
+  /**
+   * Get the {@link MqResponse} of the stored message
+   * 
+   * @return
+   *   the {@link MqResponse}
+   */
+  public MqResponse getResponse()
+  {
+    return load().getResponse();
+  }
+  
+  /**
+   * Get a object property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the object property value, or {@code defaultValue} if it's not set
+   */
+  public Object getObjectProperty(String key, Object defaultValue)
+  {
+    return load().getObjectProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a boolean property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the boolean property value, or {@code defaultValue} if it's not set
+   */
+  public boolean getBoolProperty(String key, boolean defaultValue)
+  {
+    return load().getBoolProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a string property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the string property value, or {@code defaultValue} if it's not set
+   */
+  public String getStringProperty(String key, String defaultValue)
+  {
+    return load().getStringProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a byte property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the byte property value, or {@code defaultValue} if it's not set
+   */
+  public byte getByteProperty(String key, byte defaultValue)
+  {
+    return load().getByteProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a short property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the short property value, or {@code defaultValue} if it's not set
+   */
+  public short getShortProperty(String key, short defaultValue)
+  {
+    return load().getShortProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a int property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the int property value, or {@code defaultValue} if it's not set
+   */
+  public int getIntProperty(String key, int defaultValue)
+  {
+    return load().getIntProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a long property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the long property value, or {@code defaultValue} if it's not set
+   */
+  public long getLongProperty(String key, long defaultValue)
+  {
+    return load().getLongProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a float property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the float property value, or {@code defaultValue} if it's not set
+   */
+  public float getFloatProperty(String key, float defaultValue)
+  {
+    return load().getFloatProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a double property of the stored message
+   * 
+   * @param key
+   *   The property key
+   * @param defaultValue
+   *   The value returned if the property is not set
+   * @return
+   *   the double property value, or {@code defaultValue} if it's not set
+   */
+  public double getDoubleProperty(String key, double defaultValue)
+  {
+    return load().getDoubleProperty(key, defaultValue);
+  }
+  
+  /**
+   * Get a subset of the properties of the stored message
+   * 
+   * @param prefix
+   *   The key prefix
+   * @return
+   *   the properties whose keys start with {@code prefix}
+   */
+  public Properties getSubset(String prefix)
+  {
+    return load().getSubset(prefix);
+  }
+  
+  /**
+   * Set the reference ID. Not supported, a paged message is read-only
+   * 
+   * @param id
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setReferenceId(UniqueId id)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set the message priority. Not supported, a paged message is read-only
+   * 
+   * @param priority
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setPriority(int priority)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set the request ID. Not supported, a paged message is read-only
+   * 
+   * @param id
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setRequestId(int id)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set the request type. Not supported, a paged message is read-only
+   * 
+   * @param type
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setRequestType(ERequestType type)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set the message expiration. Not supported, a paged message is read-only
+   * 
+   * @param exp
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setExpiration(long exp)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set the {@link MqResponse}. Not supported, a paged message is read-only
+   * 
+   * @param resp
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setResponse(MqResponse resp)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a object property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setObjectProperty(String key, Object value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a boolean property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setBoolProperty(String key, boolean value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a string property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setStringProperty(String key, String value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a byte property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setByteProperty(String key, byte value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a short property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setShortProperty(String key, short value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a int property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setIntProperty(String key, int value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a long property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setLongProperty(String key, long value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a float property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setFloatProperty(String key, float value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a double property. Not supported, a paged message is read-only
+   * 
+   * @param key
+   *   Ignored
+   * @param value
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setDoubleProperty(String key, double value)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Set a subset of the properties. Not supported, a paged message is read-only
+   * 
+   * @param props
+   *   Ignored
+   * @throws UnsupportedOperationException
+   *   always
+   */
+  public void setSubset(Properties props)
+  {
+    throw new UnsupportedOperationException("Paged message is read-only");
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  MessageId=").append(mMessageId.toString()).append("\n")
+      .append(pad).append("  Priority=").append(mPriority).append("\n")
+      .append(pad).append("  TimeStamp=").append(mTimeStamp).append("\n")
+      .append(pad).append("  Expiration=").append(mExpiration).append("\n")
+      .append(pad).append("  Segment=").append(mSegment.getFile().getName()).append("\n")
+      .append(pad).append("  Offset=").append(mOffset).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,54 @@
+package com.kas.mq.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.kas.infra.base.KasException;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqBytesMessage;
+
+/**
+ * A {@link MqPutBatchReply} completes the result of a batch put request with the result of each message's put,
+ * in the order of the messages
+ * 
+ * @author Pippo
+ */
+public class MqPutBatchReply extends AMqAsyncReply<List<EMqCode>>
+{
+  /**
+   * The number of messages in the batch
+   */
+  private int mCount;
+  
+  /**
+   * Construct a {@link MqPutBatchReply}
+   * 
+   * @param count
+   *   The number of messages in the batch
+   */
+  public MqPutBatchReply(int count)
+  {
+    mCount = count;
+  }
+  
+  /**
+   * Get the result of each message's put from the reply
+   * 
+   * @param reply
+   *   The reply
+   * @return
+   *   the result of each message's put
+   * @throws KasException
+   *   if the batch was not processed
+   */
+  protected List<EMqCode> convert(IMqMessage reply) throws KasException
+  {
+    byte [] codes = reply instanceof MqBytesMessage ? ((MqBytesMessage)reply).getBody() : null;
+    if ((codes == null) || (codes.length != mCount))
+      throw failure(reply);
+    
+    List<EMqCode> result = new ArrayList<EMqCode>();
+    for (byte code : codes)
+      result.add(EMqCode.fromInt(code));
+    return result;
+  }
+}
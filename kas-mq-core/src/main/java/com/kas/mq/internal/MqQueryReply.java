@@ -0,0 +1,30 @@
+package com.kas.mq.internal;
+
+import com.kas.infra.base.KasException;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqStringMessage;
+
+/**
+ * A {@link MqQueryReply} completes the result of a query request with the reply holding the query's output
+ * 
+ * @author Pippo
+ */
+public class MqQueryReply extends AMqAsyncReply<MqStringMessage>
+{
+  /**
+   * Get the query's output
+   * 
+   * @param reply
+   *   The reply
+   * @return
+   *   the reply, holding the query's output in its body
+   * @throws KasException
+   *   if the query failed
+   */
+  protected MqStringMessage convert(IMqMessage reply) throws KasException
+  {
+    if ((reply.getResponse().getCode() != EMqCode.cOkay) || !(reply instanceof MqStringMessage))
+      throw failure(reply);
+    return (MqStringMessage)reply;
+  }
+}
@@ -1,5 +1,6 @@
 package com.kas.mq.internal;
 
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.kas.infra.base.AKasObject;
@@ -91,6 +92,19 @@ public abstract class MqQueue extends AKasObject
     return true;
   }
   
+  /**
+   * Write the {@link MqQueue} contents to file system, without removing them from the queue.<br>
+   * The default implementation is empty and return {@code true}.
+   * Driven classes should decide whether to implement it or not.
+   * 
+   * @return
+   *   {@code true} if the checkpoint was written successfully, {@code false} otherwise
+   */
+  public boolean checkpoint()
+  {
+    return true;
+  }
+  
   /**
    * Expire old messages.<br>
    * The default implementation is empty and return 0.
@@ -134,6 +148,41 @@ public abstract class MqQueue extends AKasObject
    */
   protected abstract boolean internalPut(IMqMessage message);
   
+  /**
+   * Put several messages into this {@link MqQueue} object.
+   * 
+   * @param messages
+   *   The messages that should be put to this {@link MqQueue}
+   * @return
+   *   an array holding, for each message, {@code true} if it was put, {@code false} otherwise
+   */
+  public boolean [] put(List<IMqMessage> messages)
+  {
+    mLogger.trace("MqQueue::put() - IN, Messages=" + messages.size());
+    
+    boolean [] results = internalPut(messages);
+    
+    mLogger.trace("MqQueue::put() - OUT");
+    return results;
+  }
+  
+  /**
+   * The actual implementation of the batch Put method.<br>
+   * Unless overridden, messages are put one by one.
+   * 
+   * @param messages
+   *   The messages to put
+   * @return
+   *   an array holding, for each message, {@code true} if it was put, {@code false} otherwise
+   */
+  protected boolean [] internalPut(List<IMqMessage> messages)
+  {
+    boolean [] results = new boolean [messages.size()];
+    for (int i = 0; i < results.length; ++i)
+      results[i] = put(messages.get(i));
+    return results;
+  }
+  
   /**
    * Get a message and wait indefinitely for one to be available.
    * 
@@ -203,6 +252,18 @@ public abstract class MqQueue extends AKasObject
     return msg;
   }
   
+  /**
+   * Get a message if one is available right away, without waiting.<br>
+   * Queues that cannot tell whether a message is available without waiting for it return {@code null}.
+   * 
+   * @return
+   *   the {@link IMqMessage} or {@code null} if one is unavailable
+   */
+  public IMqMessage poll()
+  {
+    return null;
+  }
+  
   /**
    * The actual implementation of the Get method
    * 
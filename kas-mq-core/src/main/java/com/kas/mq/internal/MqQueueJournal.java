@@ -0,0 +1,670 @@
+package com.kas.mq.internal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.UniqueId;
+import com.kas.infra.utils.FileUtils;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link MqQueueJournal} is an append-only write-ahead log of the operations performed on a
+ * {@link MqLocalQueue}.<br>
+ * <br>
+ * Every message put to the queue is written as a PUT record, and every message removed from the queue
+ * (by a get or by expiration) is written as a GET record holding the message ID. Together with the
+ * queue's {@link MqSegmentStore store} the journal is enough to rebuild the queue contents after a crash.<br>
+ * <br>
+ * Records are laid out as {@code [length][crc32][type][payload]}. The payload of a PUT record is laid out
+ * as a store record body. A torn record at the end of the file (a crash in the middle of a write) fails
+ * the CRC check, or announces a length the rest of the file cannot hold, and ends the replay.<br>
+ * <br>
+ * A checkpoint {@link #rotate() rotates} the journal: the records written so far move to a pending file,
+ * which is {@link #apply(MqSegmentStore, Set) applied} to the store and then deleted, while new records go
+ * to a fresh journal file.<br>
+ * <br>
+ * When {@code syncOnPut} is set, {@link #commit(long)} forces the journal to disk before a put is acknowledged.
+ * Committing threads form a group: one of them issues the {@link FileChannel#force(boolean) fsync} on behalf
+ * of every record written so far, and the others just wait for it, so many puts share a single fsync.
+ * 
+ * @author Pippo
+ */
+public class MqQueueJournal extends AKasObject
+{
+  /**
+   * Record types
+   */
+  static private final byte cRecordPut = 1;
+  static private final byte cRecordGet = 2;
+  
+  /**
+   * Record prefix length: length, crc and type
+   */
+  static private final int cRecordPrefixLength = 4 + 4 + 1;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The journal file, and the file holding the records of a checkpoint in progress
+   */
+  private File mFile;
+  private File mPendingFile;
+  
+  /**
+   * The journal file channel
+   */
+  private FileChannel mChannel = null;
+  
+  /**
+   * Whether puts should wait for their record to reach the disk
+   */
+  private boolean mSyncOnPut;
+  
+  /**
+   * Number of milliseconds the committing thread waits before issuing the fsync,
+   * to let more records join the group
+   */
+  private long mCommitDelay;
+  
+  /**
+   * Sequence number of the last written record. Guarded by {@code this}
+   */
+  private long mWritten = 0;
+  
+  /**
+   * Sequence number of the last record known to be on disk, and whether a thread is
+   * currently forcing the journal. Both are guarded by {@link #mSyncLock}
+   */
+  private long mSynced = 0;
+  private boolean mSyncing = false;
+  private final Object mSyncLock = new Object();
+  
+  /**
+   * Construct a {@link MqQueueJournal} for the queue named {@code name}.<br>
+   * The journal file is placed next to the queue backup file, in the {@code repo} directory.
+   * 
+   * @param name
+   *   The name of the queue
+   * @param syncOnPut
+   *   Whether puts should wait for their record to be forced to disk
+   * @param commitDelay
+   *   The number of milliseconds to wait for more records before forcing the journal
+   */
+  public MqQueueJournal(String name, boolean syncOnPut, long commitDelay)
+  {
+    this(new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo"), name, syncOnPut, commitDelay);
+  }
+  
+  /**
+   * Construct a {@link MqQueueJournal} for the queue named {@code name}, in the repository directory {@code repoDir}
+   * 
+   * @param repoDir
+   *   The repository directory, holding the queue backup file
+   * @param name
+   *   The name of the queue
+   * @param syncOnPut
+   *   Whether puts should wait for their record to be forced to disk
+   * @param commitDelay
+   *   The number of milliseconds to wait for more records before forcing the journal
+   */
+  public MqQueueJournal(File repoDir, String name, boolean syncOnPut, long commitDelay)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mFile = new File(repoDir, name + ".qjn");
+    mPendingFile = new File(mFile.getAbsolutePath() + ".1");
+    mSyncOnPut = syncOnPut;
+    mCommitDelay = commitDelay;
+  }
+  
+  /**
+   * Open the journal for appending. Existing records are kept.
+   * 
+   * @return
+   *   {@code true} if the journal was opened, {@code false} otherwise
+   */
+  public synchronized boolean open()
+  {
+    mLogger.trace("MqQueueJournal::open() - IN, File=[{}]", mFile.getAbsolutePath());
+    boolean success = true;
+    
+    if (mChannel == null)
+    {
+      try
+      {
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        mChannel = raf.getChannel();
+        mChannel.position(mChannel.size());
+      }
+      catch (IOException e)
+      {
+        mLogger.warn("Exception caught while trying to open journal file " + mFile.getAbsolutePath() + ". Exception: ", e);
+        success = false;
+      }
+    }
+    
+    mLogger.trace("MqQueueJournal::open() - OUT, Returns={}", success);
+    return success;
+  }
+  
+  /**
+   * Force and close the journal
+   */
+  public synchronized void close()
+  {
+    if (mChannel != null)
+    {
+      try
+      {
+        forceAndClose();
+      }
+      catch (IOException e)
+      {
+        mLogger.warn("Exception caught while trying to close journal file " + mFile.getAbsolutePath() + ". Exception: ", e);
+      }
+      mChannel = null;
+    }
+  }
+  
+  /**
+   * Force and close the journal channel. Every record written so far is then committed,
+   * including those of threads that are about to force the closed channel
+   * 
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  private void forceAndClose() throws IOException
+  {
+    mChannel.force(false);
+    
+    // raised before the close, so a committer that finds the channel closed also finds its record synced
+    synchronized (mSyncLock)
+    {
+      mSynced = Math.max(mSynced, mWritten);
+    }
+    mChannel.close();
+  }
+  
+  /**
+   * Close the journal and delete its files
+   * 
+   * @return
+   *   {@code true} if the journal files no longer exist, {@code false} otherwise
+   */
+  public synchronized boolean delete()
+  {
+    close();
+    boolean success = true;
+    if (mPendingFile.exists())
+      success = FileUtils.deleteFile(mPendingFile.getAbsolutePath());
+    if (mFile.exists())
+      success = FileUtils.deleteFile(mFile.getAbsolutePath()) && success;
+    return success;
+  }
+  
+  /**
+   * Move the records written so far to the pending file and start a new journal file.<br>
+   * If a previous checkpoint failed, its pending file is still there; the journal is then not rotated,
+   * so the checkpoint applies the older records first.
+   * 
+   * @return
+   *   {@code true} if there's a pending file to apply, {@code false} otherwise
+   */
+  public synchronized boolean rotate()
+  {
+    mLogger.trace("MqQueueJournal::rotate() - IN");
+    boolean success = true;
+    
+    if ((!mPendingFile.exists()) && (mChannel != null))
+    {
+      try
+      {
+        forceAndClose();
+        mChannel = null;
+        Files.move(mFile.toPath(), mPendingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e)
+      {
+        mLogger.warn("Exception caught while trying to rotate journal file " + mFile.getAbsolutePath() + ". Exception: ", e);
+        success = false;
+      }
+      mChannel = null;
+      success = open() && success;
+    }
+    
+    success = success && mPendingFile.exists();
+    mLogger.trace("MqQueueJournal::rotate() - OUT, Returns={}", success);
+    return success;
+  }
+  
+  /**
+   * Delete the pending file, once its records were applied to the store
+   * 
+   * @return
+   *   {@code true} if the pending file no longer exists, {@code false} otherwise
+   */
+  public boolean deletePending()
+  {
+    if (!mPendingFile.exists())
+      return true;
+    return FileUtils.deleteFile(mPendingFile.getAbsolutePath());
+  }
+  
+  /**
+   * Discard all records, including those of the pending file.<br>
+   * This is called once the queue contents were written to a checkpoint, at a point where no
+   * puts or gets are running.
+   * 
+   * @return
+   *   {@code true} if the journal was truncated, {@code false} otherwise
+   */
+  public synchronized boolean truncate()
+  {
+    mLogger.trace("MqQueueJournal::truncate() - IN");
+    boolean success = deletePending();
+    
+    if (mChannel != null)
+    {
+      try
+      {
+        mChannel.truncate(0);
+        mChannel.position(0);
+        mChannel.force(true);
+      }
+      catch (IOException e)
+      {
+        mLogger.warn("Exception caught while trying to truncate journal file " + mFile.getAbsolutePath() + ". Exception: ", e);
+        success = false;
+      }
+    }
+    
+    mLogger.trace("MqQueueJournal::truncate() - OUT, Returns={}", success);
+    return success;
+  }
+  
+  /**
+   * Get whether puts should wait for their record to reach the disk
+   * 
+   * @return
+   *   {@code true} if puts should call {@link #commit(long)}, {@code false} otherwise
+   */
+  public boolean isSyncOnPut()
+  {
+    return mSyncOnPut;
+  }
+  
+  /**
+   * Get the journal file
+   * 
+   * @return
+   *   the journal file
+   */
+  public File getFile()
+  {
+    return mFile;
+  }
+  
+  /**
+   * Write a PUT record
+   * 
+   * @param message
+   *   The message that was put
+   * @return
+   *   the record's sequence number, to be passed to {@link #commit(long)}
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  public long logPut(IMqMessage message) throws IOException
+  {
+    return append(cRecordPut, MqSegmentStore.toBody(message));
+  }
+  
+  /**
+   * Write a GET record
+   * 
+   * @param message
+   *   The message that was removed from the queue
+   * @return
+   *   the record's sequence number
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  public long logGet(IMqMessage message) throws IOException
+  {
+    return append(cRecordGet, message.getMessageId().toByteArray());
+  }
+  
+  /**
+   * Append a record to the journal
+   * 
+   * @param type
+   *   The record type
+   * @param payload
+   *   The record payload
+   * @return
+   *   the record's sequence number
+   * @throws IOException
+   *   if an I/O error occurs, or if the journal is not open
+   */
+  private long append(byte type, byte [] payload) throws IOException
+  {
+    return append(type, new ByteBuffer [] { ByteBuffer.wrap(payload) });
+  }
+  
+  /**
+   * Append a record whose payload is made of several buffers to the journal.<br>
+   * The record is written with a single gather write, so a large message body goes to the file
+   * straight from the buffer it arrived in. If the write fails, whatever part of the record was written
+   * is truncated away.
+   * 
+   * @param type
+   *   The record type
+   * @param payload
+   *   The parts of the record payload
+   * @return
+   *   the record's sequence number
+   * @throws IOException
+   *   if an I/O error occurs, or if the journal is not open
+   */
+  private synchronized long append(byte type, ByteBuffer [] payload) throws IOException
+  {
+    if (mChannel == null)
+      throw new IOException("Journal " + mFile.getName() + " is not open");
+    
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    for (ByteBuffer part : payload)
+      crc.update(part.duplicate());
+    
+    ByteBuffer prefix = ByteBuffer.allocate(cRecordPrefixLength);
+    prefix.putInt(MqStoreSegment.remaining(payload));
+    prefix.putInt((int)crc.getValue());
+    prefix.put(type);
+    prefix.flip();
+    
+    ByteBuffer [] buffers = new ByteBuffer [payload.length + 1];
+    buffers[0] = prefix;
+    for (int i = 0; i < payload.length; ++i)
+      buffers[i + 1] = payload[i].duplicate();
+    
+    long start = mChannel.position();
+    try
+    {
+      ByteBuffer last = buffers[buffers.length - 1];
+      while (last.hasRemaining())
+        mChannel.write(buffers);
+    }
+    catch (IOException e)
+    {
+      // drop the partial record, otherwise it would end the replay before the records that follow it
+      try
+      {
+        mChannel.truncate(start);
+        mChannel.position(start);
+      }
+      catch (IOException ie) {}
+      throw e;
+    }
+    
+    return ++mWritten;
+  }
+  
+  /**
+   * Wait until the record with sequence number {@code seq} is on disk.<br>
+   * The first thread to arrive forces the journal for everyone; threads arriving while it does
+   * so wait and are released if their record was covered, or elect the next thread to force it.
+   * 
+   * @param seq
+   *   The sequence number returned by {@link #logPut(IMqMessage)}
+   * @throws IOException
+   *   if forcing the journal failed
+   */
+  public void commit(long seq) throws IOException
+  {
+    synchronized (mSyncLock)
+    {
+      while ((mSynced < seq) && (mSyncing))
+      {
+        try
+        {
+          mSyncLock.wait();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for journal commit");
+        }
+      }
+      
+      if (mSynced >= seq)
+        return;
+      
+      mSyncing = true;
+    }
+    
+    long target = 0;
+    IOException error = null;
+    try
+    {
+      if (mCommitDelay > 0)
+        RunTimeUtils.sleepForMilliSeconds(mCommitDelay);
+      
+      FileChannel channel;
+      synchronized (this)
+      {
+        target = mWritten;
+        channel = mChannel;
+      }
+      
+      if (channel == null)
+        throw new IOException("Journal " + mFile.getName() + " is not open");
+      channel.force(false);
+    }
+    catch (IOException e)
+    {
+      error = e;
+    }
+    finally
+    {
+      synchronized (mSyncLock)
+      {
+        // the channel may have been closed by a rotation, which forced it first
+        if ((error instanceof ClosedChannelException) && (mSynced >= target))
+          error = null;
+        if (error == null)
+          mSynced = Math.max(mSynced, target);
+        mSyncing = false;
+        mSyncLock.notifyAll();
+      }
+    }
+    
+    if (error != null)
+      throw error;
+  }
+  
+  /**
+   * Replay the pending file and the journal on top of {@code messages}, which holds the contents of the store
+   * keyed by message ID.<br>
+   * A PUT record adds its message, and a GET record removes the message. A message that is already present
+   * (it may have been paged to the store when it was put) is kept as is, but moved to its place in the put order.
+   * 
+   * @param messages
+   *   The store contents, updated in place
+   * @return
+   *   the number of records replayed
+   */
+  public synchronized int replay(Map<UniqueId, IMqMessage> messages)
+  {
+    return readRecords(mPendingFile, messages, null, null) + readRecords(mFile, messages, null, null);
+  }
+  
+  /**
+   * Apply the records of the pending file to {@code store}: PUT records are copied to the store as is
+   * and GET records become tombstones.
+   * 
+   * @param store
+   *   The store
+   * @param skip
+   *   IDs of messages that were already written to the store when they were put. Their PUT records are skipped
+   * @return
+   *   the number of records applied, or -1 if writing to the store failed
+   */
+  public int apply(MqSegmentStore store, Set<UniqueId> skip)
+  {
+    return readRecords(mPendingFile, null, store, skip);
+  }
+  
+  /**
+   * Read the records of a journal file, replaying them on top of {@code messages}
+   * or applying them to {@code store}
+   * 
+   * @param file
+   *   The journal file
+   * @param messages
+   *   The messages map to replay the records on, or {@code null}
+   * @param store
+   *   The store to apply the records to, or {@code null}
+   * @param skip
+   *   IDs of messages whose PUT records are not applied to the store
+   * @return
+   *   the number of records read, or -1 if writing to the store failed
+   */
+  private int readRecords(File file, Map<UniqueId, IMqMessage> messages, MqSegmentStore store, Set<UniqueId> skip)
+  {
+    mLogger.trace("MqQueueJournal::readRecords() - IN, File=[{}]", file.getAbsolutePath());
+    int records = 0;
+    
+    if (file.exists())
+    {
+      DataInputStream istream = null;
+      try
+      {
+        istream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long remaining = file.length();
+        boolean eof = false;
+        while (!eof)
+        {
+          int length;
+          try
+          {
+            length = istream.readInt();
+          }
+          catch (EOFException e)
+          {
+            break;
+          }
+          
+          int crcValue = istream.readInt();
+          byte type = istream.readByte();
+          remaining -= cRecordPrefixLength;
+          if ((length < 0) || (length > remaining) || (length > MqSegmentStore.cMaxBodyLength))
+          {
+            mLogger.warn("Journal " + file.getName() + " has an invalid record length " + length + " at record " + records + ", ignoring the rest");
+            break;
+          }
+          remaining -= length;
+          
+          byte [] payload = new byte [length];
+          istream.readFully(payload);
+          
+          CRC32 crc = new CRC32();
+          crc.update(type);
+          crc.update(payload, 0, payload.length);
+          if ((int)crc.getValue() != crcValue)
+          {
+            mLogger.warn("Journal " + file.getName() + " has a corrupted record at record " + records + ", ignoring the rest");
+            eof = true;
+          }
+          else if ((type == cRecordPut) && (store != null))
+          {
+            if (!skip.remove(MqSegmentStore.getMessageId(payload)))
+              store.appendBody(ByteBuffer.wrap(payload));
+            ++records;
+          }
+          else if (type == cRecordPut)
+          {
+            IMqMessage message = MqSegmentStore.fromBody(ByteBuffer.wrap(payload));
+            IMqMessage stored = messages.remove(message.getMessageId());
+            messages.put(message.getMessageId(), stored != null ? stored : message);
+            ++records;
+          }
+          else if ((type == cRecordGet) && (store != null))
+          {
+            store.appendTombstone(UniqueId.fromByteArray(payload));
+            ++records;
+          }
+          else if (type == cRecordGet)
+          {
+            messages.remove(UniqueId.fromByteArray(payload));
+            ++records;
+          }
+          else
+          {
+            mLogger.warn("Journal " + file.getName() + " has an unknown record type " + type + ", ignoring the rest");
+            eof = true;
+          }
+        }
+      }
+      catch (EOFException e)
+      {
+        mLogger.warn("Journal " + file.getName() + " ends with a partial record, ignoring it");
+      }
+      catch (Throwable e)
+      {
+        mLogger.warn("Exception caught while trying to read journal " + file.getName() + ". Exception: ", e);
+        if (store != null) records = -1;
+      }
+      finally
+      {
+        try
+        {
+          if (istream != null) istream.close();
+        }
+        catch (Throwable e) {}
+      }
+    }
+    
+    mLogger.trace("MqQueueJournal::readRecords() - OUT, Returns={}", records);
+    return records;
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  File=").append(mFile.getAbsolutePath()).append("\n")
+      .append(pad).append("  SyncOnPut=").append(mSyncOnPut).append("\n")
+      .append(pad).append("  CommitDelay=").append(mCommitDelay).append("\n")
+      .append(pad).append("  Written=").append(mWritten).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -1,9 +1,14 @@
 package com.kas.mq.internal;
 
+import java.util.List;
 import com.kas.mq.impl.messages.IMqMessage;
 
 /**
- * A {@link MqRemoteQueue} object is a remotely-managed destination
+ * A {@link MqRemoteQueue} object is a remotely-managed destination.<br>
+ * <br>
+ * If the queue has a transmission queue, messages put to it are stored there, and forwarded to the remote
+ * KAS/MQ server later, so a put doesn't wait for the remote server and doesn't fail when it's unavailable.
+ * Otherwise messages are put to the remote server right away. Messages are always got from the remote server.
  * 
  * @author Pippo
  */
@@ -15,22 +20,49 @@ public class MqRemoteQueue extends MqQueue
   private IMqConnectionPool mPool;
   
   /**
-   * Construct a {@link MqRemoteQueue} object
+   * The local queue holding messages put to this queue until they're forwarded, or {@code null}
+   */
+  private MqQueue mTransmissionQueue;
+  
+  /**
+   * Construct a {@link MqRemoteQueue} object, which puts messages to the remote server right away
    * 
    * @param mgr
    *   The owning {@link MqManager} object
    * @param name
    *   The name of this destination object
+   * @param pool
+   *   The pool that provides connections
    */
   public MqRemoteQueue(MqManager mgr, String name, IMqConnectionPool pool)
+  {
+    this(mgr, name, pool, null);
+  }
+  
+  /**
+   * Construct a {@link MqRemoteQueue} object
+   * 
+   * @param mgr
+   *   The owning {@link MqManager} object
+   * @param name
+   *   The name of this destination object
+   * @param pool
+   *   The pool that provides connections
+   * @param xmitq
+   *   The local queue holding messages put to this queue until they're forwarded,
+   *   or {@code null} to put messages to the remote server right away
+   */
+  public MqRemoteQueue(MqManager mgr, String name, IMqConnectionPool pool, MqQueue xmitq)
   {
     super(mgr, name);
     mPool = pool;
+    mTransmissionQueue = xmitq;
   }
   
   /**
    * The actual implementation of the Put method.<br>
-   * Connecting to the KAS/MQ server, putting the message and disconnecting from it.
+   * Storing the message in the transmission queue, marked with the name of this queue, if there is one.
+   * Otherwise, putting the message over a connection to the KAS/MQ server taken from the pool, which is already logged in.
    * 
    * @param message
    *   The message to put
@@ -42,29 +74,48 @@ public class MqRemoteQueue extends MqQueue
     mLogger.trace("MqRemoteQueue::put() - IN");
     
     boolean success = false;
-    if (message != null)
+    if ((message != null) && (mTransmissionQueue != null))
     {
-      MqConnection conn = mPool.allocate();
-      
-      conn.connect(mManager.getHost(), mManager.getPort());
-      if (conn.isConnected())
+      message.setStringProperty(IMqConstants.cKasPropertyPutQueueName, mName);
+      success = mTransmissionQueue.put(message);
+    }
+    else if (message != null)
+    {
+      MqConnection conn = mPool.allocate(mManager);
+      if (conn != null)
       {
-        conn.login(IMqConstants.cSystemUserName, IMqConstants.cSystemPassWord);
-        conn.put(mName, message);
-        success = true;
+        IMqMessage reply = conn.put(mName, message);
+        success = (reply != null) && (reply.getResponse().getCode() == EMqCode.cOkay);
+        mPool.release(conn);
       }
-      conn.disconnect();
-      
-      mPool.release(conn);
     }
     
     mLogger.trace("MqRemoteQueue::put() - OUT, Returns=" + success);
     return success;
   }
 
+  /**
+   * The actual implementation of the batch Put method.<br>
+   * Storing the messages in the transmission queue at once, if there is one. Otherwise, putting them one by one.
+   * 
+   * @param messages
+   *   The messages to put
+   * @return
+   *   an array holding, for each message, {@code true} if it was put, {@code false} otherwise
+   */
+  protected boolean [] internalPut(List<IMqMessage> messages)
+  {
+    if (mTransmissionQueue == null)
+      return super.internalPut(messages);
+    
+    for (IMqMessage message : messages)
+      message.setStringProperty(IMqConstants.cKasPropertyPutQueueName, mName);
+    return mTransmissionQueue.put(messages);
+  }
+  
   /**
    * The actual implementation of the Get method.<br>
-   * Connecting to the KAS/MQ server, getting the message and disconnecting from it.
+   * Getting the message over a connection to the KAS/MQ server taken from the pool, which is already logged in.
    * 
    * @param message
    *   The message to put
@@ -77,17 +128,12 @@ public class MqRemoteQueue extends MqQueue
     
     IMqMessage result = null;
     
-    MqConnection conn = mPool.allocate();
-    
-    conn.connect(mManager.getHost(), mManager.getPort());
-    if (conn.isConnected())
+    MqConnection conn = mPool.allocate(mManager);
+    if (conn != null)
     {
-      conn.login(IMqConstants.cSystemUserName, IMqConstants.cSystemPassWord);
       result = conn.get(mName, timeout, interval);
+      mPool.release(conn);
     }
-    conn.disconnect();
-    
-    mPool.release(conn);
     
     mLogger.trace("MqRemoteQueue::get() - OUT");
     return result;
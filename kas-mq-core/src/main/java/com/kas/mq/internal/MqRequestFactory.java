@@ -6,6 +6,7 @@ import com.kas.infra.typedef.StringList;
 import com.kas.infra.utils.Base64Utils;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.impl.EQueryConfigType;
+import com.kas.mq.impl.messages.MqBytesMessage;
 import com.kas.mq.impl.messages.MqMessage;
 import com.kas.mq.impl.messages.MqMessageFactory;
 
@@ -37,6 +38,51 @@ public class MqRequestFactory
     return message;
   }
   
+  static public MqMessage createGetBatchRequest(String queue, int maxMessages, int maxBytes, long timeout, long interval)
+  {
+    MqMessage message = MqMessageFactory.createMessage();
+    message.setRequestType(ERequestType.cGetBatch);
+    message.setStringProperty(IMqConstants.cKasPropertyGetQueueName, queue);
+    message.setIntProperty(IMqConstants.cKasPropertyGetMaxMsgs, maxMessages);
+    message.setIntProperty(IMqConstants.cKasPropertyGetMaxBytes, maxBytes);
+    message.setLongProperty(IMqConstants.cKasPropertyGetTimeout, timeout);
+    message.setLongProperty(IMqConstants.cKasPropertyGetInterval, interval);
+    return message;
+  }
+  
+  static public MqBytesMessage createPutBatchRequest(byte [] batch)
+  {
+    MqBytesMessage message = MqMessageFactory.createBytesMessage(batch);
+    message.setRequestType(ERequestType.cPutBatch);
+    return message;
+  }
+  
+  static public MqMessage createSubscribeRequest(String queue, int credit)
+  {
+    MqMessage message = MqMessageFactory.createMessage();
+    message.setRequestType(ERequestType.cSubscribe);
+    message.setStringProperty(IMqConstants.cKasPropertySubQueueName, queue);
+    message.setIntProperty(IMqConstants.cKasPropertySubCredit, credit);
+    return message;
+  }
+  
+  static public MqMessage createUnsubscribeRequest(UniqueId id)
+  {
+    MqMessage message = MqMessageFactory.createMessage();
+    message.setRequestType(ERequestType.cUnsubscribe);
+    message.setStringProperty(IMqConstants.cKasPropertySubId, id.toString());
+    return message;
+  }
+  
+  static public MqMessage createCreditRequest(UniqueId id, int credit)
+  {
+    MqMessage message = MqMessageFactory.createMessage();
+    message.setRequestType(ERequestType.cCredit);
+    message.setStringProperty(IMqConstants.cKasPropertySubId, id.toString());
+    message.setIntProperty(IMqConstants.cKasPropertySubCredit, credit);
+    return message;
+  }
+  
   static public MqMessage createDefineGroupRequest(String group, String desc)
   {
     MqMessage message = MqMessageFactory.createMessage();
@@ -197,4 +243,23 @@ public class MqRequestFactory
     message.setBoolProperty(IMqConstants.cKasPropertyRepoOperation, added);
     return message;
   }
+  
+  static public MqMessage createRepositoryUpdateMessage(String qmgr, String queue, boolean added, long epoch, long sequence)
+  {
+    MqMessage message = createRepositoryUpdateMessage(qmgr, queue, added);
+    message.setLongProperty(IMqConstants.cKasPropertyRepoEpoch, epoch);
+    message.setLongProperty(IMqConstants.cKasPropertyRepoSequence, sequence);
+    return message;
+  }
+  
+  static public MqBytesMessage createRepositorySyncRequest(String qmgr, long epoch, long sequence, long digest, byte [] delta)
+  {
+    MqBytesMessage message = MqMessageFactory.createBytesMessage(delta);
+    message.setRequestType(ERequestType.cNotifyRepoSync);
+    message.setStringProperty(IMqConstants.cKasPropertyRsyncQmgrName, qmgr);
+    message.setLongProperty(IMqConstants.cKasPropertyRsyncEpoch, epoch);
+    message.setLongProperty(IMqConstants.cKasPropertyRsyncSequence, sequence);
+    message.setLongProperty(IMqConstants.cKasPropertyRsyncDigest, digest);
+    return message;
+  }
 }
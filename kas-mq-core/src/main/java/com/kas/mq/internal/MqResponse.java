@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.BinaryReader;
+import com.kas.infra.base.BinaryWriter;
+import com.kas.infra.base.IBinarySerializable;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.ISerializable;
 
@@ -14,7 +17,7 @@ import com.kas.infra.base.ISerializable;
  * 
  * @author Pippo
  */
-public class MqResponse extends AKasObject implements ISerializable
+public class MqResponse extends AKasObject implements ISerializable, IBinarySerializable
 {
   /**
    * The response code
@@ -74,6 +77,21 @@ public class MqResponse extends AKasObject implements ISerializable
     }
   }
   
+  /**
+   * Constructs a {@link MqResponse} object from {@link BinaryReader}
+   * 
+   * @param reader
+   *   The {@link BinaryReader}
+   * @throws IOException
+   *   if the response could not be read
+   */
+  public MqResponse(BinaryReader reader) throws IOException
+  {
+    mCode = EMqCode.fromInt(reader.readVarInt());
+    mValue = reader.readSignedVarInt();
+    mDesc = reader.readString();
+  }
+  
   /**
    * Serialize the {@link MqResponse} to the specified {@link ObjectOutputStream}
    * 
@@ -92,6 +110,19 @@ public class MqResponse extends AKasObject implements ISerializable
     ostream.reset();
   }
   
+  /**
+   * Serialize the {@link MqResponse} to the specified {@link BinaryWriter}
+   * 
+   * @param writer
+   *   The {@link BinaryWriter} to which the response will be serialized
+   */
+  public synchronized void serialize(BinaryWriter writer)
+  {
+    writer.writeVarInt(mCode.ordinal());
+    writer.writeSignedVarInt(mValue);
+    writer.writeString(mDesc);
+  }
+  
   /**
    * Get the response code
    * 
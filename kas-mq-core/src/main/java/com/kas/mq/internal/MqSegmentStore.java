@@ -0,0 +1,528 @@
+package com.kas.mq.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.comm.IPacket;
+import com.kas.comm.impl.PacketCodec;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.BinaryWriter;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.KasException;
+import com.kas.infra.base.UniqueId;
+import com.kas.infra.utils.FileUtils;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+
+/**
+ * A {@link MqSegmentStore} holds the messages of a {@link MqLocalQueue} in fixed-size, memory-mapped
+ * {@link MqStoreSegment segment} files kept in the {@code repo/<queue>.qstore} directory.<br>
+ * <br>
+ * Each record body is laid out as {@code [message id][priority][timestamp][expiration][payload]}, so a queue
+ * can be rebuilt from the store by scanning the segments, without deserializing a single message: every
+ * record becomes a {@link MqPagedMessage} which is read from the mapped file only when it's delivered.<br>
+ * <br>
+ * The payload is the message in the {@link PacketCodec} payload format. Large message bodies are written to the
+ * segment straight from the buffer they arrived in, and read back as views of the mapped file, so a paged message
+ * is delivered without its body ever being copied to the heap.<br>
+ * <br>
+ * A record body holding only a message id is a tombstone: the message was removed from the queue after
+ * it was stored. Checkpoints append the records and tombstones of what changed since the previous checkpoint,
+ * so the store keeps growing until it's compacted.<br>
+ * <br>
+ * Compacting a store writes the queue contents into the segments of a new generation, and only after the
+ * queue backup file refers to the new generation are the old segments deleted.
+ * 
+ * @author Pippo
+ */
+public class MqSegmentStore extends AKasObject
+{
+  /**
+   * Default segment size
+   */
+  static public final int cDefaultSegmentSize = 16 * 1024 * 1024;
+  
+  /**
+   * Length of the fixed part of a record body: message id, priority, timestamp and expiration
+   */
+  static private final int cBodyHeaderLength = 16 + 1 + 8 + 8;
+  
+  /**
+   * Length of a tombstone body: the message id
+   */
+  static private final int cTombstoneLength = 16;
+  
+  /**
+   * Maximum length of a record body: the fixed part and the largest payload a message can have
+   */
+  static final int cMaxBodyLength = cBodyHeaderLength + PacketCodec.cMaxPayloadLength;
+  
+  /**
+   * Minimum number of tombstones before a store is worth compacting
+   */
+  static private final long cCompactionMinimum = 1024;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The store directory
+   */
+  private File mDirectory;
+  
+  /**
+   * The size of newly created segments
+   */
+  private int mSegmentSize;
+  
+  /**
+   * The generation of this store
+   */
+  private long mGeneration;
+  
+  /**
+   * The segments of this generation. The last one receives new records
+   */
+  private List<MqStoreSegment> mSegments = new ArrayList<MqStoreSegment>();
+  
+  /**
+   * The number of message records and tombstones in this generation
+   */
+  private long mRecords = 0;
+  private long mTombstones = 0;
+  
+  /**
+   * Construct a {@link MqSegmentStore} for the queue named {@code name}
+   * 
+   * @param name
+   *   The name of the queue
+   * @param segmentSize
+   *   The size of newly created segments
+   * @param generation
+   *   The store generation
+   */
+  public MqSegmentStore(String name, int segmentSize, long generation)
+  {
+    this(new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo"), name, segmentSize, generation);
+  }
+  
+  /**
+   * Construct a {@link MqSegmentStore} for the queue named {@code name}, in the repository directory {@code repoDir}
+   * 
+   * @param repoDir
+   *   The repository directory
+   * @param name
+   *   The name of the queue
+   * @param segmentSize
+   *   The size of newly created segments
+   * @param generation
+   *   The store generation
+   */
+  public MqSegmentStore(File repoDir, String name, int segmentSize, long generation)
+  {
+    this(new File(repoDir, name + ".qstore"), segmentSize, generation);
+  }
+  
+  /**
+   * Construct a {@link MqSegmentStore} in the specified directory
+   * 
+   * @param dir
+   *   The store directory
+   * @param segmentSize
+   *   The size of newly created segments
+   * @param generation
+   *   The store generation
+   */
+  private MqSegmentStore(File dir, int segmentSize, long generation)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mDirectory = dir;
+    mSegmentSize = segmentSize;
+    mGeneration = generation;
+  }
+  
+  /**
+   * Get a new, empty store of the next generation, in the same directory
+   * 
+   * @return
+   *   the next generation store
+   */
+  public synchronized MqSegmentStore nextGeneration()
+  {
+    return new MqSegmentStore(mDirectory, mSegmentSize, mGeneration + 1);
+  }
+  
+  /**
+   * Set the size of newly created segments
+   * 
+   * @param segmentSize
+   *   The segment size
+   */
+  public synchronized void setSegmentSize(int segmentSize)
+  {
+    mSegmentSize = segmentSize;
+  }
+  
+  /**
+   * Get the store generation
+   * 
+   * @return
+   *   the store generation
+   */
+  public long getGeneration()
+  {
+    return mGeneration;
+  }
+  
+  /**
+   * Map the segments of this generation and add a {@link MqPagedMessage} for each of their records
+   * to {@code messages}, then remove the messages that have a tombstone.<br>
+   * A message stored more than once keeps the place of its last record.<br>
+   * Segment files of other generations are left-overs of an interrupted checkpoint and are deleted.
+   * 
+   * @param messages
+   *   The map to which messages are added, keyed by message ID, in the order they were stored
+   * @return
+   *   the number of messages in {@code messages}
+   * @throws IOException
+   *   if a segment could not be mapped
+   */
+  public synchronized int load(Map<UniqueId, IMqMessage> messages) throws IOException
+  {
+    mLogger.trace("MqSegmentStore::load() - IN, Dir=[{}], Generation={}", mDirectory.getAbsolutePath(), mGeneration);
+    int total = 0;
+    
+    mSegments.clear();
+    mRecords = 0;
+    mTombstones = 0;
+    File [] files = mDirectory.listFiles();
+    if (files != null)
+    {
+      String prefix = String.format("%016x.", mGeneration);
+      for (File file : files)
+      {
+        if (file.getName().startsWith(prefix))
+          mSegments.add(new MqStoreSegment(file));
+        else
+          FileUtils.deleteFile(file.getAbsolutePath());
+      }
+      
+      Collections.sort(mSegments, new Comparator<MqStoreSegment>() {
+        public int compare(MqStoreSegment s1, MqStoreSegment s2)
+        {
+          return Integer.compare(s1.getSequence(), s2.getSequence());
+        }
+      });
+      
+      for (MqStoreSegment segment : mSegments)
+      {
+        for (int offset = segment.next(0); offset != -1; offset = segment.next(offset))
+        {
+          ByteBuffer body = segment.getBody(offset);
+          if (body.remaining() == cTombstoneLength)
+          {
+            byte [] id = new byte [cTombstoneLength];
+            body.get(id);
+            messages.remove(UniqueId.fromByteArray(id));
+            ++mTombstones;
+          }
+          else
+          {
+            MqPagedMessage message = newPagedMessage(segment, offset);
+            messages.remove(message.getMessageId());
+            messages.put(message.getMessageId(), message);
+            ++mRecords;
+          }
+        }
+      }
+    }
+    
+    mLogger.trace("MqSegmentStore::load() - OUT, Records={}, Tombstones={}", mRecords, mTombstones);
+    return messages.size();
+  }
+  
+  /**
+   * Write a message to the store
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   the {@link MqPagedMessage} standing for the stored message
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  public MqPagedMessage append(IMqMessage message) throws IOException
+  {
+    return appendBody(toBody(message));
+  }
+  
+  /**
+   * Copy a message stored in another store to this store, as is
+   * 
+   * @param message
+   *   The stored message
+   * @return
+   *   the {@link MqPagedMessage} standing for the copy
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  public MqPagedMessage append(MqPagedMessage message) throws IOException
+  {
+    return appendBody(message.getBody());
+  }
+  
+  /**
+   * Write a tombstone for a message that was removed from the queue
+   * 
+   * @param id
+   *   The message ID
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  public void appendTombstone(UniqueId id) throws IOException
+  {
+    appendBody(ByteBuffer.wrap(id.toByteArray()));
+  }
+  
+  /**
+   * Append a record body, as built by {@link #toBody(IMqMessage)}, to the last segment,
+   * starting a new segment if it's full
+   * 
+   * @param body
+   *   The record body, or the message ID for a tombstone
+   * @return
+   *   the {@link MqPagedMessage} standing for the record, or {@code null} for a tombstone
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  MqPagedMessage appendBody(ByteBuffer body) throws IOException
+  {
+    return appendBody(new ByteBuffer [] { body });
+  }
+  
+  /**
+   * Append a record body made of several buffers, as built by {@link #toBody(IMqMessage)}, to the last segment,
+   * starting a new segment if it's full
+   * 
+   * @param body
+   *   The parts of the record body
+   * @return
+   *   the {@link MqPagedMessage} standing for the record, or {@code null} for a tombstone
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  synchronized MqPagedMessage appendBody(ByteBuffer [] body) throws IOException
+  {
+    int length = MqStoreSegment.remaining(body);
+    boolean tombstone = length == cTombstoneLength;
+    MqStoreSegment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+    int offset = segment == null ? -1 : segment.append(body);
+    if (offset == -1)
+    {
+      if (!mDirectory.exists() && !mDirectory.mkdirs())
+        throw new IOException("Failed to create store directory " + mDirectory.getAbsolutePath());
+      
+      int sequence = segment == null ? 0 : segment.getSequence() + 1;
+      int size = Math.max(mSegmentSize, MqStoreSegment.cHeaderLength + MqStoreSegment.cRecordPrefixLength + length);
+      File file = new File(mDirectory, String.format("%016x.%08x.seg", mGeneration, sequence));
+      segment = new MqStoreSegment(file, mGeneration, sequence, size);
+      mSegments.add(segment);
+      offset = segment.append(body);
+    }
+    
+    if (tombstone)
+    {
+      ++mTombstones;
+      return null;
+    }
+    
+    ++mRecords;
+    return newPagedMessage(segment, offset);
+  }
+  
+  /**
+   * Get an indication whether most of the store is taken by removed messages
+   * and it should be compacted
+   * 
+   * @return
+   *   {@code true} if the store should be compacted, {@code false} otherwise
+   */
+  public synchronized boolean needsCompaction()
+  {
+    return (mTombstones >= cCompactionMinimum) && (mTombstones * 2 >= mRecords);
+  }
+  
+  /**
+   * Flush all segments to disk
+   */
+  public synchronized void force()
+  {
+    for (MqStoreSegment segment : mSegments)
+      segment.force();
+  }
+  
+  /**
+   * Delete the segment files of this generation.<br>
+   * Mappings of deleted files remain readable until they are garbage collected, so messages
+   * still referring to them can be read.
+   */
+  public synchronized void delete()
+  {
+    for (MqStoreSegment segment : mSegments)
+      FileUtils.deleteFile(segment.getFile().getAbsolutePath());
+    mSegments.clear();
+  }
+  
+  /**
+   * Delete the store directory with all its segment files
+   */
+  public synchronized void deleteAll()
+  {
+    mSegments.clear();
+    File [] files = mDirectory.listFiles();
+    if (files != null)
+    {
+      for (File file : files)
+        FileUtils.deleteFile(file.getAbsolutePath());
+    }
+    if (mDirectory.exists())
+      FileUtils.deleteFile(mDirectory.getAbsolutePath());
+  }
+  
+  /**
+   * Create the {@link MqPagedMessage} for the record at {@code offset}, reading the fixed part of its body
+   * 
+   * @param segment
+   *   The segment
+   * @param offset
+   *   The record offset
+   * @return
+   *   the {@link MqPagedMessage}
+   */
+  private MqPagedMessage newPagedMessage(MqStoreSegment segment, int offset)
+  {
+    ByteBuffer body = segment.getBody(offset);
+    byte [] id = new byte [16];
+    body.get(id);
+    int priority = body.get();
+    long timestamp = body.getLong();
+    long expiration = body.getLong();
+    return new MqPagedMessage(segment, offset, UniqueId.fromByteArray(id), priority, timestamp, expiration);
+  }
+  
+  /**
+   * Read the message stored at {@code offset} of {@code segment}
+   * 
+   * @param segment
+   *   The segment
+   * @param offset
+   *   The record offset
+   * @return
+   *   the message
+   * @throws IOException
+   *   if the record could not be deserialized
+   */
+  static IMqMessage read(MqStoreSegment segment, int offset) throws IOException
+  {
+    return fromBody(segment.getBody(offset));
+  }
+  
+  /**
+   * Build the record body of a message. The journal uses the same layout for its PUT records,
+   * so a checkpoint can copy them to the store as is.<br>
+   * A large message body is not copied: it's one of the returned buffers.
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   the parts of the record body
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  static ByteBuffer [] toBody(IMqMessage message) throws IOException
+  {
+    BinaryWriter writer = new BinaryWriter();
+    writer.writeUniqueId(message.getMessageId());
+    writer.writeByte(message.getPriority());
+    writer.writeLong(message.getTimeStamp());
+    writer.writeLong(message.getExpiration());
+    PacketCodec.writePayload(message, writer);
+    return writer.toByteBuffers();
+  }
+  
+  /**
+   * Read the message from a record body built by {@link #toBody(IMqMessage)}.<br>
+   * A large message body is read as a view of {@code body}, which must not be modified afterwards.
+   * 
+   * @param body
+   *   The record body
+   * @return
+   *   the message
+   * @throws IOException
+   *   if the record could not be deserialized
+   */
+  static IMqMessage fromBody(ByteBuffer body) throws IOException
+  {
+    body.position(body.position() + cBodyHeaderLength);
+    IPacket packet;
+    try
+    {
+      packet = PacketCodec.decode(body);
+    }
+    catch (KasException e)
+    {
+      throw new IOException("Failed to deserialize message", e);
+    }
+    
+    if (!(packet instanceof IMqMessage))
+      throw new IOException("Stored record does not hold a message");
+    return (IMqMessage)packet;
+  }
+  
+  /**
+   * Get the message ID from a record body
+   * 
+   * @param body
+   *   The record body or tombstone
+   * @return
+   *   the message ID
+   */
+  static UniqueId getMessageId(byte [] body)
+  {
+    byte [] id = new byte [16];
+    System.arraycopy(body, 0, id, 0, id.length);
+    return UniqueId.fromByteArray(id);
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Directory=").append(mDirectory.getAbsolutePath()).append("\n")
+      .append(pad).append("  SegmentSize=").append(mSegmentSize).append("\n")
+      .append(pad).append("  Generation=").append(mGeneration).append("\n")
+      .append(pad).append("  Segments=").append(mSegments.size()).append("\n")
+      .append(pad).append("  Records=").append(mRecords).append("\n")
+      .append(pad).append("  Tombstones=").append(mTombstones).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
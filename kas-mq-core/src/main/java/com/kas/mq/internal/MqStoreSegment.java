@@ -0,0 +1,322 @@
+package com.kas.mq.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+
+/**
+ * A {@link MqStoreSegment} is a single memory-mapped file of a {@link MqSegmentStore}.<br>
+ * <br>
+ * The segment starts with a header - {@code [magic][version][generation][sequence]} - followed by records
+ * laid out as {@code [length][crc32][body]}. The file is created at its full size, so the unused tail is
+ * zero-filled, and a record length of zero marks the end of the segment.
+ * 
+ * @author Pippo
+ */
+public class MqStoreSegment extends AKasObject
+{
+  /**
+   * Segment header
+   */
+  static public final int cMagic = 0x4B515347;
+  static public final int cVersion = 1;
+  static public final int cHeaderLength = 4 + 4 + 8 + 4;
+  
+  /**
+   * Record prefix length: length and crc
+   */
+  static public final int cRecordPrefixLength = 4 + 4;
+  
+  /**
+   * The segment file
+   */
+  private File mFile;
+  
+  /**
+   * The generation and sequence number of this segment within the store
+   */
+  private long mGeneration;
+  private int mSequence;
+  
+  /**
+   * The mapped contents of the file
+   */
+  private MappedByteBuffer mBuffer;
+  
+  /**
+   * The offset at which the next record will be written
+   */
+  private int mPosition;
+  
+  /**
+   * Create a new segment file of {@code size} bytes and map it
+   * 
+   * @param file
+   *   The segment file
+   * @param generation
+   *   The store generation
+   * @param sequence
+   *   The segment sequence number within the generation
+   * @param size
+   *   The segment size
+   * @throws IOException
+   *   if the file could not be created or mapped
+   */
+  public MqStoreSegment(File file, long generation, int sequence, int size) throws IOException
+  {
+    mFile = file;
+    mGeneration = generation;
+    mSequence = sequence;
+    mBuffer = map(file, size);
+    mBuffer.putInt(0, cMagic);
+    mBuffer.putInt(4, cVersion);
+    mBuffer.putLong(8, generation);
+    mBuffer.putInt(16, sequence);
+    mPosition = cHeaderLength;
+  }
+  
+  /**
+   * Map an existing segment file and verify its header
+   * 
+   * @param file
+   *   The segment file
+   * @throws IOException
+   *   if the file could not be mapped or it is not a segment file
+   */
+  public MqStoreSegment(File file) throws IOException
+  {
+    mFile = file;
+    if (file.length() < cHeaderLength)
+      throw new IOException("Segment file " + file.getName() + " is too short");
+    
+    mBuffer = map(file, (int)file.length());
+    if (mBuffer.getInt(0) != cMagic)
+      throw new IOException("Segment file " + file.getName() + " has an invalid eye-catcher");
+    if (mBuffer.getInt(4) != cVersion)
+      throw new IOException("Segment file " + file.getName() + " has an unsupported version " + mBuffer.getInt(4));
+    
+    mGeneration = mBuffer.getLong(8);
+    mSequence = mBuffer.getInt(16);
+    mPosition = mBuffer.capacity();
+  }
+  
+  /**
+   * Map {@code size} bytes of {@code file}, extending it if needed.<br>
+   * The mapping stays valid after the channel is closed, so no file descriptor is held per segment.
+   * 
+   * @param file
+   *   The file
+   * @param size
+   *   The number of bytes to map
+   * @return
+   *   the mapped buffer
+   * @throws IOException
+   *   if an I/O error occurs
+   */
+  static private MappedByteBuffer map(File file, int size) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try
+    {
+      FileChannel channel = raf.getChannel();
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+  
+  /**
+   * Append a record
+   * 
+   * @param body
+   *   The record body
+   * @return
+   *   the offset of the record, or -1 if there's not enough room left in the segment
+   */
+  public synchronized int append(byte [] body)
+  {
+    return append(ByteBuffer.wrap(body));
+  }
+  
+  /**
+   * Append a record
+   * 
+   * @param body
+   *   The record body, from its position to its limit
+   * @return
+   *   the offset of the record, or -1 if there's not enough room left in the segment
+   */
+  public synchronized int append(ByteBuffer body)
+  {
+    return append(new ByteBuffer [] { body });
+  }
+  
+  /**
+   * Append a record whose body is made of several buffers, copying each of them straight to the mapped file.<br>
+   * The buffers' positions are not changed.
+   * 
+   * @param body
+   *   The parts of the record body, each from its position to its limit
+   * @return
+   *   the offset of the record, or -1 if there's not enough room left in the segment
+   */
+  public synchronized int append(ByteBuffer [] body)
+  {
+    int length = remaining(body);
+    if (cRecordPrefixLength + length > getRemaining())
+      return -1;
+    
+    CRC32 crc = new CRC32();
+    for (ByteBuffer part : body)
+      crc.update(part.duplicate());
+    
+    int offset = mPosition;
+    ByteBuffer target = mBuffer.duplicate();
+    target.position(offset);
+    target.putInt(length);
+    target.putInt((int)crc.getValue());
+    for (ByteBuffer part : body)
+      target.put(part.duplicate());
+    mPosition = target.position();
+    return offset;
+  }
+  
+  /**
+   * Get the total length of several buffers
+   * 
+   * @param parts
+   *   The buffers
+   * @return
+   *   the number of bytes from each buffer's position to its limit, added up
+   */
+  static int remaining(ByteBuffer [] parts)
+  {
+    int length = 0;
+    for (ByteBuffer part : parts)
+      length += part.remaining();
+    return length;
+  }
+  
+  /**
+   * Get the number of bytes still available for records
+   * 
+   * @return
+   *   the number of bytes left in the segment
+   */
+  public synchronized int getRemaining()
+  {
+    return mBuffer.capacity() - mPosition;
+  }
+  
+  /**
+   * Get the body of the record at {@code offset}
+   * 
+   * @param offset
+   *   The record offset
+   * @return
+   *   a read-only view of the record body
+   */
+  public ByteBuffer getBody(int offset)
+  {
+    int length = mBuffer.getInt(offset);
+    ByteBuffer body = mBuffer.asReadOnlyBuffer();
+    body.position(offset + cRecordPrefixLength);
+    body.limit(offset + cRecordPrefixLength + length);
+    return body.slice();
+  }
+  
+  /**
+   * Find the record that follows the record at {@code offset}, checking it's intact
+   * 
+   * @param offset
+   *   The offset of the current record, or 0 to get the first record
+   * @return
+   *   the offset of the next record, or -1 if there are no more records
+   */
+  public int next(int offset)
+  {
+    int next = offset == 0 ? cHeaderLength : offset + cRecordPrefixLength + mBuffer.getInt(offset);
+    if (next + cRecordPrefixLength > mBuffer.capacity())
+      return -1;
+    
+    int length = mBuffer.getInt(next);
+    if ((length <= 0) || (next + cRecordPrefixLength + length > mBuffer.capacity()))
+      return -1;
+    
+    CRC32 crc = new CRC32();
+    crc.update(getBody(next));
+    if ((int)crc.getValue() != mBuffer.getInt(next + 4))
+      return -1;
+    return next;
+  }
+  
+  /**
+   * Flush modified contents of the segment to disk
+   */
+  public void force()
+  {
+    mBuffer.force();
+  }
+  
+  /**
+   * Get the segment file
+   * 
+   * @return
+   *   the segment file
+   */
+  public File getFile()
+  {
+    return mFile;
+  }
+  
+  /**
+   * Get the store generation this segment belongs to
+   * 
+   * @return
+   *   the generation
+   */
+  public long getGeneration()
+  {
+    return mGeneration;
+  }
+  
+  /**
+   * Get the segment sequence number within its generation
+   * 
+   * @return
+   *   the sequence number
+   */
+  public int getSequence()
+  {
+    return mSequence;
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  File=").append(mFile.getAbsolutePath()).append("\n")
+      .append(pad).append("  Generation=").append(mGeneration).append("\n")
+      .append(pad).append("  Sequence=").append(mSequence).append("\n")
+      .append(pad).append("  Size=").append(mBuffer.capacity()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -1,16 +1,17 @@
 package com.kas.mq.typedef;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import com.kas.infra.base.IObject;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.impl.messages.IMqMessage;
 
 /**
- * {@link MessageQueue} is the actual container for {@link IMqMessage}
+ * {@link MessageQueue} is the actual container for {@link IMqMessage}.<br>
+ * Messages are added at the tail and taken from the head, but a message taken and not delivered may be put back at the head.
  * 
  * @author Pippo
  */
-public class MessageQueue extends ConcurrentLinkedQueue<IMqMessage> implements IObject
+public class MessageQueue extends ConcurrentLinkedDeque<IMqMessage> implements IObject
 {
   private static final long serialVersionUID = 1L;
   
@@ -0,0 +1,65 @@
+package com.kas.mq.internal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMqDirectoryDelta
+{
+  @Test
+  public void testRoundTrip() throws IOException
+  {
+    MqDirectoryDelta delta = new MqDirectoryDelta(1000L, 42L, -7L, false);
+    delta.getAdded().add("ALPHA");
+    delta.getAdded().add("BETA");
+    delta.getRemoved().add("GAMMA");
+    
+    MqDirectoryDelta copy = MqDirectoryDelta.fromByteArray(delta.toByteArray());
+    Assert.assertEquals( 1000L, copy.getEpoch() );
+    Assert.assertEquals( 42L, copy.getSequence() );
+    Assert.assertEquals( -7L, copy.getDigest() );
+    Assert.assertFalse ( copy.isFull() );
+    Assert.assertEquals( Arrays.asList("ALPHA", "BETA"), copy.getAdded() );
+    Assert.assertEquals( Arrays.asList("GAMMA"), copy.getRemoved() );
+  }
+  
+  @Test
+  public void testEmptyFullDelta() throws IOException
+  {
+    MqDirectoryDelta copy = MqDirectoryDelta.fromByteArray(new MqDirectoryDelta(1L, 0L, 0L, true).toByteArray());
+    Assert.assertTrue( copy.isFull() );
+    Assert.assertTrue( copy.isEmpty() );
+  }
+  
+  @Test(expected = IOException.class)
+  public void testTrailingBytes() throws IOException
+  {
+    byte [] bytes = new MqDirectoryDelta(1L, 2L, 3L, false).toByteArray();
+    MqDirectoryDelta.fromByteArray(Arrays.copyOf(bytes, bytes.length + 1));
+  }
+  
+  @Test(expected = IOException.class)
+  public void testInvalidNameCount() throws IOException
+  {
+    MqDirectoryDelta delta = new MqDirectoryDelta(1L, 2L, 3L, false);
+    delta.getAdded().add("ALPHA");
+    byte [] bytes = delta.toByteArray();
+    bytes[25 + 3] = 100;
+    MqDirectoryDelta.fromByteArray(bytes);
+  }
+  
+  @Test(expected = IOException.class)
+  public void testMissingDelta() throws IOException
+  {
+    MqDirectoryDelta.fromByteArray(null);
+  }
+  
+  @Test
+  public void testDigestIgnoresOrder()
+  {
+    long digest = MqDirectoryDelta.hash("ALPHA") + MqDirectoryDelta.hash("BETA");
+    Assert.assertEquals( digest, MqDirectoryDelta.hash("BETA") + MqDirectoryDelta.hash("ALPHA") );
+    Assert.assertFalse( MqDirectoryDelta.hash("ALPHA") == MqDirectoryDelta.hash("BETA") );
+  }
+}
@@ -0,0 +1,155 @@
+package com.kas.mq.internal;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+
+public class TestMqExpiryIndex
+{
+  static private final int cThreads  = 4;
+  static private final int cMessages = 50000;
+  
+  @Test
+  public void testAddAndRemove()
+  {
+    MqExpiryIndex index = new MqExpiryIndex();
+    IMqMessage message = MqMessageFactory.createStringMessage("one");
+    
+    index.add(message);
+    Assert.assertTrue  ( index.contains(message) );
+    Assert.assertTrue  ( index.remove(message)   );
+    Assert.assertFalse ( index.contains(message) );
+    Assert.assertFalse ( index.remove(message)   );
+  }
+  
+  @Test
+  public void testPollExpired()
+  {
+    MqExpiryIndex index = new MqExpiryIndex();
+    IMqMessage expiring = MqMessageFactory.createStringMessage("expiring");
+    expiring.setExpiration(1);
+    IMqMessage lasting = MqMessageFactory.createStringMessage("lasting");
+    index.add(expiring);
+    index.add(lasting);
+    
+    long later = MqExpiryIndex.getDeadline(expiring) + 2 * MqExpiryIndex.cTickMillis;
+    List<IMqMessage> expired = index.pollExpired(later);
+    Assert.assertEquals( 1, expired.size() );
+    Assert.assertSame  ( expiring, expired.get(0) );
+    Assert.assertFalse ( index.remove(expiring) );
+    Assert.assertTrue  ( index.remove(lasting)  );
+  }
+  
+  @Test
+  public void testAddAfterBucketIsDropped()
+  {
+    MqExpiryIndex index = new MqExpiryIndex();
+    IMqMessage first = MqMessageFactory.createStringMessage("first");
+    IMqMessage second = MqMessageFactory.createStringMessage("second");
+    second.setExpiration(MqExpiryIndex.getDeadline(first) - second.getTimeStamp());
+    Assert.assertEquals( MqExpiryIndex.getDeadline(first), MqExpiryIndex.getDeadline(second) );
+    
+    index.add(first);
+    Assert.assertTrue  ( index.remove(first)    );
+    index.add(second);
+    Assert.assertFalse ( index.contains(first)  );
+    Assert.assertTrue  ( index.contains(second) );
+    Assert.assertTrue  ( index.remove(second)   );
+    Assert.assertTrue  ( index.pollExpired(Long.MAX_VALUE).isEmpty() );
+  }
+  
+  @Test
+  public void testConcurrentAddAndRemove() throws InterruptedException
+  {
+    final MqExpiryIndex index = new MqExpiryIndex();
+    final AtomicInteger lost = new AtomicInteger();
+    
+    // each consumer removes the messages its producer just added, so buckets keep emptying
+    // and being dropped while other producers add to them
+    Thread [] threads = new Thread[2 * cThreads];
+    for (int i = 0; i < cThreads; ++i)
+    {
+      final BlockingQueue<IMqMessage> handoff = new SynchronousQueue<IMqMessage>();
+      threads[2 * i] = new Thread() {
+        public void run()
+        {
+          try
+          {
+            for (int m = 0; m < cMessages; ++m)
+            {
+              IMqMessage message = MqMessageFactory.createStringMessage("m");
+              index.add(message);
+              handoff.put(message);
+            }
+          }
+          catch (InterruptedException e) {}
+        }
+      };
+      threads[2 * i + 1] = new Thread() {
+        public void run()
+        {
+          try
+          {
+            for (int m = 0; m < cMessages; ++m)
+            {
+              if (!index.remove(handoff.take()))
+                lost.incrementAndGet();
+            }
+          }
+          catch (InterruptedException e) {}
+        }
+      };
+    }
+    
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+    
+    Assert.assertEquals( 0, lost.get() );
+    Assert.assertTrue  ( index.pollExpired(Long.MAX_VALUE).isEmpty() );
+  }
+  
+  @Test
+  public void testConcurrentPutAndGetKeepDepth() throws InterruptedException
+  {
+    final MqLocalQueue queue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), "TEST.EXPIRY", "", cThreads * cMessages, EQueueDisp.TEMPORARY);
+    final AtomicInteger received = new AtomicInteger();
+    
+    Thread [] threads = new Thread[2 * cThreads];
+    for (int i = 0; i < cThreads; ++i)
+    {
+      threads[2 * i] = new Thread() {
+        public void run()
+        {
+          for (int m = 0; m < cMessages; ++m)
+            queue.put(MqMessageFactory.createStringMessage("m"));
+        }
+      };
+      threads[2 * i + 1] = new Thread() {
+        public void run()
+        {
+          for (int m = 0; m < cMessages; ++m)
+          {
+            if (queue.get(5000) != null)
+              received.incrementAndGet();
+          }
+        }
+      };
+    }
+    
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+    
+    Assert.assertEquals( cThreads * cMessages, received.get() );
+    Assert.assertEquals( 0, queue.size() );
+    Assert.assertNull  ( queue.get(10) );
+  }
+}
@@ -0,0 +1,316 @@
+package com.kas.mq.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.impl.messages.MqStringMessage;
+
+public class TestMqLocalQueue
+{
+  static private final String cQueueName = "TEST.LOCAL";
+  static private final int cThreads = 4;
+  static private final int cMessages = 20000;
+  
+  private MqLocalQueue mQueue;
+  
+  @Before
+  public void setUp()
+  {
+    new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo").mkdirs();
+    mQueue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), cQueueName, "", 100, EQueueDisp.PERMANENT);
+  }
+  
+  @After
+  public void tearDown()
+  {
+    mQueue.discard();
+  }
+  
+  private long getGeneration()
+  {
+    long generation = -1;
+    File dir = new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo" + File.separator + cQueueName + ".qstore");
+    File [] files = dir.listFiles();
+    if (files != null)
+    {
+      for (File file : files)
+        generation = Math.max(generation, Long.parseLong(file.getName().substring(0, 16), 16));
+    }
+    return generation;
+  }
+  
+  @Test
+  public void testCheckpointSkippedWhenUnchanged()
+  {
+    Assert.assertTrue  ( mQueue.checkpoint() );
+    Assert.assertEquals( -1, getGeneration() );
+    
+    Assert.assertTrue  ( mQueue.put(MqMessageFactory.createStringMessage("first")) );
+    Assert.assertTrue  ( mQueue.checkpoint() );
+    Assert.assertEquals( 1, getGeneration() );
+    Assert.assertTrue  ( mQueue.checkpoint() );
+    Assert.assertEquals( 1, getGeneration() );
+    
+    Assert.assertNotNull( mQueue.get(0) );
+    Assert.assertTrue  ( mQueue.put(MqMessageFactory.createStringMessage("second")) );
+    Assert.assertTrue  ( mQueue.checkpoint() );
+    Assert.assertEquals( 2, getGeneration() );
+  }
+  
+  @Test
+  public void testTakeRollback()
+  {
+    Assert.assertTrue( mQueue.put(MqMessageFactory.createStringMessage("first")) );
+    Assert.assertTrue( mQueue.put(MqMessageFactory.createStringMessage("second")) );
+    
+    IMqMessage message = mQueue.takeNow();
+    Assert.assertNotNull( message );
+    Assert.assertEquals ( "first", ((MqStringMessage)message).getBody() );
+    Assert.assertEquals ( 1, mQueue.size() );
+    
+    List<IMqMessage> pending = Collections.singletonList(message);
+    Assert.assertEquals( 1, mQueue.rollback(pending) );
+    Assert.assertEquals( 2, mQueue.size() );
+    Assert.assertEquals( 0, mQueue.rollback(pending) );
+    Assert.assertEquals( 2, mQueue.size() );
+  }
+  
+  private IMqMessage put(String body, int priority)
+  {
+    IMqMessage message = MqMessageFactory.createStringMessage(body);
+    message.setPriority(priority);
+    Assert.assertTrue( mQueue.put(message) );
+    return message;
+  }
+  
+  @Test
+  public void testRollbackRestoresOrder()
+  {
+    put("low 1", IMqConstants.cDefaultPriority);
+    put("low 2", IMqConstants.cDefaultPriority);
+    put("low 3", IMqConstants.cDefaultPriority);
+    put("high 1", IMqConstants.cMaximumPriority);
+    
+    List<IMqMessage> pending = new ArrayList<IMqMessage>();
+    for (int i = 0; i < 3; ++i)
+      pending.add(mQueue.takeNow());
+    put("low 4", IMqConstants.cDefaultPriority);
+    put("high 2", IMqConstants.cMaximumPriority);
+    
+    // the messages put back are taken again before the ones put meanwhile, each priority in its original order
+    Assert.assertEquals( 3, mQueue.rollback(pending) );
+    Assert.assertEquals( 6, mQueue.size() );
+    String [] expected = { "high 1", "high 2", "low 1", "low 2", "low 3", "low 4" };
+    for (String body : expected)
+      Assert.assertEquals( body, ((MqStringMessage)mQueue.get(0)).getBody() );
+    Assert.assertEquals( 0, mQueue.size() );
+  }
+  
+  @Test
+  public void testRollbackBeyondThreshold()
+  {
+    mQueue.setThreshold(3);
+    put("first", IMqConstants.cDefaultPriority);
+    put("second", IMqConstants.cDefaultPriority);
+    List<IMqMessage> pending = new ArrayList<IMqMessage>();
+    pending.add(mQueue.takeNow());
+    pending.add(mQueue.takeNow());
+    put("third", IMqConstants.cDefaultPriority);
+    put("fourth", IMqConstants.cDefaultPriority);
+    
+    // only the first message fits again, the second is left pending
+    Assert.assertEquals( 1, mQueue.rollback(pending) );
+    Assert.assertEquals( 3, mQueue.size() );
+    Assert.assertEquals( "first", ((MqStringMessage)mQueue.get(0)).getBody() );
+    Assert.assertEquals( 1, mQueue.rollback(pending) );
+    Assert.assertEquals( "second", ((MqStringMessage)mQueue.get(0)).getBody() );
+    Assert.assertEquals( "third", ((MqStringMessage)mQueue.get(0)).getBody() );
+  }
+  
+  @Test
+  public void testCheckpointKeepsPending()
+  {
+    Assert.assertTrue( mQueue.put(MqMessageFactory.createStringMessage("first")) );
+    Assert.assertTrue( mQueue.put(MqMessageFactory.createStringMessage("second")) );
+    IMqMessage message = mQueue.take(0);
+    Assert.assertNotNull( message );
+    
+    Assert.assertTrue( mQueue.checkpoint() );
+    MqLocalQueue restored = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), cQueueName, "", 100, EQueueDisp.PERMANENT);
+    Assert.assertTrue  ( restored.restore() );
+    Assert.assertEquals( 2, restored.size() );
+    
+    mQueue.commit(Collections.singletonList(message));
+    Assert.assertTrue( mQueue.checkpoint() );
+    restored = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), cQueueName, "", 100, EQueueDisp.PERMANENT);
+    Assert.assertTrue  ( restored.restore() );
+    Assert.assertEquals( 1, restored.size() );
+    Assert.assertEquals( "second", ((MqStringMessage)restored.get(0)).getBody() );
+  }
+  
+  @Test
+  public void testWaitersServedInOrder() throws InterruptedException
+  {
+    final int waiters = 5;
+    final String [] received = new String[waiters];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < waiters; ++i)
+    {
+      final int index = i;
+      Thread thread = new Thread() {
+        public void run()
+        {
+          IMqMessage message = mQueue.get(10000);
+          received[index] = message == null ? null : ((MqStringMessage)message).getBody();
+        }
+      };
+      threads.add(thread);
+      thread.start();
+      
+      // the next consumer starts waiting only once this one does
+      long deadline = System.currentTimeMillis() + 5000;
+      while ((thread.getState() != Thread.State.TIMED_WAITING) && (System.currentTimeMillis() < deadline))
+        Thread.sleep(5);
+      Assert.assertEquals( Thread.State.TIMED_WAITING, thread.getState() );
+    }
+    
+    for (int i = 0; i < waiters; ++i)
+      Assert.assertTrue( mQueue.put(MqMessageFactory.createStringMessage("message " + i)) );
+    
+    for (Thread thread : threads)
+      thread.join(10000);
+    for (int i = 0; i < waiters; ++i)
+      Assert.assertEquals( "message " + i, received[i] );
+    Assert.assertEquals( 0, mQueue.size() );
+  }
+  
+  // producers put messages of random priorities, some of them expiring right away, while consumers take
+  // messages and expire() runs, and each thread counts what it did
+  private void stress(final MqLocalQueue queue, final boolean expiring, final AtomicInteger put, final AtomicInteger got) throws InterruptedException
+  {
+    final AtomicInteger producing = new AtomicInteger(cThreads);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < cThreads; ++i)
+    {
+      final long seed = i;
+      threads.add(new Thread() {
+        public void run()
+        {
+          Random random = new Random(seed);
+          for (int j = 0; j < cMessages; ++j)
+          {
+            IMqMessage message = MqMessageFactory.createStringMessage("message");
+            message.setPriority(random.nextInt(IMqConstants.cMaximumPriority + 1));
+            if ((expiring) && (random.nextInt(4) == 0))
+              message.setExpiration(1);
+            if (queue.put(message))
+              put.incrementAndGet();
+          }
+          producing.decrementAndGet();
+        }
+      });
+      threads.add(new Thread() {
+        public void run()
+        {
+          while (producing.get() > 0)
+          {
+            IMqMessage message = (seed % 2 == 0) ? queue.poll() : queue.get(1);
+            if (message != null)
+              got.incrementAndGet();
+          }
+        }
+      });
+    }
+    threads.add(new Thread() {
+      public void run()
+      {
+        while (producing.get() > 0)
+          queue.expire();
+      }
+    });
+    
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join(60000);
+  }
+  
+  // drain the queue, checking that what it holds matches its depth and its priority bitmap
+  private int drainAndCheck(MqLocalQueue queue)
+  {
+    int size = queue.size();
+    int map = queue.getPriorityMap();
+    int drained = 0;
+    int last = IMqConstants.cMaximumPriority;
+    IMqMessage message;
+    while ((message = queue.poll()) != null)
+    {
+      Assert.assertTrue( "Priority " + message.getPriority() + " not in bitmap " + map, (map & (1 << message.getPriority())) != 0 );
+      Assert.assertTrue( message.getPriority() <= last );
+      last = message.getPriority();
+      ++drained;
+    }
+    
+    Assert.assertEquals( size, drained );
+    Assert.assertEquals( 0, queue.size() );
+    Assert.assertEquals( 0, queue.getPriorityMap() );
+    return drained;
+  }
+  
+  @Test
+  public void testConcurrentDepth() throws InterruptedException
+  {
+    MqLocalQueue queue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), "TEST.STRESS", "", 0, EQueueDisp.TEMPORARY);
+    AtomicInteger put = new AtomicInteger();
+    AtomicInteger got = new AtomicInteger();
+    stress(queue, false, put, got);
+    
+    Assert.assertEquals( cThreads * cMessages, put.get() );
+    Assert.assertEquals( put.get(), got.get() + drainAndCheck(queue) );
+  }
+  
+  @Test
+  public void testConcurrentDepthWithExpiry() throws InterruptedException
+  {
+    MqLocalQueue queue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), "TEST.STRESS", "", 0, EQueueDisp.TEMPORARY);
+    AtomicInteger put = new AtomicInteger();
+    AtomicInteger got = new AtomicInteger();
+    stress(queue, true, put, got);
+    
+    // once every expiring message is due, expire() accounts for all that are left
+    Thread.sleep(3 * MqExpiryIndex.cTickMillis);
+    queue.expire();
+    Assert.assertTrue( put.get() >= got.get() + drainAndCheck(queue) );
+  }
+  
+  @Test
+  public void testExpiredMessagesBehindLiveHeadAreUnlinked() throws InterruptedException
+  {
+    MqLocalQueue queue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), "TEST.COMPACT", "", 0, EQueueDisp.TEMPORARY);
+    IMqMessage live = MqMessageFactory.createStringMessage("live");
+    Assert.assertTrue( queue.put(live) );
+    for (int i = 0; i < 2000; ++i)
+    {
+      IMqMessage message = MqMessageFactory.createStringMessage("expiring");
+      message.setExpiration(1);
+      Assert.assertTrue( queue.put(message) );
+    }
+    
+    Thread.sleep(3 * MqExpiryIndex.cTickMillis);
+    Assert.assertEquals( 2000, queue.expire() );
+    Assert.assertEquals( 1, queue.size() );
+    Assert.assertEquals( 1, queue.mQueueArray[live.getPriority()].size() );
+    Assert.assertSame( live, queue.poll() );
+    Assert.assertNull( queue.poll() );
+  }
+}
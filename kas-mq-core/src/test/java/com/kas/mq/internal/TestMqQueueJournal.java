@@ -0,0 +1,267 @@
+package com.kas.mq.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.base.UniqueId;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.impl.messages.MqStringMessage;
+
+public class TestMqQueueJournal
+{
+  static private final String cQueueName = "TEST.JOURNAL";
+  
+  /**
+   * A journal whose next commit fails
+   */
+  static private class FailingJournal extends MqQueueJournal
+  {
+    private boolean mFail = true;
+    
+    FailingJournal()
+    {
+      super(cQueueName, true, 0);
+    }
+    
+    public void commit(long seq) throws IOException
+    {
+      if (mFail)
+      {
+        mFail = false;
+        throw new IOException("Simulated commit failure");
+      }
+      super.commit(seq);
+    }
+  }
+  
+  private MqQueueJournal mJournal;
+  private MqLocalQueue mQueue = null;
+  
+  @Before
+  public void setUp()
+  {
+    new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo").mkdirs();
+    mJournal = new MqQueueJournal(cQueueName, true, 0);
+    mJournal.delete();
+    Assert.assertTrue( mJournal.open() );
+  }
+  
+  @After
+  public void tearDown()
+  {
+    if (mQueue != null)
+      mQueue.discard();
+    Assert.assertTrue( mJournal.delete() );
+  }
+  
+  private Map<UniqueId, IMqMessage> replay()
+  {
+    mJournal.close();
+    Map<UniqueId, IMqMessage> messages = new LinkedHashMap<UniqueId, IMqMessage>();
+    new MqQueueJournal(cQueueName, true, 0).replay(messages);
+    return messages;
+  }
+  
+  private List<UniqueId> ids(IMqMessage ... messages)
+  {
+    List<UniqueId> ids = new ArrayList<UniqueId>();
+    for (IMqMessage message : messages)
+      ids.add(message.getMessageId());
+    return ids;
+  }
+  
+  @Test
+  public void testReplay() throws IOException
+  {
+    IMqMessage first = MqMessageFactory.createStringMessage("first");
+    IMqMessage second = MqMessageFactory.createStringMessage("second");
+    IMqMessage third = MqMessageFactory.createStringMessage("third");
+    mJournal.logPut(first);
+    mJournal.logPut(second);
+    mJournal.commit(mJournal.logPut(third));
+    mJournal.logGet(second);
+    
+    Map<UniqueId, IMqMessage> messages = replay();
+    Assert.assertEquals( ids(first, third), new ArrayList<UniqueId>(messages.keySet()) );
+    Assert.assertEquals( "third", ((MqStringMessage)messages.get(third.getMessageId())).getBody() );
+  }
+  
+  @Test
+  public void testCorruptedRecordEndsReplay() throws IOException
+  {
+    IMqMessage first = MqMessageFactory.createStringMessage("first");
+    mJournal.logPut(first);
+    long offset = mJournal.getFile().length();
+    mJournal.logPut(MqMessageFactory.createStringMessage("second"));
+    mJournal.logPut(MqMessageFactory.createStringMessage("third"));
+    mJournal.close();
+    
+    RandomAccessFile raf = new RandomAccessFile(mJournal.getFile(), "rw");
+    long pos = offset + 12;
+    raf.seek(pos);
+    int value = raf.read();
+    raf.seek(pos);
+    raf.write(value ^ 0xFF);
+    raf.close();
+    
+    Assert.assertEquals( ids(first), new ArrayList<UniqueId>(replay().keySet()) );
+  }
+  
+  @Test
+  public void testTornRecordIsIgnored() throws IOException
+  {
+    IMqMessage first = MqMessageFactory.createStringMessage("first");
+    mJournal.logPut(first);
+    mJournal.logPut(MqMessageFactory.createStringMessage("second"));
+    mJournal.close();
+    
+    RandomAccessFile raf = new RandomAccessFile(mJournal.getFile(), "rw");
+    raf.setLength(raf.length() - 3);
+    raf.close();
+    
+    Assert.assertEquals( ids(first), new ArrayList<UniqueId>(replay().keySet()) );
+  }
+  
+  @Test
+  public void testBadLengthEndsReplay() throws IOException
+  {
+    IMqMessage first = MqMessageFactory.createStringMessage("first");
+    mJournal.logPut(first);
+    mJournal.close();
+    
+    // a length past the end of the file, and one past any record, are both read as a torn tail
+    for (int length : new int [] { 1024, Integer.MAX_VALUE })
+    {
+      RandomAccessFile raf = new RandomAccessFile(mJournal.getFile(), "rw");
+      long offset = raf.length();
+      raf.seek(offset);
+      raf.writeInt(length);
+      raf.writeInt(0);
+      raf.writeByte(1);
+      raf.write(new byte [64]);
+      raf.close();
+      
+      Assert.assertEquals( ids(first), new ArrayList<UniqueId>(replay().keySet()) );
+      raf = new RandomAccessFile(mJournal.getFile(), "rw");
+      raf.setLength(offset);
+      raf.close();
+    }
+  }
+  
+  @Test
+  public void testCommitRacingRotation() throws InterruptedException
+  {
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 4; ++i)
+    {
+      threads.add(new Thread() {
+        public void run()
+        {
+          try
+          {
+            for (int j = 0; j < 200; ++j)
+              mJournal.commit(mJournal.logPut(MqMessageFactory.createStringMessage("message")));
+          }
+          catch (Throwable e)
+          {
+            synchronized (errors)
+            {
+              errors.add(e);
+            }
+          }
+        }
+      });
+    }
+    for (Thread thread : threads)
+      thread.start();
+    
+    // a committer whose channel is closed by a rotation must find its record synced
+    boolean running = true;
+    while (running)
+    {
+      mJournal.rotate();
+      mJournal.deletePending();
+      running = false;
+      for (Thread thread : threads)
+        running = running || thread.isAlive();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    
+    Assert.assertEquals( new ArrayList<Throwable>(), errors );
+  }
+  
+  @Test
+  public void testRefusedBatchIsNotReplayed() throws IOException
+  {
+    mJournal.delete();
+    mJournal = new FailingJournal();
+    MqLocalQueue queue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), cQueueName, "", 100, EQueueDisp.TEMPORARY);
+    mQueue = queue;
+    Assert.assertTrue( queue.attachJournal(mJournal, true) );
+    
+    List<IMqMessage> batch = new ArrayList<IMqMessage>();
+    for (int i = 0; i < 3; ++i)
+      batch.add(MqMessageFactory.createStringMessage("refused"));
+    boolean [] results = queue.internalPut(batch);
+    for (boolean result : results)
+      Assert.assertFalse( result );
+    Assert.assertEquals( 0, queue.size() );
+    
+    IMqMessage accepted = MqMessageFactory.createStringMessage("accepted");
+    Assert.assertTrue( queue.internalPut(accepted, false) );
+    Assert.assertEquals( 1, queue.size() );
+    
+    Assert.assertEquals( ids(accepted), new ArrayList<UniqueId>(replay().keySet()) );
+  }
+  
+  @Test
+  public void testRefusedPutIsNotReplayed() throws IOException
+  {
+    mJournal.delete();
+    mJournal = new FailingJournal();
+    MqLocalQueue queue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), cQueueName, "", 100, EQueueDisp.TEMPORARY);
+    mQueue = queue;
+    Assert.assertTrue( queue.attachJournal(mJournal, true) );
+    
+    Assert.assertFalse( queue.internalPut(MqMessageFactory.createStringMessage("refused"), false) );
+    IMqMessage accepted = MqMessageFactory.createStringMessage("accepted");
+    Assert.assertTrue( queue.internalPut(accepted, false) );
+    
+    Assert.assertEquals( ids(accepted), new ArrayList<UniqueId>(replay().keySet()) );
+  }
+  
+  @Test
+  public void testPendingReplayedUntilCommitted()
+  {
+    MqLocalQueue queue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), cQueueName, "", 100, EQueueDisp.TEMPORARY);
+    mQueue = queue;
+    Assert.assertTrue( queue.attachJournal(mJournal, true) );
+    
+    IMqMessage first = MqMessageFactory.createStringMessage("first");
+    IMqMessage second = MqMessageFactory.createStringMessage("second");
+    IMqMessage third = MqMessageFactory.createStringMessage("third");
+    Assert.assertTrue( queue.put(first) );
+    Assert.assertTrue( queue.put(second) );
+    Assert.assertTrue( queue.put(third) );
+    
+    List<IMqMessage> pending = new ArrayList<IMqMessage>();
+    pending.add(queue.take(0));
+    pending.add(queue.takeNow());
+    Assert.assertEquals( ids(first, second), ids(pending.toArray(new IMqMessage[0])) );
+    queue.commit(pending.subList(0, 1));
+    
+    Assert.assertEquals( ids(second, third), new ArrayList<UniqueId>(replay().keySet()) );
+  }
+}
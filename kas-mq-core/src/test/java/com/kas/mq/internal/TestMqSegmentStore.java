@@ -0,0 +1,166 @@
+package com.kas.mq.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.base.UniqueId;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.impl.messages.MqStringMessage;
+
+public class TestMqSegmentStore
+{
+  static private final String cQueueName = "TEST.STORE";
+  static private final int cSegmentSize = 4096;
+  
+  private File mDirectory;
+  
+  @Before
+  public void setUp()
+  {
+    mDirectory = new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo" + File.separator + cQueueName + ".qstore");
+    new MqSegmentStore(cQueueName, cSegmentSize, 0).deleteAll();
+  }
+  
+  @After
+  public void tearDown()
+  {
+    new MqSegmentStore(cQueueName, cSegmentSize, 0).deleteAll();
+  }
+  
+  private Map<UniqueId, IMqMessage> load(long generation) throws IOException
+  {
+    Map<UniqueId, IMqMessage> messages = new LinkedHashMap<UniqueId, IMqMessage>();
+    new MqSegmentStore(cQueueName, cSegmentSize, generation).load(messages);
+    return messages;
+  }
+  
+  private List<String> bodies(Map<UniqueId, IMqMessage> messages)
+  {
+    List<String> bodies = new ArrayList<String>();
+    for (IMqMessage message : messages.values())
+      bodies.add(((MqStringMessage)((MqPagedMessage)message).load()).getBody());
+    return bodies;
+  }
+  
+  private int countSegments(long generation)
+  {
+    int count = 0;
+    String prefix = String.format("%016x.", generation);
+    File [] files = mDirectory.listFiles();
+    if (files != null)
+    {
+      for (File file : files)
+        if (file.getName().startsWith(prefix)) ++count;
+    }
+    return count;
+  }
+  
+  @Test
+  public void testAppendAndLoad() throws IOException
+  {
+    MqSegmentStore store = new MqSegmentStore(cQueueName, cSegmentSize, 0);
+    store.append(MqMessageFactory.createStringMessage("first"));
+    IMqMessage second = MqMessageFactory.createStringMessage("second");
+    store.append(second);
+    store.append(MqMessageFactory.createStringMessage("third"));
+    store.appendTombstone(second.getMessageId());
+    store.force();
+    
+    Map<UniqueId, IMqMessage> messages = load(0);
+    Assert.assertEquals( 2, messages.size() );
+    Assert.assertFalse ( messages.containsKey(second.getMessageId()) );
+    Assert.assertEquals( "[first, third]", bodies(messages).toString() );
+  }
+  
+  @Test
+  public void testSegmentRollover() throws IOException
+  {
+    MqSegmentStore store = new MqSegmentStore(cQueueName, cSegmentSize, 0);
+    for (int i = 0; i < 100; ++i)
+      store.append(MqMessageFactory.createStringMessage("message " + i));
+    store.force();
+    
+    Assert.assertTrue  ( countSegments(0) > 1 );
+    List<String> bodies = bodies(load(0));
+    Assert.assertEquals( 100, bodies.size() );
+    Assert.assertEquals( "message 0", bodies.get(0) );
+    Assert.assertEquals( "message 99", bodies.get(99) );
+  }
+  
+  @Test
+  public void testNeedsCompaction() throws IOException
+  {
+    MqSegmentStore store = new MqSegmentStore(cQueueName, 1024 * 1024, 0);
+    List<IMqMessage> messages = new ArrayList<IMqMessage>();
+    for (int i = 0; i < 2048; ++i)
+    {
+      IMqMessage message = MqMessageFactory.createStringMessage("m");
+      store.append(message);
+      messages.add(message);
+    }
+    
+    for (int i = 0; i < 1023; ++i)
+      store.appendTombstone(messages.get(i).getMessageId());
+    Assert.assertFalse ( store.needsCompaction() );
+    store.appendTombstone(messages.get(1023).getMessageId());
+    Assert.assertTrue  ( store.needsCompaction() );
+  }
+  
+  @Test
+  public void testCompactToNextGeneration() throws IOException
+  {
+    MqSegmentStore store = new MqSegmentStore(cQueueName, cSegmentSize, 0);
+    List<IMqMessage> removed = new ArrayList<IMqMessage>();
+    for (int i = 0; i < 50; ++i)
+    {
+      IMqMessage message = MqMessageFactory.createStringMessage("message " + i);
+      store.append(message);
+      if (i % 2 == 0) removed.add(message);
+    }
+    for (IMqMessage message : removed)
+      store.appendTombstone(message.getMessageId());
+    store.force();
+    
+    Map<UniqueId, IMqMessage> live = load(0);
+    Assert.assertEquals( 25, live.size() );
+    
+    MqSegmentStore next = store.nextGeneration();
+    Assert.assertEquals( 1, next.getGeneration() );
+    for (IMqMessage message : live.values())
+      next.append((MqPagedMessage)message);
+    next.force();
+    store.delete();
+    
+    Assert.assertEquals( 0, countSegments(0) );
+    Assert.assertTrue  ( countSegments(1) > 0 );
+    Assert.assertEquals( bodies(live), bodies(load(1)) );
+  }
+  
+  @Test
+  public void testLoadDeletesOtherGenerations() throws IOException
+  {
+    MqSegmentStore store = new MqSegmentStore(cQueueName, cSegmentSize, 0);
+    store.append(MqMessageFactory.createStringMessage("old"));
+    store.force();
+    MqSegmentStore next = store.nextGeneration();
+    next.append(MqMessageFactory.createStringMessage("new"));
+    next.force();
+    MqSegmentStore orphan = next.nextGeneration();
+    orphan.append(MqMessageFactory.createStringMessage("orphan"));
+    orphan.force();
+    
+    Assert.assertEquals( "[new]", bodies(load(1)).toString() );
+    Assert.assertEquals( 0, countSegments(0) );
+    Assert.assertEquals( 1, countSegments(1) );
+    Assert.assertEquals( 0, countSegments(2) );
+  }
+}
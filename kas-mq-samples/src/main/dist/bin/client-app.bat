@@ -11,6 +11,7 @@
 :: client.app.put.queuename=<queue_name>      -- name of the queue to which messages are put
 :: client.app.get.queuename=<queue_name>      -- name of the queue frmo which messages are get
 :: client.app.total.messages=<total_messages> -- the number of messages to produce
+:: client.app.put.batch=<batch_size>          -- the number of messages each producer puts with a single request
 :: client.app.total.producers=<prod_num>      -- the number of producer threads
 :: client.app.total.consumers=<cons_num>      -- the number of consumer threads
 :: client.app.username=<user_name>            -- the user that is used to connect the KAS/MQ server 
@@ -0,0 +1,44 @@
+#!/bin/sh
+
+# the program opens many concurrent sessions, each performing a few put/get pairs
+# and staying connected until all sessions connected. it reports connect times and throughput,
+# so runs against servers with different kas.mq.conn.sessionThreads modes can be compared
+#
+# available arguments to the application:
+#
+# load.gen.queuename=<queue_name>           -- name of the queue sessions put to and get from
+# load.gen.total.sessions=<sessions_num>    -- the number of concurrent sessions
+# load.gen.session.requests=<pairs_num>     -- the number of put/get pairs each session performs
+# load.gen.hold.timeout=<millis>            -- the number of milliseconds a session waits for all others to connect
+# load.gen.label=<label>                    -- label printed with the results, e.g. the server's session threads mode
+# load.gen.username=<user_name>             -- the user that is used to connect the KAS/MQ server 
+# load.gen.password=<password>              -- the password used for authentication
+# load.gen.host=<host_or_ip>                -- host name or ip address of KAS/MQ server
+# load.gen.port=<port_number>               -- port number on which KAS/MQ server listening
+#
+# if an argument is specified more than once, its last occurrence takes place.
+# this means that any value passed to this batch script override the value specified below
+
+PASSED_ARGS="${@}"
+CLASS_NAME="com.kas.mq.samples.loadgen.LoadGen"
+
+#::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+# Setup
+#::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+SCRIPT_DIR=`dirname ${0}`
+. ${SCRIPT_DIR}/setup.sh
+
+#::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+# Run command
+#::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
+${JAVA_EXEC} ${DEBUG_OPTS} -classpath ${CLASS_PATH} com.kas.appl.AppLauncher \
+  kas.class=${CLASS_NAME} \
+  load.gen.queuename=load.gen.queue \
+  load.gen.total.sessions=100 \
+  load.gen.session.requests=10 \
+  load.gen.hold.timeout=10000 \
+  load.gen.username=admin \
+  load.gen.password=admin \
+  load.gen.host=localhost \
+  load.gen.port=14560 \
+  ${PASSED_ARGS}
@@ -13,6 +13,7 @@ public class ClientAppParams extends ParamsContainer
   public int    mTotalConsumers;
   public int    mTotalMessages;
   public int    mMessageType;
+  public int    mPutBatchSize;
   
   ClientAppParams(Map<String,String> map)
   {
@@ -28,6 +29,7 @@ public class ClientAppParams extends ParamsContainer
     mTotalConsumers = getIntArg("total.consumers", 1);                   // number of threads that get messages
     mTotalMessages  = getIntArg("total.messages", 1000);                 // total number of messages to put
     mMessageType    = getIntArg("message.type", 1);                      // the type of messages to send (0-No-body, 1-String, 2-Object, 3-Bytes, 4-Map, 5-stream)
+    mPutBatchSize   = getIntArg("put.batch", 1);                         // number of messages put with a single request
   }
       
   public String toPrintableString()
@@ -45,6 +47,7 @@ public class ClientAppParams extends ParamsContainer
       .append("  mTotalConsumers=").append(mTotalConsumers).append("\n")
       .append("  mTotalMessages=").append(mTotalMessages).append("\n")
       .append("  mMessageType=").append(mMessageType).append("\n")
+      .append("  mPutBatchSize=").append(mPutBatchSize).append("\n")
       .append(")");
     return sb.toString();  
   }
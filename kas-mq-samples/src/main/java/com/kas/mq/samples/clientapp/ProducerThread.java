@@ -1,5 +1,7 @@
 package com.kas.mq.samples.clientapp;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import com.kas.infra.base.KasException;
 import com.kas.infra.base.Properties;
@@ -31,11 +33,24 @@ class ProducerThread extends GenThread
     mLogger.trace("ProducerThread::work() - IN");
   
     mLogger.trace("ProducerThread::work() - Starting actual work...");
+    List<IMqMessage> batch = new ArrayList<IMqMessage>();
     for (int i = 0; i < mTotalMessages; ++i)
     {
       IMqMessage putMessage = createMessage(i);
       putMessage.setPriority(i%10);
-      mContext.put(mQueueName, putMessage);
+      if (mParams.mPutBatchSize <= 1)
+      {
+        mContext.put(mQueueName, putMessage);
+      }
+      else
+      {
+        batch.add(putMessage);
+        if ((batch.size() == mParams.mPutBatchSize) || (i == mTotalMessages - 1))
+        {
+          mContext.putBatch(mQueueName, batch);
+          batch.clear();
+        }
+      }
       
       if (i % 100 == 0) System.out.println(String.format("[P%d] ... %d", mThreadIndex, i));
     }
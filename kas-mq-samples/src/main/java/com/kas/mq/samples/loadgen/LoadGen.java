@@ -0,0 +1,186 @@
+package com.kas.mq.samples.loadgen;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import com.kas.appl.AKasApp;
+import com.kas.appl.AppLauncher;
+import com.kas.infra.base.KasException;
+import com.kas.infra.base.TimeStamp;
+import com.kas.mq.impl.MqContext;
+import com.kas.mq.samples.Utils;
+
+/**
+ * This is a sample {@link AKasMqAppl KAS/MQ application} that loads the server with many concurrent sessions.<br>
+ * <br>
+ * The program opens the specified number of sessions at once. Each session performs a few put/get pairs
+ * and then stays connected until all sessions connected, or until the hold timeout expires.
+ * At the end of the execution, the program prints how many sessions connected and how long it took them.<br>
+ * <br>
+ * To compare the server's session threads modes, run the program against a server started with
+ * {@code kas.mq.conn.sessionThreads=pool}, which runs sessions on platform threads of a bounded pool,
+ * and again with {@code kas.mq.conn.sessionThreads=virtual}, passing the mode as {@code load.gen.label}.
+ * With more sessions than the pool's maximum size, the sessions beyond it connect only once others
+ * disconnected, which shows as a maximum connect time close to the hold timeout.
+ * <br><br>
+ * For information regarding the applicable arguments for this application,
+ * see class {@link LoadGenParams}
+ * 
+ * @author Pippo
+ */
+public class LoadGen extends AKasApp
+{
+  static final String cAppName      = "SampleLoadGen";
+  static final String cConfigPrefix = "load.gen.";
+  
+  static public void main(String [] args)
+  {
+    String [] argArray = {
+      "kas.class=" + LoadGen.class.getName(),
+      "load.gen.queuename=load.gen.queue",
+      "load.gen.total.sessions=100",
+      "load.gen.session.requests=10",
+      "load.gen.hold.timeout=10000",
+      "load.gen.username=admin",
+      "load.gen.password=admin",
+      "load.gen.host=localhost",
+      "load.gen.port=14560"
+    };
+    AppLauncher.main(argArray);
+  }
+  
+  /**
+   * LoadGen data members
+   */
+  private Thread [] mSessions;
+  
+  private LoadGenParams mParams;
+  
+  /**
+   * Construct the application
+   * 
+   * @param args
+   */
+  public LoadGen(Map<String, String> args)
+  {
+    super(args);
+    mParams = new LoadGenParams(args);
+  }
+  
+  /**
+   * Ignore this
+   */
+  public String toPrintableString(int level)
+  {
+    return null;
+  }
+  
+  /**
+   * Get the application name
+   * 
+   * @return the application name
+   */
+  public String getAppName()
+  {
+    return cAppName;
+  }
+  
+  /**
+   * Initialization
+   */
+  public boolean appInit()
+  {
+    mSessions = new Thread [mParams.mTotalSessions];
+    return true;
+  }
+  
+  /**
+   * Termination
+   */
+  public boolean appTerm()
+  {
+    return true;
+  }
+  
+  /**
+   * Main logic
+   */
+  public void appExec()
+  {
+    MqContext client = new MqContext(cAppName);
+    
+    mParams.print();
+    
+    try
+    {
+      client.connect(mParams.mHost, mParams.mPort, mParams.mUserName, mParams.mPassword);
+      System.out.println("Response: " + client.getResponse());
+      
+      System.out.println("Creating resources..." + (mParams.mCreateResources ? "" : " skipped"));
+      if (mParams.mCreateResources)
+      {
+        try
+        {
+          Utils.createQueue(client, mParams.mQueueName, mParams.mTotalSessions * mParams.mRequestsPerSession);
+        }
+        catch (KasException e) {}
+      }
+    }
+    catch (KasException e)
+    {
+      e.printStackTrace();
+      return;
+    }
+    
+    //===========================================================================================
+    // creating, starting and awaiting sessions
+    //===========================================================================================
+    TimeStamp tsStart = TimeStamp.now();
+    CountDownLatch allConnected = new CountDownLatch(mParams.mTotalSessions);
+    for (int i = 0; i < mParams.mTotalSessions; ++i)
+      mSessions[i] = new SessionThread(i, mParams, allConnected);
+    
+    System.out.println("Starting " + mParams.mTotalSessions + " sessions...");
+    for (int i = 0; i < mParams.mTotalSessions; ++i)
+      mSessions[i].start();
+    
+    for (int i = 0; i < mParams.mTotalSessions; ++i)
+    {
+      try
+      {
+        mSessions[i].join();
+      }
+      catch (InterruptedException e) {}
+    }
+    TimeStamp tsEnd = TimeStamp.now();
+    
+    if (mParams.mCreateResources)
+      Utils.deleteQueue(client, mParams.mQueueName);
+    
+    try
+    {
+      client.disconnect();
+    }
+    catch (KasException e) {}
+    
+    /**
+     * Print execution stats
+     */
+    int connected = SessionThread.sConnected.get();
+    long avgConnect = connected == 0 ? 0 : SessionThread.sConnectNanos.get() / connected / 1000000L;
+    long maxConnect = SessionThread.sMaxConnectNanos.get() / 1000000L;
+    long millis = Math.max(1, TimeStamp.diff(tsEnd, tsStart));
+    
+    System.out.println("Label.....................: " + mParams.mLabel);
+    System.out.println("Sessions..................: " + mParams.mTotalSessions);
+    System.out.println("   Connected...........: " + connected);
+    System.out.println("   Avg connect time....: " + avgConnect + " ms");
+    System.out.println("   Max connect time....: " + maxConnect + " ms");
+    System.out.println("Requests completed........: " + SessionThread.sRequests.get());
+    System.out.println("   Requests per second.: " + (SessionThread.sRequests.get() * 1000L / millis));
+    System.out.println("Started at................: " + tsStart.toString());
+    System.out.println("Ended at..................: " + tsEnd.toString());
+    
+    String runTime = Utils.reportTime(tsStart, tsEnd);
+    System.out.println("Run time...........: " + runTime);
+  }
+}
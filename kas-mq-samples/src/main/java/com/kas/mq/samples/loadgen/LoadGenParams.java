@@ -0,0 +1,48 @@
+package com.kas.mq.samples.loadgen;
+
+import java.util.Map;
+import com.kas.mq.samples.ParamsContainer;
+
+public class LoadGenParams extends ParamsContainer
+{
+  private static final long serialVersionUID = 1L;
+  
+  public String mQueueName;
+  public String mLabel;
+  public int    mTotalSessions;
+  public int    mRequestsPerSession;
+  public long   mHoldTimeout;
+  
+  LoadGenParams(Map<String,String> map)
+  {
+    super(map, LoadGen.cConfigPrefix);
+    mUserName  = getStrArg("username", null);                            // username to identify to KAS/MQ
+    mPassword  = getStrArg("password", null);                            // password for username
+    mHost      = getStrArg("host", "localhost");                         // KAS/MQ server host name / ip address
+    mPort      = getIntArg("port", 14560);                               // KAS/MQ server listenning port
+    mCreateResources = getBoolArg("create.res", true);                   // should the app create the queue?
+    mQueueName = getStrArg("queuename", "load.gen.queue");               // the name of the queue sessions put to and get from
+    mLabel     = getStrArg("label", "");                                 // label of the results line, e.g. the server's session threads mode
+    mTotalSessions      = getIntArg("total.sessions", 100);              // number of concurrent sessions
+    mRequestsPerSession = getIntArg("session.requests", 10);             // number of put/get pairs each session performs
+    mHoldTimeout        = getIntArg("hold.timeout", 10000);              // milliseconds a session stays connected waiting for all others to connect
+  }
+  
+  public String toPrintableString()
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("(\n")
+      .append("  mUserName=").append(mUserName).append("\n")
+      .append("  mPassword=").append(mPassword).append("\n")
+      .append("  mHost=").append(mHost).append("\n")
+      .append("  mPort=").append(mPort).append("\n")
+      .append("  mCreateResources=").append(mCreateResources).append("\n")
+      .append("  mQueueName=").append(mQueueName).append("\n")
+      .append("  mLabel=").append(mLabel).append("\n")
+      .append("  mTotalSessions=").append(mTotalSessions).append("\n")
+      .append("  mRequestsPerSession=").append(mRequestsPerSession).append("\n")
+      .append("  mHoldTimeout=").append(mHoldTimeout).append("\n")
+      .append(")");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,77 @@
+package com.kas.mq.samples.loadgen;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.samples.GenThread;
+
+/**
+ * A session of the {@link LoadGen load generator}.<br>
+ * <br>
+ * The session connects, performs its put/get pairs and then stays connected until all sessions
+ * connected or the hold timeout expired, so the server has to serve all sessions at the same time.
+ * 
+ * @author Pippo
+ */
+class SessionThread extends GenThread
+{
+  /**
+   * Statistics shared by all sessions
+   */
+  static AtomicInteger sConnected = new AtomicInteger(0);
+  static AtomicInteger sRequests  = new AtomicInteger(0);
+  static AtomicLong    sConnectNanos    = new AtomicLong(0);
+  static AtomicLong    sMaxConnectNanos = new AtomicLong(0);
+  
+  private LoadGenParams mParams;
+  private CountDownLatch mAllConnected;
+  private long mStartNanos;
+  
+  SessionThread(int tix, LoadGenParams params, CountDownLatch allConnected)
+  {
+    super("SAMPLE-" + SessionThread.class.getSimpleName() + tix, params);
+    mLogger = LogManager.getLogger(getClass());
+    mParams = params;
+    mAllConnected = allConnected;
+  }
+  
+  public void run()
+  {
+    mStartNanos = System.nanoTime();
+    super.run();
+  }
+  
+  public void work()
+  {
+    mLogger.trace("SessionThread::work() - IN");
+    
+    long connectNanos = System.nanoTime() - mStartNanos;
+    sConnected.incrementAndGet();
+    sConnectNanos.addAndGet(connectNanos);
+    long max = sMaxConnectNanos.get();
+    while ((connectNanos > max) && !sMaxConnectNanos.compareAndSet(max, connectNanos))
+      max = sMaxConnectNanos.get();
+    mAllConnected.countDown();
+    
+    for (int i = 0; i < mParams.mRequestsPerSession; ++i)
+    {
+      IMqMessage putMessage = MqMessageFactory.createStringMessage("Message number: " + (i+1));
+      mContext.put(mParams.mQueueName, putMessage);
+      IMqMessage getMessage = mContext.get(mParams.mQueueName, 1000L, 100L);
+      if (getMessage != null)
+        sRequests.addAndGet(2);
+    }
+    
+    try
+    {
+      mAllConnected.await(mParams.mHoldTimeout, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {}
+    
+    mLogger.trace("SessionThread::work() - OUT");
+  }
+}
@@ -5,6 +5,7 @@ import com.kas.infra.base.IObject;
 import com.kas.infra.base.UniqueId;
 import com.kas.infra.config.IBaseListener;
 import com.kas.mq.server.internal.SessionHandler;
+import com.kas.mq.server.internal.SessionRequest;
 
 /**
  * {@link IController} is an interface that will mediate between the {@link IMqServer}
@@ -74,4 +75,22 @@ public interface IController extends IBaseListener, IObject
    *   The handler that invoked the callback
    */
   public abstract void onHandlerEnd(SessionHandler handler);
+  
+  /**
+   * Run a request that a handler processes concurrently with its other requests
+   * 
+   * @param request
+   *   The request
+   * @return
+   *   {@code true} if the request was started or queued, {@code false} if it was rejected
+   */
+  public abstract boolean executeRequest(SessionRequest request);
+  
+  /**
+   * Run a short task on behalf of a handler, such as a pass of its {@link SessionPusher}
+   * 
+   * @param task
+   *   The task
+   */
+  public abstract void executeTask(Runnable task);
 }
@@ -11,7 +11,9 @@ import com.kas.mq.internal.MqLocalQueue;
 import com.kas.mq.internal.MqManager;
 import com.kas.mq.internal.MqQueue;
 import com.kas.mq.internal.MqRemoteQueue;
+import com.kas.mq.server.internal.MqServerConnectionPool;
 import com.kas.mq.server.repo.MqLocalManager;
+import com.kas.mq.server.repo.MqQueueDirectory;
 import com.kas.mq.server.repo.MqRemoteManager;
 
 /**
@@ -198,6 +200,14 @@ public interface IRepository extends IBaseListener, IInitializable, IObject
    */
   public abstract MqLocalQueue getDeadQueue();
   
+  /**
+   * Get the versioned list of local queues that remote KAS/MQ servers see
+   * 
+   * @return
+   *   the {@link MqQueueDirectory}
+   */
+  public abstract MqQueueDirectory getQueueDirectory();
+  
   /**
    * Get a collection of all local queues
    * 
@@ -205,4 +215,12 @@ public interface IRepository extends IBaseListener, IInitializable, IObject
    *   collection of all local queues
    */
   public abstract Collection<MqQueue> getLocalQueues();
+  
+  /**
+   * Get the pool of the connections to remote KAS/MQ servers
+   * 
+   * @return
+   *   the {@link MqServerConnectionPool}
+   */
+  public abstract MqServerConnectionPool getConnectionPool();
 }
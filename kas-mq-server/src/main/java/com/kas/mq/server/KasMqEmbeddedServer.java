@@ -0,0 +1,413 @@
+package com.kas.mq.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.comm.IInVmAcceptor;
+import com.kas.comm.impl.InVmConnector;
+import com.kas.comm.impl.InVmMessenger;
+import com.kas.db.DbConnectionPool;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.ThreadPool;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.infra.utils.StringUtils;
+import com.kas.mq.server.internal.MqServerConnectionPool;
+import com.kas.mq.server.internal.ServerHouseKeeper;
+import com.kas.mq.server.internal.SessionController;
+import com.kas.mq.server.internal.SessionHandler;
+import com.kas.mq.server.repo.ServerRepository;
+import com.kas.sec.entities.UserEntity;
+
+/**
+ * An embedded MQ server runs inside the JVM of its clients, e.g. a test or a colocated application.<br>
+ * <br>
+ * Clients connect to it with the host {@value InVmConnector#cHostPrefix}<i>name</i>, and copies of their packets are handed to it
+ * through a queue, without frames or the network stack. Other than that, requests are
+ * processed by the same processors and queue repository as a {@link KasMqServer}'s, so they can be exercised
+ * and measured in isolation.<br>
+ * <br>
+ * Unlike a {@link KasMqServer}, it has no data base, listener socket or notifier, and it does not take over the JVM:
+ * it's started with {@link #init()}, stopped with {@link #term()}, and several may run side by side under different names.
+ * Each has its own {@link MqServerConnectionPool connection pool}, and keeps its queues in its own repository directory,
+ * {@code repo}/<i>name</i> unless {@link #KasMqEmbeddedServer(String, MqConfiguration, File) specified}.
+ * Logins are looked up in the data base like a {@link KasMqServer}'s, so without one they fail, unless the embedder
+ * configured a {@link #setLoginIdentity(UserEntity) login identity}. Requests that administer users and groups are not supported.
+ * 
+ * @author Pippo
+ */
+public class KasMqEmbeddedServer extends AKasObject implements IMqServer, IInVmAcceptor
+{
+  static private final String cAppName = "KAS/MQ embedded server";
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The name clients connect to
+   */
+  private String mName;
+  
+  /**
+   * KAS/MQ server's configuration
+   */
+  private MqConfiguration mConfig;
+  
+  /**
+   * Whether the configuration was created by the server, so it should also terminate it
+   */
+  private boolean mOwnConfig;
+  
+  /**
+   * The repository directory, holding the queues' backup files, journals and stores
+   */
+  private File mRepositoryDir;
+  
+  /**
+   * The pool of the connections to remote servers, of this server alone
+   */
+  private MqServerConnectionPool mConnectionPool = new MqServerConnectionPool();
+  
+  /**
+   * {@link ServerRepository}
+   */
+  private IRepository mRepository = null;
+  
+  /**
+   * {@link SessionController}
+   */
+  private SessionController mController = null;
+  
+  /**
+   * {@link ServerHouseKeeper housekeeping task}
+   */
+  private ServerHouseKeeper mHousekeeper = null;
+  
+  /**
+   * The identity logins are established as, or {@code null} to look users up in the data base
+   */
+  private volatile UserEntity mLoginIdentity = null;
+  
+  /**
+   * Whether the server was started and not stopped yet
+   */
+  private boolean mStarted = false;
+  
+  /**
+   * Construct an embedded server with the configuration read from the KAS/MQ configuration files, if any,
+   * and the defaults otherwise
+   * 
+   * @param name
+   *   The name clients connect to
+   */
+  public KasMqEmbeddedServer(String name)
+  {
+    this(name, new MqConfiguration());
+  }
+  
+  /**
+   * Construct an embedded server with the specified configuration
+   * 
+   * @param name
+   *   The name clients connect to
+   * @param config
+   *   The configuration. If it was not initialized, the server initializes it when started and terminates it when stopped
+   */
+  public KasMqEmbeddedServer(String name, MqConfiguration config)
+  {
+    this(name, config, new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo" + File.separator + name));
+  }
+  
+  /**
+   * Construct an embedded server with the specified configuration and repository directory
+   * 
+   * @param name
+   *   The name clients connect to
+   * @param config
+   *   The configuration. If it was not initialized, the server initializes it when started and terminates it when stopped
+   * @param repoDir
+   *   The repository directory. It's created if it does not exist, and must not be shared with another server
+   */
+  public KasMqEmbeddedServer(String name, MqConfiguration config, File repoDir)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mName = name;
+    mConfig = config;
+    mOwnConfig = !config.isInitialized();
+    mRepositoryDir = repoDir;
+  }
+  
+  /**
+   * Get the application name
+   * 
+   * @return
+   *   the application name
+   */
+  public String getAppName()
+  {
+    return cAppName;
+  }
+  
+  /**
+   * Get the host clients connect to
+   * 
+   * @return
+   *   the host, {@value InVmConnector#cHostPrefix}<i>name</i>
+   */
+  public String getHost()
+  {
+    return InVmConnector.getHost(mName);
+  }
+  
+  /**
+   * Get the repository directory
+   * 
+   * @return
+   *   the directory holding the server's queue backup files, journals and stores
+   */
+  public File getRepositoryDir()
+  {
+    return mRepositoryDir;
+  }
+  
+  /**
+   * Set the identity logins to the server are established as, instead of looking users up in the data base.<br>
+   * It's off by default. Once set, every login is mapped to {@code identity} whatever user name it supplies,
+   * and {@code identity} alone decides whether the supplied password matches and which resources the session may access.
+   * It applies to connections made after it was set.
+   * 
+   * @param identity
+   *   The identity, or {@code null} to look users up in the data base
+   */
+  public void setLoginIdentity(UserEntity identity)
+  {
+    mLoginIdentity = identity;
+  }
+  
+  /**
+   * Start the server
+   * 
+   * @return
+   *   {@code true} if the server started, {@code false} otherwise
+   */
+  public boolean init()
+  {
+    return appInit();
+  }
+  
+  /**
+   * Stop the server
+   * 
+   * @return
+   *   {@code true} if the server stopped, {@code false} otherwise
+   */
+  public boolean term()
+  {
+    return appTerm();
+  }
+  
+  /**
+   * Starting the embedded server.<br>
+   * Initialization consisting of:
+   * - initializing the configuration object, if needed
+   * - creating and initializing the server's repository
+   * - creating session controller
+   * - start the housekeeper
+   * - binding the server's name
+   * 
+   * @return
+   *   {@code true} if initialization completed successfully, {@code false} otherwise
+   */
+  public synchronized boolean appInit()
+  {
+    mLogger.trace("KasMqEmbeddedServer::appInit() - IN, Name={}", mName);
+    
+    if (mStarted)
+    {
+      mLogger.trace("KasMqEmbeddedServer::appInit() - OUT, Already started");
+      return true;
+    }
+    
+    if (mOwnConfig)
+      mConfig.init();
+    
+    mConnectionPool.configure(mConfig);
+    
+    mRepository = new ServerRepository(mConfig, mConnectionPool, mRepositoryDir);
+    mController = new SessionController(this);
+    mHousekeeper = new ServerHouseKeeper(mRepository);
+    
+    if (!mRepository.init())
+    {
+      mLogger.error("Embedded server {} repository failed initialization", mName);
+      if (mOwnConfig)
+        mConfig.term();
+      return false;
+    }
+    
+    try
+    {
+      InVmConnector.bind(mName, this);
+    }
+    catch (IOException e)
+    {
+      mLogger.error("Embedded server {} failed to bind its name. Exception: {}", mName, e.getMessage());
+      mRepository.term();
+      if (mOwnConfig)
+        mConfig.term();
+      return false;
+    }
+    
+    if ((mConfig.isEnabled()) && (mConfig.isHousekeeperEnabled()))
+      ThreadPool.scheduleAtFixedRate(mHousekeeper, 0L, mConfig.getHousekeeperInterval(), TimeUnit.MILLISECONDS);
+    
+    mStarted = true;
+    mLogger.info("KAS/MQ embedded server {} available on {}", mConfig.getManagerName(), getHost());
+    mLogger.trace("KasMqEmbeddedServer::appInit() - OUT");
+    return true;
+  }
+  
+  /**
+   * Stopping the embedded server.<br>
+   * Termination consisting of:
+   * - unbinding the server's name
+   * - ending all sessions, closing their connections
+   * - stop the housekeeper
+   * - terminate server repository
+   * - terminate configuration object, if it was initialized by the server
+   * 
+   * @return
+   *   {@code true} if termination completed successfully, {@code false} otherwise
+   */
+  public synchronized boolean appTerm()
+  {
+    mLogger.trace("KasMqEmbeddedServer::appTerm() - IN, Name={}", mName);
+    
+    if (!mStarted)
+    {
+      mLogger.trace("KasMqEmbeddedServer::appTerm() - OUT, Not started");
+      return true;
+    }
+    mStarted = false;
+    
+    InVmConnector.unbind(mName, this);
+    
+    mController.shutdown();
+    for (SessionHandler handler : mController.getHandlers())
+      handler.end();
+    mController.term();
+    
+    mHousekeeper.stop();
+    ThreadPool.removeSchedule(mHousekeeper);
+    
+    boolean term = mRepository.term();
+    if (!term)
+      mLogger.warn("An error occurred while shutting the embedded server's repository");
+    
+    if (mOwnConfig)
+      mConfig.term();
+    
+    mLogger.trace("KasMqEmbeddedServer::appTerm() - OUT");
+    return term;
+  }
+  
+  /**
+   * The embedded server has no main loop: its sessions run on their own threads once it was started
+   */
+  public void appExec()
+  {
+  }
+  
+  /**
+   * Configuration has been refreshed
+   */
+  public void refresh()
+  {
+  }
+  
+  /**
+   * Accept a connection made to the server's name, and serve it by a new session
+   * 
+   * @param messenger
+   *   The server's side of the connection
+   * @throws IOException
+   *   if the server is stopped
+   */
+  public void accept(InVmMessenger messenger) throws IOException
+  {
+    SessionController controller = mController;
+    if (controller == null)
+      throw new IOException("Embedded server " + mName + " is stopped");
+    
+    messenger.setTimeout(mConfig.getConnSocketTimeout());
+    controller.newSession(messenger, mLoginIdentity);
+  }
+  
+  /**
+   * Stop the server. Called by the {@link SessionController} when a shutdown request arrives
+   */
+  public void stop()
+  {
+    term();
+  }
+  
+  /**
+   * Get the {@link ServerRepository} object
+   * 
+   * @return
+   *   the {@link ServerRepository} object
+   */
+  public IRepository getRepository()
+  {
+    return mRepository;
+  }
+  
+  /**
+   * Get the {@link MqConfiguration} object
+   * 
+   * @return
+   *   the {@link MqConfiguration} object
+   */
+  public MqConfiguration getConfig()
+  {
+    return mConfig;
+  }
+  
+  /**
+   * The embedded server has no data base
+   * 
+   * @return
+   *   {@code null}
+   */
+  public DbConnectionPool getDbConnectionPool()
+  {
+    return null;
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Name=").append(mName).append("\n")
+      .append(pad).append("  Started=").append(mStarted).append("\n")
+      .append(pad).append("  RepositoryDir=").append(mRepositoryDir).append("\n")
+      .append(pad).append("  Config=(").append(StringUtils.asPrintableString(mConfig)).append(")\n")
+      .append(pad).append("  Controller=(").append(StringUtils.asPrintableString(mController)).append(")\n")
+      .append(pad).append("  Repository=(").append(StringUtils.asPrintableString(mRepository)).append(")\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
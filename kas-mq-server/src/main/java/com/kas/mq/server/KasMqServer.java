@@ -1,12 +1,19 @@
 package com.kas.mq.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import com.kas.appl.AKasApp;
+import com.kas.comm.impl.UnixSockets;
 import com.kas.db.DbConfiguration;
 import com.kas.db.DbConnectionPool;
 import com.kas.db.DbUtils;
@@ -14,6 +21,7 @@ import com.kas.infra.base.IObject;
 import com.kas.infra.base.threads.ThreadPool;
 import com.kas.infra.utils.RunTimeUtils;
 import com.kas.infra.utils.StringUtils;
+import com.kas.mq.server.internal.MqServerConnectionPool;
 import com.kas.mq.server.internal.SessionController;
 import com.kas.mq.server.repo.ServerRepository;
 import com.kas.mq.server.internal.ServerHouseKeeper;
@@ -33,6 +41,18 @@ public class KasMqServer extends AKasApp implements IMqServer
    */
   private ServerSocket mListenSocket = null;
   
+  /**
+   * Server channel and the selector it's accepted with, when connections are served by the non-blocking engine
+   * or the server also listens on a Unix domain socket
+   */
+  private ServerSocketChannel mListenChannel = null;
+  private Selector mAcceptSelector = null;
+  
+  /**
+   * Server channel of the Unix domain socket, if configured
+   */
+  private ServerSocketChannel mUnixChannel = null;
+  
   /**
    * {@link ServerRepository}
    */
@@ -104,7 +124,7 @@ public class KasMqServer extends AKasApp implements IMqServer
    * - start the housekeeper
    * - creating session controller
    * - creating the server's notifier
-   * - creating the server's listener socket
+   * - creating the server's listener socket, and Unix domain socket if configured
    * - notifying remote servers of activation
    * 
    * @return
@@ -121,6 +141,8 @@ public class KasMqServer extends AKasApp implements IMqServer
     
     mConfig.register(this);
     
+    MqServerConnectionPool.getInstance().configure(mConfig);
+    
     boolean init = DbConnectionPool.init(mDbConfig);
     if (!init)
     {
@@ -135,10 +157,33 @@ public class KasMqServer extends AKasApp implements IMqServer
     mController = new SessionController(this);
     mNotifier = new ServerNotifier(mRepository);
 
+    String unixSocket = mConfig.getConnUnixSocket();
+    if ((unixSocket != null) && (unixSocket.length() == 0))
+      unixSocket = null;
+    if ((unixSocket != null) && !UnixSockets.isAvailable())
+    {
+      mStdout.warn("Unix domain sockets are not available on Java {}, KAS/MQ server will not listen on {}", System.getProperty("java.version"), unixSocket);
+      unixSocket = null;
+    }
+    
     try
     {
-      mListenSocket = new ServerSocket(mConfig.getPort());
-      mListenSocket.setSoTimeout(mConfig.getConnSocketTimeout());
+      if (mConfig.isConnNioEnabled())
+        mController.startEngine();
+      
+      if (mConfig.isConnNioEnabled() || (unixSocket != null))
+      {
+        mListenChannel = ServerSocketChannel.open();
+        mListenChannel.bind(new InetSocketAddress(mConfig.getPort()));
+        mListenChannel.configureBlocking(false);
+        mAcceptSelector = Selector.open();
+        mListenChannel.register(mAcceptSelector, SelectionKey.OP_ACCEPT);
+      }
+      else
+      {
+        mListenSocket = new ServerSocket(mConfig.getPort());
+        mListenSocket.setSoTimeout(mConfig.getConnSocketTimeout());
+      }
     }
     catch (IOException e)
     {
@@ -147,6 +192,22 @@ public class KasMqServer extends AKasApp implements IMqServer
       return false;
     }
     
+    if (unixSocket != null)
+    {
+      try
+      {
+        mUnixChannel = UnixSockets.bind(unixSocket);
+        mUnixChannel.configureBlocking(false);
+        mUnixChannel.register(mAcceptSelector, SelectionKey.OP_ACCEPT);
+      }
+      catch (IOException e)
+      {
+        mStdout.error("An error occurred while trying to bind server socket with Unix domain socket: {}", unixSocket);
+        mStdout.error("Exception caught: {}",  e.getMessage());
+        return false;
+      }
+    }
+    
     init = mRepository.init();
     if (!init)
     {
@@ -168,7 +229,8 @@ public class KasMqServer extends AKasApp implements IMqServer
    * - notify remote servers of inactivation
    * - stop the housekeeper
    * - terminate server repository
-   * - closing server's listener socket
+   * - closing server's listener socket, and Unix domain socket if any
+   * - stopping the non-blocking engine, if enabled
    * - shutdown the db connection pool
    * - terminate configuration object
    * 
@@ -177,7 +239,7 @@ public class KasMqServer extends AKasApp implements IMqServer
    */
   public synchronized boolean appTerm()
   {	  
-    mNotifier.notifyServerDeactivated();	
+    mNotifier.notifyServerDeactivated(mConfig.getNotifyTimeout());	
 
     stopHouseKeeper();
 	
@@ -191,11 +253,19 @@ public class KasMqServer extends AKasApp implements IMqServer
     {
       if (mListenSocket != null)
         mListenSocket.close();
+      if (mListenChannel != null)
+        mListenChannel.close();
+      if (mUnixChannel != null)
+        UnixSockets.unbind(mUnixChannel, mConfig.getConnUnixSocket());
+      if (mAcceptSelector != null)
+        mAcceptSelector.close();
     }
     catch (IOException e)
     {
       mLogger.warn("An error occurred while trying to close server socket", e);
     }	  
+    
+    mController.term();
 
     try
     {
@@ -247,6 +317,8 @@ public class KasMqServer extends AKasApp implements IMqServer
   {
     int errors = 0;
     mStdout.info("KAS/MQ server {} available on port {}", mConfig.getManagerName(), mConfig.getPort ());
+    if (mUnixChannel != null)
+      mStdout.info("KAS/MQ server {} available on Unix domain socket {}", mConfig.getManagerName(), mConfig.getConnUnixSocket());
     
     while (!mStop)
     {
@@ -259,8 +331,15 @@ public class KasMqServer extends AKasApp implements IMqServer
       {
         try
         {
-          Socket socket = mListenSocket.accept();
-          mController.newSession(socket);
+          if (mListenChannel != null)
+          {
+            acceptChannels();
+          }
+          else
+          {
+            Socket socket = mListenSocket.accept();
+            mController.newSession(socket);
+          }
         }
         catch (SocketTimeoutException e)
         {
@@ -268,7 +347,7 @@ public class KasMqServer extends AKasApp implements IMqServer
         }
         catch (IOException e)
         {
-          if (mListenSocket.isClosed())
+          if (isListenerClosed())
           {
             stop();
             mLogger.debug("KasMqServer::run() - Socket was closed, Terminating KAS/MQ server...");
@@ -291,6 +370,53 @@ public class KasMqServer extends AKasApp implements IMqServer
     }
   }
   
+  /**
+   * Accept the connections waiting on the server channel and Unix domain socket, and hand them to the {@link SessionController},
+   * which serves them by the non-blocking engine if it's enabled, or by a session handler each otherwise.<br>
+   * If none arrive within the socket timeout, the call returns so the main loop can check whether it should stop.
+   * 
+   * @throws IOException
+   *   if the server channel or its selector were closed, or an I/O error occurs
+   */
+  private void acceptChannels() throws IOException
+  {
+    try
+    {
+      if (mAcceptSelector.select(mConfig.getConnSocketTimeout()) == 0)
+      {
+        mLogger.trace("KasMqServer::run() - Select timed out, no new connections...");
+        return;
+      }
+      mAcceptSelector.selectedKeys().clear();
+    }
+    catch (ClosedSelectorException e)
+    {
+      throw new IOException("Accept selector was closed", e);
+    }
+    
+    SocketChannel channel;
+    while ((channel = mListenChannel.accept()) != null)
+      mController.newSession(channel);
+    if (mUnixChannel != null)
+    {
+      while ((channel = mUnixChannel.accept()) != null)
+        mController.newSession(channel);
+    }
+  }
+  
+  /**
+   * Get an indication whether the server socket or channel was closed
+   * 
+   * @return
+   *   {@code true} if the listener was closed, {@code false} otherwise
+   */
+  private boolean isListenerClosed()
+  {
+    if (mListenChannel != null)
+      return !mListenChannel.isOpen();
+    return mListenSocket.isClosed();
+  }
+  
   /**
    * Stop the main loop
    */
@@ -27,6 +27,11 @@ public class MqConfiguration extends AConfiguration implements IBaseRegistrar
   static private final String  cMqConfigPrefix  = "kas.mq.";
   static private final String  cMqConnConfigPrefix        = cMqConfigPrefix + "conn.";
   static private final String  cMqHskpConfigPrefix        = cMqConfigPrefix + "hskp.";
+  static private final String  cMqJournalConfigPrefix     = cMqConfigPrefix + "journal.";
+  static private final String  cMqStoreConfigPrefix       = cMqConfigPrefix + "store.";
+  static private final String  cMqRestoreConfigPrefix     = cMqConfigPrefix + "restore.";
+  static private final String  cMqXmitConfigPrefix        = cMqConfigPrefix + "xmit.";
+  static private final String  cMqNotifyConfigPrefix      = cMqConfigPrefix + "notify.";
   static private final String  cMqRemoteConfigPrefix      = cMqConfigPrefix + "remoteManager.";
   static private final String  cMqPreDefQueueConfigPrefix = cMqConfigPrefix + "defq.";
   
@@ -39,8 +44,34 @@ public class MqConfiguration extends AConfiguration implements IBaseRegistrar
   static public final String  cDefaultDeadQueueName     = "local.dead";
   static public final int     cDefaultConnMaxErrors     = 10;
   static public final int     cDefaultConnSocketTimeout = 5000;
+  static public final String  cDefaultConnSessionThreads = "pool";
+  static public final int     cDefaultConnRequestThreads = 0;
+  static public final boolean cDefaultConnNioEnabled    = false;
+  static public final int     cDefaultConnNioIoThreads  = 0;
+  static public final int     cDefaultConnNioWorkerThreads = 0;
+  static public final String  cDefaultConnUnixSocket    = "";
+  static public final int     cDefaultConnPoolMaxPerManager = 8;
+  static public final int     cDefaultConnPoolIdleTimeout   = 300000;
+  static public final int     cDefaultConnPoolAllocTimeout  = 5000;
   static public final boolean cDefaultHskpEnabled       = true;
   static public final long    cDefaultHskpInterval      = 300000;
+  static public final boolean cDefaultJournalEnabled    = true;
+  static public final boolean cDefaultJournalSyncOnPut  = true;
+  static public final long    cDefaultJournalCommitDelay = 0;
+  static public final int     cDefaultStoreSegmentSize  = 16 * 1024 * 1024;
+  static public final int     cDefaultStoreHeapLimit    = 0;
+  static public final int     cDefaultRestoreThreads    = 0;
+  static public final boolean cDefaultRestoreLazy       = false;
+  static public final boolean cDefaultXmitEnabled       = true;
+  static public final String  cDefaultXmitQueuePrefix   = "local.xmit.";
+  static public final int     cDefaultXmitThreshold     = 100000;
+  static public final int     cDefaultXmitBatchSize     = 100;
+  static public final long    cDefaultXmitRetryInterval = 1000;
+  static public final long    cDefaultXmitMaxRetryInterval = 60000;
+  static public final long    cDefaultNotifyTimeout     = 5000;
+  static public final int     cDefaultNotifyMaxPending  = 1000;
+  static public final long    cDefaultNotifyRetryInterval = 1000;
+  static public final long    cDefaultNotifyMaxRetryInterval = 60000;
   
   /**
    * Logger
@@ -77,6 +108,52 @@ public class MqConfiguration extends AConfiguration implements IBaseRegistrar
    */
   private int mConnSocketTimeout = cDefaultConnSocketTimeout; 
   
+  /**
+   * The kind of threads blocking sessions run on: "pool", "dedicated" or "virtual"
+   */
+  private String mConnSessionThreads = cDefaultConnSessionThreads;
+  
+  /**
+   * The maximum number of platform threads running requests processed concurrently, such as waiting gets.
+   * 0 means eight per available processor
+   */
+  private int mConnRequestThreads = cDefaultConnRequestThreads;
+  
+  /**
+   * Indicator whether connections are served by the non-blocking engine rather than by a thread each
+   */
+  private boolean mConnNioEnabled = cDefaultConnNioEnabled;
+  
+  /**
+   * The number of I/O threads of the non-blocking engine. 0 means one per two available processors
+   */
+  private int mConnNioIoThreads = cDefaultConnNioIoThreads;
+  
+  /**
+   * The number of worker threads of the non-blocking engine. 0 means two per available processor
+   */
+  private int mConnNioWorkerThreads = cDefaultConnNioWorkerThreads;
+  
+  /**
+   * The path of the Unix domain socket KAS/MQ listens on in addition to its port. Empty means none
+   */
+  private String mConnUnixSocket = cDefaultConnUnixSocket;
+  
+  /**
+   * The maximum number of pooled connections to each remote KAS/MQ server
+   */
+  private int mConnPoolMaxPerManager = cDefaultConnPoolMaxPerManager;
+  
+  /**
+   * The time, in milliseconds, a pooled connection to a remote KAS/MQ server may stay idle before it's closed
+   */
+  private int mConnPoolIdleTimeout = cDefaultConnPoolIdleTimeout;
+  
+  /**
+   * The time, in milliseconds, to wait for a pooled connection to a remote KAS/MQ server when all are in use
+   */
+  private int mConnPoolAllocTimeout = cDefaultConnPoolAllocTimeout;
+  
   /**
    * Indicator whether KAS/MQ housekeeping is enabled
    */
@@ -87,6 +164,83 @@ public class MqConfiguration extends AConfiguration implements IBaseRegistrar
    */
   private long mHskpInterval = cDefaultHskpInterval; 
   
+  /**
+   * Indicator whether puts and gets to permanent queues are journaled
+   */
+  private boolean mJournalEnabled = cDefaultJournalEnabled;
+  
+  /**
+   * Indicator whether a put waits for its journal record to be forced to disk
+   */
+  private boolean mJournalSyncOnPut = cDefaultJournalSyncOnPut;
+  
+  /**
+   * The number of milliseconds a journal commit waits for more records before forcing the journal to disk
+   */
+  private long mJournalCommitDelay = cDefaultJournalCommitDelay;
+  
+  /**
+   * The size of the memory-mapped segment files holding the contents of permanent queues
+   */
+  private int mStoreSegmentSize = cDefaultStoreSegmentSize;
+  
+  /**
+   * The number of messages a permanent queue keeps on the heap before new messages are paged to its store
+   */
+  private int mStoreHeapLimit = cDefaultStoreHeapLimit;
+  
+  /**
+   * The number of threads restoring queues at startup. 0 means one per available processor
+   */
+  private int mRestoreThreads = cDefaultRestoreThreads;
+  
+  /**
+   * Indicator whether the server accepts connections before all queues are restored
+   */
+  private boolean mRestoreLazy = cDefaultRestoreLazy;
+  
+  /**
+   * Are puts to remote queues stored in transmission queues and forwarded in the background
+   */
+  private boolean mXmitEnabled = cDefaultXmitEnabled;
+  
+  /**
+   * Prefix of the transmission queue names, which end with the remote KAS/MQ server name
+   */
+  private String mXmitQueuePrefix = cDefaultXmitQueuePrefix;
+  
+  /**
+   * Threshold of each transmission queue
+   */
+  private int mXmitThreshold = cDefaultXmitThreshold;
+  
+  /**
+   * Maximum number of messages forwarded in a single request
+   */
+  private int mXmitBatchSize = cDefaultXmitBatchSize;
+  
+  /**
+   * Initial and maximum time to wait before forwarding again after a failure
+   */
+  private long mXmitRetryInterval = cDefaultXmitRetryInterval;
+  private long mXmitMaxRetryInterval = cDefaultXmitMaxRetryInterval;
+  
+  /**
+   * Time to wait for a remote KAS/MQ server to reply to a notification
+   */
+  private long mNotifyTimeout = cDefaultNotifyTimeout;
+  
+  /**
+   * Maximum number of notifications waiting to be sent to each remote KAS/MQ server
+   */
+  private int mNotifyMaxPending = cDefaultNotifyMaxPending;
+  
+  /**
+   * Initial and maximum time to wait before notifying again after a failure
+   */
+  private long mNotifyRetryInterval = cDefaultNotifyRetryInterval;
+  private long mNotifyMaxRetryInterval = cDefaultNotifyMaxRetryInterval;
+  
   /**
    * A map of remote destination managers to associated network addresses
    */
@@ -116,8 +270,34 @@ public class MqConfiguration extends AConfiguration implements IBaseRegistrar
     mDeadQueueName      = mMainConfig.getStringProperty  ( cMqConfigPrefix + "deadqName"         , mDeadQueueName     );
     mConnMaxErrors      = mMainConfig.getIntProperty     ( cMqConnConfigPrefix + "maxErrors"     , mConnMaxErrors     );
     mConnSocketTimeout  = mMainConfig.getIntProperty     ( cMqConnConfigPrefix + "socketTimeout" , mConnSocketTimeout );
+    mConnSessionThreads = mMainConfig.getStringProperty  ( cMqConnConfigPrefix + "sessionThreads", mConnSessionThreads);
+    mConnRequestThreads = mMainConfig.getIntProperty     ( cMqConnConfigPrefix + "requestThreads", mConnRequestThreads);
+    mConnNioEnabled     = mMainConfig.getBoolProperty    ( cMqConnConfigPrefix + "nio.enabled"   , mConnNioEnabled    );
+    mConnNioIoThreads   = mMainConfig.getIntProperty     ( cMqConnConfigPrefix + "nio.ioThreads" , mConnNioIoThreads  );
+    mConnNioWorkerThreads = mMainConfig.getIntProperty   ( cMqConnConfigPrefix + "nio.workerThreads", mConnNioWorkerThreads);
+    mConnUnixSocket     = mMainConfig.getStringProperty  ( cMqConnConfigPrefix + "unixSocket"    , mConnUnixSocket    );
+    mConnPoolMaxPerManager = mMainConfig.getIntProperty  ( cMqConnConfigPrefix + "pool.maxPerManager", mConnPoolMaxPerManager);
+    mConnPoolIdleTimeout   = mMainConfig.getIntProperty  ( cMqConnConfigPrefix + "pool.idleTimeout"  , mConnPoolIdleTimeout  );
+    mConnPoolAllocTimeout  = mMainConfig.getIntProperty  ( cMqConnConfigPrefix + "pool.allocTimeout" , mConnPoolAllocTimeout );
     mHskpEnabled        = mMainConfig.getBoolProperty    ( cMqHskpConfigPrefix + "enabled"       , mHskpEnabled       );
     mHskpInterval       = mMainConfig.getLongProperty    ( cMqHskpConfigPrefix + "interval"      , mHskpInterval      );
+    mJournalEnabled     = mMainConfig.getBoolProperty    ( cMqJournalConfigPrefix + "enabled"    , mJournalEnabled    );
+    mJournalSyncOnPut   = mMainConfig.getBoolProperty    ( cMqJournalConfigPrefix + "syncOnPut"  , mJournalSyncOnPut  );
+    mJournalCommitDelay = mMainConfig.getLongProperty    ( cMqJournalConfigPrefix + "commitDelay", mJournalCommitDelay);
+    mStoreSegmentSize   = mMainConfig.getIntProperty     ( cMqStoreConfigPrefix + "segmentSize"  , mStoreSegmentSize  );
+    mStoreHeapLimit     = mMainConfig.getIntProperty     ( cMqStoreConfigPrefix + "heapLimit"    , mStoreHeapLimit    );
+    mRestoreThreads     = mMainConfig.getIntProperty     ( cMqRestoreConfigPrefix + "threads"    , mRestoreThreads    );
+    mRestoreLazy        = mMainConfig.getBoolProperty    ( cMqRestoreConfigPrefix + "lazy"       , mRestoreLazy       );
+    mXmitEnabled        = mMainConfig.getBoolProperty    ( cMqXmitConfigPrefix + "enabled"       , mXmitEnabled       );
+    mXmitQueuePrefix    = mMainConfig.getStringProperty  ( cMqXmitConfigPrefix + "queuePrefix"   , mXmitQueuePrefix   );
+    mXmitThreshold      = mMainConfig.getIntProperty     ( cMqXmitConfigPrefix + "threshold"     , mXmitThreshold     );
+    mXmitBatchSize      = mMainConfig.getIntProperty     ( cMqXmitConfigPrefix + "batchSize"     , mXmitBatchSize     );
+    mXmitRetryInterval  = mMainConfig.getLongProperty    ( cMqXmitConfigPrefix + "retryInterval" , mXmitRetryInterval );
+    mXmitMaxRetryInterval = mMainConfig.getLongProperty  ( cMqXmitConfigPrefix + "maxRetryInterval", mXmitMaxRetryInterval);
+    mNotifyTimeout      = mMainConfig.getLongProperty    ( cMqNotifyConfigPrefix + "timeout"     , mNotifyTimeout     );
+    mNotifyMaxPending   = mMainConfig.getIntProperty     ( cMqNotifyConfigPrefix + "maxPending"  , mNotifyMaxPending  );
+    mNotifyRetryInterval = mMainConfig.getLongProperty   ( cMqNotifyConfigPrefix + "retryInterval", mNotifyRetryInterval);
+    mNotifyMaxRetryInterval = mMainConfig.getLongProperty( cMqNotifyConfigPrefix + "maxRetryInterval", mNotifyMaxRetryInterval);
     
     refreshRemoteManagersMap();
     refreshPredefQueuesMap();
@@ -266,6 +446,106 @@ public class MqConfiguration extends AConfiguration implements IBaseRegistrar
     return mConnSocketTimeout;
   }
   
+  /**
+   * Get the kind of threads blocking sessions run on
+   * 
+   * @return
+   *   "pool" for the shared thread pool, "dedicated" for a platform thread per session,
+   *   or "virtual" for a virtual thread per session
+   */
+  public String getConnSessionThreads()
+  {
+    return mConnSessionThreads;
+  }
+  
+  /**
+   * Get the maximum number of platform threads running requests processed concurrently
+   * 
+   * @return
+   *   the number of threads, or 0 for eight per available processor
+   */
+  public int getConnRequestThreads()
+  {
+    return mConnRequestThreads;
+  }
+  
+  /**
+   * Get whether connections are served by the non-blocking engine
+   * 
+   * @return
+   *   {@code true} if the non-blocking engine is enabled, {@code false} if each connection gets a thread
+   */
+  public boolean isConnNioEnabled()
+  {
+    return mConnNioEnabled;
+  }
+  
+  /**
+   * Get the number of I/O threads of the non-blocking engine
+   * 
+   * @return
+   *   the number of I/O threads, or 0 for one per two available processors
+   */
+  public int getConnNioIoThreads()
+  {
+    return mConnNioIoThreads;
+  }
+  
+  /**
+   * Get the number of worker threads of the non-blocking engine
+   * 
+   * @return
+   *   the number of worker threads, or 0 for two per available processor
+   */
+  public int getConnNioWorkerThreads()
+  {
+    return mConnNioWorkerThreads;
+  }
+  
+  /**
+   * Gets the path of the Unix domain socket KAS/MQ listens on in addition to its port
+   * 
+   * @return
+   *   the socket file path, or an empty string if KAS/MQ listens only on its port
+   */
+  public String getConnUnixSocket()
+  {
+    return mConnUnixSocket;
+  }
+  
+  /**
+   * Gets the maximum number of pooled connections to each remote KAS/MQ server
+   * 
+   * @return
+   *   the maximum number of pooled connections to each remote KAS/MQ server
+   */
+  public int getConnPoolMaxPerManager()
+  {
+    return mConnPoolMaxPerManager;
+  }
+  
+  /**
+   * Gets the time a pooled connection to a remote KAS/MQ server may stay idle before it's closed
+   * 
+   * @return
+   *   the idle timeout, in milliseconds
+   */
+  public int getConnPoolIdleTimeout()
+  {
+    return mConnPoolIdleTimeout;
+  }
+  
+  /**
+   * Gets the time to wait for a pooled connection to a remote KAS/MQ server when all are in use
+   * 
+   * @return
+   *   the allocation timeout, in milliseconds
+   */
+  public int getConnPoolAllocTimeout()
+  {
+    return mConnPoolAllocTimeout;
+  }
+  
   /**
    * Get whether the KAS/MQ housekeeping is enabled or disabled
    * 
@@ -288,6 +568,209 @@ public class MqConfiguration extends AConfiguration implements IBaseRegistrar
     return mHskpInterval;
   }
   
+  /**
+   * Get whether puts and gets to permanent queues are journaled
+   * 
+   * @return
+   *   {@code true} if journaling is enabled, {@code false} otherwise
+   */
+  public boolean isJournalEnabled()
+  {
+    return mJournalEnabled;
+  }
+  
+  /**
+   * Get whether a put waits for its journal record to be forced to disk
+   * 
+   * @return
+   *   {@code true} if puts wait for the journal commit, {@code false} otherwise
+   */
+  public boolean isJournalSyncOnPut()
+  {
+    return mJournalSyncOnPut;
+  }
+  
+  /**
+   * Get the number of milliseconds a journal commit waits for more records before forcing the journal to disk
+   * 
+   * @return
+   *   the journal commit delay in milliseconds
+   */
+  public long getJournalCommitDelay()
+  {
+    return mJournalCommitDelay;
+  }
+  
+  /**
+   * Get the size of the memory-mapped segment files holding the contents of permanent queues
+   * 
+   * @return
+   *   the segment size in bytes
+   */
+  public int getStoreSegmentSize()
+  {
+    return mStoreSegmentSize;
+  }
+  
+  /**
+   * Get the number of messages a permanent queue keeps on the heap before new messages are paged to its store
+   * 
+   * @return
+   *   the heap limit, or 0 if messages are never paged
+   */
+  public int getStoreHeapLimit()
+  {
+    return mStoreHeapLimit;
+  }
+  
+  /**
+   * Get the number of threads restoring queues at startup
+   * 
+   * @return
+   *   the number of restore threads, or 0 for one per available processor
+   */
+  public int getRestoreThreads()
+  {
+    return mRestoreThreads;
+  }
+  
+  /**
+   * Get whether the server accepts connections before all queues are restored
+   * 
+   * @return
+   *   {@code true} if queues are restored in the background, {@code false} otherwise
+   */
+  public boolean isRestoreLazy()
+  {
+    return mRestoreLazy;
+  }
+  
+  /**
+   * Get whether puts to remote queues are stored in transmission queues and forwarded in the background
+   * 
+   * @return
+   *   {@code true} if transmission queues are enabled, {@code false} if puts to remote queues are forwarded right away
+   */
+  public boolean isXmitEnabled()
+  {
+    return mXmitEnabled;
+  }
+  
+  /**
+   * Get the name of the transmission queue of a remote KAS/MQ server
+   * 
+   * @param manager
+   *   The name of the remote KAS/MQ server
+   * @return
+   *   the transmission queue name
+   */
+  public String getXmitQueueName(String manager)
+  {
+    return mXmitQueuePrefix + manager;
+  }
+  
+  /**
+   * Get whether a queue name is reserved for a transmission queue.<br>
+   * Queue names are case insensitive, so the prefix is matched regardless of case.
+   * 
+   * @param name
+   *   The queue name
+   * @return
+   *   {@code true} if {@code name} begins with the transmission queue prefix, {@code false} otherwise
+   */
+  public boolean isXmitQueueName(String name)
+  {
+    return (name != null) && name.toUpperCase().startsWith(mXmitQueuePrefix.toUpperCase());
+  }
+  
+  /**
+   * Get the threshold of each transmission queue
+   * 
+   * @return
+   *   the transmission queue threshold
+   */
+  public int getXmitThreshold()
+  {
+    return mXmitThreshold;
+  }
+  
+  /**
+   * Get the maximum number of messages forwarded to a remote KAS/MQ server in a single request
+   * 
+   * @return
+   *   the forwarding batch size
+   */
+  public int getXmitBatchSize()
+  {
+    return mXmitBatchSize;
+  }
+  
+  /**
+   * Get the time to wait before forwarding again after the first failure. It doubles with each further failure
+   * 
+   * @return
+   *   the initial retry interval in milliseconds
+   */
+  public long getXmitRetryInterval()
+  {
+    return mXmitRetryInterval;
+  }
+  
+  /**
+   * Get the maximum time to wait before forwarding again after a failure
+   * 
+   * @return
+   *   the maximum retry interval in milliseconds
+   */
+  public long getXmitMaxRetryInterval()
+  {
+    return mXmitMaxRetryInterval;
+  }
+  
+  /**
+   * Get the time to wait for a remote KAS/MQ server to reply to a notification before giving up on the connection
+   * 
+   * @return
+   *   the notification timeout in milliseconds
+   */
+  public long getNotifyTimeout()
+  {
+    return mNotifyTimeout;
+  }
+  
+  /**
+   * Get the maximum number of notifications waiting to be sent to each remote KAS/MQ server
+   * 
+   * @return
+   *   the maximum number of pending notifications
+   */
+  public int getNotifyMaxPending()
+  {
+    return mNotifyMaxPending;
+  }
+  
+  /**
+   * Get the time to wait before notifying again after the first failure. It doubles with each further failure
+   * 
+   * @return
+   *   the initial retry interval in milliseconds
+   */
+  public long getNotifyRetryInterval()
+  {
+    return mNotifyRetryInterval;
+  }
+  
+  /**
+   * Get the maximum time to wait before notifying again after a failure
+   * 
+   * @return
+   *   the maximum retry interval in milliseconds
+   */
+  public long getNotifyMaxRetryInterval()
+  {
+    return mNotifyMaxRetryInterval;
+  }
+  
   /**
    * Get the remote managers map
    * 
@@ -330,11 +813,47 @@ public class MqConfiguration extends AConfiguration implements IBaseRegistrar
       .append(pad).append("  Connection Settings=(\n")
       .append(pad).append("    MaxErrors=").append(mConnMaxErrors).append("\n")
       .append(pad).append("    Timeout=").append(mConnSocketTimeout).append("\n")
+      .append(pad).append("    SessionThreads=").append(mConnSessionThreads).append("\n")
+      .append(pad).append("    RequestThreads=").append(mConnRequestThreads).append("\n")
+      .append(pad).append("    NioEnabled=").append(mConnNioEnabled).append("\n")
+      .append(pad).append("    NioIoThreads=").append(mConnNioIoThreads).append("\n")
+      .append(pad).append("    NioWorkerThreads=").append(mConnNioWorkerThreads).append("\n")
+      .append(pad).append("    UnixSocket=").append(mConnUnixSocket).append("\n")
+      .append(pad).append("    PoolMaxPerManager=").append(mConnPoolMaxPerManager).append("\n")
+      .append(pad).append("    PoolIdleTimeout=").append(mConnPoolIdleTimeout).append("\n")
+      .append(pad).append("    PoolAllocTimeout=").append(mConnPoolAllocTimeout).append("\n")
       .append(pad).append("  )\n")
       .append(pad).append("  Housekeeper=(\n")
       .append(pad).append("    Enabled=").append(mHskpEnabled).append("\n")
       .append(pad).append("    Interval=").append(mHskpInterval).append(" milliseconds\n")
       .append(pad).append("  )\n")
+      .append(pad).append("  Journal=(\n")
+      .append(pad).append("    Enabled=").append(mJournalEnabled).append("\n")
+      .append(pad).append("    SyncOnPut=").append(mJournalSyncOnPut).append("\n")
+      .append(pad).append("    CommitDelay=").append(mJournalCommitDelay).append(" milliseconds\n")
+      .append(pad).append("  )\n")
+      .append(pad).append("  Store=(\n")
+      .append(pad).append("    SegmentSize=").append(mStoreSegmentSize).append(" bytes\n")
+      .append(pad).append("    HeapLimit=").append(mStoreHeapLimit).append("\n")
+      .append(pad).append("  )\n")
+      .append(pad).append("  Restore=(\n")
+      .append(pad).append("    Threads=").append(mRestoreThreads).append("\n")
+      .append(pad).append("    Lazy=").append(mRestoreLazy).append("\n")
+      .append(pad).append("  )\n")
+      .append(pad).append("  Transmission=(\n")
+      .append(pad).append("    Enabled=").append(mXmitEnabled).append("\n")
+      .append(pad).append("    QueuePrefix=").append(mXmitQueuePrefix).append("\n")
+      .append(pad).append("    Threshold=").append(mXmitThreshold).append("\n")
+      .append(pad).append("    BatchSize=").append(mXmitBatchSize).append("\n")
+      .append(pad).append("    RetryInterval=").append(mXmitRetryInterval).append(" milliseconds\n")
+      .append(pad).append("    MaxRetryInterval=").append(mXmitMaxRetryInterval).append(" milliseconds\n")
+      .append(pad).append("  )\n")
+      .append(pad).append("  Notification=(\n")
+      .append(pad).append("    Timeout=").append(mNotifyTimeout).append(" milliseconds\n")
+      .append(pad).append("    MaxPending=").append(mNotifyMaxPending).append("\n")
+      .append(pad).append("    RetryInterval=").append(mNotifyRetryInterval).append(" milliseconds\n")
+      .append(pad).append("    MaxRetryInterval=").append(mNotifyMaxRetryInterval).append(" milliseconds\n")
+      .append(pad).append("  )\n")
       .append(pad).append("  RemoteManagers=(\n")
       .append(StringUtils.asPrintableString(mRemoteManagersMap, level+2)).append("\n")
       .append(pad).append("  )\n")
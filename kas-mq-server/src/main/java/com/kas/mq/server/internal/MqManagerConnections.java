@@ -0,0 +1,348 @@
+package com.kas.mq.server.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqManager;
+
+/**
+ * The pooled connections of a {@link MqServerConnectionPool} to one remote KAS/MQ server.<br>
+ * <br>
+ * Connections are logged in when they're opened, and kept open between uses, so a remote put or get costs
+ * a single request-reply exchange. At most {@link #mMaxConnections} are open at any time, idle or in use, and callers
+ * wait for one to be released when all of them are in use.<br>
+ * <br>
+ * A connection is checked when it's taken from the idle ones and when it's released: it's closed rather than reused
+ * if it was disconnected, e.g. by the remote server going down, or if it stayed idle longer than {@link #mIdleTimeout}.
+ * 
+ * @author Pippo
+ */
+class MqManagerConnections extends AKasObject
+{
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The pool that owns the connections
+   */
+  private MqServerConnectionPool mPool;
+  
+  /**
+   * The remote server
+   */
+  private String mName;
+  private String mHost;
+  private int mPort;
+  
+  /**
+   * Maximum number of open connections, idle timeout and allocation timeout, in milliseconds
+   */
+  private int mMaxConnections;
+  private long mIdleTimeout;
+  private long mAllocTimeout;
+  
+  /**
+   * The idle connections, most recently released first, and the times they were released
+   */
+  private ArrayDeque<MqServerConnection> mIdle = new ArrayDeque<MqServerConnection>();
+  private ArrayDeque<Long> mIdleSince = new ArrayDeque<Long>();
+  
+  /**
+   * The number of open connections, idle, in use or being opened
+   */
+  private int mOpen = 0;
+  
+  /**
+   * Set once the connections were closed, so released ones are not kept
+   */
+  private boolean mClosed = false;
+  
+  /**
+   * Construct the connections to a remote KAS/MQ server
+   * 
+   * @param pool
+   *   The pool that owns the connections
+   * @param manager
+   *   The {@link MqManager} of the remote server
+   * @param maxConnections
+   *   The maximum number of open connections
+   * @param idleTimeout
+   *   The time, in milliseconds, a connection may stay idle before it's closed
+   * @param allocTimeout
+   *   The time, in milliseconds, to wait for a connection when all are in use
+   */
+  MqManagerConnections(MqServerConnectionPool pool, MqManager manager, int maxConnections, long idleTimeout, long allocTimeout)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mPool = pool;
+    mName = manager.getName();
+    mHost = manager.getHost();
+    mPort = manager.getPort();
+    mMaxConnections = Math.max(1, maxConnections);
+    mIdleTimeout = idleTimeout;
+    mAllocTimeout = allocTimeout;
+  }
+  
+  /**
+   * Get an indication whether the connections are to the specified server
+   * 
+   * @param manager
+   *   The {@link MqManager} of the remote server
+   * @return
+   *   {@code true} if the connections are to the server's host and port, {@code false} otherwise
+   */
+  boolean isFor(MqManager manager)
+  {
+    return mHost.equals(manager.getHost()) && (mPort == manager.getPort());
+  }
+  
+  /**
+   * Take a connection: an idle one if there is, otherwise a new one if fewer than the maximum are open,
+   * otherwise wait for one to be released
+   * 
+   * @return
+   *   a connected and logged in connection, or {@code null} if none could be opened, or none was released in time
+   */
+  MqServerConnection acquire()
+  {
+    mLogger.trace("MqManagerConnections::acquire() - IN, Manager={}", mName);
+    
+    List<MqServerConnection> stale = new ArrayList<MqServerConnection>();
+    MqServerConnection conn = null;
+    boolean open = false;
+    
+    synchronized (this)
+    {
+      long deadline = System.currentTimeMillis() + mAllocTimeout;
+      while ((conn == null) && (!open) && (!mClosed))
+      {
+        long now = System.currentTimeMillis();
+        while ((conn == null) && (!mIdle.isEmpty()))
+        {
+          MqServerConnection idle = mIdle.pollFirst();
+          long since = mIdleSince.pollFirst();
+          if (idle.isConnected() && (now - since < mIdleTimeout))
+          {
+            conn = idle;
+          }
+          else
+          {
+            stale.add(idle);
+            --mOpen;
+          }
+        }
+        
+        if ((conn == null) && (mOpen < mMaxConnections))
+        {
+          ++mOpen;
+          open = true;
+        }
+        else if (conn == null)
+        {
+          long remaining = deadline - now;
+          if (remaining <= 0)
+            break;
+          try
+          {
+            wait(remaining);
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      }
+    }
+    
+    closeAll(stale);
+    
+    if (open)
+      conn = connect();
+    
+    if (conn == null)
+      mLogger.debug("MqManagerConnections::acquire() - No connection to {} is available", mName);
+    
+    mLogger.trace("MqManagerConnections::acquire() - OUT");
+    return conn;
+  }
+  
+  /**
+   * Open a new connection and log it in, after a slot was reserved for it
+   * 
+   * @return
+   *   the connection, or {@code null} if it could not be connected or logged in
+   */
+  private MqServerConnection connect()
+  {
+    MqServerConnection conn = mPool.allocate();
+    conn.connect(mHost, mPort);
+    if (conn.isConnected() && conn.login(IMqConstants.cSystemUserName, IMqConstants.cSystemPassWord))
+    {
+      mLogger.debug("MqManagerConnections::connect() - Opened connection {} to {}", conn.getConnectionId(), mName);
+      return conn;
+    }
+    
+    mLogger.debug("MqManagerConnections::connect() - Failed to open connection to {}: {}", mName, conn.getResponse());
+    mPool.discard(conn);
+    synchronized (this)
+    {
+      --mOpen;
+      notifyAll();
+    }
+    return null;
+  }
+  
+  /**
+   * Return a connection, keeping it for the next caller if it's still connected
+   * 
+   * @param conn
+   *   A connection previously taken by {@link #acquire()}
+   */
+  void release(MqServerConnection conn)
+  {
+    boolean keep = conn.isConnected();
+    synchronized (this)
+    {
+      keep = keep && !mClosed;
+      if (keep)
+      {
+        mIdle.addFirst(conn);
+        mIdleSince.addFirst(System.currentTimeMillis());
+      }
+      else
+      {
+        --mOpen;
+      }
+      notifyAll();
+    }
+    
+    if (!keep)
+      mPool.discard(conn);
+  }
+  
+  /**
+   * Remove an idle connection, e.g. one that is being terminated
+   * 
+   * @param conn
+   *   The connection
+   * @return
+   *   {@code true} if the connection was idle, {@code false} if it's in use or not one of these connections
+   */
+  synchronized boolean remove(MqServerConnection conn)
+  {
+    Iterator<MqServerConnection> iconn = mIdle.iterator();
+    Iterator<Long> isince = mIdleSince.iterator();
+    while (iconn.hasNext())
+    {
+      isince.next();
+      if (iconn.next() == conn)
+      {
+        iconn.remove();
+        isince.remove();
+        --mOpen;
+        notifyAll();
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Close the connections that stayed idle longer than the idle timeout, or were disconnected
+   * 
+   * @return
+   *   the number of connections closed
+   */
+  int evictIdle()
+  {
+    List<MqServerConnection> stale = new ArrayList<MqServerConnection>();
+    synchronized (this)
+    {
+      long now = System.currentTimeMillis();
+      Iterator<MqServerConnection> iconn = mIdle.iterator();
+      Iterator<Long> isince = mIdleSince.iterator();
+      while (iconn.hasNext())
+      {
+        MqServerConnection conn = iconn.next();
+        long since = isince.next();
+        if ((!conn.isConnected()) || (now - since >= mIdleTimeout))
+        {
+          iconn.remove();
+          isince.remove();
+          stale.add(conn);
+          --mOpen;
+        }
+      }
+      if (!stale.isEmpty())
+        notifyAll();
+    }
+    
+    closeAll(stale);
+    return stale.size();
+  }
+  
+  /**
+   * Close the idle connections, and the ones in use once they're released
+   */
+  void close()
+  {
+    List<MqServerConnection> idle;
+    synchronized (this)
+    {
+      mClosed = true;
+      idle = new ArrayList<MqServerConnection>(mIdle);
+      mOpen -= mIdle.size();
+      mIdle.clear();
+      mIdleSince.clear();
+      notifyAll();
+    }
+    
+    closeAll(idle);
+  }
+  
+  /**
+   * Close connections
+   * 
+   * @param conns
+   *   The connections
+   */
+  private void closeAll(List<MqServerConnection> conns)
+  {
+    for (MqServerConnection conn : conns)
+    {
+      mLogger.debug("MqManagerConnections::closeAll() - Closing connection {} to {}", conn.getConnectionId(), mName);
+      mPool.discard(conn);
+    }
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public synchronized String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Manager=").append(mName).append('@').append(mHost).append(':').append(mPort).append("\n")
+      .append(pad).append("  Open=").append(mOpen).append("\n")
+      .append(pad).append("  Idle=").append(mIdle.size()).append("\n")
+      .append(pad).append("  MaxConnections=").append(mMaxConnections).append("\n")
+      .append(pad).append("  Closed=").append(mClosed).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
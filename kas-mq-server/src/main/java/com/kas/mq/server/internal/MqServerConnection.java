@@ -1,14 +1,24 @@
 package com.kas.mq.server.internal;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import com.kas.infra.base.TimeStamp;
 import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.internal.IMqConstants;
 import com.kas.mq.internal.MqContextConnection;
 import com.kas.mq.internal.MqRequestFactory;
 
 /**
  * A {@link MqServerConnection} is an extended {@link MqContextConnection} used by server side.
- * It enhances the functionality provided by {@link MqContextConnection} by adding two more functions
+ * It enhances the functionality provided by {@link MqContextConnection} by adding functions
  * for notifying remote KAS/MQ servers that a server has changed its state from active to inactive
- * (or vice versa) or that the local server's repository was updated (defined/deleted queue).
+ * (or vice versa) or that the local server's repository was updated (defined/deleted queue),
+ * and for synchronizing queue directories with them.<br>
+ * <br>
+ * Any of these requests can also be sent with {@link #requestReply(IMqMessage, long)}, which gives up
+ * on the reply after a timeout, so an unresponsive remote server does not hold the sender indefinitely.
  * 
  * @author Pippo
  */
@@ -65,4 +75,99 @@ public class MqServerConnection extends MqContextConnection
     mLogger.trace("MqServerConnection::notifyRepoUpdate() - OUT");
     return success;
   }
+  
+  /**
+   * Notify remote KAS/MQ server that the sender updated its repository
+   * 
+   * @param qmgr
+   *   The name of the KAS/MQ server whose repository was updated
+   * @param queue
+   *   The name of the queue that was subject to update
+   * @param added
+   *   If {@code true}, the queue was added, else it was removed
+   * @param epoch
+   *   The epoch of the sender's queue directory
+   * @param sequence
+   *   The sequence number of the update in the sender's queue directory
+   * @return
+   *   {@code true} if remote KAS/MQ server was successfully notified, otherwise {@code false}
+   */
+  public boolean notifyRepoUpdate(String qmgr, String queue, boolean added, long epoch, long sequence)
+  {
+    mLogger.trace("MqServerConnection::notifyRepoUpdate() - IN");
+    
+    IMqMessage request = MqRequestFactory.createRepositoryUpdateMessage(qmgr, queue, added, epoch, sequence);
+    boolean success = requestReplyAndAnalyze(request);
+    
+    mLogger.trace("MqServerConnection::notifyRepoUpdate() - OUT");
+    return success;
+  }
+  
+  /**
+   * Synchronize queue directories with remote KAS/MQ server
+   * 
+   * @param request
+   *   The repository synchronization request, holding the sender's view of the receiver's queue directory,
+   *   and possibly the changes to the sender's queue directory
+   * @return
+   *   the reply message from the receiver, or {@code null} if no reply was received
+   */
+  public IMqMessage notifyRepoSync(IMqMessage request)
+  {
+    mLogger.trace("MqServerConnection::notifyRepoSync() - IN");
+    
+    IMqMessage reply = requestReply(request);
+    
+    mLogger.trace("MqServerConnection::notifyRepoSync() - OUT");
+    return reply;
+  }
+  
+  /**
+   * Send an administrative request to KAS/MQ server, waiting a limited time for its reply.<br>
+   * If the reply does not arrive in time, the connection should no longer be used, as the reply
+   * may still arrive later.
+   * 
+   * @param request
+   *   The request message
+   * @param timeout
+   *   The time, in milliseconds, to wait for the reply
+   * @return
+   *   the reply message from the receiver, or {@code null} if no reply was received in time
+   */
+  public IMqMessage requestReply(IMqMessage request, long timeout)
+  {
+    mLogger.trace("MqServerConnection::requestReply() - IN, Timeout=" + timeout);
+    
+    IMqMessage reply = null;
+    if (!isConnected())
+    {
+      logErrorAndSetResponse("Not connected to host");
+    }
+    else
+    {
+      setPutProperties(request, IMqConstants.cAdminQueueName, TimeStamp.now().toString());
+      CompletableFuture<IMqMessage> future = sendAsync(request);
+      try
+      {
+        reply = future.get(timeout, TimeUnit.MILLISECONDS);
+        setResponse(reply.getResponse().getDesc());
+      }
+      catch (TimeoutException e)
+      {
+        logErrorAndSetResponse("No reply from remote host within " + timeout + " milliseconds");
+      }
+      catch (ExecutionException e)
+      {
+        logErrorAndSetResponse("Connection to remote host was lost while waiting for a reply");
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        logErrorAndSetResponse("Interrupted while waiting for a reply");
+      }
+    }
+    
+    mLogger.trace("MqServerConnection::requestReply() - OUT");
+    return reply;
+  }
 }
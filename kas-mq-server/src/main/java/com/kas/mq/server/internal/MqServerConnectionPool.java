@@ -13,9 +13,22 @@ import com.kas.infra.base.UniqueId;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.internal.IMqConnectionPool;
 import com.kas.mq.internal.MqConnection;
+import com.kas.mq.internal.MqManager;
+import com.kas.mq.server.KasMqEmbeddedServer;
+import com.kas.mq.server.KasMqServer;
+import com.kas.mq.server.MqConfiguration;
 
 /**
- * Not really a pool, just a class that keeps track of all allocated connections
+ * The connections of the KAS/MQ server to other KAS/MQ servers.<br>
+ * <br>
+ * Connections used to put to and get from remote queues, and to notify remote servers, are pooled per remote server by {@link #allocate(MqManager)}:
+ * they're logged in once, kept open between uses, and bounded in number by
+ * {@link MqConfiguration#getConnPoolMaxPerManager()}. Other connections, e.g. ones used to stop a server,
+ * are allocated by {@link #allocate()}, connected by their user, and closed once released.
+ * The pool keeps track of all of them, so they can be queried and terminated.<br>
+ * <br>
+ * A {@link KasMqServer} uses the {@link #getInstance() singleton} pool, while each
+ * {@link KasMqEmbeddedServer} constructs its own, so servers sharing a JVM keep their settings and connections apart.
  * 
  * @author Pippo
  */
@@ -52,14 +65,45 @@ public class MqServerConnectionPool extends AKasObject implements IMqConnectionP
   private Map<UniqueId, MqServerConnection> mConnections = new ConcurrentHashMap<UniqueId, MqServerConnection>();
   
   /**
-   * Private constructor
+   * Pooled connections by the name of the remote server they connect to
    */
-  private MqServerConnectionPool()
+  private Map<String, MqManagerConnections> mManagers = new ConcurrentHashMap<String, MqManagerConnections>();
+  
+  /**
+   * The pooled connections each pooled connection belongs to, by the connection's ID
+   */
+  private Map<UniqueId, MqManagerConnections> mOwners = new ConcurrentHashMap<UniqueId, MqManagerConnections>();
+  
+  /**
+   * Maximum number of pooled connections per remote server, idle timeout and allocation timeout, in milliseconds
+   */
+  private int mMaxPerManager = MqConfiguration.cDefaultConnPoolMaxPerManager;
+  private long mIdleTimeout = MqConfiguration.cDefaultConnPoolIdleTimeout;
+  private long mAllocTimeout = MqConfiguration.cDefaultConnPoolAllocTimeout;
+  
+  /**
+   * Construct a pool, with the default limits until it's {@link #configure(MqConfiguration) configured}
+   */
+  public MqServerConnectionPool()
   {
     mLogger = LogManager.getLogger(getClass());
     mSequence = new Sequence();
   }
   
+  /**
+   * Set the limits of pooled connections from the configuration.<br>
+   * The limits apply to remote servers connected to from now on.
+   * 
+   * @param config
+   *   The KAS/MQ server's configuration
+   */
+  public void configure(MqConfiguration config)
+  {
+    mMaxPerManager = config.getConnPoolMaxPerManager();
+    mIdleTimeout = config.getConnPoolIdleTimeout();
+    mAllocTimeout = config.getConnPoolAllocTimeout();
+  }
+  
   /**
    * Allocate a new {@link MqServerConnection}
    * 
@@ -80,7 +124,51 @@ public class MqServerConnectionPool extends AKasObject implements IMqConnectionP
   }
   
   /**
-   * Release the specified connection
+   * Allocate a pooled connection to a remote KAS/MQ server, which is already connected and logged in.<br>
+   * If all the server's pooled connections are in use, the call waits for one to be released.
+   * 
+   * @param manager
+   *   The {@link MqManager} of the remote server
+   * @return
+   *   the connection, or {@code null} if none could be connected, or none was released in time
+   */
+  public MqServerConnection allocate(MqManager manager)
+  {
+    mLogger.trace("MqServerConnectionPool::allocate() - IN, Manager=" + manager);
+    
+    MqManagerConnections conns = getManagerConnections(manager);
+    MqServerConnection conn = conns.acquire();
+    if (conn != null)
+      mOwners.put(conn.getConnectionId(), conns);
+    
+    mLogger.trace("MqServerConnectionPool::allocate() - OUT");
+    return conn;
+  }
+  
+  /**
+   * Get the pooled connections to a remote KAS/MQ server, replacing them if the server moved to another host or port
+   * 
+   * @param manager
+   *   The {@link MqManager} of the remote server
+   * @return
+   *   the pooled connections
+   */
+  private synchronized MqManagerConnections getManagerConnections(MqManager manager)
+  {
+    MqManagerConnections conns = mManagers.get(manager.getName());
+    if ((conns == null) || (!conns.isFor(manager)))
+    {
+      if (conns != null)
+        conns.close();
+      conns = new MqManagerConnections(this, manager, mMaxPerManager, mIdleTimeout, mAllocTimeout);
+      mManagers.put(manager.getName(), conns);
+    }
+    return conns;
+  }
+  
+  /**
+   * Release the specified connection.<br>
+   * A pooled connection is kept for the next caller if it's still connected. Any other connection is closed.
    * 
    * @param conn
    *   {@link MqServerConnection} to be released
@@ -89,13 +177,85 @@ public class MqServerConnectionPool extends AKasObject implements IMqConnectionP
   {
     mLogger.trace("MqServerConnectionPool::release() - IN");
     
-    mConnections.remove(conn.getConnectionId());
-    conn.disconnect();
+    MqManagerConnections conns = mOwners.get(conn.getConnectionId());
+    if (conns != null)
+    {
+      conns.release((MqServerConnection)conn);
+    }
+    else
+    {
+      mConnections.remove(conn.getConnectionId());
+      conn.disconnect();
+    }
     conn = null;
     
     mLogger.trace("MqServerConnectionPool::release() - OUT");
   }
   
+  /**
+   * Terminate the specified connection, whether it's pooled or not.<br>
+   * A pooled connection that is in use is closed, and dropped from the pool once it's released.
+   * 
+   * @param conn
+   *   {@link MqServerConnection} to be terminated
+   */
+  public void terminate(MqServerConnection conn)
+  {
+    mLogger.trace("MqServerConnectionPool::terminate() - IN");
+    
+    MqManagerConnections conns = mOwners.get(conn.getConnectionId());
+    if ((conns == null) || (conns.remove(conn)))
+      discard(conn);
+    else
+      conn.disconnect();
+    
+    mLogger.trace("MqServerConnectionPool::terminate() - OUT");
+  }
+  
+  /**
+   * Close a connection and stop keeping track of it
+   * 
+   * @param conn
+   *   The connection
+   */
+  void discard(MqServerConnection conn)
+  {
+    mOwners.remove(conn.getConnectionId());
+    mConnections.remove(conn.getConnectionId());
+    conn.disconnect();
+  }
+  
+  /**
+   * Close the pooled connections to a remote KAS/MQ server, e.g. once it was deactivated
+   * 
+   * @param manager
+   *   The {@link MqManager} of the remote server
+   */
+  public synchronized void close(MqManager manager)
+  {
+    mLogger.trace("MqServerConnectionPool::close() - IN, Manager=" + manager);
+    
+    MqManagerConnections conns = mManagers.remove(manager.getName());
+    if (conns != null)
+      conns.close();
+    
+    mLogger.trace("MqServerConnectionPool::close() - OUT");
+  }
+  
+  /**
+   * Close the pooled connections that stayed idle longer than the idle timeout, or were lost
+   * 
+   * @return
+   *   the number of connections closed
+   */
+  public int evictIdle()
+  {
+    int total = 0;
+    for (MqManagerConnections conns : mManagers.values())
+      total += conns.evictIdle();
+    return total;
+  }
+  
   /**
    * Release the connection associated with the specified {@code id}
    * 
@@ -120,6 +280,13 @@ public class MqServerConnectionPool extends AKasObject implements IMqConnectionP
   {
     mLogger.trace("MqServerConnectionPool::shutdown() - IN");
     
+    synchronized (this)
+    {
+      for (MqManagerConnections conns : mManagers.values())
+        conns.close();
+      mManagers.clear();
+    }
+    
     Collection<MqServerConnection> col = mConnections.values();
     for (Iterator<MqServerConnection> iter = col.iterator(); iter.hasNext();)
     {
@@ -131,6 +298,7 @@ public class MqServerConnectionPool extends AKasObject implements IMqConnectionP
     }
     
     mConnections.clear();
+    mOwners.clear();
     
     mLogger.trace("MqServerConnectionPool::shutdown() - OUT");
   }
@@ -181,6 +349,7 @@ public class MqServerConnectionPool extends AKasObject implements IMqConnectionP
     StringBuilder sb = new StringBuilder();
     sb.append(name()).append("(\n")
       .append(pad).append("  Connections=(").append(StringUtils.asPrintableString(mConnections, level+2)).append(")\n")
+      .append(pad).append("  Managers=(").append(StringUtils.asPrintableString(mManagers, level+2)).append(")\n")
       .append(pad).append(")");
     return sb.toString();
   }
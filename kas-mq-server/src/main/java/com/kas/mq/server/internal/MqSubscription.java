@@ -0,0 +1,127 @@
+package com.kas.mq.server.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.UniqueId;
+import com.kas.mq.internal.MqLocalQueue;
+
+/**
+ * A {@link MqSubscription} is a session's standing request to have the messages of a queue pushed to it.<br>
+ * <br>
+ * Messages are pushed only while the subscription has credit. Each pushed message uses up one unit of credit,
+ * and the client grants more as it processes the messages it received.
+ * 
+ * @author Pippo
+ */
+public class MqSubscription extends AKasObject
+{
+  /**
+   * The subscription ID
+   */
+  private UniqueId mId;
+  
+  /**
+   * The subscribed queue
+   */
+  private MqLocalQueue mQueue;
+  
+  /**
+   * The number of messages that may be pushed before the client grants more credit
+   */
+  private AtomicInteger mCredit;
+  
+  /**
+   * The number of messages pushed so far
+   */
+  private AtomicInteger mDelivered = new AtomicInteger(0);
+  
+  /**
+   * Construct a {@link MqSubscription}
+   * 
+   * @param queue
+   *   The subscribed queue
+   * @param credit
+   *   The initial credit
+   */
+  MqSubscription(MqLocalQueue queue, int credit)
+  {
+    mId = UniqueId.generate();
+    mQueue = queue;
+    mCredit = new AtomicInteger(credit);
+  }
+  
+  /**
+   * Get the subscription ID
+   * 
+   * @return
+   *   the subscription ID
+   */
+  public UniqueId getId()
+  {
+    return mId;
+  }
+  
+  /**
+   * Get the subscribed queue
+   * 
+   * @return
+   *   the subscribed queue
+   */
+  public MqLocalQueue getQueue()
+  {
+    return mQueue;
+  }
+  
+  /**
+   * Get the remaining credit
+   * 
+   * @return
+   *   the number of messages that may still be pushed
+   */
+  public int getCredit()
+  {
+    return mCredit.get();
+  }
+  
+  /**
+   * Grant more credit
+   * 
+   * @param credit
+   *   The number of additional messages that may be pushed
+   */
+  public void grant(int credit)
+  {
+    mCredit.addAndGet(credit);
+  }
+  
+  /**
+   * Account for a pushed message
+   */
+  public void delivered()
+  {
+    mCredit.decrementAndGet();
+    mDelivered.incrementAndGet();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Id=").append(mId).append("\n")
+      .append(pad).append("  Queue=").append(mQueue.getName()).append("\n")
+      .append(pad).append("  Credit=").append(mCredit.get()).append("\n")
+      .append(pad).append("  Delivered=").append(mDelivered.get()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,233 @@
+package com.kas.mq.server.internal;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.AKasRunnable;
+
+/**
+ * A {@link NioReactor} is an I/O thread of the {@link NioSessionEngine}.<br>
+ * <br>
+ * It waits on a {@link Selector} for any of its sessions' channels to become readable or writable,
+ * and lets the session read or write whatever it can without blocking. Changes to a key's interest set
+ * are requested by other threads and applied by the reactor itself.
+ * 
+ * @author Pippo
+ */
+public class NioReactor extends AKasRunnable
+{
+  /**
+   * The maximum number of milliseconds a select call waits before checking whether the reactor was stopped
+   */
+  static private final long cSelectTimeout = 1000L;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The reactor's selector
+   */
+  private Selector mSelector;
+  
+  /**
+   * Sessions waiting to be registered with the selector
+   */
+  private ConcurrentLinkedQueue<NioSession> mRegistrations = new ConcurrentLinkedQueue<NioSession>();
+  
+  /**
+   * Sessions whose interest set should be updated
+   */
+  private ConcurrentLinkedQueue<NioSession> mUpdates = new ConcurrentLinkedQueue<NioSession>();
+  
+  /**
+   * Construct a {@link NioReactor}
+   * 
+   * @throws IOException
+   *   if the selector could not be opened
+   */
+  NioReactor() throws IOException
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mSelector = Selector.open();
+  }
+  
+  /**
+   * Register a session's channel with the reactor
+   * 
+   * @param session
+   *   The session
+   */
+  void register(NioSession session)
+  {
+    mRegistrations.add(session);
+    mSelector.wakeup();
+  }
+  
+  /**
+   * Request the reactor to update a session's interest set, e.g. since it has frames waiting to be written
+   * 
+   * @param session
+   *   The session
+   */
+  void update(NioSession session)
+  {
+    mUpdates.add(session);
+    mSelector.wakeup();
+  }
+  
+  /**
+   * Get the number of channels registered with the reactor
+   * 
+   * @return
+   *   the number of channels
+   */
+  int size()
+  {
+    return mSelector.keys().size();
+  }
+  
+  /**
+   * Keep selecting and serving ready channels until stopped
+   */
+  public void run()
+  {
+    mLogger.trace("NioReactor::run() - IN");
+    
+    while (!isStopped())
+    {
+      try
+      {
+        mSelector.select(cSelectTimeout);
+        registerPending();
+        updatePending();
+        
+        Iterator<SelectionKey> iter = mSelector.selectedKeys().iterator();
+        while (iter.hasNext())
+        {
+          SelectionKey key = iter.next();
+          iter.remove();
+          
+          NioSession session = (NioSession)key.attachment();
+          if (key.isValid() && key.isWritable())
+            session.flush();
+          if (key.isValid() && key.isReadable())
+            session.read();
+        }
+      }
+      catch (IOException e)
+      {
+        mLogger.error("An I/O error occurred while selecting ready channels. Exception: ", e);
+        stop();
+      }
+      catch (Throwable e)
+      {
+        mLogger.error("An unknown exception caught while serving ready channels. Exception: ", e);
+      }
+    }
+    
+    closeAll();
+    mLogger.trace("NioReactor::run() - OUT");
+  }
+  
+  /**
+   * Register the channels of sessions added since the last select
+   */
+  private void registerPending()
+  {
+    NioSession session;
+    while ((session = mRegistrations.poll()) != null)
+    {
+      try
+      {
+        SelectionKey key = session.getChannel().register(mSelector, SelectionKey.OP_READ, session);
+        session.setKey(key);
+        session.updateInterest();
+      }
+      catch (ClosedChannelException e)
+      {
+        session.cleanup();
+      }
+    }
+  }
+  
+  /**
+   * Update the interest sets of sessions whose state changed since the last select
+   */
+  private void updatePending()
+  {
+    NioSession session;
+    while ((session = mUpdates.poll()) != null)
+      session.updateInterest();
+  }
+  
+  /**
+   * Close all sessions served by the reactor, and the selector
+   */
+  private void closeAll()
+  {
+    List<NioSession> sessions = new ArrayList<NioSession>();
+    for (SelectionKey key : mSelector.keys())
+      sessions.add((NioSession)key.attachment());
+    NioSession session;
+    while ((session = mRegistrations.poll()) != null)
+      sessions.add(session);
+    
+    for (NioSession s : sessions)
+      s.cleanup();
+    
+    try
+    {
+      mSelector.close();
+    }
+    catch (IOException e) {}
+  }
+  
+  /**
+   * Get an indication whether the reactor was stopped
+   * 
+   * @return
+   *   {@code true} if the reactor was stopped, {@code false} otherwise
+   */
+  private synchronized boolean isStopped()
+  {
+    return mStop;
+  }
+  
+  /**
+   * Stop the reactor. Its sessions are closed once the current select returns
+   */
+  public synchronized void stop()
+  {
+    super.stop();
+    mSelector.wakeup();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Stopped=").append(mStop).append("\n")
+      .append(pad).append("  Channels=").append(mSelector.isOpen() ? size() : 0).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
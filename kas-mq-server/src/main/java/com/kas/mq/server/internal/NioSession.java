@@ -0,0 +1,590 @@
+package com.kas.mq.server.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.comm.IMessenger;
+import com.kas.comm.IPacket;
+import com.kas.comm.impl.NetworkAddress;
+import com.kas.comm.impl.PacketCodec;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.KasException;
+import com.kas.infra.base.KeyDictionary;
+import com.kas.mq.server.IController;
+import com.kas.mq.server.IRepository;
+
+/**
+ * A {@link NioSession} is a client connection served by the {@link NioSessionEngine}.<br>
+ * <br>
+ * The session's {@link NioReactor} reads whatever bytes arrive on the non-blocking channel, cuts them into
+ * {@link PacketCodec} frames and queues the decoded packets. A worker thread then runs the session, passing
+ * the queued packets one at a time to its {@link SessionHandler}, so requests of a session are still processed
+ * in order, except for those the handler processes {@link SessionRequest concurrently}, but no thread is held
+ * by a session that has nothing to process. While the handler waits for a request on another thread, the session
+ * is {@link #park() parked}: it holds no worker, and its requests stay queued until it's {@link #unpark() unparked}.<br>
+ * <br>
+ * The session is also the handler's {@link IMessenger}: replies and pushed messages are written to the channel
+ * right away if it can take them, and the rest is left for the reactor to write when the channel becomes writable.<br>
+ * <br>
+ * A frame that does not fit the input buffer is read into a direct buffer of its own, which is never reused,
+ * so the large message bodies decoded as views of it stay valid and off the heap. Frames are written with
+ * gather writes, so such bodies are sent straight from the buffer they are in. The handler keeps frames
+ * small until the client logs in, so no such buffer is allocated for a peer that did not authenticate.<br>
+ * <br>
+ * Once the client sent a frame with its property keys as {@link KeyDictionary} IDs, the session sends its own
+ * property keys the same way. Frames are encoded under the output lock, so they are written in the order
+ * their keys were added to the dictionary.
+ * 
+ * @author Pippo
+ */
+public class NioSession extends AKasObject implements IMessenger, Runnable
+{
+  /**
+   * The size of the input buffer. Larger frames are read into a direct buffer of their own.
+   * Message bodies are decoded as views only if they are larger than this, so never as views of the input buffer
+   */
+  static private final int cInputBufferSize = 8 * 1024;
+  
+  /**
+   * The number of queued requests at which the reactor stops reading from the channel until the worker catches up
+   */
+  static private final int cMaxQueuedRequests = 32;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The engine and the reactor serving the session
+   */
+  private NioSessionEngine mEngine;
+  private NioReactor mReactor;
+  
+  /**
+   * The channel, and its key with the reactor's selector
+   */
+  private SocketChannel mChannel;
+  private volatile SelectionKey mKey;
+  
+  /**
+   * Remote address
+   */
+  private NetworkAddress mAddress;
+  
+  /**
+   * The handler processing the session's requests
+   */
+  private SessionHandler mHandler;
+  
+  /**
+   * Bytes read from the channel that were not decoded yet
+   */
+  private ByteBuffer mInput = ByteBuffer.allocate(cInputBufferSize);
+  
+  /**
+   * Decoded requests waiting for the worker, whether the session was handed to a worker, whether it's parked
+   * until a request processed on another thread is done, and whether reading was suspended since too many requests are waiting
+   */
+  private ArrayDeque<IPacket> mRequests = new ArrayDeque<IPacket>();
+  private boolean mScheduled = false;
+  private boolean mParked = false;
+  private boolean mReadSuspended = false;
+  
+  /**
+   * The header of the frame being decoded
+   */
+  private byte [] mHeader = new byte [PacketCodec.cHeaderLength];
+  
+  /**
+   * The maximum payload length of received frames
+   */
+  private volatile int mMaxPayloadLength = PacketCodec.cMaxPayloadLength;
+  
+  /**
+   * The dictionaries of property keys received and sent. Keys are sent in full until the client sends keys as IDs
+   */
+  private KeyDictionary mInputKeys = new KeyDictionary();
+  private KeyDictionary mOutputKeys = null;
+  
+  /**
+   * Frames waiting for the channel to become writable, each as the buffers of a gather write
+   */
+  private ArrayDeque<ByteBuffer []> mOutput = new ArrayDeque<ByteBuffer []>();
+  
+  /**
+   * Set once the session is closed
+   */
+  private volatile boolean mClosed = false;
+  
+  /**
+   * Construct a {@link NioSession}
+   * 
+   * @param channel
+   *   The accepted channel
+   * @param engine
+   *   The engine serving the session
+   * @param reactor
+   *   The reactor reading from the channel
+   * @param controller
+   *   The {@link IController}
+   * @param repository
+   *   The {@link IRepository}
+   * @throws IOException
+   *   if the channel is closed
+   */
+  NioSession(SocketChannel channel, NioSessionEngine engine, NioReactor reactor, IController controller, IRepository repository) throws IOException
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mChannel = channel;
+    mEngine = engine;
+    mReactor = reactor;
+    mAddress = new NetworkAddress(channel);
+    mHandler = new SessionHandler(this, controller, repository);
+  }
+  
+  /**
+   * Get the session's handler
+   * 
+   * @return
+   *   the session's handler
+   */
+  SessionHandler getHandler()
+  {
+    return mHandler;
+  }
+  
+  /**
+   * Get the session's channel
+   * 
+   * @return
+   *   the session's channel
+   */
+  SocketChannel getChannel()
+  {
+    return mChannel;
+  }
+  
+  /**
+   * Set the session's key with the reactor's selector. Called by the reactor once the channel was registered
+   * 
+   * @param key
+   *   The selection key
+   */
+  void setKey(SelectionKey key)
+  {
+    mKey = key;
+  }
+  
+  /**
+   * Read what is available on the channel and queue the complete requests.<br>
+   * Called by the reactor when the channel is readable.
+   */
+  void read()
+  {
+    try
+    {
+      int count = mChannel.read(mInput);
+      if (count < 0)
+      {
+        mLogger.info("Connection to remote host at {} was lost", mAddress);
+        cleanup();
+        return;
+      }
+      
+      decode();
+    }
+    catch (IOException e)
+    {
+      mLogger.info("Connection to remote host at {} was lost", mAddress);
+      cleanup();
+    }
+    catch (KasException e)
+    {
+      mLogger.warn("An error occurred while trying to read packet from remote host at {}. Exception: ", mAddress, e);
+      cleanup();
+    }
+  }
+  
+  /**
+   * Decode all complete frames in the input buffer, and hand the session to a worker if requests were queued
+   * 
+   * @throws KasException
+   *   if a frame is not valid
+   */
+  private void decode() throws KasException
+  {
+    mInput.flip();
+    int required = 0;
+    int decoded = 0;
+    
+    while (mInput.remaining() >= PacketCodec.cHeaderLength)
+    {
+      int start = mInput.position();
+      mInput.get(mHeader);
+      mInput.position(start);
+      int length = PacketCodec.decodeHeader(mHeader, 0, mMaxPayloadLength);
+      int frame = PacketCodec.cHeaderLength + length;
+      if (mInput.remaining() < frame)
+      {
+        required = frame;
+        break;
+      }
+      
+      ByteBuffer payload = mInput.duplicate();
+      payload.position(start + PacketCodec.cHeaderLength);
+      payload.limit(start + frame);
+      IPacket packet = PacketCodec.decode(payload, PacketCodec.isKeyed(mHeader, 0) ? mInputKeys : null);
+      mInput.position(start + frame);
+      if (packet == null)
+      {
+        mLogger.debug("NioSession::decode() - Packet with an unknown class ID was ignored");
+      }
+      else
+      {
+        packet.setRequestId(PacketCodec.decodeRequestId(mHeader, 0));
+        synchronized (this)
+        {
+          mRequests.add(packet);
+        }
+        ++decoded;
+      }
+    }
+    
+    if ((mInput.isDirect() && (mInput.position() > 0)) || (required > mInput.capacity()))
+    {
+      // packets may hold views of a decoded frame buffer, so the bytes left are moved to a new buffer rather than compacted
+      ByteBuffer input = required > cInputBufferSize ? ByteBuffer.allocateDirect(required) : ByteBuffer.allocate(cInputBufferSize);
+      input.put(mInput);
+      mInput = input;
+    }
+    else
+    {
+      mInput.compact();
+    }
+    
+    if (decoded > 0)
+      schedule();
+  }
+  
+  /**
+   * Hand the session to a worker, unless it already has one.<br>
+   * Reading is suspended while too many requests are waiting, so a client can't queue requests faster than they are processed.
+   */
+  private void schedule()
+  {
+    boolean execute = false;
+    boolean suspend = false;
+    synchronized (this)
+    {
+      if (!mScheduled && !mParked)
+      {
+        mScheduled = true;
+        execute = true;
+      }
+      if (!mReadSuspended && (mRequests.size() >= cMaxQueuedRequests))
+      {
+        mReadSuspended = true;
+        suspend = true;
+      }
+    }
+    
+    if (suspend)
+      updateInterest();
+    if (execute)
+      mEngine.execute(this);
+  }
+  
+  /**
+   * Stop processing the session's requests until {@link #unpark()} is called.<br>
+   * Called by the worker running the session, which releases the session once the current request was dispatched.
+   */
+  synchronized void park()
+  {
+    mParked = true;
+  }
+  
+  /**
+   * Resume processing the session's requests, handing the session to a worker if requests are waiting
+   */
+  void unpark()
+  {
+    boolean execute = false;
+    synchronized (this)
+    {
+      mParked = false;
+      if (!mScheduled && !mRequests.isEmpty())
+      {
+        mScheduled = true;
+        execute = true;
+      }
+    }
+    
+    if (execute)
+      mEngine.execute(this);
+  }
+  
+  /**
+   * Run a short task of the session, such as a pass of its {@link SessionPusher}, on a worker thread
+   * 
+   * @param task
+   *   The task
+   */
+  void execute(Runnable task)
+  {
+    mEngine.execute(task);
+  }
+  
+  /**
+   * Process the queued requests, one at a time, until none are left or the session is parked.<br>
+   * Executed by a worker thread.
+   */
+  public void run()
+  {
+    while (!mClosed)
+    {
+      IPacket packet;
+      boolean resume = false;
+      synchronized (this)
+      {
+        packet = mParked ? null : mRequests.poll();
+        if (packet == null)
+        {
+          mScheduled = false;
+          return;
+        }
+        if (mReadSuspended && (mRequests.size() <= cMaxQueuedRequests / 2))
+        {
+          mReadSuspended = false;
+          resume = true;
+        }
+      }
+      
+      if (resume)
+        mReactor.update(this);
+      
+      try
+      {
+        if (!mHandler.dispatch(packet))
+          cleanup();
+      }
+      catch (IOException e)
+      {
+        mLogger.info("Connection to remote host at {} was lost", mAddress);
+        cleanup();
+      }
+      catch (Throwable e)
+      {
+        mLogger.error("An unknown exception caught while processing client requests. Exception: ", e);
+        cleanup();
+      }
+    }
+  }
+  
+  /**
+   * Write the frames waiting for the channel, as long as it takes them.<br>
+   * Called by the reactor when the channel is writable.
+   */
+  void flush()
+  {
+    try
+    {
+      synchronized (mOutput)
+      {
+        while (!mOutput.isEmpty())
+        {
+          ByteBuffer [] buffers = mOutput.peek();
+          mChannel.write(buffers);
+          if (buffers[buffers.length - 1].hasRemaining())
+            break;
+          mOutput.poll();
+        }
+      }
+      updateInterest();
+    }
+    catch (IOException e)
+    {
+      mLogger.info("Connection to remote host at {} was lost", mAddress);
+      cleanup();
+    }
+  }
+  
+  /**
+   * Set the operations the reactor waits for according to the session's state.<br>
+   * Called by the reactor thread only.
+   */
+  void updateInterest()
+  {
+    SelectionKey key = mKey;
+    if ((key == null) || !key.isValid())
+      return;
+    
+    int ops = 0;
+    synchronized (this)
+    {
+      if (!mReadSuspended)
+        ops |= SelectionKey.OP_READ;
+    }
+    synchronized (mOutput)
+    {
+      if (!mOutput.isEmpty())
+        ops |= SelectionKey.OP_WRITE;
+    }
+    key.interestOps(ops);
+  }
+  
+  /**
+   * Get the messenger connectivity status
+   * 
+   * @return
+   *   {@code true} if connected, {@code false} otherwise
+   */
+  public boolean isConnected()
+  {
+    return !mClosed && mChannel.isOpen();
+  }
+  
+  /**
+   * Get the messenger remote address
+   * 
+   * @return
+   *   the {@link NetworkAddress} that represents the remote host
+   */
+  public NetworkAddress getAddress()
+  {
+    return mAddress;
+  }
+  
+  /**
+   * Send a {@link IPacket} object.<br>
+   * The frame is written right away as far as the channel takes it. The rest is written by the reactor.<br>
+   * Large values spliced into the frame are written as they are, without copying them.
+   * 
+   * @param packet
+   *   The packet to send
+   * @throws IOException
+   *   if the session is closed or an I/O error occurs
+   */
+  public void send(IPacket packet) throws IOException
+  {
+    boolean pending = false;
+    synchronized (mOutput)
+    {
+      if (mClosed)
+        throw new IOException("Session with remote host at " + mAddress + " is closed");
+      
+      if ((mOutputKeys == null) && mInputKeys.isActive())
+        mOutputKeys = new KeyDictionary();
+      ByteBuffer [] buffers = PacketCodec.encode(packet, mOutputKeys).toByteBuffers();
+      
+      if (mOutput.isEmpty())
+        mChannel.write(buffers);
+      if (buffers[buffers.length - 1].hasRemaining())
+      {
+        pending = mOutput.isEmpty();
+        mOutput.add(buffers);
+      }
+    }
+    
+    if (pending)
+      mReactor.update(this);
+  }
+  
+  /**
+   * Packets of a {@link NioSession} are read by its reactor, so they cannot be received directly
+   * 
+   * @return
+   *   nothing
+   * @throws IOException
+   *   always
+   */
+  public IPacket receive() throws IOException
+  {
+    throw new IOException("Packets of a non-blocking session are delivered by its reactor");
+  }
+  
+  /**
+   * Packets of a {@link NioSession} are read by its reactor, so they cannot be received directly
+   * 
+   * @param request
+   *   A request packet
+   * @return
+   *   nothing
+   * @throws IOException
+   *   always
+   */
+  public IPacket sendAndReceive(IPacket request) throws IOException
+  {
+    throw new IOException("Packets of a non-blocking session are delivered by its reactor");
+  }
+  
+  /**
+   * Limit the payload length of the frames decoded from now on
+   * 
+   * @param length
+   *   The maximum payload length
+   */
+  public void setMaxPayloadLength(int length)
+  {
+    mMaxPayloadLength = length;
+  }
+  
+  /**
+   * Close the session: close the channel, drop what was not sent yet and let the handler end
+   */
+  public void cleanup()
+  {
+    synchronized (mOutput)
+    {
+      if (mClosed)
+        return;
+      mClosed = true;
+      mOutput.clear();
+    }
+    
+    mLogger.trace("NioSession::cleanup() - Closing channel to remote host at {}", mAddress);
+    try
+    {
+      mChannel.close();
+    }
+    catch (IOException e) {}
+    
+    mHandler.close();
+  }
+  
+  /**
+   * Return the string representation.
+   * 
+   * @return
+   *   the string representation
+   */
+  public String toString()
+  {
+    return mAddress.toString();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Host=").append(mAddress.getHost()).append("\n")
+      .append(pad).append("  Port=").append(mAddress.getPort()).append("\n")
+      .append(pad).append("  Closed=").append(mClosed).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,163 @@
+package com.kas.mq.server.internal;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.comm.impl.UnixSockets;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.KasRunnableThread;
+import com.kas.infra.base.threads.KasThreadFactory;
+import com.kas.infra.utils.StringUtils;
+import com.kas.mq.server.IController;
+import com.kas.mq.server.IRepository;
+
+/**
+ * A {@link NioSessionEngine} serves client connections with non-blocking channels.<br>
+ * <br>
+ * Accepted channels are spread over a few {@link NioReactor I/O threads}, each multiplexing its channels
+ * with a selector, and requests are processed by a fixed pool of worker threads. A connection holds a thread
+ * only while it has requests to process, so the number of connections is not bounded by the number of threads.
+ * 
+ * @author Pippo
+ */
+public class NioSessionEngine extends AKasObject
+{
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The sessions controller
+   */
+  private IController mController;
+  
+  /**
+   * The server's repository
+   */
+  private IRepository mRepository;
+  
+  /**
+   * The I/O threads, and the index of the one that gets the next channel
+   */
+  private NioReactor [] mReactors;
+  private AtomicInteger mNextReactor = new AtomicInteger(0);
+  
+  /**
+   * Worker threads processing requests
+   */
+  private ExecutorService mWorkers;
+  
+  /**
+   * Construct a {@link NioSessionEngine} and start its threads
+   * 
+   * @param controller
+   *   The {@link IController}
+   * @param repository
+   *   The {@link IRepository}
+   * @param ioThreads
+   *   The number of I/O threads. 0 means one per two available processors
+   * @param workerThreads
+   *   The number of worker threads. 0 means two per available processor
+   * @throws IOException
+   *   if a selector could not be opened
+   */
+  NioSessionEngine(IController controller, IRepository repository, int ioThreads, int workerThreads) throws IOException
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mController = controller;
+    mRepository = repository;
+    
+    int processors = Runtime.getRuntime().availableProcessors();
+    if (ioThreads <= 0)
+      ioThreads = Math.max(1, processors / 2);
+    if (workerThreads <= 0)
+      workerThreads = 2 * processors;
+    
+    mReactors = new NioReactor [ioThreads];
+    for (int i = 0; i < ioThreads; ++i)
+      mReactors[i] = new NioReactor();
+    for (int i = 0; i < ioThreads; ++i)
+    {
+      KasRunnableThread thread = new KasRunnableThread("KasNioReactor-" + (i + 1), mReactors[i]);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    
+    mWorkers = Executors.newFixedThreadPool(workerThreads, new KasThreadFactory("KasNioWorker"));
+    mLogger.debug("NioSessionEngine::NioSessionEngine() - Started {} I/O threads and {} worker threads", ioThreads, workerThreads);
+  }
+  
+  /**
+   * Start serving a new connection
+   * 
+   * @param channel
+   *   The accepted channel
+   * @return
+   *   the {@link SessionHandler} of the new session
+   * @throws IOException
+   *   if the channel could not be set to non-blocking mode
+   */
+  SessionHandler newSession(SocketChannel channel) throws IOException
+  {
+    channel.configureBlocking(false);
+    if (!UnixSockets.isUnixChannel(channel))
+      channel.socket().setTcpNoDelay(true);
+    
+    NioReactor reactor = mReactors[(mNextReactor.getAndIncrement() & Integer.MAX_VALUE) % mReactors.length];
+    NioSession session = new NioSession(channel, this, reactor, mController, mRepository);
+    SessionHandler handler = session.getHandler();
+    handler.open();
+    reactor.register(session);
+    return handler;
+  }
+  
+  /**
+   * Hand a session with queued requests, or another short task of a session, to a worker thread
+   * 
+   * @param task
+   *   The session or task
+   */
+  void execute(Runnable task)
+  {
+    mWorkers.execute(task);
+  }
+  
+  /**
+   * Stop the I/O threads, closing all connections, and the worker threads
+   */
+  void shutdown()
+  {
+    mLogger.trace("NioSessionEngine::shutdown() - IN");
+    
+    for (NioReactor reactor : mReactors)
+      reactor.stop();
+    mWorkers.shutdown();
+    
+    mLogger.trace("NioSessionEngine::shutdown() - OUT");
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Reactors=(").append(StringUtils.asPrintableString(Arrays.asList(mReactors), level+2)).append(")\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
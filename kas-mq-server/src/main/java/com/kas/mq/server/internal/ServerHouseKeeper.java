@@ -15,7 +15,9 @@ import com.kas.mq.server.repo.ServerRepository;
  * scheduled for execution at a fixed rate to perform some housekeeping tasks.<br>
  * <br>
  * Housekeeping tasks include:<br>
- * 1. Expiring old messages
+ * 1. Expiring old messages<br>
+ * 2. Checkpointing queue contents to the file system<br>
+ * 3. Synchronizing queue directories with remote servers, to catch changes whose notification was missed
  * 
  * @author Pippo
  */
@@ -31,6 +33,11 @@ public class ServerHouseKeeper extends AKasRunnable
    */
   private IRepository mRepository;
   
+  /**
+   * Notifier, synchronizing queue directories with remote servers
+   */
+  private ServerNotifier mNotifier;
+  
   /**
    * Construct the {@link ServerHouseKeeper}, passing it the {@link IController}
    * and the {@link ServerRepository}
@@ -42,6 +49,7 @@ public class ServerHouseKeeper extends AKasRunnable
   {
     mLogger = LogManager.getLogger(getClass());
     mRepository = repository;
+    mNotifier = new ServerNotifier(repository);
   }
   
   /**
@@ -49,7 +57,10 @@ public class ServerHouseKeeper extends AKasRunnable
    * First we scan all client handlers and check if any of them have finished their executions.
    * If a finished handler is found, remove it from the map.<br>
    * Secondly, the admin task goes over all defined queues and expires messages which
-   * their expiration date has already passed.
+   * their expiration date has already passed, and then writes a checkpoint of each queue, so a crash
+   * loses no more than what was put since the last run.<br>
+   * Then, pooled connections to remote servers that stayed idle too long are closed.<br>
+   * Finally, queue directories are synchronized with active remote servers.
    * 
    * @see java.lang.Runnable#run()
    */
@@ -66,6 +77,18 @@ public class ServerHouseKeeper extends AKasRunnable
       mLogger.trace("ServerHouseKeeper::run() - Expiring messages in destination {}:", dest.getName());
       int exp = dest.expire();
       mLogger.trace("ServerHouseKeeper::run() - Total messages expired: {}", exp);
+      
+      boolean cp = dest.checkpoint();
+      mLogger.trace("ServerHouseKeeper::run() - Checkpoint of destination {} {}", dest.getName(), (cp ? "succeeded" : "failed"));
+    }
+    
+    int closed = mRepository.getConnectionPool().evictIdle();
+    mLogger.trace("ServerHouseKeeper::run() - Idle connections to remote servers closed: {}", closed);
+    
+    if (!mStop)
+    {
+      mLogger.trace("ServerHouseKeeper::run() - Synchronizing queue directories...");
+      mNotifier.synchronize();
     }
     
     mLogger.trace("ServerHouseKeeper::run() - OUT");
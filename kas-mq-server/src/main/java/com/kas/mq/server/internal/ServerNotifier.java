@@ -5,16 +5,22 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.kas.infra.base.AKasObject;
 import com.kas.infra.base.IObject;
-import com.kas.infra.typedef.StringList;
-import com.kas.mq.impl.messages.IMqMessage;
-import com.kas.mq.internal.IMqConstants;
 import com.kas.mq.internal.MqRequestFactory;
 import com.kas.mq.server.IRepository;
+import com.kas.mq.server.repo.MqQueueDirectory;
 import com.kas.mq.server.repo.MqRemoteManager;
 
 /**
  * The {@link ServerNotifier} responsible for broadcasting messages
- * to remote KAS/MQ servers regarding the local KAS/MQ server state.
+ * to remote KAS/MQ servers regarding the local KAS/MQ server state.<br>
+ * <br>
+ * It also synchronizes queue directories with remote KAS/MQ servers. Each side sends the changes to its
+ * {@link MqQueueDirectory} since the version the other side last saw, so servers that are mostly in sync
+ * exchange a few names, or none at all, rather than the full list of queues.<br>
+ * <br>
+ * Messages are posted to the notification outbox of each {@link MqRemoteManager}, and sent to all remote
+ * servers in parallel, in the background. A remote server that cannot be reached or is slow to reply
+ * does not delay the local server, nor the notification of other remote servers.
  * 
  * @author Pippo
  */
@@ -30,11 +36,6 @@ public class ServerNotifier extends AKasObject
    */
   private IRepository mRepository;
   
-  /**
-   * Connection pool
-   */
-  private MqServerConnectionPool mPool;
-  
   /**
    * Construct a {@link ServerNotifier server notifier}, specifying the {@link IRepository}
    * 
@@ -45,31 +46,24 @@ public class ServerNotifier extends AKasObject
   {
     mLogger = LogManager.getLogger(getClass());
     mRepository = repository;
-    mPool = MqServerConnectionPool.getInstance();
   }
   
   /**
    * Notify remote KAS/MQ servers that this KAS/MQ server was activated.<br>
-   * We include in the notification message the list of local queues so the receiver
-   * of the message can add and make them available for its clients.
+   * Once a server was notified, queue directories are synchronized with it, so the receiver
+   * of the message can add the local queues and make them available for its clients.<br>
+   * <br>
+   * The notifications are sent in the background, so this method returns right away.
    */
   public void notifyServerActivated()
   {
     mLogger.trace("ServerNotifier::notifyServerActivated() - IN");
     
     String qmgr = mRepository.getLocalManager().getName();
-    IMqMessage message = MqRequestFactory.createSystemStateMessage(qmgr, true);
-    
-    StringList qlist = mRepository.queryLocalQueues("", true, false);
-    message.setStringProperty(IMqConstants.cKasPropertySyssQueueList, qlist.toString());
-    
-    try
+    for (MqRemoteManager remoteManager : mRepository.getRemoteManagers())
     {
-      notify(message, true);
-    }
-    catch (Throwable e)
-    {
-      mLogger.warn("Failed to notify remote KAS/MQ servers on server activation");
+      remoteManager.postNotification(MqRequestFactory.createSystemStateMessage(qmgr, true));
+      remoteManager.requestSync();
     }
     
     mLogger.trace("ServerNotifier::notifyServerActivated() - OUT");
@@ -79,74 +73,51 @@ public class ServerNotifier extends AKasObject
    * Notify remote KAS/MQ servers that this KAS/MQ server was deactivated.<br>
    * We include in the notification message the list of session IDs so the receiver
    * of the message can terminate these sessions from its side, thus making it easier
-   * on this server to terminate gracefully.
+   * on this server to terminate gracefully.<br>
+   * <br>
+   * The notifications are sent to all remote servers in parallel, and this method waits for them
+   * to be sent, but no longer than {@code timeout} milliseconds altogether.
+   * 
+   * @param timeout
+   *   The maximum time, in milliseconds, to wait for the notifications to be sent
    */
-  public void notifyServerDeactivated()
+  public void notifyServerDeactivated(long timeout)
   {
-    mLogger.trace("ServerNotifier::notifyServerDeactivated() - IN");
+    mLogger.trace("ServerNotifier::notifyServerDeactivated() - IN, Timeout={}", timeout);
     
     String qmgr = mRepository.getLocalManager().getName();
-    IMqMessage message = MqRequestFactory.createSystemStateMessage(qmgr, false);
+    Collection<MqRemoteManager> remoteManagers = mRepository.getRemoteManagers();
+    for (MqRemoteManager remoteManager : remoteManagers)
+      remoteManager.postNotification(MqRequestFactory.createSystemStateMessage(qmgr, false));
     
-    try
-    {
-      notify(message, false);
-    }
-    catch (Throwable e)
+    long deadline = System.currentTimeMillis() + timeout;
+    for (MqRemoteManager remoteManager : remoteManagers)
     {
-      mLogger.warn("Failed to notify remote KAS/MQ servers on server deactivation");
+      if (!remoteManager.flushNotifications(deadline))
+        mLogger.warn("Failed to notify remote KAS/MQ server {} on server deactivation", remoteManager.getName());
     }
     
     mLogger.trace("ServerNotifier::notifyServerDeactivated() - OUT");
   }
   
   /**
-   * Send the specified message to remote KAS/MQ servers.<br>
-   * Note that since the sent message is a notification message (this is not verified),
-   * the queue name is not tested because the {@link SessionHandler} will handle the message
-   * prior to assuming it should be put into a queue.
-   * 
-   * @param message
-   *   The {@link IMqMessage} that will be sent to each and every remote address
-   * @return
-   *   the reply message received from receiver 
+   * Synchronize queue directories with all active remote KAS/MQ servers.<br>
+   * When both sides are in sync, this takes a single request and reply, without any queue names,
+   * so it's cheap enough to run periodically and catch changes whose notification was missed.<br>
+   * <br>
+   * The synchronization is done in the background, so this method returns right away.
    */
-  private void notify(IMqMessage message, boolean activate)
+  public void synchronize()
   {
-    mLogger.trace("ServerNotifier::notify() - IN");
+    mLogger.trace("ServerNotifier::synchronize() - IN");
     
-    Collection<MqRemoteManager> remoteManagers = mRepository.getRemoteManagers();
-    for (MqRemoteManager remoteManager : remoteManagers)
+    for (MqRemoteManager remoteManager : mRepository.getRemoteManagers())
     {
-      String name = remoteManager.getName();
-      String host = remoteManager.getHost();
-      int port = remoteManager.getPort();
-      
-      mLogger.trace("ServerNotifier::notify() - Notifying KAS/MQ server \"" + name + "\" (" + host + ':' + port + ") on server state change");
-      MqServerConnection conn = mPool.allocate();
-      
-      conn.connect(host, port);
-      if (conn.isConnected())
-      {
-        boolean logged = conn.login(IMqConstants.cSystemUserName, IMqConstants.cSystemPassWord);
-        if (!logged) throw new IllegalStateException("Failed to login to remote KAS/MQ server at " + host + ':' + port);
-        
-        IMqMessage reply = conn.notifySysState(message);
-        
-        String remoteQueues = reply.getStringProperty(IMqConstants.cKasPropertySyssQueueList, null);
-        if (remoteQueues != null)
-        {
-          StringList remoteQueueList = StringList.fromString(remoteQueues);
-          remoteManager.setQueues(remoteQueueList);
-        }
-        
-        conn.disconnect();
-      }
-      
-      mPool.release(conn);
+      if (remoteManager.isActive())
+        remoteManager.requestSync();
     }
     
-    mLogger.trace("ServerNotifier::notify() - OUT");
+    mLogger.trace("ServerNotifier::synchronize() - OUT");
   }
   
   /**
@@ -2,21 +2,24 @@ package com.kas.mq.server.internal;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import com.kas.comm.IMessenger;
 import com.kas.comm.impl.NetworkAddress;
 import com.kas.infra.base.AKasObject;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.UniqueId;
-import com.kas.infra.base.threads.ThreadPool;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.server.IController;
 import com.kas.mq.server.IMqServer;
 import com.kas.mq.server.IRepository;
+import com.kas.mq.server.KasMqEmbeddedServer;
 import com.kas.mq.server.MqConfiguration;
+import com.kas.sec.entities.UserEntity;
 
 /**
  * A {@link SessionController} is the object that supervises and manage all {@link SessionHandler}.
@@ -51,6 +54,16 @@ public class SessionController extends AKasObject implements IController
    */
   private IMqServer mServer;
   
+  /**
+   * Runs blocking session handlers
+   */
+  private SessionExecutor mExecutor;
+  
+  /**
+   * The engine serving non-blocking connections, if enabled
+   */
+  private NioSessionEngine mEngine = null;
+  
   /**
    * Constructs a {@link SessionController} which is basically the object that supervises active sessions
    * 
@@ -65,13 +78,15 @@ public class SessionController extends AKasObject implements IController
     mServer = server;
     mConfig = mServer.getConfig();
     mRepository = mServer.getRepository();
+    mExecutor = new SessionExecutor(mConfig.getConnSessionThreads(), mConfig.getConnRequestThreads());
   }
   
   /**
    * Create a new session handler.<br>
    * This method actually creates a new {@link SessionHandler} object that will handle incoming traffic
    * from the {@code socket} and responds, if needed, over it.<br> 
-   * Once created, the {@link SessionHandler} is then sent for execution on a different thread.
+   * Once created, the {@link SessionHandler} is then sent for execution on a different thread,
+   * chosen by the {@link SessionExecutor} according to the configured session threads mode.
    * 
    * @param socket
    *   the session's socket
@@ -87,7 +102,82 @@ public class SessionController extends AKasObject implements IController
     String remoteAddress = new NetworkAddress(socket).toString();
     
     logBoth("New connection accepted from {}", remoteAddress);
-    ThreadPool.execute(handler);
+    mExecutor.execute(handler);
+  }
+  
+  /**
+   * Start the {@link NioSessionEngine} serving the connections accepted as non-blocking channels
+   * 
+   * @throws IOException
+   *   if the engine's selectors could not be opened
+   */
+  public void startEngine() throws IOException
+  {
+    mLogger.trace("SessionController::startEngine() - IN");
+    mEngine = new NioSessionEngine(this, mRepository, mConfig.getConnNioIoThreads(), mConfig.getConnNioWorkerThreads());
+    mLogger.trace("SessionController::startEngine() - OUT");
+  }
+  
+  /**
+   * Create a new session for a connection accepted as a channel, e.g. on a Unix domain socket.<br>
+   * If the {@link NioSessionEngine} was started, the session is served by it: its requests are read by one of the engine's I/O threads
+   * and processed by one of its worker threads, so the session does not hold a thread of its own.
+   * Otherwise, a {@link SessionHandler} is created over a messenger reading the channel, and sent for execution
+   * like one created for a socket.
+   * 
+   * @param channel
+   *   the session's channel
+   * @throws IOException
+   *   if the channel could not be set to non-blocking mode
+   */
+  public void newSession(SocketChannel channel) throws IOException
+  {
+    SessionHandler handler;
+    if (mEngine == null)
+    {
+      mLogger.debug("About to spawn a new SessionHandler for channel: {}", channel.getRemoteAddress());
+      handler = new SessionHandler(channel, this, mRepository);
+      mExecutor.execute(handler);
+    }
+    else
+    {
+      mLogger.debug("About to create a new non-blocking session for channel: {}", channel.getRemoteAddress());
+      handler = mEngine.newSession(channel);
+    }
+    logBoth("New connection accepted from {}", handler.getAddress());
+  }
+  
+  /**
+   * Create a new session for a connection made from within the server's JVM, e.g. to a {@link KasMqEmbeddedServer}.<br>
+   * The {@link SessionHandler} is sent for execution like one created for a socket.
+   * 
+   * @param messenger
+   *   the server's side of the connection
+   * @param identity
+   *   the identity the session's login is established as, or {@code null} to look the user up in the data base
+   */
+  public void newSession(IMessenger messenger, UserEntity identity)
+  {
+    mLogger.debug("About to spawn a new SessionHandler for: {}", messenger.getAddress());
+    
+    SessionHandler handler = new SessionHandler(messenger, this, mRepository);
+    handler.setLoginIdentity(identity);
+    
+    logBoth("New connection accepted from {}", messenger.getAddress());
+    mExecutor.execute(handler);
+  }
+  
+  /**
+   * Terminate the controller: stop the {@link NioSessionEngine}, if it was started, closing its connections,
+   * and the threads running concurrent requests
+   */
+  public void term()
+  {
+    mLogger.trace("SessionController::term() - IN");
+    if (mEngine != null)
+      mEngine.shutdown();
+    mExecutor.shutdown();
+    mLogger.trace("SessionController::term() - OUT");
   }
   
   /**
@@ -123,6 +213,32 @@ public class SessionController extends AKasObject implements IController
     mLogger.trace("SessionController::onHandlerEnd() - OUT");
   }
   
+  /**
+   * Run a request that a handler processes concurrently with its other requests.<br>
+   * The thread is chosen by the {@link SessionExecutor} according to the configured session threads mode.
+   * 
+   * @param request
+   *   The request
+   * @return
+   *   {@code true} if the request was started or queued, {@code false} if it was rejected
+   */
+  public boolean executeRequest(SessionRequest request)
+  {
+    return mExecutor.executeRequest(request);
+  }
+  
+  /**
+   * Run a short task on behalf of a handler, such as a pass of its {@link SessionPusher}.<br>
+   * The thread is chosen by the {@link SessionExecutor} according to the configured session threads mode.
+   * 
+   * @param task
+   *   The task
+   */
+  public void executeTask(Runnable task)
+  {
+    mExecutor.executeTask(task);
+  }
+  
   /**
    * Get the handler serving session ID with {@code id}
    * 
@@ -207,7 +323,7 @@ public class SessionController extends AKasObject implements IController
     }
     
     logBoth("Closing all opened connections...");
-    MqServerConnectionPool.getInstance().shutdown();
+    mRepository.getConnectionPool().shutdown();
     
     logBoth("Signaling main thread to terminate...");
     mServer.stop();
@@ -243,6 +359,8 @@ public class SessionController extends AKasObject implements IController
     StringBuilder sb = new StringBuilder();
     sb.append(name()).append("(\n")
       .append(pad).append("  Handlers=(").append(StringUtils.asPrintableString(mHandlers, level+2)).append(")\n")
+      .append(pad).append("  Executor=(").append(StringUtils.asPrintableString(mExecutor, level+2)).append(")\n")
+      .append(pad).append("  Engine=(").append(StringUtils.asPrintableString(mEngine, level+2)).append(")\n")
       .append(pad).append(")");
     return sb.toString();
   }
@@ -0,0 +1,252 @@
+package com.kas.mq.server.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.KasRunnableThread;
+import com.kas.infra.base.threads.KasThreadFactory;
+import com.kas.infra.base.threads.ThreadPool;
+
+/**
+ * A {@link SessionExecutor} decides on which thread each blocking {@link SessionHandler} runs.<br>
+ * <br>
+ * The available modes are:<br>
+ * - {@value #cModePool}: the shared {@link ThreadPool}. Sessions beyond the pool's maximum size wait
+ *   in its queue until another session ends<br>
+ * - {@value #cModeDedicated}: a platform thread per session, so the number of sessions is not bounded by a pool<br>
+ * - {@value #cModeVirtual}: a virtual thread per session, so an idle session costs little more than its stack.
+ *   Virtual threads are available on Java 21 and later, and are looked up at run time.
+ *   On earlier runtimes, this mode falls back to {@value #cModeDedicated}<br>
+ * <br>
+ * Requests a session processes concurrently with its other requests run on virtual threads in {@value #cModeVirtual} mode,
+ * and on a bounded pool of platform threads otherwise, since a waiting get holds its thread until it's done. Requests beyond
+ * the pool's size wait in a bounded queue, and once the queue is full they are rejected. Short tasks, such as passes of a
+ * {@link SessionPusher}, run on a pool of platform threads that grows and shrinks as needed. Neither runs on the shared
+ * {@link ThreadPool}, since its threads may all be held by sessions.
+ * 
+ * @author Pippo
+ */
+public class SessionExecutor extends AKasObject
+{
+  /**
+   * Execution modes
+   */
+  static public final String cModePool      = "pool";
+  static public final String cModeDedicated = "dedicated";
+  static public final String cModeVirtual   = "virtual";
+  
+  /**
+   * The number of requests that may wait for a request thread before further requests are rejected
+   */
+  static private final int cRequestQueueSize = 1024;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The mode sessions actually run in
+   */
+  private String mMode;
+  
+  /**
+   * {@code Thread.startVirtualThread(Runnable)}, if the mode is {@value #cModeVirtual}
+   */
+  private Method mStartVirtualThread = null;
+  
+  /**
+   * Sequence number for thread names
+   */
+  private AtomicInteger mSequence = new AtomicInteger(0);
+  
+  /**
+   * Runs concurrent requests, unless they run on virtual threads. Its threads end when they are idle for a minute
+   */
+  private ThreadPoolExecutor mRequestThreads;
+  
+  /**
+   * Runs short tasks, unless they run on virtual threads. It has no threads until the first task
+   */
+  private ExecutorService mTaskThreads = Executors.newCachedThreadPool(new KasThreadFactory("KasTask"));
+  
+  /**
+   * Construct a {@link SessionExecutor}
+   * 
+   * @param mode
+   *   The requested mode. An unknown mode is treated as {@value #cModePool}
+   * @param requestThreads
+   *   The maximum number of platform threads running concurrent requests. 0 means eight per available processor
+   */
+  SessionExecutor(String mode, int requestThreads)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    
+    int threads = requestThreads > 0 ? requestThreads : 8 * Runtime.getRuntime().availableProcessors();
+    mRequestThreads = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<Runnable>(cRequestQueueSize), new KasThreadFactory("KasRequest"));
+    mRequestThreads.allowCoreThreadTimeOut(true);
+    
+    if (cModeVirtual.equalsIgnoreCase(mode))
+    {
+      try
+      {
+        mStartVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        mMode = cModeVirtual;
+      }
+      catch (NoSuchMethodException e)
+      {
+        mLogger.warn("Virtual threads are not available on Java {}, sessions will run on dedicated threads", System.getProperty("java.version"));
+        mMode = cModeDedicated;
+      }
+    }
+    else if (cModeDedicated.equalsIgnoreCase(mode))
+    {
+      mMode = cModeDedicated;
+    }
+    else
+    {
+      if (!cModePool.equalsIgnoreCase(mode))
+        mLogger.warn("Unknown session threads mode {}, sessions will run on the thread pool", mode);
+      mMode = cModePool;
+    }
+  }
+  
+  /**
+   * Get the mode sessions actually run in
+   * 
+   * @return
+   *   the mode
+   */
+  public String getMode()
+  {
+    return mMode;
+  }
+  
+  /**
+   * Run a session handler according to the mode
+   * 
+   * @param handler
+   *   The session handler
+   */
+  void execute(SessionHandler handler)
+  {
+    String name = "KasSession-" + mSequence.incrementAndGet();
+    if (startVirtual(handler, name))
+      return;
+    
+    if (cModePool.equals(mMode))
+    {
+      ThreadPool.execute(handler);
+    }
+    else
+    {
+      KasRunnableThread thread = new KasRunnableThread(name, handler);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+  
+  /**
+   * Run a request that is processed concurrently with the other requests of its session
+   * 
+   * @param request
+   *   The request
+   * @return
+   *   {@code true} if the request was started or queued, {@code false} if it was rejected since the request threads are all busy
+   */
+  boolean executeRequest(SessionRequest request)
+  {
+    if (startVirtual(request, "KasRequest"))
+      return true;
+    
+    try
+    {
+      mRequestThreads.execute(request);
+      return true;
+    }
+    catch (RejectedExecutionException e)
+    {
+      mLogger.debug("SessionExecutor::executeRequest() - Request threads are all busy and {} requests are waiting, rejecting request", cRequestQueueSize);
+      return false;
+    }
+  }
+  
+  /**
+   * Run a short task on behalf of a session, on a virtual thread or on the threads running tasks
+   * 
+   * @param task
+   *   The task
+   */
+  void executeTask(Runnable task)
+  {
+    if (!startVirtual(task, "KasTask"))
+      mTaskThreads.execute(task);
+  }
+  
+  /**
+   * Run a task on a new virtual thread, if the mode is {@value #cModeVirtual}
+   * 
+   * @param task
+   *   The task
+   * @param name
+   *   The thread name
+   * @return
+   *   {@code true} if the task was started, {@code false} if it should run on a platform thread
+   */
+  private boolean startVirtual(Runnable task, String name)
+  {
+    if (mStartVirtualThread == null)
+      return false;
+    
+    try
+    {
+      Thread thread = (Thread)mStartVirtualThread.invoke(null, task);
+      thread.setName(name);
+      return true;
+    }
+    catch (ReflectiveOperationException e)
+    {
+      mLogger.warn("Failed to start a virtual thread, task will run on a platform thread. Exception: ", e);
+      return false;
+    }
+  }
+  
+  /**
+   * Stop the threads running concurrent requests and tasks once they are done
+   */
+  void shutdown()
+  {
+    mRequestThreads.shutdown();
+    mTaskThreads.shutdown();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Mode=").append(mMode).append("\n")
+      .append(pad).append("  Started=").append(mSequence.get()).append("\n")
+      .append(pad).append("  RequestThreads=").append(mRequestThreads.getMaximumPoolSize()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
@@ -5,18 +5,26 @@ import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.kas.comm.IMessenger;
 import com.kas.comm.IPacket;
 import com.kas.comm.impl.MessengerFactory;
 import com.kas.comm.impl.NetworkAddress;
+import com.kas.comm.impl.PacketCodec;
 import com.kas.infra.base.AKasObject;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.UniqueId;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.internal.EMqCode;
 import com.kas.mq.internal.ERequestType;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqResponse;
 import com.kas.mq.server.IController;
 import com.kas.mq.server.IRepository;
 import com.kas.mq.server.processors.IProcessor;
@@ -24,12 +32,27 @@ import com.kas.mq.server.processors.ProcessorFactory;
 import com.kas.sec.entities.UserEntity;
 
 /**
- * A {@link SessionHandler} is the object that handles the traffic in and from a remote client.
+ * A {@link SessionHandler} is the object that handles the traffic in and from a remote client.<br>
+ * <br>
+ * Requests are processed in the order they arrive, except for requests that only read, such as gets and queries.
+ * When the client correlates those with a request ID, they are processed {@link SessionRequest concurrently}
+ * with the requests that follow them, and their replies are sent whenever they are ready.<br>
+ * <br>
+ * A session served by the {@link NioSessionEngine} never processes a request that may wait, such as a get,
+ * on the engine's worker thread, since a few waiting gets would otherwise hold all the workers. If the request
+ * cannot be processed concurrently, the session is {@link NioSession#park() parked} instead: the request runs
+ * on a thread of its own, and the session's next requests wait until it's done. If the threads running such requests
+ * are all busy and enough requests are waiting for them, the request is rejected with a failure reply.
  * 
  * @author Pippo
  */
 public class SessionHandler extends AKasObject implements Runnable
 {
+  /**
+   * The maximum number of requests of a session processed concurrently. Further requests wait for their turn
+   */
+  static private final int cMaxConcurrentRequests = 16;
+  
   /**
    * Logger
    */
@@ -50,6 +73,11 @@ public class SessionHandler extends AKasObject implements Runnable
    */
   private IMessenger mMessenger;
   
+  /**
+   * Serializes the writes of replies and pushed messages
+   */
+  private final ReentrantLock mSendLock = new ReentrantLock();
+  
   /**
    * The session ID for this session
    */
@@ -58,13 +86,28 @@ public class SessionHandler extends AKasObject implements Runnable
   /**
    * Active user
    */
-  private UserEntity mActiveUser;
+  private volatile UserEntity mActiveUser;
+  
+  /**
+   * The identity logins are established as, instead of looking the user up in the data base, or {@code null}
+   */
+  private UserEntity mLoginIdentity = null;
   
   /**
    * Indicator whether handler is still running
    */
   private boolean mIsRunning = true;
   
+  /**
+   * Pushes the messages of the session's subscriptions. Created by the first subscription
+   */
+  private SessionPusher mPusher = null;
+  
+  /**
+   * The number of requests being processed concurrently
+   */
+  private AtomicInteger mConcurrentRequests = new AtomicInteger(0);
+  
   /**
    * Construct a {@link SessionHandler} to handle all incoming and outgoing traffic from a remote client.<br>
    * Client's transmits messages and received by this handler over the specified {@code socket}.
@@ -79,14 +122,51 @@ public class SessionHandler extends AKasObject implements Runnable
    *   if {@link Socket#setSoTimeout()} throws
    */
   SessionHandler(Socket socket, IController controller, IRepository repository) throws IOException
+  {
+    this(MessengerFactory.create(socket, controller.getConfig().getConnSocketTimeout()), controller, repository);
+  }
+  
+  /**
+   * Construct a {@link SessionHandler} to handle the traffic of a remote client over the specified {@code channel}
+   * 
+   * @param channel
+   *   The client's channel
+   * @param controller
+   *   The {@link IController}
+   * @param repository
+   *   The {@link IRepository}
+   * @throws IOException
+   *   if the channel could not be set to non-blocking mode
+   */
+  SessionHandler(SocketChannel channel, IController controller, IRepository repository) throws IOException
+  {
+    this(MessengerFactory.create(channel, controller.getConfig().getConnSocketTimeout()), controller, repository);
+  }
+  
+  /**
+   * Construct a {@link SessionHandler} to handle the traffic of a remote client over the specified {@code messenger}.<br>
+   * A handler constructed this way may be driven by {@link #handle(IPacket)} rather than by {@link #run()},
+   * if packets are read by someone else, e.g. a {@link NioReactor}.
+   *  
+   * @param messenger
+   *   The messenger connected to the client
+   * @param controller
+   *   The {@link IController}
+   * @param repository
+   *   The {@link IRepository}
+   */
+  SessionHandler(IMessenger messenger, IController controller, IRepository repository)
   {
     mController = controller;
     mRepository = repository;
-    mMessenger = MessengerFactory.create(socket, mController.getConfig().getConnSocketTimeout());
+    mMessenger = messenger;
     
     mLogger = LogManager.getLogger(getClass());
     mSessionId = UniqueId.generate();
     mActiveUser = null;
+    
+    // until the client logs in, it may only send small frames
+    mMessenger.setMaxPayloadLength(PacketCodec.cMaxLoginPayloadLength);
   }
   
   /**
@@ -96,7 +176,7 @@ public class SessionHandler extends AKasObject implements Runnable
   public void run()
   {
     mLogger.trace("SessionHandler::run() - IN");
-    mController.onHandlerStart(this);
+    open();
     
     NetworkAddress remoteAddress = mMessenger.getAddress();
     
@@ -106,22 +186,7 @@ public class SessionHandler extends AKasObject implements Runnable
       try
       {
         IPacket packet = mMessenger.receive();
-        mLogger.trace("SessionHandler::run() - Received packet: {}", StringUtils.asPrintableString(packet));
-        if (packet != null)
-        {
-          IMqMessage request = (IMqMessage)packet;
-          ERequestType requestType = request.getRequestType();
-          mLogger.trace("SessionHandler::run() - Received request of type: {}", StringUtils.asPrintableString(requestType));
-          
-          IProcessor processor = ProcessorFactory.newProcessor(request, this, mRepository);
-          IMqMessage reply = processor.process();
-          
-          mLogger.trace("SessionHandler::run() - Responding with the message: {}", StringUtils.asPrintableString(reply));
-          mMessenger.send(reply);
-          
-          boolean running = isRunning() & processor.postprocess(reply);
-          setRunningState(running);
-        }
+        dispatch(packet);
       }
       catch (SocketTimeoutException e)
       {
@@ -144,10 +209,318 @@ public class SessionHandler extends AKasObject implements Runnable
       }
     }
     
-    mController.onHandlerEnd(this);
+    close();
     mLogger.trace("SessionHandler::run() - OUT");
   }
   
+  /**
+   * Register the session with the controller, before its first packet is handled
+   */
+  void open()
+  {
+    mController.onHandlerStart(this);
+  }
+  
+  /**
+   * Process a single packet received from the remote client, either {@link SessionRequest concurrently}
+   * with the packets that follow it or before them
+   * 
+   * @param packet
+   *   The packet. A {@code null} packet is ignored
+   * @return
+   *   {@code true} if the handler should keep running, {@code false} otherwise
+   * @throws IOException
+   *   if the reply could not be sent
+   */
+  boolean dispatch(IPacket packet) throws IOException
+  {
+    if (isConcurrent(packet))
+    {
+      if ((mConcurrentRequests.incrementAndGet() <= cMaxConcurrentRequests) && (mController.executeRequest(new SessionRequest(this, packet, null))))
+        return isRunning();
+      mConcurrentRequests.decrementAndGet();
+    }
+    
+    if ((mMessenger instanceof NioSession) && isBlocking(packet))
+    {
+      NioSession session = (NioSession)mMessenger;
+      session.park();
+      mConcurrentRequests.incrementAndGet();
+      if (mController.executeRequest(new SessionRequest(this, packet, session)))
+        return isRunning();
+      
+      mConcurrentRequests.decrementAndGet();
+      session.unpark();
+      return reject((IMqMessage)packet);
+    }
+    return handle(packet);
+  }
+  
+  /**
+   * Reply to a request that may wait with a failure, since no thread is free to process it
+   * 
+   * @param request
+   *   The request
+   * @return
+   *   {@code true} if the handler should keep running, {@code false} otherwise
+   * @throws IOException
+   *   if the reply could not be sent
+   */
+  private boolean reject(IMqMessage request) throws IOException
+  {
+    mLogger.debug("SessionHandler::reject() - Rejecting request {} of type {}, the server is busy", request.getRequestId(), request.getRequestType());
+    IMqMessage reply = MqMessageFactory.createStringMessage(null);
+    reply.setReferenceId(request.getMessageId());
+    reply.setResponse(new MqResponse(EMqCode.cFail, -1, "KAS/MQ server is busy, request was rejected"));
+    reply.setRequestId(request.getRequestId());
+    write(reply);
+    return isRunning();
+  }
+  
+  /**
+   * Get an indication whether processing a packet may wait, e.g. for a message to arrive
+   * 
+   * @param packet
+   *   The packet
+   * @return
+   *   {@code true} if processing the packet may wait, {@code false} otherwise
+   */
+  private boolean isBlocking(IPacket packet)
+  {
+    if (packet == null)
+      return false;
+    
+    switch (((IMqMessage)packet).getRequestType())
+    {
+      case cGet:
+      case cGetBatch:
+        return true;
+      default:
+        return false;
+    }
+  }
+  
+  /**
+   * Get an indication whether a packet may be processed concurrently with the packets that follow it.<br>
+   * That is the case for requests that only read, provided the client correlates their replies by request ID.
+   * Anything that changes the state of the session or the server, including puts, keeps its order.
+   * 
+   * @param packet
+   *   The packet
+   * @return
+   *   {@code true} if the packet may be processed concurrently, {@code false} otherwise
+   */
+  private boolean isConcurrent(IPacket packet)
+  {
+    if ((packet == null) || (packet.getRequestId() == 0))
+      return false;
+    
+    switch (((IMqMessage)packet).getRequestType())
+    {
+      case cGet:
+      case cGetBatch:
+      case cQueryGroup:
+      case cQueryUser:
+      case cQueryQueue:
+      case cQueryConnection:
+      case cQuerySession:
+      case cQueryConfig:
+        return true;
+      default:
+        return false;
+    }
+  }
+  
+  /**
+   * A callback that is invoked once a request processed concurrently is done
+   */
+  void onRequestDone()
+  {
+    mConcurrentRequests.decrementAndGet();
+  }
+  
+  /**
+   * Run a short task of the session, such as a pass of its {@link SessionPusher}.<br>
+   * Sessions served by the {@link NioSessionEngine} run it on the engine's worker threads,
+   * others on the threads of the {@link IController controller}.
+   * 
+   * @param task
+   *   The task
+   */
+  void execute(Runnable task)
+  {
+    if (mMessenger instanceof NioSession)
+      ((NioSession)mMessenger).execute(task);
+    else
+      mController.executeTask(task);
+  }
+  
+  /**
+   * Process a single packet received from the remote client, and respond if necessary.<br>
+   * The reply carries the request ID of the packet.
+   * 
+   * @param packet
+   *   The packet. A {@code null} packet is ignored
+   * @return
+   *   {@code true} if the handler should keep running, {@code false} otherwise
+   * @throws IOException
+   *   if the reply could not be sent
+   */
+  boolean handle(IPacket packet) throws IOException
+  {
+    mLogger.trace("SessionHandler::handle() - Received packet: {}", StringUtils.asPrintableString(packet));
+    if (packet != null)
+    {
+      IMqMessage request = (IMqMessage)packet;
+      ERequestType requestType = request.getRequestType();
+      int requestId = request.getRequestId(); // a put message may be pushed, and lose its request ID, before the reply is sent
+      mLogger.trace("SessionHandler::handle() - Received request of type: {}", StringUtils.asPrintableString(requestType));
+      
+      IProcessor processor = ProcessorFactory.newProcessor(request, this, mRepository);
+      IMqMessage reply = processor.process();
+      
+      if (reply != null)
+      {
+        reply.setRequestId(requestId);
+        mLogger.trace("SessionHandler::handle() - Responding with the message: {}", StringUtils.asPrintableString(reply));
+        write(reply);
+      }
+      
+      boolean running = isRunning() & processor.postprocess(reply);
+      setRunningState(running);
+    }
+    return isRunning();
+  }
+  
+  /**
+   * Drop the session's subscriptions and unregister it from the controller, after its last packet was handled
+   */
+  void close()
+  {
+    stopPusher();
+    mController.onHandlerEnd(this);
+  }
+  
+  /**
+   * Send a message to the remote client outside the request-reply flow, e.g. a message pushed to a subscription.<br>
+   * Sends are serialized with the replies sent by {@link #run()}. The message is not correlated with any request.
+   * 
+   * @param message
+   *   The message
+   * @return
+   *   {@code true} if the message was sent, {@code false} otherwise
+   */
+  boolean send(IMqMessage message)
+  {
+    try
+    {
+      if (message.getRequestId() != 0)
+        message.setRequestId(0);
+      write(message);
+      return true;
+    }
+    catch (IOException e)
+    {
+      mLogger.debug("SessionHandler::send() - Failed to send message to remote client. Exception: ", e);
+      return false;
+    }
+  }
+  
+  /**
+   * Write a packet to the remote client. Writes of different threads are serialized, so their frames never interleave.
+   * A lock rather than a monitor serializes them, so a virtual thread blocked in a write does not pin its carrier
+   * 
+   * @param packet
+   *   The packet
+   * @throws IOException
+   *   if the packet could not be sent
+   */
+  private void write(IPacket packet) throws IOException
+  {
+    mSendLock.lock();
+    try
+    {
+      mMessenger.send(packet);
+    }
+    finally
+    {
+      mSendLock.unlock();
+    }
+  }
+  
+  /**
+   * Subscribe the session to a queue, so its messages are pushed to the remote client
+   * 
+   * @param queue
+   *   The queue
+   * @param credit
+   *   The number of messages that may be pushed before the client grants more credit
+   * @return
+   *   the subscription ID
+   */
+  public synchronized UniqueId subscribe(MqLocalQueue queue, int credit)
+  {
+    if (mPusher == null)
+      mPusher = new SessionPusher(this);
+    return mPusher.subscribe(queue, credit);
+  }
+  
+  /**
+   * Cancel a subscription
+   * 
+   * @param id
+   *   The subscription ID
+   * @return
+   *   {@code true} if the subscription was cancelled, {@code false} if the session has no such subscription
+   */
+  public synchronized boolean unsubscribe(UniqueId id)
+  {
+    if (mPusher == null)
+      return false;
+    return mPusher.unsubscribe(id);
+  }
+  
+  /**
+   * Grant more credit to a subscription
+   * 
+   * @param id
+   *   The subscription ID
+   * @param credit
+   *   The number of additional messages that may be pushed
+   * @return
+   *   {@code true} if credit was granted, {@code false} if the session has no such subscription
+   */
+  public synchronized boolean grantCredit(UniqueId id, int credit)
+  {
+    if (mPusher == null)
+      return false;
+    return mPusher.grant(id, credit);
+  }
+  
+  /**
+   * Stop pushing messages and drop all subscriptions
+   */
+  private synchronized void stopPusher()
+  {
+    if (mPusher != null)
+    {
+      mPusher.stop();
+      mPusher.clear();
+      mPusher = null;
+    }
+  }
+  
+  /**
+   * Get the remote client's address
+   * 
+   * @return
+   *   the remote client's address
+   */
+  public NetworkAddress getAddress()
+  {
+    return mMessenger.getAddress();
+  }
+  
   /**
    * Get the sessions controller
    * 
@@ -160,7 +533,8 @@ public class SessionHandler extends AKasObject implements Runnable
   }
 
   /**
-   * Set the active user to {@code userEntity}
+   * Set the active user to {@code userEntity}.<br>
+   * Frames longer than {@link PacketCodec#cMaxLoginPayloadLength} are accepted only while there is an active user.
    * 
    * @param user
    *   The new active user name
@@ -168,6 +542,30 @@ public class SessionHandler extends AKasObject implements Runnable
   public void setActiveUser(UserEntity userEntity)
   {
     mActiveUser = userEntity;
+    mMessenger.setMaxPayloadLength(userEntity == null ? PacketCodec.cMaxLoginPayloadLength : PacketCodec.cMaxPayloadLength);
+  }
+  
+  /**
+   * Set the identity the session's login is established as, instead of looking the user up in the data base.<br>
+   * The supplied password and the access to the client's application are still checked by the identity.
+   * 
+   * @param identity
+   *   The identity, or {@code null} to look the user up in the data base
+   */
+  void setLoginIdentity(UserEntity identity)
+  {
+    mLoginIdentity = identity;
+  }
+  
+  /**
+   * Get the identity the session's login is established as
+   * 
+   * @return
+   *   the identity, or {@code null} if the user is looked up in the data base
+   */
+  public UserEntity getLoginIdentity()
+  {
+    return mLoginIdentity;
   }
   
   /**
@@ -257,6 +655,8 @@ public class SessionHandler extends AKasObject implements Runnable
       .append(pad).append("  IsRunning=").append(mIsRunning).append("\n")
       .append(pad).append("  SessionId=").append(mSessionId.toString()).append("\n")
       .append(pad).append("  ActiveUser=").append(mActiveUser).append("\n")
+      .append(pad).append("  ConcurrentRequests=").append(mConcurrentRequests.get()).append("\n")
+      .append(pad).append("  Pusher=").append(StringUtils.asPrintableString(mPusher, level+1)).append("\n")
       .append(pad).append("  Messenger=").append(mMessenger.toPrintableString(level+1)).append("\n")
       .append(pad).append(")");
     return sb.toString();
@@ -0,0 +1,327 @@
+package com.kas.mq.server.internal;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.UniqueId;
+import com.kas.infra.base.threads.AKasRunnable;
+import com.kas.infra.base.threads.ThreadPool;
+import com.kas.infra.utils.StringUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.IMqQueueListener;
+import com.kas.mq.internal.MqLocalQueue;
+
+/**
+ * A {@link SessionPusher} delivers the messages of a session's subscriptions to the remote client.<br>
+ * <br>
+ * The pusher holds no thread of its own. When one of the subscribed queues reports a new message or the client
+ * grants more credit, the pusher is {@link SessionHandler#execute(Runnable) run} by the session, and keeps pushing
+ * until a pass delivers nothing. Each pass takes at most one message from each subscription that has credit,
+ * so a busy queue cannot starve the others. If a subscribed queue still holds messages it could not take,
+ * e.g. since consumers are waiting ahead of it, the pusher runs again after {@link #cRetryMillis}.<br>
+ * <br>
+ * Every pushed message carries the ID of its subscription in the {@link IMqConstants#cKasPropertySubDelivery}
+ * property, which is how the client tells it from the replies to its requests.
+ * 
+ * @author Pippo
+ */
+public class SessionPusher extends AKasRunnable implements IMqQueueListener
+{
+  /**
+   * Time, in milliseconds, after which subscriptions whose queue still holds messages are scanned again
+   */
+  static private final long cRetryMillis = 1000L;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The session handler the messages are pushed through
+   */
+  private SessionHandler mHandler;
+  
+  /**
+   * Active subscriptions, mapped by their ID
+   */
+  private Map<UniqueId, MqSubscription> mSubscriptions = new ConcurrentHashMap<UniqueId, MqSubscription>();
+  
+  /**
+   * Set when a subscribed queue got a message or credit was granted since the last pass,
+   * and whether the pusher was handed to a thread
+   */
+  private boolean mSignaled = false;
+  private boolean mScheduled = false;
+  
+  /**
+   * Construct a {@link SessionPusher}
+   * 
+   * @param handler
+   *   The session handler the messages are pushed through
+   */
+  SessionPusher(SessionHandler handler)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mHandler = handler;
+  }
+  
+  /**
+   * Add a subscription
+   * 
+   * @param queue
+   *   The subscribed queue
+   * @param credit
+   *   The initial credit
+   * @return
+   *   the subscription ID
+   */
+  UniqueId subscribe(MqLocalQueue queue, int credit)
+  {
+    MqSubscription sub = new MqSubscription(queue, credit);
+    mSubscriptions.put(sub.getId(), sub);
+    queue.addListener(this);
+    signal();
+    
+    mLogger.debug("SessionPusher::subscribe() - Added subscription {} to queue {} with credit {}", sub.getId(), queue.getName(), credit);
+    return sub.getId();
+  }
+  
+  /**
+   * Remove a subscription
+   * 
+   * @param id
+   *   The subscription ID
+   * @return
+   *   {@code true} if the subscription was removed, {@code false} if there's no such subscription
+   */
+  boolean unsubscribe(UniqueId id)
+  {
+    MqSubscription sub = mSubscriptions.remove(id);
+    if (sub == null)
+      return false;
+    
+    if (!isSubscribed(sub.getQueue()))
+      sub.getQueue().removeListener(this);
+    
+    mLogger.debug("SessionPusher::unsubscribe() - Removed subscription {} from queue {}", id, sub.getQueue().getName());
+    return true;
+  }
+  
+  /**
+   * Grant more credit to a subscription
+   * 
+   * @param id
+   *   The subscription ID
+   * @param credit
+   *   The number of additional messages that may be pushed
+   * @return
+   *   {@code true} if credit was granted, {@code false} if there's no such subscription
+   */
+  boolean grant(UniqueId id, int credit)
+  {
+    MqSubscription sub = mSubscriptions.get(id);
+    if (sub == null)
+      return false;
+    
+    sub.grant(credit);
+    signal();
+    return true;
+  }
+  
+  /**
+   * Remove all subscriptions
+   */
+  void clear()
+  {
+    for (UniqueId id : mSubscriptions.keySet())
+      unsubscribe(id);
+  }
+  
+  /**
+   * Get an indication whether any subscription is still on {@code queue}
+   * 
+   * @param queue
+   *   The queue
+   * @return
+   *   {@code true} if there's a subscription on the queue, {@code false} otherwise
+   */
+  private boolean isSubscribed(MqLocalQueue queue)
+  {
+    for (MqSubscription sub : mSubscriptions.values())
+    {
+      if (sub.getQueue() == queue)
+        return true;
+    }
+    return false;
+  }
+  
+  /**
+   * A message was added to a subscribed queue
+   * 
+   * @param queue
+   *   The queue
+   */
+  public void onMessageAvailable(MqLocalQueue queue)
+  {
+    signal();
+  }
+  
+  /**
+   * Wake the pusher up: have the session run it, unless it's running already
+   */
+  private void signal()
+  {
+    synchronized (this)
+    {
+      mSignaled = true;
+      if ((mScheduled) || (mStop))
+        return;
+      mScheduled = true;
+    }
+    mHandler.execute(this);
+  }
+  
+  /**
+   * Get an indication whether the pusher was stopped
+   * 
+   * @return
+   *   {@code true} if the pusher was stopped, {@code false} otherwise
+   */
+  private synchronized boolean isStopped()
+  {
+    return mStop;
+  }
+  
+  /**
+   * Stop the pusher. A pass in progress ends after the message it's pushing
+   */
+  public synchronized void stop()
+  {
+    super.stop();
+  }
+  
+  /**
+   * Keep pushing messages while there are messages and credit to push them, then release the thread
+   */
+  public void run()
+  {
+    mLogger.trace("SessionPusher::run() - IN");
+    
+    boolean pushed = true;
+    while (pushed)
+    {
+      synchronized (this)
+      {
+        mSignaled = false;
+      }
+      
+      pushed = false;
+      for (MqSubscription sub : mSubscriptions.values())
+      {
+        if (isStopped())
+          break;
+        if (sub.getCredit() > 0)
+          pushed |= push(sub);
+      }
+      
+      synchronized (this)
+      {
+        if (mStop)
+        {
+          mScheduled = false;
+          mLogger.trace("SessionPusher::run() - OUT, Pusher stopped");
+          return;
+        }
+        if (!pushed && !mSignaled)
+          mScheduled = false;
+        else
+          pushed = true;
+      }
+    }
+    
+    if (isPending())
+    {
+      ThreadPool.schedule(new Callable<Void>() {
+        public Void call()
+        {
+          signal();
+          return null;
+        }
+      }, cRetryMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    mLogger.trace("SessionPusher::run() - OUT");
+  }
+  
+  /**
+   * Get an indication whether a subscription with credit has messages it could not take
+   * 
+   * @return
+   *   {@code true} if a subscription with credit has a non-empty queue, {@code false} otherwise
+   */
+  private boolean isPending()
+  {
+    for (MqSubscription sub : mSubscriptions.values())
+    {
+      if ((sub.getCredit() > 0) && (sub.getQueue().size() > 0))
+        return true;
+    }
+    return false;
+  }
+  
+  /**
+   * Push a single message of a subscription to the client.<br>
+   * If the message could not be sent, it's put back into its queue and the pusher stops.
+   * 
+   * @param sub
+   *   The subscription
+   * @return
+   *   {@code true} if a message was pushed, {@code false} otherwise
+   */
+  private boolean push(MqSubscription sub)
+  {
+    IMqMessage message = sub.getQueue().poll();
+    if (message == null)
+      return false;
+    
+    message.setStringProperty(IMqConstants.cKasPropertySubDelivery, sub.getId().toString());
+    if (!mHandler.send(message))
+    {
+      mLogger.debug("SessionPusher::push() - Failed to push message to client, returning it to queue {}", sub.getQueue().getName());
+      message.setStringProperty(IMqConstants.cKasPropertySubDelivery, "");
+      sub.getQueue().put(message);
+      stop();
+      return false;
+    }
+    
+    sub.delivered();
+    return true;
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Stop=").append(mStop).append("\n")
+      .append(pad).append("  Subscriptions=(\n")
+      .append(StringUtils.asPrintableString(mSubscriptions, level+2)).append("\n")
+      .append(pad).append("  )\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
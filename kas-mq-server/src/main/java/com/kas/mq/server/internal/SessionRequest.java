@@ -0,0 +1,112 @@
+package com.kas.mq.server.internal;
+
+import java.io.IOException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.comm.IPacket;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.AKasRunnable;
+import com.kas.infra.utils.StringUtils;
+
+/**
+ * A {@link SessionRequest} is a request a {@link SessionHandler} processes concurrently with its other requests.<br>
+ * <br>
+ * The reply carries the request ID, so the client matches it with the request even if it's sent after
+ * replies to requests that arrived later. If the reply cannot be sent, the session is ended, since the
+ * client would otherwise wait for it forever.<br>
+ * <br>
+ * A request that may wait is also run this way for a {@link NioSession} that keeps the order of its requests.
+ * The session is parked until the request is done.
+ * 
+ * @author Pippo
+ */
+public class SessionRequest extends AKasRunnable
+{
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The handler of the session that received the request
+   */
+  private SessionHandler mHandler;
+  
+  /**
+   * The request
+   */
+  private IPacket mPacket;
+  
+  /**
+   * The session parked until the request is done, if any
+   */
+  private NioSession mParked;
+  
+  /**
+   * Construct a {@link SessionRequest}
+   * 
+   * @param handler
+   *   The handler of the session that received the request
+   * @param packet
+   *   The request
+   * @param parked
+   *   The session to unpark once the request is done, or {@code null} if the session was not parked
+   */
+  SessionRequest(SessionHandler handler, IPacket packet, NioSession parked)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mHandler = handler;
+    mPacket = packet;
+    mParked = parked;
+  }
+  
+  /**
+   * Process the request and send its reply
+   */
+  public void run()
+  {
+    mLogger.trace("SessionRequest::run() - IN, RequestId={}", mPacket.getRequestId());
+    
+    try
+    {
+      mHandler.handle(mPacket);
+    }
+    catch (IOException e)
+    {
+      mLogger.info("Connection to remote host at {} was lost", mHandler.getAddress());
+      mHandler.end();
+    }
+    catch (Throwable e)
+    {
+      mLogger.error("An unknown exception caught while processing client request. Exception: ", e);
+      mHandler.end();
+    }
+    finally
+    {
+      mHandler.onRequestDone();
+      if (mParked != null)
+        mParked.unpark();
+    }
+    
+    mLogger.trace("SessionRequest::run() - OUT");
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Session=").append(mHandler.getSessionId()).append("\n")
+      .append(pad).append("  Request=").append(StringUtils.asPrintableString(mPacket, level+1)).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
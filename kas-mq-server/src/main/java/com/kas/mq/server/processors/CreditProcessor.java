@@ -0,0 +1,68 @@
+package com.kas.mq.server.processors;
+
+import com.kas.infra.base.UniqueId;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.server.IRepository;
+import com.kas.mq.server.internal.SessionHandler;
+
+/**
+ * Processor for granting more credit to a subscription.<br>
+ * <br>
+ * Credit is granted while messages are being pushed, so the request has no reply: the client would otherwise
+ * have to tell the reply apart from the pushed messages, and wait for it before processing the next message.
+ * Credit granted to a subscription that no longer exists is ignored.
+ * 
+ * @author Pippo
+ */
+public class CreditProcessor extends AProcessor
+{
+  /**
+   * Input
+   */
+  private String mSubscription;
+  private int mCredit;
+  
+  /**
+   * Construct a {@link CreditProcessor}
+   * 
+   * @param request
+   *   The request message
+   * @param handler
+   *   The session handler
+   * @param repository
+   *   The server's repository
+   */
+  CreditProcessor(IMqMessage request, SessionHandler handler, IRepository repository)
+  {
+    super(request, handler, repository);
+  }
+  
+  /**
+   * Process request
+   * 
+   * @return
+   *   {@code null}, as there's no reply
+   */
+  public IMqMessage process()
+  {
+    mLogger.trace("CreditProcessor::process() - IN");
+    
+    mSubscription = mRequest.getStringProperty(IMqConstants.cKasPropertySubId, null);
+    mCredit = mRequest.getIntProperty(IMqConstants.cKasPropertySubCredit, 0);
+    mLogger.trace("CreditProcessor::process() - Subscription={}, Credit={}", mSubscription, mCredit);
+    
+    UniqueId id = UnsubscribeProcessor.toUniqueId(mSubscription);
+    if ((id == null) || (mCredit <= 0))
+    {
+      mLogger.trace("CreditProcessor::process() - Invalid credit request, ignored");
+    }
+    else if (!mHandler.grantCredit(id, mCredit))
+    {
+      mLogger.trace("CreditProcessor::process() - Subscription {} doesn't exist, credit ignored", mSubscription);
+    }
+    
+    mLogger.trace("CreditProcessor::process() - OUT");
+    return null;
+  }
+}
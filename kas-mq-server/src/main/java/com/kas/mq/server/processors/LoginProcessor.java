@@ -63,7 +63,18 @@ public class LoginProcessor extends AProcessor
       mClientApp = mRequest.getStringProperty(IMqConstants.cKasPropertyLoginAppName, null);
       mLogger.trace("LoginProcessor::process() - ClientApp={}, User={}, Pass={}", mClientApp, mUser, mPass);
       
-      UserEntity ue = UserEntityDao.getByName(mUser);
+      UserEntity ue = mHandler.getLoginIdentity();
+      if (ue == null)
+      {
+        try
+        {
+          ue = UserEntityDao.getByName(mUser);
+        }
+        catch (RuntimeException e)
+        {
+          mLogger.warn("Failed to look up user {} in the data base. Exception: {}", mUser, e.getMessage());
+        }
+      }
       
       if ((mUser == null) || (mUser.length() == 0))
       {
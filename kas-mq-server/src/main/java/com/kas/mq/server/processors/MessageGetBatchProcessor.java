@@ -0,0 +1,168 @@
+package com.kas.mq.server.processors;
+
+import java.io.IOException;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqBytesMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqMessageBatch;
+import com.kas.mq.internal.MqQueue;
+import com.kas.mq.server.IRepository;
+import com.kas.mq.server.internal.SessionHandler;
+import com.kas.sec.access.AccessLevel;
+import com.kas.sec.resources.EResourceClass;
+
+/**
+ * Processor for getting several messages from a queue in a single reply.<br>
+ * <br>
+ * The processor waits for the first message the same way {@link MessageGetProcessor} does, then adds
+ * messages that are available right away until the requested number of messages or bytes is reached.
+ * The messages are packed by {@link MqMessageBatch} into the body of a {@link MqBytesMessage}, and the response
+ * value holds their number. A message that cannot be packed is sent to the dead queue.
+ * 
+ * @author Pippo
+ */
+public class MessageGetBatchProcessor extends AProcessor
+{
+  /**
+   * Input
+   */
+  private long mTimeout;
+  private long mInterval;
+  private int mMaxMessages;
+  private int mMaxBytes;
+  private String mQueue;
+  
+  /**
+   * Construct a {@link MessageGetBatchProcessor}
+   * 
+   * @param request
+   *   The request message
+   * @param handler
+   *   The session handler
+   * @param repository
+   *   The server's repository
+   */
+  MessageGetBatchProcessor(IMqMessage request, SessionHandler handler, IRepository repository)
+  {
+    super(request, handler, repository);
+  }
+  
+  /**
+   * Process request
+   * 
+   * @return
+   *   response message generated by {@link #respond()}
+   */
+  public IMqMessage process()
+  {
+    mLogger.trace("MessageGetBatchProcessor::process() - IN");
+    
+    IMqMessage result = null;
+    if (!mConfig.isEnabled())
+    {
+      mDesc = "KAS/MQ server is disabled";
+      mLogger.trace("MessageGetBatchProcessor::process() - {}", mDesc);
+    }
+    else
+    {
+      mTimeout  = mRequest.getLongProperty(IMqConstants.cKasPropertyGetTimeout, IMqConstants.cDefaultTimeout);
+      mInterval = mRequest.getLongProperty(IMqConstants.cKasPropertyGetInterval, IMqConstants.cDefaultPollingInterval);
+      mMaxMessages = mRequest.getIntProperty(IMqConstants.cKasPropertyGetMaxMsgs, IMqConstants.cDefaultBatchMessages);
+      mMaxBytes = mRequest.getIntProperty(IMqConstants.cKasPropertyGetMaxBytes, IMqConstants.cDefaultBatchBytes);
+      mQueue = mRequest.getStringProperty(IMqConstants.cKasPropertyGetQueueName, null);
+      mLogger.trace("MessageGetBatchProcessor::process() - Queue={}, MaxMessages={}, MaxBytes={}, Timeout={}, Interval={}", mQueue, mMaxMessages, mMaxBytes, mTimeout, mInterval);
+      
+      MqQueue queue = mRepository.getQueue(mQueue);
+      if ((mQueue == null) || (mQueue.length() == 0))
+      {
+        mDesc = "Invalid queue name: null or empty string";
+        mLogger.trace("MessageGetBatchProcessor::process() - {}", mDesc);
+      }
+      else if ((mMaxMessages <= 0) || (mMaxBytes <= 0))
+      {
+        mDesc = "Invalid batch limits: " + mMaxMessages + " messages, " + mMaxBytes + " bytes";
+        mLogger.trace("MessageGetBatchProcessor::process() - {}", mDesc);
+      }
+      else if (queue == null)
+      {
+        mDesc = "Queue with name \"" + mQueue + "\" doesn't exist";
+        mLogger.trace("MessageGetBatchProcessor::process() - {}", mDesc);
+      }
+      else if (mConfig.isXmitQueueName(mQueue))
+      {
+        mDesc = "Queue " + mQueue + " is a transmission queue, clients cannot get from it";
+        mLogger.warn(mDesc);
+      }
+      else if (!isAccessPermitted(EResourceClass.QUEUE, mQueue, AccessLevel.READ_ACCESS))
+      {
+        mDesc = "User is not permitted to read from queues";
+        mLogger.warn(mDesc);
+      }
+      else
+      {
+        result = getBatch(queue);
+      }
+    }
+    
+    mLogger.trace("MessageGetBatchProcessor::process() - OUT");
+    return respond(result);
+  }
+  
+  /**
+   * Collect the messages and pack them
+   * 
+   * @param queue
+   *   The queue to get the messages from
+   * @return
+   *   the {@link MqBytesMessage} holding the packed messages, or {@code null} if no message was available
+   */
+  private IMqMessage getBatch(MqQueue queue)
+  {
+    IMqMessage message = queue.get(mTimeout, mInterval);
+    if (message == null)
+    {
+      mDesc = "No message found in queue " + mQueue;
+      mCode = EMqCode.cWarn;
+      mLogger.trace("MessageGetBatchProcessor::getBatch() - {}", mDesc);
+      return null;
+    }
+    
+    MqMessageBatch batch = new MqMessageBatch();
+    try
+    {
+      while (message != null)
+      {
+        batch.add(message);
+        message = null;
+        if ((batch.size() < mMaxMessages) && (batch.getByteCount() < mMaxBytes))
+          message = queue.poll();
+      }
+    }
+    catch (IOException | RuntimeException e)
+    {
+      // the messages already taken are returned. the one that failed was removed from the queue already,
+      // and putting it back would fail the next batch the same way, so it's sent to the dead queue
+      mLogger.warn("Exception caught while trying to pack a message from queue " + mQueue + ". Exception: ", e);
+      MqLocalQueue dead = mRepository.getDeadQueue();
+      if ((message != null) && (!dead.put(message)))
+        mLogger.error("Failed to send message " + message.getMessageId() + " to dead queue, the message is lost");
+      
+      if (batch.size() == 0)
+      {
+        mDesc = "Failed to retrieve message from queue " + mQueue;
+        return null;
+      }
+    }
+    
+    MqBytesMessage result = MqMessageFactory.createBytesMessage(batch.toByteArray());
+    result.setReferenceId(mRequest.getMessageId());
+    mValue = batch.size();
+    mDesc = "Successfully retrieved " + mValue + " messages from queue " + mQueue;
+    mCode = EMqCode.cOkay;
+    mLogger.trace("MessageGetBatchProcessor::getBatch() - {}", mDesc);
+    return result;
+  }
+}
@@ -72,6 +72,11 @@ public class MessageGetProcessor extends AProcessor
         mDesc = "Queue with name \"" + mQueue + "\" doesn't exist";
         mLogger.trace("MessageGetProcessor::process() - {}", mDesc);
       }
+      else if (mConfig.isXmitQueueName(mQueue))
+      {
+        mDesc = "Queue " + mQueue + " is a transmission queue, clients cannot get from it";
+        mLogger.warn(mDesc);
+      }
       else if (!isAccessPermitted(EResourceClass.QUEUE, mQueue, AccessLevel.READ_ACCESS))
       {
         mDesc = "User is not permitted to read from queues";
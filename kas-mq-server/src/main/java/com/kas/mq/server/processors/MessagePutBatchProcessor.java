@@ -0,0 +1,204 @@
+package com.kas.mq.server.processors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqBytesMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqMessageBatch;
+import com.kas.mq.internal.MqQueue;
+import com.kas.mq.server.IRepository;
+import com.kas.mq.server.internal.SessionHandler;
+import com.kas.sec.access.AccessLevel;
+import com.kas.sec.resources.EResourceClass;
+
+/**
+ * Processor for putting several messages, possibly into several queues, with a single reply.<br>
+ * <br>
+ * The request body holds the messages packed by {@link MqMessageBatch}, each carrying the name of its target queue.
+ * Messages are grouped by queue, so the queue is looked up and the user's access is checked once per queue,
+ * and each group is put with a single {@link MqQueue#put(List)} call.<br>
+ * <br>
+ * The reply is a {@link MqBytesMessage} whose body holds one byte for each message: the ordinal of its {@link EMqCode}.
+ * The response value holds the number of messages that were put.
+ * 
+ * @author Pippo
+ */
+public class MessagePutBatchProcessor extends AProcessor
+{
+  /**
+   * Output
+   */
+  private byte [] mCodes;
+  
+  /**
+   * Construct a {@link MessagePutBatchProcessor}
+   * 
+   * @param request
+   *   The request message
+   * @param handler
+   *   The session handler
+   * @param repository
+   *   The server's repository
+   */
+  MessagePutBatchProcessor(IMqMessage request, SessionHandler handler, IRepository repository)
+  {
+    super(request, handler, repository);
+  }
+  
+  /**
+   * Process request
+   * 
+   * @return
+   *   response message generated by {@link #respond()}
+   */
+  public IMqMessage process()
+  {
+    mLogger.trace("MessagePutBatchProcessor::process() - IN");
+    
+    IMqMessage result = null;
+    if (!mConfig.isEnabled())
+    {
+      mDesc = "KAS/MQ server is disabled";
+      mLogger.trace("MessagePutBatchProcessor::process() - {}", mDesc);
+    }
+    else if (!(mRequest instanceof MqBytesMessage))
+    {
+      mDesc = "Invalid batch put request";
+      mLogger.trace("MessagePutBatchProcessor::process() - {}", mDesc);
+    }
+    else
+    {
+      List<IMqMessage> messages = null;
+      try
+      {
+        messages = MqMessageBatch.unpack(((MqBytesMessage)mRequest).getBody());
+      }
+      catch (IOException e)
+      {
+        mDesc = "Failed to unpack batch put request";
+        mLogger.warn(mDesc + ". Exception: ", e);
+      }
+      
+      if (messages != null)
+      {
+        putAll(messages);
+        result = MqMessageFactory.createBytesMessage(mCodes);
+        result.setReferenceId(mRequest.getMessageId());
+      }
+    }
+    
+    mLogger.trace("MessagePutBatchProcessor::process() - OUT");
+    return respond(result);
+  }
+  
+  /**
+   * Put all messages, a queue at a time, and set the response accordingly
+   * 
+   * @param messages
+   *   The messages
+   */
+  private void putAll(List<IMqMessage> messages)
+  {
+    mCodes = new byte [messages.size()];
+    
+    Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+    for (int i = 0; i < messages.size(); ++i)
+    {
+      String name = messages.get(i).getStringProperty(IMqConstants.cKasPropertyPutQueueName, "");
+      List<Integer> group = groups.get(name);
+      if (group == null)
+      {
+        group = new ArrayList<Integer>();
+        groups.put(name, group);
+      }
+      group.add(i);
+    }
+    
+    int total = 0;
+    for (Map.Entry<String, List<Integer>> entry : groups.entrySet())
+    {
+      List<IMqMessage> group = new ArrayList<IMqMessage>();
+      for (int i : entry.getValue())
+        group.add(messages.get(i));
+      
+      boolean [] results = putGroup(entry.getKey(), group);
+      for (int j = 0; j < results.length; ++j)
+      {
+        mCodes[entry.getValue().get(j)] = (byte)(results[j] ? EMqCode.cOkay : EMqCode.cFail).ordinal();
+        if (results[j]) ++total;
+      }
+    }
+    
+    mValue = total;
+    if (total == messages.size())
+      mCode = EMqCode.cOkay;
+    else if (total > 0)
+      mCode = EMqCode.cWarn;
+    mDesc = total + " of " + messages.size() + " messages were put";
+    mLogger.trace("MessagePutBatchProcessor::putAll() - {}", mDesc);
+  }
+  
+  /**
+   * Put the messages targeting a single queue.<br>
+   * Messages that cannot be put into their queue are sent to the dead queue, unless the user is not permitted
+   * to write to that queue or it's a transmission queue.
+   * 
+   * @param name
+   *   The queue name
+   * @param messages
+   *   The messages targeting that queue
+   * @return
+   *   an array holding, for each message, {@code true} if it was put, {@code false} otherwise
+   */
+  private boolean [] putGroup(String name, List<IMqMessage> messages)
+  {
+    mLogger.trace("MessagePutBatchProcessor::putGroup() - Queue={}, Messages={}", name, messages.size());
+    
+    boolean [] results = new boolean [messages.size()];
+    MqQueue queue = mRepository.getQueue(name);
+    MqLocalQueue dead = mRepository.getDeadQueue();
+    if (name.length() == 0)
+    {
+      mLogger.trace("MessagePutBatchProcessor::putGroup() - Invalid queue name: null or empty string");
+      dead.put(messages);
+    }
+    else if (queue == null)
+    {
+      mLogger.trace("MessagePutBatchProcessor::putGroup() - Queue with name \"{}\" doesn't exist, messages are sent to dead queue", name);
+      dead.put(messages);
+    }
+    else if (mConfig.isXmitQueueName(name))
+    {
+      mLogger.warn("Queue " + name + " is a transmission queue, clients cannot put to it");
+    }
+    else if (!isAccessPermitted(EResourceClass.QUEUE, name, AccessLevel.WRITE_ACCESS))
+    {
+      mLogger.warn("User is not permitted to write to queue " + name);
+    }
+    else
+    {
+      results = queue.put(messages);
+      
+      List<IMqMessage> failed = new ArrayList<IMqMessage>();
+      for (int i = 0; i < results.length; ++i)
+      {
+        if (!results[i])
+          failed.add(messages.get(i));
+      }
+      
+      if (!failed.isEmpty())
+      {
+        mLogger.trace("MessagePutBatchProcessor::putGroup() - Failed to put {} messages to queue {}, messages are sent to dead queue", failed.size(), name);
+        dead.put(failed);
+      }
+    }
+    return results;
+  }
+}
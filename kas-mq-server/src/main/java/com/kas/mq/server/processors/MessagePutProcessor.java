@@ -71,6 +71,11 @@ public class MessagePutProcessor extends AProcessor
         mLogger.trace("MessagePutProcessor::process() - {}", mDesc);
         dead.put(mRequest);
       }
+      else if (mConfig.isXmitQueueName(mQueue))
+      {
+        mDesc = "Queue " + mQueue + " is a transmission queue, clients cannot put to it";
+        mLogger.warn(mDesc);
+      }
       else if (!isAccessPermitted(EResourceClass.QUEUE, mQueue, AccessLevel.WRITE_ACCESS))
       {
         mDesc = "User is not permitted to write to queues";
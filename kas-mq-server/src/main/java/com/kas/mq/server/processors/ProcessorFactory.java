@@ -103,12 +103,30 @@ public class ProcessorFactory
       case cNotifySysState:
         processor = new SysStateProcessor(request, handler, repository);
         break;
+      case cNotifyRepoSync:
+        processor = new RepoSyncProcessor(request, handler, repository);
+        break;
       case cTerminateServer:
         processor = new TermServerProcessor(request, handler, repository);
         break;
       case cGet:
         processor = new MessageGetProcessor(request, handler, repository);
         break;
+      case cGetBatch:
+        processor = new MessageGetBatchProcessor(request, handler, repository);
+        break;
+      case cPutBatch:
+        processor = new MessagePutBatchProcessor(request, handler, repository);
+        break;
+      case cSubscribe:
+        processor = new SubscribeProcessor(request, handler, repository);
+        break;
+      case cUnsubscribe:
+        processor = new UnsubscribeProcessor(request, handler, repository);
+        break;
+      case cCredit:
+        processor = new CreditProcessor(request, handler, repository);
+        break;
       case cUnknown:
       default:
         processor = new MessagePutProcessor(request, handler, repository);
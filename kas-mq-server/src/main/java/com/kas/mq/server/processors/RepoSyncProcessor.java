@@ -0,0 +1,115 @@
+package com.kas.mq.server.processors;
+
+import java.io.IOException;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqBytesMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqDirectoryDelta;
+import com.kas.mq.internal.MqManager;
+import com.kas.mq.server.IRepository;
+import com.kas.mq.server.internal.SessionHandler;
+import com.kas.mq.server.repo.MqRemoteManager;
+
+/**
+ * Processor for handling queue directory synchronization requests.<br>
+ * <br>
+ * The request holds the sender's view of the local queue directory, and possibly the changes to the sender's
+ * own directory. The changes are applied to the sender's remote queues, and the reply holds the changes
+ * to the local directory since the sender's view, along with the local view of the sender's directory,
+ * so the sender can tell whether it should send its changes.
+ * 
+ * @author Pippo
+ */
+public class RepoSyncProcessor extends AProcessor
+{
+  /**
+   * Input
+   */
+  private String mOrigin;
+  
+  /**
+   * Construct a {@link RepoSyncProcessor}
+   * 
+   * @param request
+   *   The request message
+   * @param handler
+   *   The session handler
+   * @param repository
+   *   The server's repository
+   */
+  public RepoSyncProcessor(IMqMessage request, SessionHandler handler, IRepository repository)
+  {
+    super(request, handler, repository);
+  }
+  
+  /**
+   * Process request
+   * 
+   * @return
+   *   response message generated by {@link #respond()}
+   */
+  public IMqMessage process()
+  {
+    mLogger.trace("RepoSyncProcessor::process() - IN");
+    
+    IMqMessage result = null;
+    if (!mConfig.isEnabled())
+    {
+      mDesc = "KAS/MQ server is disabled";
+      mLogger.trace("RepoSyncProcessor::process() - {}", mDesc);
+    }
+    else
+    {
+      mOrigin = mRequest.getStringProperty(IMqConstants.cKasPropertyRsyncQmgrName, "");
+      MqManager manager = mRepository.getRemoteManager(mOrigin);
+      if (manager == null)
+      {
+        mDesc = "Unknown remote KAS/MQ manager " + mOrigin;
+        mLogger.trace("RepoSyncProcessor::process() - {}", mDesc);
+      }
+      else
+      {
+        MqRemoteManager remoteManager = (MqRemoteManager)manager;
+        byte [] body = mRequest instanceof MqBytesMessage ? ((MqBytesMessage)mRequest).getBody() : null;
+        try
+        {
+          if ((body != null) && (body.length > 0))
+          {
+            MqDirectoryDelta delta = MqDirectoryDelta.fromByteArray(body);
+            boolean synced = remoteManager.applyDirectoryDelta(delta);
+            mLogger.trace("RepoSyncProcessor::process() - Applied changes of {}: Added={}; Removed={}; Synchronized={}", mOrigin, delta.getAdded().size(), delta.getRemoved().size(), synced);
+          }
+          
+          if (!remoteManager.isActive())
+            remoteManager.activate();
+          
+          long epoch = mRequest.getLongProperty(IMqConstants.cKasPropertyRsyncEpoch, 0);
+          long sequence = mRequest.getLongProperty(IMqConstants.cKasPropertyRsyncSequence, 0);
+          long digest = mRequest.getLongProperty(IMqConstants.cKasPropertyRsyncDigest, 0);
+          MqDirectoryDelta changes = mRepository.getQueueDirectory().changesSince(epoch, sequence, digest);
+          
+          result = MqMessageFactory.createBytesMessage(changes.toByteArray());
+          result.setReferenceId(mRequest.getMessageId());
+          result.setStringProperty(IMqConstants.cKasPropertyRsyncQmgrName, mConfig.getManagerName());
+          result.setLongProperty(IMqConstants.cKasPropertyRsyncEpoch, remoteManager.getViewEpoch());
+          result.setLongProperty(IMqConstants.cKasPropertyRsyncSequence, remoteManager.getViewSequence());
+          result.setLongProperty(IMqConstants.cKasPropertyRsyncDigest, remoteManager.getViewDigest());
+          
+          mCode = EMqCode.cOkay;
+          mDesc = "Queue directory synchronized with remote KAS/MQ manager " + mOrigin + ", sent " + (changes.isFull() ? "all " : "") + changes.getAdded().size() + " added and " + changes.getRemoved().size() + " removed queues";
+        }
+        catch (IOException e)
+        {
+          mDesc = "Invalid queue directory changes from remote KAS/MQ manager " + mOrigin;
+          mLogger.warn(mDesc + ". Exception: ", e);
+        }
+        mLogger.trace("RepoSyncProcessor::process() - {}", mDesc);
+      }
+    }
+    
+    mLogger.trace("RepoSyncProcessor::process() - OUT");
+    return respond(result);
+  }
+}
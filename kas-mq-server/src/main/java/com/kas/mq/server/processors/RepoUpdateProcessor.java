@@ -6,6 +6,7 @@ import com.kas.mq.internal.IMqConstants;
 import com.kas.mq.internal.MqRemoteQueue;
 import com.kas.mq.server.IRepository;
 import com.kas.mq.server.internal.SessionHandler;
+import com.kas.mq.server.repo.MqRemoteManager;
 
 /**
  * Processor for handling repository updates (define/delete queues)
@@ -66,6 +67,11 @@ public class RepoUpdateProcessor extends AProcessor
       
       if (mqrq != null)
       {
+        long epoch = mRequest.getLongProperty(IMqConstants.cKasPropertyRepoEpoch, 0);
+        long sequence = mRequest.getLongProperty(IMqConstants.cKasPropertyRepoSequence, 0);
+        if (epoch != 0)
+          ((MqRemoteManager)mRepository.getRemoteManager(mManager)).advanceView(epoch, sequence);
+        
         mCode = EMqCode.cOkay;
         mDesc = "Queue " + mQueue + " was successfully " + (mAdded ? "defined in" : " deleted from ") + " remote KAS/MQ manager " + mManager;
       }
@@ -0,0 +1,113 @@
+package com.kas.mq.server.processors;
+
+import com.kas.infra.base.Properties;
+import com.kas.infra.base.UniqueId;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqQueue;
+import com.kas.mq.server.IRepository;
+import com.kas.mq.server.internal.SessionHandler;
+import com.kas.sec.access.AccessLevel;
+import com.kas.sec.resources.EResourceClass;
+
+/**
+ * Processor for subscribing to a queue.<br>
+ * <br>
+ * Once subscribed, the queue's messages are pushed to the session as they arrive, as long as the subscription
+ * has credit. The subscription ID is returned in the {@link IMqConstants#cKasPropertySubId} property of the reply.
+ * Only local queues can be subscribed to.
+ * 
+ * @author Pippo
+ */
+public class SubscribeProcessor extends AProcessor
+{
+  /**
+   * Input
+   */
+  private String mQueue;
+  private int mCredit;
+  
+  /**
+   * Construct a {@link SubscribeProcessor}
+   * 
+   * @param request
+   *   The request message
+   * @param handler
+   *   The session handler
+   * @param repository
+   *   The server's repository
+   */
+  SubscribeProcessor(IMqMessage request, SessionHandler handler, IRepository repository)
+  {
+    super(request, handler, repository);
+  }
+  
+  /**
+   * Process request
+   * 
+   * @return
+   *   response message generated by {@link #respond(String, Properties)}
+   */
+  public IMqMessage process()
+  {
+    mLogger.trace("SubscribeProcessor::process() - IN");
+    
+    Properties props = new Properties();
+    if (!mConfig.isEnabled())
+    {
+      mDesc = "KAS/MQ server is disabled";
+      mLogger.trace("SubscribeProcessor::process() - {}", mDesc);
+    }
+    else
+    {
+      mQueue = mRequest.getStringProperty(IMqConstants.cKasPropertySubQueueName, null);
+      mCredit = mRequest.getIntProperty(IMqConstants.cKasPropertySubCredit, 0);
+      mLogger.trace("SubscribeProcessor::process() - Queue={}, Credit={}", mQueue, mCredit);
+      
+      MqQueue queue = mRepository.getQueue(mQueue);
+      if ((mQueue == null) || (mQueue.length() == 0))
+      {
+        mDesc = "Invalid queue name: null or empty string";
+        mLogger.trace("SubscribeProcessor::process() - {}", mDesc);
+      }
+      else if (mCredit <= 0)
+      {
+        mDesc = "Invalid credit: " + mCredit;
+        mLogger.trace("SubscribeProcessor::process() - {}", mDesc);
+      }
+      else if (queue == null)
+      {
+        mDesc = "Queue with name \"" + mQueue + "\" doesn't exist";
+        mLogger.trace("SubscribeProcessor::process() - {}", mDesc);
+      }
+      else if (!(queue instanceof MqLocalQueue))
+      {
+        mDesc = "Queue with name \"" + mQueue + "\" is not a local queue";
+        mLogger.trace("SubscribeProcessor::process() - {}", mDesc);
+      }
+      else if (mConfig.isXmitQueueName(mQueue))
+      {
+        mDesc = "Queue " + mQueue + " is a transmission queue, clients cannot subscribe to it";
+        mLogger.warn(mDesc);
+      }
+      else if (!isAccessPermitted(EResourceClass.QUEUE, mQueue, AccessLevel.READ_ACCESS))
+      {
+        mDesc = "User is not permitted to read from queues";
+        mLogger.warn(mDesc);
+      }
+      else
+      {
+        UniqueId id = mHandler.subscribe((MqLocalQueue)queue, mCredit);
+        props.setStringProperty(IMqConstants.cKasPropertySubId, id.toString());
+        mDesc = "Successfully subscribed to queue " + mQueue;
+        mCode = EMqCode.cOkay;
+        mLogger.trace("SubscribeProcessor::process() - {}, SubscriptionId={}", mDesc, id);
+      }
+    }
+    
+    mLogger.trace("SubscribeProcessor::process() - OUT");
+    return respond(null, props);
+  }
+}
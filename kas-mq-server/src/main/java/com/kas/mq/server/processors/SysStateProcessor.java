@@ -72,15 +72,18 @@ public class SysStateProcessor extends AProcessor
       else if (mActivated && !manager.isActive())
       {
         manager.activate();
+        
+        // queue lists are exchanged by repository synchronization requests. a list is still accepted,
+        // and one is sent back, if the originator sent one
         String remoteQueues = mRequest.getStringProperty(IMqConstants.cKasPropertySyssQueueList, null);
         if (remoteQueues != null)
         {
           StringList remoteQueueList = StringList.fromString(remoteQueues);
           ((MqRemoteManager)manager).setQueues(remoteQueueList);
+          
+          localQueueList = mRepository.queryLocalQueues("", true, false);
+          props.setStringProperty(IMqConstants.cKasPropertySyssQueueList, localQueueList.toString());
         }
-        
-        localQueueList = mRepository.queryLocalQueues("", true, false);
-        props.setStringProperty(IMqConstants.cKasPropertySyssQueueList, localQueueList.toString());
       }
     }
     
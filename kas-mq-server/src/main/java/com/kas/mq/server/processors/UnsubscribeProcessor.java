@@ -0,0 +1,97 @@
+package com.kas.mq.server.processors;
+
+import com.kas.infra.base.UniqueId;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.server.IRepository;
+import com.kas.mq.server.internal.SessionHandler;
+
+/**
+ * Processor for cancelling a subscription.<br>
+ * <br>
+ * Messages that were already pushed before the subscription was cancelled may still arrive at the client.
+ * 
+ * @author Pippo
+ */
+public class UnsubscribeProcessor extends AProcessor
+{
+  /**
+   * Input
+   */
+  private String mSubscription;
+  
+  /**
+   * Construct a {@link UnsubscribeProcessor}
+   * 
+   * @param request
+   *   The request message
+   * @param handler
+   *   The session handler
+   * @param repository
+   *   The server's repository
+   */
+  UnsubscribeProcessor(IMqMessage request, SessionHandler handler, IRepository repository)
+  {
+    super(request, handler, repository);
+  }
+  
+  /**
+   * Process request
+   * 
+   * @return
+   *   response message generated by {@link #respond()}
+   */
+  public IMqMessage process()
+  {
+    mLogger.trace("UnsubscribeProcessor::process() - IN");
+    
+    mSubscription = mRequest.getStringProperty(IMqConstants.cKasPropertySubId, null);
+    mLogger.trace("UnsubscribeProcessor::process() - Subscription={}", mSubscription);
+    
+    UniqueId id = toUniqueId(mSubscription);
+    if (id == null)
+    {
+      mDesc = "Invalid subscription ID: " + mSubscription;
+      mLogger.trace("UnsubscribeProcessor::process() - {}", mDesc);
+    }
+    else if (!mHandler.unsubscribe(id))
+    {
+      mDesc = "Subscription " + mSubscription + " doesn't exist";
+      mCode = EMqCode.cWarn;
+      mLogger.trace("UnsubscribeProcessor::process() - {}", mDesc);
+    }
+    else
+    {
+      mDesc = "Successfully cancelled subscription " + mSubscription;
+      mCode = EMqCode.cOkay;
+      mLogger.trace("UnsubscribeProcessor::process() - {}", mDesc);
+    }
+    
+    mLogger.trace("UnsubscribeProcessor::process() - OUT");
+    return respond();
+  }
+  
+  /**
+   * Convert a subscription ID string to a {@link UniqueId}
+   * 
+   * @param id
+   *   The subscription ID string
+   * @return
+   *   the {@link UniqueId}, or {@code null} if {@code id} is not a valid ID
+   */
+  static UniqueId toUniqueId(String id)
+  {
+    if (id == null)
+      return null;
+    
+    try
+    {
+      return UniqueId.fromString(id);
+    }
+    catch (IllegalArgumentException e)
+    {
+      return null;
+    }
+  }
+}
@@ -71,6 +71,11 @@ public class AlterQueueProcessor extends AProcessor
         mDesc = "Queue with name \"" + mQueue + "\" does not exists";
         mLogger.trace("AlterQueueProcessor::process() - {}", mDesc);
       }
+      else if (mConfig.isXmitQueueName(mQueue))
+      {
+        mDesc = "Queue " + mQueue + " is a transmission queue, clients cannot alter it";
+        mLogger.warn(mDesc);
+      }
       else if (!isAccessPermitted(EResourceClass.COMMAND, String.format("ALTER_QUEUE_%s", mQueue)))
       {
         mDesc = "User is not permitted to issue ALTER_QUEUE command";
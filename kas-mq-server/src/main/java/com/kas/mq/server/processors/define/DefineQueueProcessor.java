@@ -1,18 +1,17 @@
 package com.kas.mq.server.processors.define;
 
-import java.util.Map;
-import com.kas.comm.impl.NetworkAddress;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.impl.messages.IMqMessage;
 import com.kas.mq.internal.EMqCode;
 import com.kas.mq.internal.EQueueDisp;
 import com.kas.mq.internal.IMqConstants;
 import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqRequestFactory;
 import com.kas.mq.server.IRepository;
-import com.kas.mq.server.internal.MqServerConnection;
-import com.kas.mq.server.internal.MqServerConnectionPool;
 import com.kas.mq.server.internal.SessionHandler;
 import com.kas.mq.server.processors.AProcessor;
+import com.kas.mq.server.repo.MqQueueDirectory;
+import com.kas.mq.server.repo.MqRemoteManager;
 import com.kas.sec.access.AccessLevel;
 import com.kas.sec.resources.EResourceClass;
 
@@ -77,6 +76,11 @@ public class DefineQueueProcessor extends AProcessor
         mDesc = "Queue with name \"" + mQueue + "\" already exists";
         mLogger.trace("DefineQueueProcessor::process() - {}", mDesc);
       }
+      else if (mConfig.isXmitQueueName(mQueue))
+      {
+        mDesc = "Queue " + mQueue + " is a transmission queue, clients cannot define it";
+        mLogger.warn(mDesc);
+      }
       else if (!isAccessPermitted(EResourceClass.COMMAND, String.format("DEFINE_QUEUE_%s", mQueue)))
       {
         mDesc = "User is not permitted to issue DEFINE_QUEUE command";
@@ -118,36 +122,16 @@ public class DefineQueueProcessor extends AProcessor
     
     if (mCode == EMqCode.cOkay)
     {
-      Map<String, NetworkAddress> map = mConfig.getRemoteManagers();
       String localQmgr = mConfig.getManagerName();
+      MqQueueDirectory directory = mRepository.getQueueDirectory();
+      long epoch = directory.getEpoch();
+      long sequence = directory.getSequenceOf(mQueue.toUpperCase());
       
-      MqServerConnection conn = MqServerConnectionPool.getInstance().allocate();
-      
-      for (Map.Entry<String, NetworkAddress> entry : map.entrySet())
+      for (MqRemoteManager remoteManager : mRepository.getRemoteManagers())
       {
-        String remoteQmgrName  = entry.getKey();
-        NetworkAddress address = entry.getValue();
-        
-        mLogger.trace("DefineQueueProcessor::postprocess() - Notifying KAS/MQ server \"{}\" ({}) on repository update", remoteQmgrName, address);
-        
-        conn.connect(address.getHost(), address.getPort());
-        if (conn.isConnected())
-        {
-          boolean logged = conn.login(IMqConstants.cSystemUserName, IMqConstants.cSystemPassWord);
-          if (!logged)
-          {
-            mLogger.trace("DefineQueueProcessor::postprocess() - Failed to login to remote KAS/MQ server at {}", address);
-            continue;
-          }
-          
-          boolean success = conn.notifyRepoUpdate(localQmgr, mQueue, true);
-          mLogger.trace("DefineQueueProcessor::postprocess() - Notification returned: {}", success);
-          
-          conn.disconnect();
-        }
+        mLogger.trace("DefineQueueProcessor::postprocess() - Posting repository update to KAS/MQ server \"{}\"", remoteManager.getName());
+        remoteManager.postNotification(MqRequestFactory.createRepositoryUpdateMessage(localQmgr, mQueue, true, epoch, sequence));
       }
-      
-      MqServerConnectionPool.getInstance().release(conn);
     }
     
     mLogger.trace("DefineQueueProcessor::postprocess() - OUT");
@@ -8,7 +8,6 @@ import com.kas.mq.internal.EMqCode;
 import com.kas.mq.internal.IMqConstants;
 import com.kas.mq.server.IRepository;
 import com.kas.mq.server.internal.MqServerConnection;
-import com.kas.mq.server.internal.MqServerConnectionPool;
 import com.kas.mq.server.internal.SessionHandler;
 import com.kas.mq.server.processors.AProcessor;
 import com.kas.mq.server.processors.EQueryType;
@@ -79,7 +78,7 @@ public class QueryConnectionProcessor extends AProcessor
       }
       else if (mConnectionId != null)
       {
-        MqServerConnection conn = MqServerConnectionPool.getInstance().getConnection(mConnectionId);
+        MqServerConnection conn = mRepository.getConnectionPool().getConnection(mConnectionId);
         if (conn == null)
         {
           sb.append("No connections displayed");
@@ -92,7 +91,7 @@ public class QueryConnectionProcessor extends AProcessor
       }
       else
       {
-        Collection<MqServerConnection> col = MqServerConnectionPool.getInstance().getConnections();
+        Collection<MqServerConnection> col = mRepository.getConnectionPool().getConnections();
         for (MqServerConnection conn : col)
           sb.append(conn.toPrintableString()).append('\n');
         sb.append(col.size() + " connections displayed");
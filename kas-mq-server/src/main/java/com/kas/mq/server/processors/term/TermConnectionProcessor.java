@@ -64,7 +64,7 @@ public class TermConnectionProcessor extends AProcessor
       if (connid != null) mConnectionId = UniqueId.fromString(connid);
       mLogger.trace("TermConnectionProcessor::process() - ConnectionId={}", mConnectionId);
       
-      MqServerConnectionPool pool = MqServerConnectionPool.getInstance();
+      MqServerConnectionPool pool = mRepository.getConnectionPool();
       MqServerConnection conn = pool.getConnection(mConnectionId);
       if (conn == null)
       {
@@ -72,7 +72,7 @@ public class TermConnectionProcessor extends AProcessor
       }
       else
       {
-        pool.release(conn);
+        pool.terminate(conn);
         mCode = EMqCode.cOkay;
         mDesc = "Connection with ID " + mConnectionId + " was successfully terminated";
         mLogger.trace("TermConnectionProcessor::process() - {}", mDesc);
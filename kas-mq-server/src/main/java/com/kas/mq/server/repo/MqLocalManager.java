@@ -1,18 +1,26 @@
 package com.kas.mq.server.repo;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.InvalidPropertyValueException;
 import com.kas.infra.base.Properties;
 import com.kas.infra.base.PropertyNotFoundException;
-import com.kas.infra.utils.RunTimeUtils;
+import com.kas.infra.base.threads.KasThreadFactory;
 import com.kas.infra.utils.StringUtils;
 import com.kas.mq.internal.EQueueDisp;
 import com.kas.mq.internal.IMqConstants;
 import com.kas.mq.internal.MqLocalQueue;
 import com.kas.mq.internal.MqManager;
 import com.kas.mq.internal.MqQueue;
+import com.kas.mq.internal.MqQueueJournal;
+import com.kas.mq.server.MqConfiguration;
 
 /**
  * The {@link MqLocalManager} is the class that does the actual managing of local queues for the {@link ServerRepository}
@@ -26,38 +34,54 @@ public class MqLocalManager extends MqManager
    */
   private MqLocalQueue mDeadQueue;
   
+  /**
+   * KAS/MQ configuration
+   */
+  private MqConfiguration mConfig;
+  
+  /**
+   * The versioned list of local queues that remote servers see
+   */
+  private MqQueueDirectory mDirectory = new MqQueueDirectory();
+  
+  /**
+   * The repository directory, holding the queues' backup files, journals and stores
+   */
+  private File mRepositoryDir;
+  
   /**
    * Construct the {@link MqLocalManager}
    * 
-   * @param name
-   *   The name of the local manager
-   * @param port
-   *   The port on which the manager listens
-   * @param deadq
-   *   The name of the dead queue
+   * @param config
+   *   The {@link MqConfiguration} holding the manager name, port, dead queue name, journaling and storage settings
+   * @param repoDir
+   *   The repository directory
    */
-  MqLocalManager(String name, int port, String deadq)
+  MqLocalManager(MqConfiguration config, File repoDir)
   {
-    super(name, "localhost", port);
-    mDeadQueue = defineQueue(deadq, "Dead queue", IMqConstants.cDefaultQueueThreshold, EQueueDisp.TEMPORARY);
+    super(config.getManagerName(), "localhost", config.getPort());
+    mConfig = config;
+    mRepositoryDir = repoDir;
+    mDeadQueue = defineQueue(config.getDeadQueueName(), "Dead queue", IMqConstants.cDefaultQueueThreshold, EQueueDisp.TEMPORARY);
   }
   
   /**
    * Activate {@link MqLocalManager}: restore local queues from file system.<br>
-   * If the {@code repo} directory does not exist, create it
+   * If the repository directory does not exist, create it
    * If it exists but it's not a directory, end with an error.
-   * Otherwise, read the directory contents and construct a {@link MqLocalQueue} per ".qbk" file.
+   * Otherwise, read the directory contents and construct a {@link MqLocalQueue} per ".qbk" file,
+   * then {@link #restoreQueues(List) restore} them.
    */
   public void activate()
   {
     mLogger.trace("MqLocalManager::activate() - IN");
     
     boolean success = true;
-    String repoDirPath = RunTimeUtils.getProductHomeDir() + File.separatorChar + "repo";
-    File repoDir = new File(repoDirPath);
+    String repoDirPath = mRepositoryDir.getPath();
+    File repoDir = mRepositoryDir;
     if (!repoDir.exists())
     {
-      success = repoDir.mkdir();
+      success = repoDir.mkdirs();
       mLogger.info("MqLocalManager::activate() - Repository directory does not exist, try to create. result={}", success);
     }
     else if (!repoDir.isDirectory())
@@ -67,6 +91,7 @@ public class MqLocalManager extends MqManager
     }
     else
     {
+      List<MqLocalQueue> queues = new ArrayList<MqLocalQueue>();
       String [] entries = repoDir.list();
       for (String entry : entries)
       {
@@ -78,18 +103,70 @@ public class MqLocalManager extends MqManager
         {
           String qName = entry.substring(0, entry.lastIndexOf('.'));
           mLogger.debug("MqLocalManager::activate() - Restoring contents of queue [{}]", qName);
-          MqLocalQueue q = defineQueue(qName, "", IMqConstants.cDefaultQueueThreshold, EQueueDisp.PERMANENT);
-          boolean restored = q.restore();
-          mLogger.debug("MqLocalManager::activate() - Restore operation for queue {} {}", qName, (restored ? " succeeded" : " failed"));
-          success = success && restored;
+          MqLocalQueue q = createQueue(qName, "", IMqConstants.cDefaultQueueThreshold, EQueueDisp.PERMANENT);
+          q.beginRestore();
+          queues.add(q);
         }
       }
+      success = restoreQueues(queues);
     }
     
     mActive = success;
     mLogger.trace("MqLocalManager::activate() - OUT");
   }
   
+  /**
+   * Restore the contents of {@code queues} in parallel, on a pool of restore threads.<br>
+   * In lazy mode, the method returns as soon as the restores are started. Each queue becomes available
+   * when its own restore completes; until then, puts and gets on that queue wait for it.
+   * 
+   * @param queues
+   *   The queues to restore. They must have been marked with {@link MqLocalQueue#beginRestore()}
+   * @return
+   *   {@code true} if all queues were restored, or if restoring lazily, {@code false} otherwise
+   */
+  private boolean restoreQueues(List<MqLocalQueue> queues)
+  {
+    mLogger.trace("MqLocalManager::restoreQueues() - IN, Queues={}", queues.size());
+    if (queues.isEmpty())
+      return true;
+    
+    int threads = mConfig.getRestoreThreads();
+    if (threads <= 0)
+      threads = Runtime.getRuntime().availableProcessors();
+    threads = Math.min(threads, queues.size());
+    
+    AtomicBoolean success = new AtomicBoolean(true);
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new KasThreadFactory("KasRestoreThread"));
+    for (MqLocalQueue q : queues)
+      executor.execute(new QueueRestoreTask(q, mConfig.isJournalEnabled() ? newJournal(q.getName()) : null, success));
+    executor.shutdown();
+    
+    boolean result = true;
+    if (mConfig.isRestoreLazy())
+    {
+      mLogger.info("Restoring {} queues in the background using {} threads", queues.size(), threads);
+    }
+    else
+    {
+      mLogger.info("Restoring {} queues using {} threads", queues.size(), threads);
+      try
+      {
+        while (!executor.awaitTermination(10, TimeUnit.SECONDS))
+          mLogger.info("Still restoring queues...");
+        result = success.get();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        result = false;
+      }
+    }
+    
+    mLogger.trace("MqLocalManager::restoreQueues() - OUT, Returns={}", result);
+    return result;
+  }
+  
   /**
    * Deactivate {@link MqLocalManager}: Backup queues to the file system.<br>
    * For each queue in the map, save its contents as a file in the {@code repo} directory.
@@ -132,19 +209,57 @@ public class MqLocalManager extends MqManager
   MqLocalQueue defineQueue(String name, String desc, int threshold, EQueueDisp disp)
   {
     mLogger.trace("MqLocalManager::defineQueue() - IN, Name={}, Threshold={}, Disposition={}", name, threshold, disp);
-    MqLocalQueue queue = null;
     
+    MqLocalQueue queue = createQueue(name, desc, threshold, disp);
+    if ((queue != null) && (disp == EQueueDisp.PERMANENT) && (mConfig.isJournalEnabled()))
+      queue.attachJournal(newJournal(queue.getName()), true);
+    
+    mLogger.trace("MqLocalManager::defineQueue() - OUT, Returns={}", StringUtils.asString(queue));
+    return queue;
+  }
+  
+  /**
+   * Create a local queue object and add it to the queue map, without touching the file system
+   * 
+   * @param name
+   *   The name of the queue to create
+   * @param desc
+   *   The description of the queue
+   * @param threshold
+   *   The threshold of the queue
+   * @param disp
+   *   Queue disposition
+   * @return
+   *   the created {@link MqLocalQueue}
+   */
+  private MqLocalQueue createQueue(String name, String desc, int threshold, EQueueDisp disp)
+  {
+    MqLocalQueue queue = null;
     if (name != null)
     {
       name = name.toUpperCase();
-      queue = new MqLocalQueue(this, name, desc, threshold, disp);
+      queue = new MqLocalQueue(this, name, desc, threshold, disp, mRepositoryDir);
+      queue.configureStore(mConfig.getStoreSegmentSize(), mConfig.getStoreHeapLimit());
       mQueues.put(name, queue);
+      if (!mConfig.isXmitQueueName(name))
+        mDirectory.add(name);
     }
-    
-    mLogger.trace("MqLocalManager::defineQueue() - OUT, Returns={}", StringUtils.asString(queue));
     return queue;
   }
   
+  /**
+   * Create a journal for a permanent queue, according to the journaling configuration
+   * 
+   * @param name
+   *   The name of the queue
+   * @return
+   *   the {@link MqQueueJournal}
+   */
+  private MqQueueJournal newJournal(String name)
+  {
+    return new MqQueueJournal(mRepositoryDir, name, mConfig.isJournalSyncOnPut(), mConfig.getJournalCommitDelay());
+  }
+  
   /**
    * Alter a local queue object
    * 
@@ -188,6 +303,11 @@ public class MqLocalManager extends MqManager
         {
           EQueueDisp newDisp = EQueueDisp.fromString(qprops.getStringProperty(IMqConstants.cKasPropertyAltDisp));
           queue.setDisposition(newDisp);
+          
+          if (newDisp == EQueueDisp.TEMPORARY)
+            queue.discard();
+          else if ((!queue.isJournaled()) && (mConfig.isJournalEnabled()))
+            queue.attachJournal(newJournal(queue.getName()), true);
         }
       }
 
@@ -222,6 +342,11 @@ public class MqLocalManager extends MqManager
     {
       name = name.toUpperCase();
       queue = (MqLocalQueue)mQueues.remove(name);
+      if (queue != null)
+      {
+        mDirectory.remove(name);
+        queue.discard();
+      }
     }
     
     mLogger.trace("MqLocalManager::deleteQueue() - OUT, Returns=[{}]", StringUtils.asString(queue));
@@ -262,6 +387,17 @@ public class MqLocalManager extends MqManager
     return mQueues.values();
   }
   
+  /**
+   * Get the versioned list of local queues
+   * 
+   * @return
+   *   the {@link MqQueueDirectory}
+   */
+  MqQueueDirectory getDirectory()
+  {
+    return mDirectory;
+  }
+  
   /**
    * Get the dead queue
    * 
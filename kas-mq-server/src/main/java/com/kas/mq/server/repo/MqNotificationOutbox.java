@@ -0,0 +1,507 @@
+package com.kas.mq.server.repo;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.AKasRunnable;
+import com.kas.infra.base.threads.KasRunnableThread;
+import com.kas.infra.typedef.StringList;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqBytesMessage;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.ERequestType;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqDirectoryDelta;
+import com.kas.mq.internal.MqRequestFactory;
+import com.kas.mq.server.internal.MqServerConnection;
+import com.kas.mq.server.internal.MqServerConnectionPool;
+
+/**
+ * A {@link MqNotificationOutbox} holds the notifications waiting to be sent to the KAS/MQ server of a {@link MqRemoteManager},
+ * and sends them, one after the other, on a thread of its own.<br>
+ * <br>
+ * Each remote server has its own outbox, so notifications are sent to all remote servers in parallel, and whoever
+ * posts a notification does not wait for it to be sent. A notification the remote server did not reply to within
+ * the timeout is sent again after the retry interval, which doubles with each further failure.<br>
+ * <br>
+ * The outbox can also be asked to synchronize queue directories with the remote server. Requests to synchronize
+ * are merged, and a synchronization starts once the notifications posted before it were sent.
+ * When the outbox is full, the queue define and delete notifications in it are dropped, and replaced
+ * by a single synchronization, which brings the remote server up to date just the same.
+ * 
+ * @author Pippo
+ */
+class MqNotificationOutbox extends AKasRunnable
+{
+  /**
+   * Maximum number of request/reply rounds in a single synchronization
+   */
+  static private final int cMaxSyncRounds = 3;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The remote server
+   */
+  private MqRemoteManager mManager;
+  
+  /**
+   * The name of the local server, and its queue directory
+   */
+  private String mLocalName;
+  private MqQueueDirectory mDirectory;
+  
+  /**
+   * The pool that provides connections to the remote server
+   */
+  private MqServerConnectionPool mPool;
+  
+  /**
+   * Reply timeout, maximum number of pending notifications, and the initial and maximum retry intervals
+   */
+  private long mTimeout;
+  private int mMaxPending;
+  private long mRetryInterval;
+  private long mMaxRetryInterval;
+  
+  /**
+   * Pending notifications, oldest first. The first one is removed once it was sent
+   */
+  private LinkedList<IMqMessage> mPending = new LinkedList<IMqMessage>();
+  
+  /**
+   * Whether a synchronization was requested, and whether a notification or a synchronization is being sent
+   */
+  private boolean mSyncRequested = false;
+  private boolean mBusy = false;
+  
+  /**
+   * The notification being sent, or {@code null} while synchronizing. Used by the sending thread only
+   */
+  private IMqMessage mCurrent = null;
+  
+  /**
+   * Number of notifications sent, dropped and failed attempts
+   */
+  private volatile long mSent = 0;
+  private volatile long mDropped = 0;
+  private volatile long mFailed = 0;
+  
+  /**
+   * The sending thread
+   */
+  private KasRunnableThread mThread;
+  
+  /**
+   * Construct a {@link MqNotificationOutbox}
+   * 
+   * @param manager
+   *   The remote server
+   * @param localName
+   *   The name of the local server
+   * @param directory
+   *   The local queue directory
+   * @param pool
+   *   The pool that provides connections to the remote server
+   * @param timeout
+   *   The time, in milliseconds, to wait for the remote server to reply
+   * @param maxPending
+   *   The maximum number of pending notifications
+   * @param retryInterval
+   *   The time, in milliseconds, to wait before sending again after the first failure
+   * @param maxRetryInterval
+   *   The maximum time, in milliseconds, to wait before sending again after a failure
+   */
+  MqNotificationOutbox(MqRemoteManager manager, String localName, MqQueueDirectory directory, MqServerConnectionPool pool, long timeout, int maxPending, long retryInterval, long maxRetryInterval)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mManager = manager;
+    mLocalName = localName;
+    mDirectory = directory;
+    mPool = pool;
+    mTimeout = Math.max(1, timeout);
+    mMaxPending = Math.max(1, maxPending);
+    mRetryInterval = Math.max(1, retryInterval);
+    mMaxRetryInterval = Math.max(mRetryInterval, maxRetryInterval);
+  }
+  
+  /**
+   * Start sending on a thread of its own
+   */
+  synchronized void start()
+  {
+    if (mThread == null)
+    {
+      mThread = new KasRunnableThread("KasNotifier-" + mManager.getName(), this);
+      mThread.setDaemon(true);
+      mThread.start();
+    }
+  }
+  
+  /**
+   * Stop sending and wait for the sending thread to end, but no longer than the reply timeout.<br>
+   * Notifications still pending are dropped.
+   */
+  void term()
+  {
+    mLogger.trace("MqNotificationOutbox::term() - IN, Manager={}", mManager.getName());
+    
+    stop();
+    KasRunnableThread thread;
+    synchronized (this)
+    {
+      notifyAll();
+      thread = mThread;
+    }
+    
+    if (thread != null)
+    {
+      try
+      {
+        thread.join(mTimeout);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+    
+    mLogger.trace("MqNotificationOutbox::term() - OUT");
+  }
+  
+  /**
+   * Post a notification.<br>
+   * The notification is sent after all notifications posted before it.
+   * 
+   * @param message
+   *   The notification request
+   */
+  synchronized void post(IMqMessage message)
+  {
+    if (mPending.size() >= mMaxPending)
+    {
+      int dropped = 0;
+      Iterator<IMqMessage> iter = mPending.iterator();
+      while (iter.hasNext())
+      {
+        if (iter.next().getRequestType() == ERequestType.cNotifyRepoUpdate)
+        {
+          iter.remove();
+          ++dropped;
+        }
+      }
+      
+      if (message.getRequestType() == ERequestType.cNotifyRepoUpdate)
+      {
+        message = null;
+        ++dropped;
+      }
+      else if (mPending.size() >= mMaxPending)
+      {
+        mPending.removeFirst();
+        ++dropped;
+      }
+      
+      mLogger.debug("MqNotificationOutbox::post() - Outbox of {} is full, dropped {} notifications", mManager.getName(), dropped);
+      mDropped += dropped;
+      mSyncRequested = true;
+    }
+    
+    if (message != null)
+      mPending.addLast(message);
+    notifyAll();
+  }
+  
+  /**
+   * Request a synchronization of queue directories with the remote server.<br>
+   * The synchronization starts once the notifications posted before the request were sent.
+   */
+  synchronized void requestSync()
+  {
+    mSyncRequested = true;
+    notifyAll();
+  }
+  
+  /**
+   * Wait for all pending notifications, and a requested synchronization, to be sent
+   * 
+   * @param deadline
+   *   The time, in milliseconds since the epoch, after which to stop waiting
+   * @return
+   *   {@code true} if the outbox is empty, {@code false} if the deadline passed first
+   */
+  synchronized boolean flush(long deadline)
+  {
+    long remaining = deadline - System.currentTimeMillis();
+    while ((isPending()) && (remaining > 0) && (!mStop))
+    {
+      try
+      {
+        wait(remaining);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return !isPending();
+  }
+  
+  /**
+   * Get an indication whether there's anything left to send. The caller must hold the outbox's lock
+   * 
+   * @return
+   *   {@code true} if there are pending notifications, a requested synchronization, or something being sent
+   */
+  private boolean isPending()
+  {
+    return (!mPending.isEmpty()) || (mSyncRequested) || (mBusy);
+  }
+  
+  /**
+   * Send notifications, and synchronize when requested, until stopped
+   */
+  public void run()
+  {
+    mLogger.trace("MqNotificationOutbox::run() - IN, Manager={}", mManager.getName());
+    
+    long delay = mRetryInterval;
+    while (take())
+    {
+      boolean sync = mCurrent == null;
+      boolean success = sync ? synchronize() : send(mCurrent);
+      
+      synchronized (this)
+      {
+        mBusy = false;
+        if ((success) && (!sync) && (mPending.peekFirst() == mCurrent))
+          mPending.removeFirst();
+        else if ((!success) && (sync))
+          mSyncRequested = true;
+        notifyAll();
+      }
+      
+      if (success)
+      {
+        delay = mRetryInterval;
+      }
+      else
+      {
+        ++mFailed;
+        mLogger.debug("MqNotificationOutbox::run() - Failed to notify {}, retrying in {} milliseconds", mManager.getName(), delay);
+        pause(delay);
+        delay = Math.min(delay * 2, mMaxRetryInterval);
+      }
+    }
+    
+    mLogger.trace("MqNotificationOutbox::run() - OUT");
+  }
+  
+  /**
+   * Wait for the next thing to send, and mark the outbox busy sending it.<br>
+   * The oldest pending notification is set as the current one. If there are none, a synchronization
+   * was requested, and the current notification is set to {@code null}.
+   * 
+   * @return
+   *   {@code true} if there's something to send, {@code false} if the outbox was stopped
+   */
+  private synchronized boolean take()
+  {
+    while ((!mStop) && (mPending.isEmpty()) && (!mSyncRequested))
+    {
+      try
+      {
+        wait();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        mStop = true;
+      }
+    }
+    
+    if (mStop)
+      return false;
+    
+    mBusy = true;
+    mCurrent = mPending.peekFirst();
+    if (mCurrent == null)
+      mSyncRequested = false;
+    return true;
+  }
+  
+  /**
+   * Send a notification to the remote server
+   * 
+   * @param message
+   *   The notification request
+   * @return
+   *   {@code true} if the remote server replied, {@code false} if the notification should be sent again
+   */
+  private boolean send(IMqMessage message)
+  {
+    mLogger.trace("MqNotificationOutbox::send() - IN, Manager={}, Type={}", mManager.getName(), message.getRequestType());
+    
+    MqServerConnection conn = mPool.allocate(mManager);
+    if (conn == null)
+    {
+      mLogger.trace("MqNotificationOutbox::send() - OUT, No connection to manager {}", mManager.getName());
+      return false;
+    }
+    
+    IMqMessage reply = conn.requestReply(message, mTimeout);
+    if (reply == null)
+    {
+      mPool.terminate(conn);
+      mPool.release(conn);
+      mLogger.trace("MqNotificationOutbox::send() - OUT, No reply from manager {}", mManager.getName());
+      return false;
+    }
+    mPool.release(conn);
+    ++mSent;
+    
+    if (message.getRequestType() == ERequestType.cNotifySysState)
+    {
+      String remoteQueues = reply.getStringProperty(IMqConstants.cKasPropertySyssQueueList, null);
+      if (remoteQueues != null)
+        mManager.setQueues(StringList.fromString(remoteQueues));
+    }
+    else if ((message.getRequestType() == ERequestType.cNotifyRepoUpdate) && (reply.getResponse().getCode() != EMqCode.cOkay))
+    {
+      mLogger.debug("MqNotificationOutbox::send() - Manager {} did not apply repository update: {}", mManager.getName(), reply.getResponse().getDesc());
+      requestSync();
+    }
+    
+    mLogger.trace("MqNotificationOutbox::send() - OUT");
+    return true;
+  }
+  
+  /**
+   * Synchronize queue directories with the remote server.<br>
+   * Each request carries the local view of the remote directory, and the reply carries the changes since that view.
+   * The reply also carries the remote view of the local directory, and if it's behind, the changes since
+   * are sent with the next request. The remote manager is activated once the remote server replied.
+   * 
+   * @return
+   *   {@code true} if the remote server replied, {@code false} if the synchronization should be attempted again
+   */
+  private boolean synchronize()
+  {
+    mLogger.trace("MqNotificationOutbox::synchronize() - IN, Manager={}", mManager.getName());
+    
+    MqServerConnection conn = mPool.allocate(mManager);
+    if (conn == null)
+    {
+      mLogger.trace("MqNotificationOutbox::synchronize() - OUT, No connection to manager {}", mManager.getName());
+      return false;
+    }
+    
+    byte [] changes = null;
+    boolean synced = false;
+    boolean replied = true;
+    for (int round = 0; (round < cMaxSyncRounds) && (!synced) && (replied); ++round)
+    {
+      IMqMessage request = MqRequestFactory.createRepositorySyncRequest(mLocalName, mManager.getViewEpoch(), mManager.getViewSequence(), mManager.getViewDigest(), changes);
+      IMqMessage reply = conn.requestReply(request, mTimeout);
+      if (reply == null)
+      {
+        replied = false;
+        break;
+      }
+      
+      if ((reply.getResponse().getCode() != EMqCode.cOkay) || (!(reply instanceof MqBytesMessage)))
+      {
+        mLogger.debug("MqNotificationOutbox::synchronize() - Manager {} did not synchronize: {}", mManager.getName(), reply.getResponse().getDesc());
+        break;
+      }
+      
+      if (!mManager.isActive())
+        mManager.activate();
+      
+      boolean current;
+      try
+      {
+        MqDirectoryDelta delta = MqDirectoryDelta.fromByteArray(((MqBytesMessage)reply).getBody());
+        current = mManager.applyDirectoryDelta(delta);
+        mLogger.trace("MqNotificationOutbox::synchronize() - Applied changes of {}: Added={}; Removed={}; Full={}", mManager.getName(), delta.getAdded().size(), delta.getRemoved().size(), delta.isFull());
+      }
+      catch (IOException e)
+      {
+        mLogger.warn("Invalid queue directory changes from remote KAS/MQ server " + mManager.getName() + ". Exception: ", e);
+        break;
+      }
+      
+      long epoch = reply.getLongProperty(IMqConstants.cKasPropertyRsyncEpoch, 0);
+      long sequence = reply.getLongProperty(IMqConstants.cKasPropertyRsyncSequence, 0);
+      long digest = reply.getLongProperty(IMqConstants.cKasPropertyRsyncDigest, 0);
+      MqDirectoryDelta mine = mDirectory.changesSince(epoch, sequence, digest);
+      boolean remoteCurrent = (epoch == mine.getEpoch()) && (sequence == mine.getSequence()) && (digest == mine.getDigest());
+      changes = remoteCurrent ? null : mine.toByteArray();
+      synced = current && remoteCurrent;
+    }
+    
+    if (!replied)
+      mPool.terminate(conn);
+    mPool.release(conn);
+    
+    mLogger.trace("MqNotificationOutbox::synchronize() - OUT, Synchronized={}", synced);
+    return replied;
+  }
+  
+  /**
+   * Wait before sending again, unless stopped in the meantime.<br>
+   * Notifications posted in the meantime do not cut the wait short.
+   * 
+   * @param delay
+   *   The time to wait, in milliseconds
+   */
+  private synchronized void pause(long delay)
+  {
+    long deadline = System.currentTimeMillis() + delay;
+    long remaining = delay;
+    while ((!mStop) && (remaining > 0))
+    {
+      try
+      {
+        wait(remaining);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        mStop = true;
+      }
+      remaining = deadline - System.currentTimeMillis();
+    }
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public synchronized String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Manager=").append(mManager.getName()).append("\n")
+      .append(pad).append("  Pending=").append(mPending.size()).append("\n")
+      .append(pad).append("  SyncRequested=").append(mSyncRequested).append("\n")
+      .append(pad).append("  Sent=").append(mSent).append("\n")
+      .append(pad).append("  Dropped=").append(mDropped).append("\n")
+      .append(pad).append("  Failed=").append(mFailed).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
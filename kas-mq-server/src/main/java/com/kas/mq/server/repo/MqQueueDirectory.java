@@ -0,0 +1,241 @@
+package com.kas.mq.server.repo;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.mq.internal.MqDirectoryDelta;
+
+/**
+ * The {@link MqQueueDirectory} keeps the versioned list of the local queues that remote KAS/MQ servers see.<br>
+ * <br>
+ * The directory's epoch is set when the server starts, and its sequence number is incremented with each queue
+ * defined or deleted. The most recent changes are kept in a log of {@link #cLogSize} entries, so a remote server
+ * that tells which version it last saw gets only the queues that changed since then.
+ * A remote server whose version is too old, or of an earlier epoch, gets all the queues, unless its digest
+ * shows it already has the same queues, as it does when this server restarted without changes.
+ * 
+ * @author Pippo
+ */
+public class MqQueueDirectory extends AKasObject
+{
+  /**
+   * Number of changes kept in the log
+   */
+  static public final int cLogSize = 4096;
+  
+  /**
+   * The directory version
+   */
+  private long mEpoch;
+  private long mSequence = 0;
+  
+  /**
+   * The upper-case names of the queues, and the sum of their hashes
+   */
+  private Set<String> mNames = new HashSet<String>();
+  private long mDigest = 0;
+  
+  /**
+   * The change log. Change {@code n} is kept at index {@code n % cLogSize}
+   */
+  private String [] mLogNames = new String[cLogSize];
+  
+  /**
+   * Construct a {@link MqQueueDirectory} whose epoch is the current time
+   */
+  MqQueueDirectory()
+  {
+    this(System.currentTimeMillis());
+  }
+  
+  /**
+   * Construct a {@link MqQueueDirectory}
+   * 
+   * @param epoch
+   *   The directory's epoch
+   */
+  MqQueueDirectory(long epoch)
+  {
+    mEpoch = epoch;
+  }
+  
+  /**
+   * Record that a queue was defined
+   * 
+   * @param name
+   *   The upper-case name of the queue
+   * @return
+   *   the sequence number of the change, or 0 if the queue was already in the directory
+   */
+  synchronized long add(String name)
+  {
+    if (!mNames.add(name))
+      return 0;
+    
+    mDigest += MqDirectoryDelta.hash(name);
+    return log(name);
+  }
+  
+  /**
+   * Record that a queue was deleted
+   * 
+   * @param name
+   *   The upper-case name of the queue
+   * @return
+   *   the sequence number of the change, or 0 if the queue was not in the directory
+   */
+  synchronized long remove(String name)
+  {
+    if (!mNames.remove(name))
+      return 0;
+    
+    mDigest -= MqDirectoryDelta.hash(name);
+    return log(name);
+  }
+  
+  /**
+   * Log a change
+   * 
+   * @param name
+   *   The name of the queue that changed
+   * @return
+   *   the sequence number of the change
+   */
+  private long log(String name)
+  {
+    ++mSequence;
+    mLogNames[(int)(mSequence % cLogSize)] = name;
+    return mSequence;
+  }
+  
+  /**
+   * Get the sequence number of the last change of a queue
+   * 
+   * @param name
+   *   The upper-case name of the queue
+   * @return
+   *   the sequence number, or 0 if the queue did not change since the oldest change in the log
+   */
+  public synchronized long getSequenceOf(String name)
+  {
+    for (long seq = mSequence; (seq > 0) && (seq > mSequence - cLogSize); --seq)
+    {
+      if (name.equals(mLogNames[(int)(seq % cLogSize)]))
+        return seq;
+    }
+    return 0;
+  }
+  
+  /**
+   * Get the changes a remote server needs to see the directory as it is now
+   * 
+   * @param epoch
+   *   The epoch of the version the remote server has
+   * @param sequence
+   *   The sequence number of the version the remote server has
+   * @param digest
+   *   The digest of the queues the remote server has
+   * @return
+   *   the {@link MqDirectoryDelta} that brings the remote server to the current version
+   */
+  public synchronized MqDirectoryDelta changesSince(long epoch, long sequence, long digest)
+  {
+    MqDirectoryDelta delta;
+    if ((epoch == mEpoch) && (sequence == mSequence) && (digest == mDigest))
+    {
+      delta = new MqDirectoryDelta(mEpoch, mSequence, mDigest, false);
+    }
+    else if ((epoch == mEpoch) && (sequence < mSequence) && (sequence >= mSequence - cLogSize))
+    {
+      delta = new MqDirectoryDelta(mEpoch, mSequence, mDigest, false);
+      Set<String> changed = new LinkedHashSet<String>();
+      for (long seq = sequence + 1; seq <= mSequence; ++seq)
+        changed.add(mLogNames[(int)(seq % cLogSize)]);
+      
+      for (String name : changed)
+      {
+        if (mNames.contains(name))
+          delta.getAdded().add(name);
+        else
+          delta.getRemoved().add(name);
+      }
+    }
+    else if (digest == mDigest)
+    {
+      delta = new MqDirectoryDelta(mEpoch, mSequence, mDigest, false);
+    }
+    else
+    {
+      delta = new MqDirectoryDelta(mEpoch, mSequence, mDigest, true);
+      delta.getAdded().addAll(mNames);
+    }
+    return delta;
+  }
+  
+  /**
+   * Get the directory's epoch
+   * 
+   * @return
+   *   the epoch
+   */
+  public synchronized long getEpoch()
+  {
+    return mEpoch;
+  }
+  
+  /**
+   * Get the directory's sequence number
+   * 
+   * @return
+   *   the sequence number of the last change
+   */
+  public synchronized long getSequence()
+  {
+    return mSequence;
+  }
+  
+  /**
+   * Get the directory's digest
+   * 
+   * @return
+   *   the sum of the hashes of the queue names
+   */
+  public synchronized long getDigest()
+  {
+    return mDigest;
+  }
+  
+  /**
+   * Get the number of queues in the directory
+   * 
+   * @return
+   *   the number of queues
+   */
+  public synchronized int size()
+  {
+    return mNames.size();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public synchronized String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Epoch=").append(mEpoch).append("\n")
+      .append(pad).append("  Sequence=").append(mSequence).append("\n")
+      .append(pad).append("  Digest=").append(Long.toHexString(mDigest)).append("\n")
+      .append(pad).append("  Queues=").append(mNames.size()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
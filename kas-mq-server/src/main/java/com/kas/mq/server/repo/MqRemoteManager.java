@@ -1,22 +1,93 @@
 package com.kas.mq.server.repo;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.Properties;
 import com.kas.infra.typedef.StringList;
 import com.kas.infra.utils.StringUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.internal.MqDirectoryDelta;
+import com.kas.mq.internal.MqLocalQueue;
 import com.kas.mq.internal.MqManager;
 import com.kas.mq.internal.MqQueue;
 import com.kas.mq.internal.MqRemoteQueue;
+import com.kas.mq.server.MqConfiguration;
 import com.kas.mq.server.internal.MqServerConnectionPool;
 
 /**
  * The {@link MqRemoteManager} is the class that does the actual managing of remote queues
- * owned by a specific KAS/MQ server
+ * owned by a specific KAS/MQ server.<br>
+ * <br>
+ * Once {@link #startForwarding(MqLocalQueue, MqLocalQueue, MqConfiguration) forwarding is started},
+ * messages put to its queues are stored in its transmission queue, and forwarded by a {@link MqTransmissionForwarder}.<br>
+ * <br>
+ * Queues added to the manager and removed from it are also added to and removed from the {@link MqRemoteQueueIndex}
+ * shared by all remote managers.<br>
+ * <br>
+ * The manager keeps the version of the remote server's {@link MqQueueDirectory queue directory} its queues reflect,
+ * and the digest of their names, so it's brought up to date with {@link #applyDirectoryDelta(MqDirectoryDelta) deltas}
+ * rather than with the full list of queues.<br>
+ * <br>
+ * Once {@link #startNotifying(MqQueueDirectory, String, MqConfiguration) notifying is started},
+ * notifications to the remote server are {@link #postNotification(IMqMessage) posted} to a {@link MqNotificationOutbox},
+ * which sends them in the background, so the caller never waits for the remote server.
  * 
  * @author Pippo
  */
 public class MqRemoteManager extends MqManager
 {
+  /**
+   * The transmission queue, or {@code null} if messages are put to the remote server right away
+   */
+  private volatile MqLocalQueue mTransmissionQueue = null;
+  
+  /**
+   * The forwarder draining the transmission queue
+   */
+  private MqTransmissionForwarder mForwarder = null;
+  
+  /**
+   * The outbox of notifications to the remote server
+   */
+  private volatile MqNotificationOutbox mOutbox = null;
+  
+  /**
+   * The index of the queues of all remote managers
+   */
+  private MqRemoteQueueIndex mIndex;
+  
+  /**
+   * The pool of the connections to the remote server
+   */
+  private MqServerConnectionPool mPool;
+  
+  /**
+   * The version of the remote queue directory the queues reflect, and the digest of the queue names
+   */
+  private long mViewEpoch = 0;
+  private long mViewSequence = 0;
+  private long mViewDigest = 0;
+  
+  /**
+   * Construct the {@link MqRemoteManager}
+   * 
+   * @param name
+   *   The name of this manager
+   * @param host
+   *   The name (or IP address) of the host 
+   * @param port
+   *   The port to which this manager listens on
+   * @param index
+   *   The index of the queues of all remote managers
+   */
+  MqRemoteManager(String name, String host, int port, MqRemoteQueueIndex index)
+  {
+    this(name, host, port, index, MqServerConnectionPool.getInstance());
+  }
+  
   /**
    * Construct the {@link MqRemoteManager}
    * 
@@ -26,10 +97,156 @@ public class MqRemoteManager extends MqManager
    *   The name (or IP address) of the host 
    * @param port
    *   The port to which this manager listens on
+   * @param index
+   *   The index of the queues of all remote managers
+   * @param pool
+   *   The pool of the connections to the remote server
    */
-  MqRemoteManager(String name, String host, int port)
+  MqRemoteManager(String name, String host, int port, MqRemoteQueueIndex index, MqServerConnectionPool pool)
   {
     super(name, host, port);
+    mIndex = index;
+    mPool = pool;
+  }
+  
+  /**
+   * Start storing messages put to the remote queues in a transmission queue, and forwarding them in the background
+   * 
+   * @param xmitq
+   *   The transmission queue
+   * @param dead
+   *   The dead queue, for messages the remote server refuses
+   * @param config
+   *   The {@link MqConfiguration} holding the forwarding settings
+   */
+  synchronized void startForwarding(MqLocalQueue xmitq, MqLocalQueue dead, MqConfiguration config)
+  {
+    mLogger.trace("MqRemoteManager::startForwarding() - IN, Queue={}", xmitq.getName());
+    
+    if (mForwarder == null)
+    {
+      mTransmissionQueue = xmitq;
+      mForwarder = new MqTransmissionForwarder(this, xmitq, dead, mPool,
+        config.getXmitBatchSize(), config.getXmitRetryInterval(), config.getXmitMaxRetryInterval());
+      mForwarder.start();
+    }
+    
+    mLogger.trace("MqRemoteManager::startForwarding() - OUT");
+  }
+  
+  /**
+   * Stop forwarding, and wait for the batch being forwarded to be done.<br>
+   * Messages still in the transmission queue are forwarded once forwarding is started again.
+   */
+  synchronized void stopForwarding()
+  {
+    mLogger.trace("MqRemoteManager::stopForwarding() - IN");
+    
+    if (mForwarder != null)
+    {
+      mForwarder.term();
+      mForwarder = null;
+    }
+    
+    mLogger.trace("MqRemoteManager::stopForwarding() - OUT");
+  }
+  
+  /**
+   * Start sending notifications to the remote server in the background
+   * 
+   * @param directory
+   *   The local queue directory, to synchronize with the remote server
+   * @param localName
+   *   The name of the local server
+   * @param config
+   *   The {@link MqConfiguration} holding the notification settings
+   */
+  synchronized void startNotifying(MqQueueDirectory directory, String localName, MqConfiguration config)
+  {
+    mLogger.trace("MqRemoteManager::startNotifying() - IN, Manager={}", getName());
+    
+    if (mOutbox == null)
+    {
+      MqNotificationOutbox outbox = new MqNotificationOutbox(this, localName, directory, mPool,
+        config.getNotifyTimeout(), config.getNotifyMaxPending(), config.getNotifyRetryInterval(), config.getNotifyMaxRetryInterval());
+      outbox.start();
+      mOutbox = outbox;
+    }
+    
+    mLogger.trace("MqRemoteManager::startNotifying() - OUT");
+  }
+  
+  /**
+   * Stop sending notifications, and wait for the one being sent to be done.<br>
+   * Notifications still pending are dropped.
+   */
+  synchronized void stopNotifying()
+  {
+    mLogger.trace("MqRemoteManager::stopNotifying() - IN");
+    
+    if (mOutbox != null)
+    {
+      mOutbox.term();
+      mOutbox = null;
+    }
+    
+    mLogger.trace("MqRemoteManager::stopNotifying() - OUT");
+  }
+  
+  /**
+   * Post a notification to the remote server.<br>
+   * The notification is sent in the background, after all notifications posted before it.
+   * 
+   * @param request
+   *   The notification request. It must not be posted to another manager
+   * @return
+   *   {@code true} if the notification was posted, {@code false} if notifying was not started
+   */
+  public boolean postNotification(IMqMessage request)
+  {
+    MqNotificationOutbox outbox = mOutbox;
+    if (outbox == null)
+    {
+      mLogger.debug("MqRemoteManager::postNotification() - Notifying {} was not started, notification dropped", getName());
+      return false;
+    }
+    
+    outbox.post(request);
+    return true;
+  }
+  
+  /**
+   * Request a synchronization of queue directories with the remote server.<br>
+   * The synchronization is done in the background, after all notifications posted before the request.
+   */
+  public void requestSync()
+  {
+    MqNotificationOutbox outbox = mOutbox;
+    if (outbox != null)
+      outbox.requestSync();
+  }
+  
+  /**
+   * Wait for the posted notifications to be sent
+   * 
+   * @param deadline
+   *   The time, in milliseconds since the epoch, after which to stop waiting
+   * @return
+   *   {@code true} if all notifications were sent, {@code false} if the deadline passed first
+   */
+  public boolean flushNotifications(long deadline)
+  {
+    MqNotificationOutbox outbox = mOutbox;
+    return outbox == null ? true : outbox.flush(deadline);
+  }
+  
+  /**
+   * Deactivate the manager, closing the pooled connections to its server
+   */
+  public void deactivate()
+  {
+    super.deactivate();
+    mPool.close(this);
   }
   
   /**
@@ -38,7 +255,7 @@ public class MqRemoteManager extends MqManager
    * @param props
    *   The {@link Properties} object that contains the queues definitions
    */
-  public void setQueues(StringList qlist)
+  public synchronized void setQueues(StringList qlist)
   {
     mLogger.trace("MqRemoteManager::setQueues() - IN, QList={}", qlist);
     
@@ -48,9 +265,8 @@ public class MqRemoteManager extends MqManager
       {
         if ((qname != null) && (qname.length() > 0))
         {
-          MqRemoteQueue queue = new MqRemoteQueue(this, qname, MqServerConnectionPool.getInstance());
+          MqRemoteQueue queue = putQueue(qname.toUpperCase());
           mLogger.trace("MqRemoteManager::setQueues() - Adding to remote queues list queue: " + queue.toString());
-          mQueues.put(qname, queue);
         }
       }
     }
@@ -59,7 +275,160 @@ public class MqRemoteManager extends MqManager
   }
   
   /**
-   * Get a remote queue object.
+   * Bring the queues up to date with the remote queue directory.<br>
+   * If the queues do not match the delta's digest afterwards, the version is reset, so the next
+   * synchronization gets all the queues.
+   * 
+   * @param delta
+   *   The {@link MqDirectoryDelta} received from the remote server
+   * @return
+   *   {@code true} if the queues match the remote queue directory, {@code false} otherwise
+   */
+  public synchronized boolean applyDirectoryDelta(MqDirectoryDelta delta)
+  {
+    mLogger.trace("MqRemoteManager::applyDirectoryDelta() - IN, Full={}, Added={}, Removed={}", delta.isFull(), delta.getAdded().size(), delta.getRemoved().size());
+    
+    if (delta.isFull())
+    {
+      Set<String> names = new HashSet<String>(delta.getAdded());
+      List<String> dropped = new ArrayList<String>();
+      for (String name : mQueues.keySet())
+      {
+        if (!names.contains(name))
+          dropped.add(name);
+      }
+      for (String name : dropped)
+        dropQueue(name);
+    }
+    
+    for (String name : delta.getRemoved())
+      dropQueue(name);
+    for (String name : delta.getAdded())
+    {
+      if (!mQueues.containsKey(name))
+        putQueue(name);
+    }
+    
+    boolean result = mViewDigest == delta.getDigest();
+    if (result)
+    {
+      mViewEpoch = delta.getEpoch();
+      mViewSequence = delta.getSequence();
+    }
+    else
+    {
+      mLogger.debug("MqRemoteManager::applyDirectoryDelta() - Queues of {} do not match its directory, resetting the version", mName);
+      mViewEpoch = 0;
+      mViewSequence = 0;
+    }
+    
+    mLogger.trace("MqRemoteManager::applyDirectoryDelta() - OUT, Returns={}", result);
+    return result;
+  }
+  
+  /**
+   * Advance the version after a single queue was defined in or deleted from the remote server.<br>
+   * The version is advanced only if the change directly follows it. Otherwise a change was missed,
+   * and the next synchronization gets it.
+   * 
+   * @param epoch
+   *   The epoch of the remote queue directory
+   * @param sequence
+   *   The sequence number of the change
+   */
+  public synchronized void advanceView(long epoch, long sequence)
+  {
+    if ((epoch == mViewEpoch) && (sequence == mViewSequence + 1))
+      mViewSequence = sequence;
+  }
+  
+  /**
+   * Get the epoch of the remote queue directory version the queues reflect
+   * 
+   * @return
+   *   the epoch, or 0 if the queues were never synchronized
+   */
+  public synchronized long getViewEpoch()
+  {
+    return mViewEpoch;
+  }
+  
+  /**
+   * Get the sequence number of the remote queue directory version the queues reflect
+   * 
+   * @return
+   *   the sequence number
+   */
+  public synchronized long getViewSequence()
+  {
+    return mViewSequence;
+  }
+  
+  /**
+   * Get the digest of the queue names
+   * 
+   * @return
+   *   the sum of the {@link MqDirectoryDelta#hash(String) hashes} of the queue names
+   */
+  public synchronized long getViewDigest()
+  {
+    return mViewDigest;
+  }
+  
+  /**
+   * Create a remote queue object and add it to the map and to the index
+   * 
+   * @param name
+   *   The upper-case name of the queue
+   * @return
+   *   the added {@link MqRemoteQueue}
+   */
+  private MqRemoteQueue putQueue(String name)
+  {
+    MqRemoteQueue queue = new MqRemoteQueue(this, name, mPool, mTransmissionQueue);
+    MqQueue prev = mQueues.put(name, queue);
+    if (prev != null)
+      mIndex.remove((MqRemoteQueue)prev);
+    else
+      mViewDigest += MqDirectoryDelta.hash(name);
+    mIndex.add(queue);
+    return queue;
+  }
+  
+  /**
+   * Remove a remote queue object from the map and from the index
+   * 
+   * @param name
+   *   The upper-case name of the queue
+   * @return
+   *   the removed {@link MqRemoteQueue}, or {@code null} if there was no queue with that name
+   */
+  private MqRemoteQueue dropQueue(String name)
+  {
+    MqRemoteQueue queue = (MqRemoteQueue)mQueues.remove(name);
+    if (queue != null)
+    {
+      mViewDigest -= MqDirectoryDelta.hash(name);
+      mIndex.remove(queue);
+    }
+    return queue;
+  }
+  
+  /**
+   * Get an indication whether the manager's queues can be used: the manager is active,
+   * or it has a transmission queue where messages put to them wait
+   * 
+   * @return
+   *   {@code true} if the manager's queues can be used, {@code false} otherwise
+   */
+  boolean isReachable()
+  {
+    return isActive() || (mTransmissionQueue != null);
+  }
+  
+  /**
+   * Get a remote queue object.<br>
+   * Queues of an unreachable manager are not retrieved.
    * 
    * @param name
    *   The name of the queue to be retrieved
@@ -71,7 +440,7 @@ public class MqRemoteManager extends MqManager
     mLogger.trace("MqRemoteManager::getQueue() - IN, Name={}", name);
     MqRemoteQueue queue = null;
     
-    if (isActive())
+    if (isReachable())
     {
       if (name != null)
       {
@@ -84,6 +453,19 @@ public class MqRemoteManager extends MqManager
     return queue;
   }
   
+  /**
+   * Get a remote queue object, whether the manager is reachable or not
+   * 
+   * @param name
+   *   The upper-case name of the queue
+   * @return
+   *   the {@link MqRemoteQueue}, or {@code null} if the manager has no queue with that name
+   */
+  MqRemoteQueue findQueue(String name)
+  {
+    return (MqRemoteQueue)mQueues.get(name);
+  }
+  
   /**
    * Add a remote queue object to the map.
    * 
@@ -92,7 +474,7 @@ public class MqRemoteManager extends MqManager
    * @return
    *   the added {@link MqRemoteQueue}
    */
-  MqRemoteQueue addQueue(String name)
+  synchronized MqRemoteQueue addQueue(String name)
   {
     mLogger.trace("MqRemoteManager::addQueue() - IN, Name={}", name);
     
@@ -101,9 +483,7 @@ public class MqRemoteManager extends MqManager
     {
       if (name != null)
       {
-        name = name.toUpperCase();
-        queue = new MqRemoteQueue(this, name, MqServerConnectionPool.getInstance());
-        mQueues.put(name, queue);
+        queue = putQueue(name.toUpperCase());
       }
     }
     
@@ -119,7 +499,7 @@ public class MqRemoteManager extends MqManager
    * @return
    *   the removed {@link MqRemoteQueue}
    */
-  MqRemoteQueue removeQueue(String name)
+  synchronized MqRemoteQueue removeQueue(String name)
   {
     mLogger.trace("MqRemoteManager::removeQueue() - IN, Name={}", name);
     
@@ -128,8 +508,7 @@ public class MqRemoteManager extends MqManager
     {
       if (name != null)
       {
-        name = name.toUpperCase();
-        queue = mQueues.remove(name);
+        queue = dropQueue(name.toUpperCase());
       }
     }
     
@@ -0,0 +1,138 @@
+package com.kas.mq.server.repo;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import com.kas.infra.base.AKasObject;
+import com.kas.infra.base.IObject;
+import com.kas.mq.internal.MqRemoteQueue;
+
+/**
+ * A {@link MqRemoteQueueIndex} maps the name of each remote queue to the {@link MqRemoteQueue} of the
+ * {@link MqRemoteManager} that owns it, so a remote queue is found with a single lookup instead of
+ * probing every remote manager.<br>
+ * <br>
+ * The index is updated by the remote managers as queues are added to them and removed from them.
+ * Lookups take no locks. Updates are serialized, and they are rare compared to lookups.<br>
+ * <br>
+ * If several remote managers have a queue with the same name, the index points to the one added last.
+ * When that one is removed, or its manager cannot be reached, another manager's queue with that name is used.
+ * 
+ * @author Pippo
+ */
+class MqRemoteQueueIndex extends AKasObject
+{
+  /**
+   * Remote queues by upper-case name
+   */
+  private Map<String, MqRemoteQueue> mQueues = new ConcurrentHashMap<String, MqRemoteQueue>();
+  
+  /**
+   * All remote managers
+   */
+  private Collection<MqRemoteManager> mManagers;
+  
+  /**
+   * Construct a {@link MqRemoteQueueIndex}
+   * 
+   * @param managers
+   *   All remote managers, searched when the indexed queue cannot be used
+   */
+  MqRemoteQueueIndex(Collection<MqRemoteManager> managers)
+  {
+    mManagers = managers;
+  }
+  
+  /**
+   * Get a remote queue whose manager can be reached
+   * 
+   * @param name
+   *   The name of the queue
+   * @return
+   *   the {@link MqRemoteQueue}, or {@code null} if no reachable remote manager has a queue with that name
+   */
+  MqRemoteQueue get(String name)
+  {
+    if (name == null)
+      return null;
+    
+    MqRemoteQueue queue = mQueues.get(name.toUpperCase());
+    if ((queue == null) || (((MqRemoteManager)queue.getManager()).isReachable()))
+      return queue;
+    
+    for (MqRemoteManager mgr : mManagers)
+    {
+      if (mgr != queue.getManager())
+      {
+        MqRemoteQueue other = mgr.getQueue(name);
+        if (other != null)
+          return other;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Index a queue that was added to its manager
+   * 
+   * @param queue
+   *   The queue
+   */
+  synchronized void add(MqRemoteQueue queue)
+  {
+    mQueues.put(queue.getName().toUpperCase(), queue);
+  }
+  
+  /**
+   * Remove a queue that was removed from its manager from the index.<br>
+   * If the queue was indexed, another manager's queue with the same name, if there is one, is indexed instead.
+   * 
+   * @param queue
+   *   The queue
+   */
+  synchronized void remove(MqRemoteQueue queue)
+  {
+    String name = queue.getName().toUpperCase();
+    if (mQueues.remove(name, queue))
+    {
+      for (MqRemoteManager mgr : mManagers)
+      {
+        MqRemoteQueue other = mgr.findQueue(name);
+        if ((other != null) && (other != queue))
+        {
+          mQueues.put(name, other);
+          break;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Get the number of indexed queues
+   * 
+   * @return
+   *   the number of indexed queues
+   */
+  int size()
+  {
+    return mQueues.size();
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Queues=").append(mQueues.size()).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
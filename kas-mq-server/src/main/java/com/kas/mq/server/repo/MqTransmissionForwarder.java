@@ -0,0 +1,334 @@
+package com.kas.mq.server.repo;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.AKasRunnable;
+import com.kas.infra.base.threads.KasRunnableThread;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.IMqConnectionPool;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqConnection;
+import com.kas.mq.internal.MqLocalQueue;
+
+/**
+ * A {@link MqTransmissionForwarder} drains the transmission queue of a {@link MqRemoteManager},
+ * forwarding its messages to the remote KAS/MQ server.<br>
+ * <br>
+ * Messages are taken in batches and put to the remote server with a single batch put request,
+ * each into the queue it was originally put to. A message the remote server refused is sent to the dead queue.
+ * If the batch could not be forwarded at all, e.g. because the remote server is inactive, unreachable or slow to reply,
+ * the same batch is forwarded again after the retry interval, which doubles with each further failure.
+ * An unexpected exception while taking or forwarding a batch counts as such a failure, so it does not end the forwarder.<br>
+ * <br>
+ * Messages of the batch are {@link MqLocalQueue#take(long) pending} in the transmission queue until the remote server
+ * replied: only then is their removal committed, so a batch in flight when the server goes down is forwarded again
+ * after a restart. A batch not yet forwarded is returned to the transmission queue when the forwarder stops.
+ * Since a batch whose reply was lost is forwarded again, a message may reach the remote server more than once.
+ * 
+ * @author Pippo
+ */
+class MqTransmissionForwarder extends AKasRunnable
+{
+  /**
+   * Time, in milliseconds, to wait for a message before checking whether the forwarder was stopped
+   */
+  static private final long cPollTimeout = 1000L;
+  
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The remote server
+   */
+  private MqRemoteManager mManager;
+  
+  /**
+   * The transmission queue and the dead queue
+   */
+  private MqLocalQueue mQueue;
+  private MqLocalQueue mDeadQueue;
+  
+  /**
+   * The pool that provides connections to the remote server
+   */
+  private IMqConnectionPool mPool;
+  
+  /**
+   * Maximum batch size, and the initial and maximum retry intervals
+   */
+  private int mBatchSize;
+  private long mRetryInterval;
+  private long mMaxRetryInterval;
+  
+  /**
+   * The batch taken from the transmission queue and not yet forwarded, pending in the transmission queue
+   */
+  private List<IMqMessage> mBatch = new ArrayList<IMqMessage>();
+  
+  /**
+   * Number of messages forwarded, and number of messages sent to the dead queue
+   */
+  private volatile long mForwarded = 0;
+  private volatile long mDead = 0;
+  
+  /**
+   * The forwarding thread
+   */
+  private KasRunnableThread mThread;
+  
+  /**
+   * Construct a {@link MqTransmissionForwarder}
+   * 
+   * @param manager
+   *   The remote server
+   * @param queue
+   *   The transmission queue
+   * @param dead
+   *   The dead queue
+   * @param pool
+   *   The pool that provides connections to the remote server
+   * @param batchSize
+   *   The maximum number of messages forwarded in a single request
+   * @param retryInterval
+   *   The time, in milliseconds, to wait before forwarding again after the first failure
+   * @param maxRetryInterval
+   *   The maximum time, in milliseconds, to wait before forwarding again after a failure
+   */
+  MqTransmissionForwarder(MqRemoteManager manager, MqLocalQueue queue, MqLocalQueue dead, IMqConnectionPool pool, int batchSize, long retryInterval, long maxRetryInterval)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mManager = manager;
+    mQueue = queue;
+    mDeadQueue = dead;
+    mPool = pool;
+    mBatchSize = Math.max(1, batchSize);
+    mRetryInterval = Math.max(1, retryInterval);
+    mMaxRetryInterval = Math.max(mRetryInterval, maxRetryInterval);
+  }
+  
+  /**
+   * Start forwarding on a thread of its own
+   */
+  synchronized void start()
+  {
+    if (mThread == null)
+    {
+      mThread = new KasRunnableThread("KasForwarder-" + mManager.getName(), this);
+      mThread.setDaemon(true);
+      mThread.start();
+    }
+  }
+  
+  /**
+   * Stop forwarding and wait for the forwarding thread to end
+   */
+  void term()
+  {
+    mLogger.trace("MqTransmissionForwarder::term() - IN, Manager={}", mManager.getName());
+    
+    stop();
+    KasRunnableThread thread;
+    synchronized (this)
+    {
+      notifyAll();
+      thread = mThread;
+    }
+    
+    if (thread != null)
+    {
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+    
+    mLogger.trace("MqTransmissionForwarder::term() - OUT");
+  }
+  
+  /**
+   * Get an indication whether the forwarder was stopped
+   * 
+   * @return
+   *   {@code true} if the forwarder was stopped, {@code false} otherwise
+   */
+  private synchronized boolean isStopped()
+  {
+    return mStop;
+  }
+  
+  /**
+   * Forward messages until stopped, then return the batch not yet forwarded to the transmission queue
+   */
+  public void run()
+  {
+    mLogger.trace("MqTransmissionForwarder::run() - IN, Manager={}", mManager.getName());
+    
+    long delay = mRetryInterval;
+    while (!isStopped())
+    {
+      boolean forwarded;
+      try
+      {
+        if (mBatch.isEmpty())
+          fill();
+        
+        forwarded = mBatch.isEmpty() || forward();
+      }
+      catch (RuntimeException e)
+      {
+        mLogger.warn("Exception caught while forwarding messages to " + mManager.getName() + ". Exception: ", e);
+        forwarded = false;
+      }
+      
+      if (forwarded)
+      {
+        delay = mRetryInterval;
+      }
+      else
+      {
+        mLogger.debug("MqTransmissionForwarder::run() - Failed to forward {} messages to {}, retrying in {} milliseconds", mBatch.size(), mManager.getName(), delay);
+        pause(delay);
+        delay = Math.min(delay * 2, mMaxRetryInterval);
+      }
+    }
+    
+    if (!mBatch.isEmpty())
+    {
+      mLogger.debug("MqTransmissionForwarder::run() - Returning {} messages not yet forwarded to {}", mBatch.size(), mQueue.getName());
+      mQueue.rollback(mBatch);
+      mBatch.clear();
+    }
+    
+    mLogger.trace("MqTransmissionForwarder::run() - OUT");
+  }
+  
+  /**
+   * Take the next batch from the transmission queue, waiting a while for its first message.
+   * The messages stay pending in the transmission queue until the batch is forwarded.
+   */
+  private void fill()
+  {
+    IMqMessage message = mQueue.take(cPollTimeout);
+    while (message != null)
+    {
+      mBatch.add(message);
+      message = mBatch.size() < mBatchSize ? mQueue.takeNow() : null;
+    }
+  }
+  
+  /**
+   * Forward the batch to the remote server, sending the messages it refused to the dead queue.<br>
+   * Once the remote server replied, the batch is committed in the transmission queue.
+   * 
+   * @return
+   *   {@code true} if the remote server replied, {@code false} if the batch should be forwarded again
+   */
+  private boolean forward()
+  {
+    mLogger.trace("MqTransmissionForwarder::forward() - IN, Messages={}", mBatch.size());
+    
+    if (!mManager.isActive())
+    {
+      mLogger.trace("MqTransmissionForwarder::forward() - OUT, Manager {} is inactive", mManager.getName());
+      return false;
+    }
+    
+    MqConnection conn = mPool.allocate(mManager);
+    if (conn == null)
+    {
+      mLogger.trace("MqTransmissionForwarder::forward() - OUT, No connection to manager {}", mManager.getName());
+      return false;
+    }
+    
+    List<String> queues = new ArrayList<String>();
+    for (IMqMessage message : mBatch)
+      queues.add(message.getStringProperty(IMqConstants.cKasPropertyPutQueueName, ""));
+    
+    List<EMqCode> codes;
+    try
+    {
+      codes = conn.putBatch(queues, mBatch);
+    }
+    finally
+    {
+      mPool.release(conn);
+    }
+    
+    boolean success = !codes.contains(EMqCode.cError);
+    if (success)
+    {
+      int dead = 0;
+      for (int i = 0; i < codes.size(); ++i)
+      {
+        if (codes.get(i) != EMqCode.cOkay)
+        {
+          mLogger.debug("MqTransmissionForwarder::forward() - Message was refused by queue {} at {}, message is sent to dead queue", queues.get(i), mManager.getName());
+          mDeadQueue.put(mBatch.get(i));
+          ++dead;
+        }
+      }
+      
+      mQueue.commit(mBatch);
+      mForwarded += mBatch.size() - dead;
+      mDead += dead;
+      mBatch.clear();
+    }
+    
+    mLogger.trace("MqTransmissionForwarder::forward() - OUT, Returns={}", success);
+    return success;
+  }
+  
+  /**
+   * Wait before forwarding again, unless stopped in the meantime
+   * 
+   * @param delay
+   *   The time to wait, in milliseconds
+   */
+  private synchronized void pause(long delay)
+  {
+    if (!mStop)
+    {
+      try
+      {
+        wait(delay);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        mStop = true;
+      }
+    }
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Manager=").append(mManager.getName()).append("\n")
+      .append(pad).append("  Queue=").append(mQueue.getName()).append("\n")
+      .append(pad).append("  Depth=").append(mQueue.size()).append("\n")
+      .append(pad).append("  Forwarded=").append(mForwarded).append("\n")
+      .append(pad).append("  Dead=").append(mDead).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
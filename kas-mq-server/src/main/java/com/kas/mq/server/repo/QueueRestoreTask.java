@@ -0,0 +1,111 @@
+package com.kas.mq.server.repo;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.kas.infra.base.IObject;
+import com.kas.infra.base.threads.AKasRunnable;
+import com.kas.mq.internal.EQueueDisp;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqQueueJournal;
+
+/**
+ * A {@link QueueRestoreTask} restores the contents of a single {@link MqLocalQueue} at startup.<br>
+ * <br>
+ * The {@link MqLocalManager} runs one task per queue on a pool of restore threads, so queues are restored in parallel.
+ * 
+ * @author Pippo
+ */
+public class QueueRestoreTask extends AKasRunnable
+{
+  /**
+   * Logger
+   */
+  private Logger mLogger;
+  
+  /**
+   * The queue to restore
+   */
+  private MqLocalQueue mQueue;
+  
+  /**
+   * The queue journal, or {@code null} if journaling is disabled
+   */
+  private MqQueueJournal mJournal;
+  
+  /**
+   * Cleared if the restore fails
+   */
+  private AtomicBoolean mSuccess;
+  
+  /**
+   * Construct a {@link QueueRestoreTask}
+   * 
+   * @param queue
+   *   The queue to restore
+   * @param journal
+   *   The queue journal, or {@code null} if journaling is disabled
+   * @param success
+   *   Overall restore indicator, cleared if the restore fails
+   */
+  QueueRestoreTask(MqLocalQueue queue, MqQueueJournal journal, AtomicBoolean success)
+  {
+    mLogger = LogManager.getLogger(getClass());
+    mQueue = queue;
+    mJournal = journal;
+    mSuccess = success;
+  }
+  
+  /**
+   * Attach the journal to the queue and restore its contents.<br>
+   * <br>
+   * If the journal cannot be attached, the queue is restored from its store alone and becomes
+   * {@link EQueueDisp#TEMPORARY temporary}: its store and journal files are left as they are, so
+   * the next restart with a working journal restores them, but changes made until then are not kept.
+   * 
+   * @see java.lang.Runnable#run()
+   */
+  public void run()
+  {
+    mLogger.trace("QueueRestoreTask::run() - IN, Queue={}", mQueue.getName());
+    
+    boolean restored = false;
+    try
+    {
+      if ((mJournal != null) && (!mQueue.attachJournal(mJournal, false)))
+      {
+        mLogger.error("Failed to attach journal {} to queue {}. The queue is restored without its latest journaled changes and is not durable until restart", mJournal.getFile().getAbsolutePath(), mQueue.getName());
+        mQueue.setDisposition(EQueueDisp.TEMPORARY);
+      }
+    }
+    finally
+    {
+      restored = mQueue.restore();
+    }
+    
+    mLogger.debug("QueueRestoreTask::run() - Restore operation for queue {} {}", mQueue.getName(), (restored ? "succeeded" : "failed"));
+    if (!restored)
+      mSuccess.set(false);
+    
+    mLogger.trace("QueueRestoreTask::run() - OUT");
+  }
+  
+  /**
+   * Returns the {@link IObject} string representation.
+   * 
+   * @param level
+   *   The required padding level
+   * @return
+   *   the string representation with the specified level of padding
+   */
+  public String toPrintableString(int level)
+  {
+    String pad = pad(level);
+    StringBuilder sb = new StringBuilder();
+    sb.append(name()).append("(\n")
+      .append(pad).append("  Queue=").append(mQueue.getName()).append("\n")
+      .append(pad).append("  Journaled=").append(mJournal != null).append("\n")
+      .append(pad).append(")");
+    return sb.toString();
+  }
+}
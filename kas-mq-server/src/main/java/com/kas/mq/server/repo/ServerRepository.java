@@ -1,5 +1,6 @@
 package com.kas.mq.server.repo;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -10,6 +11,7 @@ import com.kas.infra.base.AKasObject;
 import com.kas.infra.base.IObject;
 import com.kas.infra.base.Properties;
 import com.kas.infra.typedef.StringList;
+import com.kas.infra.utils.RunTimeUtils;
 import com.kas.mq.internal.EQueueDisp;
 import com.kas.mq.internal.MqLocalQueue;
 import com.kas.mq.internal.MqManager;
@@ -17,6 +19,7 @@ import com.kas.mq.internal.MqQueue;
 import com.kas.mq.internal.MqRemoteQueue;
 import com.kas.mq.server.IRepository;
 import com.kas.mq.server.MqConfiguration;
+import com.kas.mq.server.internal.MqServerConnectionPool;
 
 /**
  * The server repository is the class that manages all KAS/MQ entities
@@ -41,22 +44,50 @@ public class ServerRepository extends AKasObject implements IRepository
   private MqLocalManager mLocalManager;
   
   /**
-   * The local queue manager
+   * The remote queue managers
    */
   private Map<String, MqRemoteManager> mRemoteManagersMap;
   
   /**
-   * Construct the server repository object.
+   * The index of the queues of all remote queue managers
+   */
+  private MqRemoteQueueIndex mRemoteQueueIndex;
+  
+  /**
+   * The pool of the connections to remote servers
+   */
+  private MqServerConnectionPool mConnectionPool;
+  
+  /**
+   * Construct the server repository object, using the {@link MqServerConnectionPool#getInstance() singleton} connection pool
+   * and the {@code repo} directory.
    * 
    * @param config
    *   The {@link MqConfiguration}
    */
   public ServerRepository(MqConfiguration config)
+  {
+    this(config, MqServerConnectionPool.getInstance(), new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo"));
+  }
+  
+  /**
+   * Construct the server repository object.
+   * 
+   * @param config
+   *   The {@link MqConfiguration}
+   * @param pool
+   *   The pool of the connections to remote servers
+   * @param repoDir
+   *   The repository directory, holding the queues' backup files, journals and stores
+   */
+  public ServerRepository(MqConfiguration config, MqServerConnectionPool pool, File repoDir)
   {
     mLogger = LogManager.getLogger(getClass());
     mConfig = config;
-    mLocalManager = new MqLocalManager(mConfig.getManagerName(), mConfig.getPort(), mConfig.getDeadQueueName());
+    mConnectionPool = pool;
+    mLocalManager = new MqLocalManager(mConfig, repoDir);
     mRemoteManagersMap = new ConcurrentHashMap<String, MqRemoteManager>();
+    mRemoteQueueIndex = new MqRemoteQueueIndex(mRemoteManagersMap.values());
     
     mConfig.register(this);
   }
@@ -84,9 +115,15 @@ public class ServerRepository extends AKasObject implements IRepository
     {
       String name = entry.getKey();
       NetworkAddress addr = entry.getValue();
-      MqRemoteManager mgr = new MqRemoteManager(name, addr.getHost(), addr.getPort());
+      MqRemoteManager mgr = new MqRemoteManager(name, addr.getHost(), addr.getPort(), mRemoteQueueIndex, mConnectionPool);
       
       mRemoteManagersMap.put(name, mgr);
+      
+      if (mConfig.isXmitEnabled() && mLocalManager.isActive())
+        mgr.startForwarding(getTransmissionQueue(name), getDeadQueue(), mConfig);
+      
+      if (mLocalManager.isActive())
+        mgr.startNotifying(getQueueDirectory(), mConfig.getManagerName(), mConfig);
     }
     
     mLogger.trace("ServerRepository::init() - OUT, Returns={}", success);
@@ -104,6 +141,12 @@ public class ServerRepository extends AKasObject implements IRepository
     mLogger.trace("ServerRepository::term() - IN");
     boolean success = true;
     
+    for (MqRemoteManager mgr : mRemoteManagersMap.values())
+    {
+      mgr.stopNotifying();
+      mgr.stopForwarding();
+    }
+    
     mLocalManager.deactivate();
     
     mLogger.trace("ServerRepository::term() - OUT, Returns={}", success);
@@ -243,7 +286,8 @@ public class ServerRepository extends AKasObject implements IRepository
   }
   
   /**
-   * Get a {@link MqRemoteQueue} object with the specified {@code name}.
+   * Get a {@link MqRemoteQueue} object with the specified {@code name}.<br>
+   * The queue is looked up in the {@link MqRemoteQueueIndex}, without probing each remote manager.
    * 
    * @param name
    *   The name of the remote queue to be retrieved
@@ -254,16 +298,7 @@ public class ServerRepository extends AKasObject implements IRepository
   public MqRemoteQueue getRemoteQueue(String name)
   {
     mLogger.trace("ServerRepository::getRemoteQueue() - IN, Name={}", name);
-    MqRemoteQueue queue = null;
-    for (Map.Entry<String, MqRemoteManager> entry : mRemoteManagersMap.entrySet())
-    {
-      String qmgrName = entry.getKey();
-      MqRemoteManager qmgr = entry.getValue();
-      
-      mLogger.trace("ServerRepository::getRemoteQueue() - Check if remote KAS/MQ server {} has a queue named {}", qmgrName, name);
-      queue = qmgr.getQueue(name);
-      if (queue != null) break;
-    }
+    MqRemoteQueue queue = mRemoteQueueIndex.get(name);
     mLogger.trace("ServerRepository::getRemoteQueue() - OUT, Returns=[{}]", queue);
     return queue;
   }
@@ -406,6 +441,17 @@ public class ServerRepository extends AKasObject implements IRepository
     return mLocalManager;
   }
   
+  /**
+   * Get the pool of the connections to remote KAS/MQ servers
+   * 
+   * @return
+   *   the {@link MqServerConnectionPool}
+   */
+  public MqServerConnectionPool getConnectionPool()
+  {
+    return mConnectionPool;
+  }
+  
   /**
    * Get the {@link MqLocalQueue} object representing the dead queue
    * 
@@ -417,6 +463,17 @@ public class ServerRepository extends AKasObject implements IRepository
     return mLocalManager.getDeadQueue();
   }
   
+  /**
+   * Get the versioned list of local queues that remote KAS/MQ servers see
+   * 
+   * @return
+   *   the {@link MqQueueDirectory}
+   */
+  public MqQueueDirectory getQueueDirectory()
+  {
+    return mLocalManager.getDirectory();
+  }
+  
   /**
    * Get a collection of all local queues
    * 
@@ -428,6 +485,29 @@ public class ServerRepository extends AKasObject implements IRepository
     return mLocalManager.getAll();
   }
   
+  /**
+   * Get the transmission queue of a remote manager, defining it if it wasn't restored
+   * 
+   * @param qmgr
+   *   The name of the remote KAS/MQ server
+   * @return
+   *   the permanent {@link MqLocalQueue} holding messages put to the server's queues until they're forwarded
+   */
+  private MqLocalQueue getTransmissionQueue(String qmgr)
+  {
+    mLogger.trace("ServerRepository::getTransmissionQueue() - IN, Qmgr={}", qmgr);
+    
+    String name = mConfig.getXmitQueueName(qmgr);
+    MqLocalQueue queue = getLocalQueue(name);
+    if (queue == null)
+      queue = defineLocalQueue(name, "Transmission queue to " + qmgr, mConfig.getXmitThreshold(), EQueueDisp.PERMANENT);
+    else
+      queue.setThreshold(mConfig.getXmitThreshold());
+    
+    mLogger.trace("ServerRepository::getTransmissionQueue() - OUT, Returns=[{}]", queue);
+    return queue;
+  }
+  
   /**
    * Create queues that are configured in configuration file
    */
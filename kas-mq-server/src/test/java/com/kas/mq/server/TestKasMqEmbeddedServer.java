@@ -0,0 +1,90 @@
+package com.kas.mq.server;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.base.KasException;
+import com.kas.mq.impl.MqContext;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.impl.messages.MqStringMessage;
+import com.kas.mq.internal.EQueueDisp;
+import com.kas.mq.server.internal.MqServerConnectionPool;
+import com.kas.mq.server.internal.PermittedUserEntity;
+
+public class TestKasMqEmbeddedServer
+{
+  static private final String cQueueName = "TEST.SIDE.BY.SIDE";
+  
+  private KasMqEmbeddedServer mFirst;
+  private KasMqEmbeddedServer mSecond;
+  
+  @Before
+  public void setUp()
+  {
+    mFirst = start("TESTFIRST");
+    mSecond = start("TESTSECOND");
+  }
+  
+  @After
+  public void tearDown()
+  {
+    for (KasMqEmbeddedServer server : new KasMqEmbeddedServer [] { mFirst, mSecond })
+    {
+      if (!server.init())
+        continue;
+      server.getRepository().deleteLocalQueue(cQueueName);
+      server.term();
+    }
+  }
+  
+  private KasMqEmbeddedServer start(String name)
+  {
+    KasMqEmbeddedServer server = new KasMqEmbeddedServer(name);
+    server.setLoginIdentity(new PermittedUserEntity("test", "test"));
+    Assert.assertTrue( server.init() );
+    server.getRepository().defineLocalQueue(cQueueName, "", 1000, EQueueDisp.PERMANENT);
+    return server;
+  }
+  
+  private void put(KasMqEmbeddedServer server, String body) throws KasException
+  {
+    MqContext context = new MqContext("TestKasMqEmbeddedServer");
+    context.connect(server.getHost(), 0, "test", "test");
+    context.put(cQueueName, MqMessageFactory.createStringMessage(body));
+    context.disconnect();
+  }
+  
+  @Test
+  public void testOwnConnectionPools()
+  {
+    MqServerConnectionPool first = mFirst.getRepository().getConnectionPool();
+    MqServerConnectionPool second = mSecond.getRepository().getConnectionPool();
+    Assert.assertNotSame( first, second );
+    Assert.assertNotSame( MqServerConnectionPool.getInstance(), first );
+    Assert.assertNotSame( MqServerConnectionPool.getInstance(), second );
+  }
+  
+  @Test
+  public void testOwnRepositories() throws KasException
+  {
+    put(mFirst, "first");
+    put(mSecond, "second");
+    put(mSecond, "second again");
+    
+    // each server backs its queues up to its own directory, so a restart restores only its own messages
+    Assert.assertTrue( mFirst.term() );
+    Assert.assertTrue( mSecond.term() );
+    Assert.assertTrue( new File(mFirst.getRepositoryDir(), cQueueName + ".qbk").isFile() );
+    Assert.assertTrue( new File(mSecond.getRepositoryDir(), cQueueName + ".qbk").isFile() );
+    Assert.assertTrue( mFirst.init() );
+    Assert.assertTrue( mSecond.init() );
+    
+    Assert.assertEquals( 1, mFirst.getRepository().getLocalQueue(cQueueName).size() );
+    Assert.assertEquals( 2, mSecond.getRepository().getLocalQueue(cQueueName).size() );
+    IMqMessage message = mFirst.getRepository().getLocalQueue(cQueueName).get();
+    Assert.assertEquals( "first", ((MqStringMessage)message).getBody() );
+  }
+}
@@ -0,0 +1,45 @@
+package com.kas.mq.server.internal;
+
+import java.util.ArrayList;
+import com.kas.sec.access.AccessLevel;
+import com.kas.sec.entities.UserEntity;
+import com.kas.sec.resources.EResourceClass;
+
+/**
+ * The login identity the tests configure, since they run without a data base.<br>
+ * Its password is checked like any user's, but it's permitted to access any resource.
+ * 
+ * @author Pippo
+ */
+public class PermittedUserEntity extends UserEntity
+{
+  /**
+   * Construct the identity
+   * 
+   * @param name
+   *   The user's name
+   * @param password
+   *   The user's password
+   */
+  public PermittedUserEntity(String name, String password)
+  {
+    super(0, name, "Test user", password, new ArrayList<Integer>());
+  }
+  
+  /**
+   * The test user is permitted to access any resource
+   * 
+   * @param resType
+   *   The type of the resource
+   * @param resName
+   *   The name of the resource
+   * @param level
+   *   The requested access level
+   * @return
+   *   {@code true}
+   */
+  public boolean isAccessPermitted(EResourceClass resType, String resName, AccessLevel level)
+  {
+    return true;
+  }
+}
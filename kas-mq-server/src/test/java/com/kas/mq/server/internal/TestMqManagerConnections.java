@@ -0,0 +1,153 @@
+package com.kas.mq.server.internal;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqManager;
+import com.kas.mq.server.KasMqEmbeddedServer;
+
+public class TestMqManagerConnections
+{
+  private KasMqEmbeddedServer mServer;
+  private MqServerConnectionPool mPool = MqServerConnectionPool.getInstance();
+  private MqManager mManager;
+  private MqManagerConnections mConns;
+  
+  @Before
+  public void setUp()
+  {
+    new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo").mkdirs();
+    mServer = new KasMqEmbeddedServer("TESTPOOL");
+    mServer.setLoginIdentity(new PermittedUserEntity(IMqConstants.cSystemUserName, IMqConstants.cSystemPassWord));
+    Assert.assertTrue( mServer.init() );
+    mManager = new MqManager("TESTPOOL", mServer.getHost(), 0);
+  }
+  
+  @After
+  public void tearDown()
+  {
+    if (mConns != null)
+      mConns.close();
+    mPool.close(mManager);
+    mServer.term();
+  }
+  
+  private MqManagerConnections newConnections(int maxConnections, long idleTimeout, long allocTimeout)
+  {
+    mConns = new MqManagerConnections(mPool, mManager, maxConnections, idleTimeout, allocTimeout);
+    return mConns;
+  }
+  
+  @Test
+  public void testLimitPerManager()
+  {
+    MqManagerConnections conns = newConnections(2, 60000, 200);
+    MqServerConnection first = conns.acquire();
+    MqServerConnection second = conns.acquire();
+    Assert.assertNotNull( first );
+    Assert.assertNotNull( second );
+    Assert.assertTrue   ( first.isConnected() );
+    Assert.assertTrue   ( second.isConnected() );
+    
+    long start = System.currentTimeMillis();
+    Assert.assertNull( conns.acquire() );
+    Assert.assertTrue( System.currentTimeMillis() - start >= 200 );
+    
+    conns.release(first);
+    Assert.assertSame( first, conns.acquire() );
+    conns.release(first);
+    conns.release(second);
+  }
+  
+  @Test
+  public void testWaiterGetsReleasedConnection() throws InterruptedException
+  {
+    final MqManagerConnections conns = newConnections(1, 60000, 10000);
+    MqServerConnection conn = conns.acquire();
+    Assert.assertNotNull( conn );
+    
+    final MqServerConnection [] acquired = new MqServerConnection[1];
+    Thread waiter = new Thread() {
+      public void run()
+      {
+        acquired[0] = conns.acquire();
+      }
+    };
+    waiter.start();
+    Thread.sleep(100);
+    Assert.assertTrue( waiter.isAlive() );
+    
+    conns.release(conn);
+    waiter.join(10000);
+    Assert.assertSame( conn, acquired[0] );
+    conns.release(conn);
+  }
+  
+  @Test
+  public void testDisconnectedIdleNotReused()
+  {
+    MqManagerConnections conns = newConnections(1, 60000, 200);
+    MqServerConnection conn = conns.acquire();
+    conns.release(conn);
+    conn.disconnect();
+    
+    MqServerConnection other = conns.acquire();
+    Assert.assertNotNull( other );
+    Assert.assertNotSame( conn, other );
+    Assert.assertTrue   ( other.isConnected() );
+    Assert.assertNull   ( mPool.getConnection(conn.getConnectionId()) );
+    conns.release(other);
+  }
+  
+  @Test
+  public void testDisconnectedReleaseFreesSlot()
+  {
+    MqManagerConnections conns = newConnections(1, 60000, 200);
+    MqServerConnection conn = conns.acquire();
+    conn.disconnect();
+    conns.release(conn);
+    Assert.assertNull( mPool.getConnection(conn.getConnectionId()) );
+    
+    MqServerConnection other = conns.acquire();
+    Assert.assertNotNull( other );
+    Assert.assertTrue   ( other.isConnected() );
+    conns.release(other);
+  }
+  
+  @Test
+  public void testIdleTimeout() throws InterruptedException
+  {
+    MqManagerConnections conns = newConnections(2, 100, 200);
+    MqServerConnection conn = conns.acquire();
+    conns.release(conn);
+    Assert.assertEquals( 0, conns.evictIdle() );
+    
+    Thread.sleep(200);
+    Assert.assertEquals( 1, conns.evictIdle() );
+    Assert.assertFalse ( conn.isConnected() );
+    
+    MqServerConnection other = conns.acquire();
+    Assert.assertNotSame( conn, other );
+    conns.release(other);
+  }
+  
+  @Test
+  public void testPoolKeepsReleasedConnection()
+  {
+    MqServerConnection conn = mPool.allocate(mManager);
+    Assert.assertNotNull( conn );
+    mPool.release(conn);
+    Assert.assertTrue   ( conn.isConnected() );
+    Assert.assertSame   ( conn, mPool.getConnection(conn.getConnectionId()) );
+    
+    Assert.assertSame( conn, mPool.allocate(mManager) );
+    mPool.release(conn);
+    mPool.close(mManager);
+    Assert.assertFalse( conn.isConnected() );
+    Assert.assertNull ( mPool.getConnection(conn.getConnectionId()) );
+  }
+}
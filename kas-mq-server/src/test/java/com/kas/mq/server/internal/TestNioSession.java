@@ -0,0 +1,216 @@
+package com.kas.mq.server.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.comm.IMessenger;
+import com.kas.comm.impl.MessengerFactory;
+import com.kas.comm.impl.PacketCodec;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.impl.messages.MqStringMessage;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.EQueueDisp;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqRequestFactory;
+import com.kas.mq.server.KasMqEmbeddedServer;
+
+public class TestNioSession
+{
+  static private final String cQueueName = "TEST.NIO";
+  static private final int cTimeout = 20000;
+  
+  private KasMqEmbeddedServer mServer;
+  private SessionController mController;
+  private NioSessionEngine mEngine;
+  private ServerSocketChannel mListener;
+  private MqLocalQueue mQueue;
+  private List<Socket> mSockets = new ArrayList<Socket>();
+  
+  @Before
+  public void setUp() throws IOException
+  {
+    new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo").mkdirs();
+    mServer = new KasMqEmbeddedServer("TESTNIO");
+    Assert.assertTrue( mServer.init() );
+    mQueue = mServer.getRepository().defineLocalQueue(cQueueName, "", 1000, EQueueDisp.TEMPORARY);
+    
+    // a single worker thread, so a worker waiting for a message would hold the whole engine
+    mController = new SessionController(mServer);
+    mEngine = new NioSessionEngine(mController, mServer.getRepository(), 1, 1);
+    mListener = ServerSocketChannel.open();
+    mListener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+  
+  @After
+  public void tearDown() throws IOException
+  {
+    for (Socket socket : mSockets)
+      socket.close();
+    mListener.close();
+    mEngine.shutdown();
+    mController.term();
+    mServer.getRepository().deleteLocalQueue(cQueueName);
+    mServer.term();
+  }
+  
+  private Socket connect() throws IOException
+  {
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), mListener.socket().getLocalPort());
+    socket.setSoTimeout(cTimeout);
+    mSockets.add(socket);
+    SocketChannel channel = mListener.accept();
+    mEngine.newSession(channel).setLoginIdentity(new PermittedUserEntity("test", "test"));
+    return socket;
+  }
+  
+  private IMessenger login(Socket socket) throws IOException
+  {
+    IMessenger messenger = MessengerFactory.create(socket, cTimeout);
+    IMqMessage reply = (IMqMessage)messenger.sendAndReceive(MqRequestFactory.createLoginRequest("test", "test", "TestNioSession"));
+    Assert.assertEquals( EMqCode.cOkay, reply.getResponse().getCode() );
+    return messenger;
+  }
+  
+  private IMqMessage newPut(String body)
+  {
+    IMqMessage message = MqMessageFactory.createStringMessage(body);
+    message.setStringProperty(IMqConstants.cKasPropertyPutQueueName, cQueueName);
+    return message;
+  }
+  
+  @Test
+  public void testBlockedGettersAboveWorkers() throws IOException
+  {
+    List<IMessenger> getters = new ArrayList<IMessenger>();
+    for (int i = 0; i < 3; ++i)
+    {
+      IMessenger getter = login(connect());
+      getter.send(MqRequestFactory.createGetRequest(cQueueName, cTimeout, 100));
+      getters.add(getter);
+    }
+    
+    IMessenger putter = login(connect());
+    for (int i = 0; i < 3; ++i)
+    {
+      IMqMessage reply = (IMqMessage)putter.sendAndReceive(newPut("message " + i));
+      Assert.assertEquals( EMqCode.cOkay, reply.getResponse().getCode() );
+    }
+    
+    for (IMessenger getter : getters)
+    {
+      IMqMessage reply = (IMqMessage)getter.receive();
+      Assert.assertNotNull( reply );
+      Assert.assertEquals ( EMqCode.cOkay, reply.getResponse().getCode() );
+    }
+    Assert.assertEquals( 0, mQueue.size() );
+  }
+  
+  @Test
+  public void testParkedGetKeepsOrder() throws IOException
+  {
+    IMessenger messenger = login(connect());
+    messenger.send(MqRequestFactory.createGetRequest(cQueueName, 500, 100));
+    messenger.send(newPut("after get"));
+    
+    IMqMessage reply = (IMqMessage)messenger.receive();
+    Assert.assertEquals( EMqCode.cWarn, reply.getResponse().getCode() );
+    reply = (IMqMessage)messenger.receive();
+    Assert.assertEquals( EMqCode.cOkay, reply.getResponse().getCode() );
+    Assert.assertEquals( 1, mQueue.size() );
+  }
+  
+  @Test
+  public void testFrameReassembly() throws IOException, InterruptedException
+  {
+    Socket socket = connect();
+    IMessenger messenger = login(socket);
+    byte [] first = PacketCodec.encode(newPut("first")).toByteArray();
+    byte [] second = PacketCodec.encode(newPut("second")).toByteArray();
+    
+    // the first frame arrives in pieces, the last of which is sent along with the whole second frame
+    OutputStream ostream = socket.getOutputStream();
+    ostream.write(first, 0, 3);
+    ostream.flush();
+    Thread.sleep(50);
+    ostream.write(first, 3, PacketCodec.cHeaderLength);
+    ostream.flush();
+    Thread.sleep(50);
+    byte [] rest = new byte [first.length - 3 - PacketCodec.cHeaderLength + second.length];
+    System.arraycopy(first, 3 + PacketCodec.cHeaderLength, rest, 0, first.length - 3 - PacketCodec.cHeaderLength);
+    System.arraycopy(second, 0, rest, first.length - 3 - PacketCodec.cHeaderLength, second.length);
+    ostream.write(rest);
+    ostream.flush();
+    
+    for (int i = 0; i < 2; ++i)
+    {
+      IMqMessage reply = (IMqMessage)messenger.receive();
+      Assert.assertEquals( EMqCode.cOkay, reply.getResponse().getCode() );
+    }
+    Assert.assertEquals( "first", ((MqStringMessage)mQueue.get(0)).getBody() );
+    Assert.assertEquals( "second", ((MqStringMessage)mQueue.get(0)).getBody() );
+  }
+  
+  @Test
+  public void testReadSuspendedWhileParked() throws IOException
+  {
+    IMessenger messenger = login(connect());
+    messenger.send(MqRequestFactory.createGetRequest(cQueueName, 500, 100));
+    for (int i = 0; i < 100; ++i)
+      messenger.send(newPut("message " + i));
+    
+    IMqMessage reply = (IMqMessage)messenger.receive();
+    Assert.assertEquals( EMqCode.cWarn, reply.getResponse().getCode() );
+    for (int i = 0; i < 100; ++i)
+    {
+      reply = (IMqMessage)messenger.receive();
+      Assert.assertEquals( EMqCode.cOkay, reply.getResponse().getCode() );
+    }
+    Assert.assertEquals( 100, mQueue.size() );
+    Assert.assertEquals( "message 0", ((MqStringMessage)mQueue.get(0)).getBody() );
+  }
+  
+  @Test
+  public void testLargeFrameBeforeLogin() throws IOException
+  {
+    Socket socket = connect();
+    byte [] frame = PacketCodec.encode(newPut("before login")).toByteArray();
+    int length = PacketCodec.cMaxLoginPayloadLength + 1;
+    frame[8] = (byte)(length >>> 24);
+    frame[9] = (byte)(length >>> 16);
+    frame[10] = (byte)(length >>> 8);
+    frame[11] = (byte)length;
+    
+    // the header alone gets the connection closed, before the payload is sent
+    OutputStream ostream = socket.getOutputStream();
+    ostream.write(frame, 0, PacketCodec.cHeaderLength);
+    ostream.flush();
+    Assert.assertEquals( -1, socket.getInputStream().read() );
+  }
+  
+  @Test
+  public void testLargeFrameAfterLogin() throws IOException
+  {
+    IMessenger messenger = login(connect());
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() <= PacketCodec.cMaxLoginPayloadLength)
+      sb.append("0123456789");
+    
+    IMqMessage reply = (IMqMessage)messenger.sendAndReceive(newPut(sb.toString()));
+    Assert.assertEquals( EMqCode.cOkay, reply.getResponse().getCode() );
+    Assert.assertEquals( sb.toString(), ((MqStringMessage)mQueue.get(0)).getBody() );
+  }
+}
@@ -0,0 +1,87 @@
+package com.kas.mq.server.internal;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.base.KasException;
+import com.kas.infra.base.UniqueId;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.MqContext;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.impl.messages.MqStringMessage;
+import com.kas.mq.internal.EQueueDisp;
+import com.kas.mq.server.KasMqEmbeddedServer;
+
+public class TestSessionPusher
+{
+  static private final String cQueueName = "TEST.PUSHER";
+  
+  private KasMqEmbeddedServer mServer;
+  private MqContext mContext;
+  
+  @Before
+  public void setUp() throws KasException
+  {
+    new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo").mkdirs();
+    mServer = new KasMqEmbeddedServer("TESTPUSHER");
+    mServer.setLoginIdentity(new PermittedUserEntity("test", "test"));
+    Assert.assertTrue( mServer.init() );
+    mContext = new MqContext("TestSessionPusher");
+    mContext.connect(mServer.getHost(), 0, "test", "test");
+    Assert.assertTrue( mContext.defineQueue(cQueueName, "", 1000, EQueueDisp.TEMPORARY) );
+  }
+  
+  @After
+  public void tearDown() throws KasException
+  {
+    mContext.deleteQueue(cQueueName, true);
+    mContext.disconnect();
+    mServer.term();
+  }
+  
+  private int countPusherThreads()
+  {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet())
+      if (thread.getName().startsWith("KasPusher")) ++count;
+    return count;
+  }
+  
+  @Test
+  public void testPushWithCredit()
+  {
+    UniqueId id = mContext.subscribe(cQueueName, 4);
+    Assert.assertNotNull( id );
+    
+    for (int i = 0; i < 20; ++i)
+      mContext.put(cQueueName, MqMessageFactory.createStringMessage("message " + i));
+    
+    for (int i = 0; i < 20; ++i)
+    {
+      IMqMessage message = mContext.receive(10000);
+      Assert.assertNotNull( message );
+      Assert.assertEquals ( "message " + i, ((MqStringMessage)message).getBody() );
+    }
+    Assert.assertNull  ( mContext.receive(100) );
+    Assert.assertEquals( 0, countPusherThreads() );
+    Assert.assertTrue  ( mContext.unsubscribe(id) );
+  }
+  
+  @Test
+  public void testPushAfterIdle() throws InterruptedException
+  {
+    UniqueId id = mContext.subscribe(cQueueName, 4);
+    Assert.assertNotNull( id );
+    Assert.assertNull   ( mContext.receive(100) );
+    
+    Thread.sleep(200);
+    mContext.put(cQueueName, MqMessageFactory.createStringMessage("late"));
+    IMqMessage message = mContext.receive(10000);
+    Assert.assertNotNull( message );
+    Assert.assertEquals ( "late", ((MqStringMessage)message).getBody() );
+    Assert.assertTrue   ( mContext.unsubscribe(id) );
+  }
+}
@@ -0,0 +1,181 @@
+package com.kas.mq.server.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.base.KasException;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.MqContext;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.impl.messages.MqStringMessage;
+import com.kas.mq.internal.EQueueDisp;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.server.KasMqEmbeddedServer;
+
+public class TestSessionRequest
+{
+  static private final String cQueuePrefix = "TEST.MUX.";
+  static private final int cThreads = 8;
+  static private final int cMessages = 20;
+  
+  private KasMqEmbeddedServer mServer;
+  private MqContext mContext;
+  private List<String> mQueues = new ArrayList<String>();
+  
+  @Before
+  public void setUp() throws KasException
+  {
+    new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo").mkdirs();
+    mServer = new KasMqEmbeddedServer("TESTMUX");
+    mServer.setLoginIdentity(new PermittedUserEntity("test", "test"));
+    Assert.assertTrue( mServer.init() );
+    mContext = new MqContext("TestSessionRequest");
+    mContext.connect(mServer.getHost(), 0, "test", "test");
+  }
+  
+  @After
+  public void tearDown() throws KasException
+  {
+    for (String queue : mQueues)
+      mContext.deleteQueue(queue, true);
+    mContext.disconnect();
+    mServer.term();
+  }
+  
+  private String defineQueue(String suffix)
+  {
+    String queue = cQueuePrefix + suffix;
+    Assert.assertTrue( mContext.defineQueue(queue, "", 1000, EQueueDisp.TEMPORARY) );
+    mQueues.add(queue);
+    return queue;
+  }
+  
+  @Test
+  public void testWaitingGetDoesNotHoldConnection() throws InterruptedException
+  {
+    final String waiting = defineQueue("WAITING");
+    String other = defineQueue("OTHER");
+    
+    final IMqMessage [] received = new IMqMessage[1];
+    Thread getter = new Thread() {
+      public void run()
+      {
+        received[0] = mContext.get(waiting, 20000, 100);
+      }
+    };
+    getter.start();
+    Thread.sleep(200);
+    
+    // the get above is still waiting, yet later requests on the same connection are answered
+    mContext.put(other, MqMessageFactory.createStringMessage("other"));
+    IMqMessage message = mContext.get(other, 1000, 100);
+    Assert.assertNotNull( message );
+    Assert.assertEquals ( "other", ((MqStringMessage)message).getBody() );
+    Assert.assertTrue   ( getter.isAlive() );
+    
+    mContext.put(waiting, MqMessageFactory.createStringMessage("waiting"));
+    getter.join(10000);
+    Assert.assertNotNull( received[0] );
+    Assert.assertEquals ( "waiting", ((MqStringMessage)received[0]).getBody() );
+  }
+  
+  @Test
+  public void testSharedContextCorrelatesReplies() throws InterruptedException
+  {
+    final List<String> failures = new ArrayList<String>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < cThreads; ++i)
+    {
+      final String queue = defineQueue("T" + i);
+      Thread thread = new Thread() {
+        public void run()
+        {
+          for (int j = 0; j < cMessages; ++j)
+          {
+            String body = queue + " " + j;
+            mContext.put(queue, MqMessageFactory.createStringMessage(body));
+            IMqMessage message = mContext.get(queue, 5000, 100);
+            if ((message == null) || !body.equals(((MqStringMessage)message).getBody()))
+            {
+              synchronized (failures)
+              {
+                failures.add(body);
+              }
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    
+    for (Thread thread : threads)
+      thread.join(60000);
+    Assert.assertEquals( "[]", failures.toString() );
+  }
+  
+  @Test(expected = KasException.class)
+  public void testLoginChecksPassword() throws KasException
+  {
+    new MqContext("TestSessionRequest").connect(mServer.getHost(), 0, "test", "wrong");
+  }
+  
+  @Test(expected = KasException.class)
+  public void testLoginWithoutIdentityNeedsDataBase() throws KasException
+  {
+    // without a login identity the user is looked up in the data base, and the embedded server has none
+    mServer.setLoginIdentity(null);
+    new MqContext("TestSessionRequest").connect(mServer.getHost(), 0, "test", "test");
+  }
+  
+  @Test
+  public void testSameMessagePutTwice()
+  {
+    String queue = defineQueue("TWICE");
+    IMqMessage message = MqMessageFactory.createStringMessage("twice");
+    mContext.put(queue, message);
+    mContext.put(queue, message);
+    
+    // the server is handed a copy of each put, so it holds two messages, neither of them the client's
+    Assert.assertEquals( 2, mServer.getRepository().getLocalQueue(queue).size() );
+    IMqMessage first = mContext.get(queue, 1000, 100);
+    IMqMessage second = mContext.get(queue, 1000, 100);
+    Assert.assertNotNull( first );
+    Assert.assertNotNull( second );
+    Assert.assertNotSame( message, first );
+    Assert.assertNotSame( first, second );
+    Assert.assertEquals ( "twice", ((MqStringMessage)second).getBody() );
+    Assert.assertEquals ( 0, mServer.getRepository().getLocalQueue(queue).size() );
+  }
+  
+  @Test
+  public void testTransmissionQueueIsReserved()
+  {
+    String name = "LOCAL.XMIT.TESTMUX.OTHER";
+    int listed = mServer.getRepository().getQueueDirectory().size();
+    MqLocalQueue xmitq = mServer.getRepository().defineLocalQueue(name, "", 1000, EQueueDisp.TEMPORARY);
+    try
+    {
+      Assert.assertTrue( xmitq.put(MqMessageFactory.createStringMessage("held")) );
+      Assert.assertEquals( listed, mServer.getRepository().getQueueDirectory().size() );
+      
+      // the server's own queue is neither listed to remote servers nor reachable by clients
+      mContext.put(name, MqMessageFactory.createStringMessage("client"));
+      Assert.assertNull ( mContext.get(name, 100, 50) );
+      Assert.assertNull ( mContext.subscribe(name, 1) );
+      Assert.assertFalse( mContext.deleteQueue(name, true) );
+      Assert.assertFalse( mContext.defineQueue("local.xmit.TESTMUX.MINE", "", 1000, EQueueDisp.TEMPORARY) );
+      Assert.assertEquals( 1, xmitq.size() );
+      Assert.assertSame  ( xmitq, mServer.getRepository().getLocalQueue(name) );
+    }
+    finally
+    {
+      mServer.getRepository().deleteLocalQueue(name);
+    }
+  }
+}
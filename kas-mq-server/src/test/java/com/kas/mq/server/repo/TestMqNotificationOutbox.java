@@ -0,0 +1,166 @@
+package com.kas.mq.server.repo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import com.kas.comm.IInVmAcceptor;
+import com.kas.comm.impl.InVmConnector;
+import com.kas.comm.impl.InVmMessenger;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.ERequestType;
+import com.kas.mq.internal.MqRequestFactory;
+import com.kas.mq.internal.MqResponse;
+import com.kas.mq.server.internal.MqServerConnectionPool;
+
+public class TestMqNotificationOutbox
+{
+  static private final long cRetryInterval = 50L;
+  static private final long cMaxRetryInterval = 200L;
+  
+  // a remote server that logs in every connection, and ignores the first few notifications it gets
+  static private class ScriptedPeer implements IInVmAcceptor
+  {
+    private String mName;
+    private int mIgnored;
+    private AtomicInteger mConnections = new AtomicInteger(0);
+    private AtomicInteger mNotifications = new AtomicInteger(0);
+    
+    ScriptedPeer(String name, int ignored) throws IOException
+    {
+      mName = name;
+      mIgnored = ignored;
+      InVmConnector.bind(name, this);
+    }
+    
+    public void accept(final InVmMessenger messenger)
+    {
+      mConnections.incrementAndGet();
+      Thread thread = new Thread() {
+        public void run()
+        {
+          try
+          {
+            while (true)
+            {
+              IMqMessage request = (IMqMessage)messenger.receive();
+              if ((request.getRequestType() != ERequestType.cLogin) && (mNotifications.incrementAndGet() <= mIgnored))
+                continue;
+              
+              IMqMessage reply = MqMessageFactory.createStringMessage("");
+              reply.setResponse(new MqResponse(EMqCode.cOkay, 0, ""));
+              reply.setRequestId(request.getRequestId());
+              messenger.send(reply);
+            }
+          }
+          catch (IOException e)
+          {
+            messenger.cleanup();
+          }
+        }
+      };
+      thread.setDaemon(true);
+      thread.start();
+    }
+    
+    void unbind()
+    {
+      InVmConnector.unbind(mName, this);
+    }
+  }
+  
+  private List<ScriptedPeer> mPeers = new ArrayList<ScriptedPeer>();
+  private List<MqRemoteManager> mManagers = new ArrayList<MqRemoteManager>();
+  private List<MqNotificationOutbox> mOutboxes = new ArrayList<MqNotificationOutbox>();
+  
+  @After
+  public void tearDown()
+  {
+    for (MqNotificationOutbox outbox : mOutboxes)
+      outbox.term();
+    for (MqRemoteManager mgr : mManagers)
+      MqServerConnectionPool.getInstance().close(mgr);
+    for (ScriptedPeer peer : mPeers)
+      peer.unbind();
+  }
+  
+  private ScriptedPeer newPeer(String name, int ignored) throws IOException
+  {
+    ScriptedPeer peer = new ScriptedPeer(name, ignored);
+    mPeers.add(peer);
+    return peer;
+  }
+  
+  private MqNotificationOutbox newOutbox(String name, long timeout)
+  {
+    MqRemoteManager mgr = new MqRemoteManager(name, InVmConnector.getHost(name), 0, new MqRemoteQueueIndex(new ArrayList<MqRemoteManager>()));
+    mManagers.add(mgr);
+    MqNotificationOutbox outbox = new MqNotificationOutbox(mgr, "LOCAL", new MqQueueDirectory(), MqServerConnectionPool.getInstance(),
+      timeout, 100, cRetryInterval, cMaxRetryInterval);
+    mOutboxes.add(outbox);
+    outbox.start();
+    return outbox;
+  }
+  
+  private IMqMessage newNotification()
+  {
+    return MqRequestFactory.createRepositoryUpdateMessage("LOCAL", "TEST.QUEUE", true);
+  }
+  
+  @Test
+  public void testSlowPeerDoesNotHoldOthers() throws IOException
+  {
+    newPeer("FAST", 0);
+    ScriptedPeer slow = newPeer("SLOW", Integer.MAX_VALUE);
+    MqNotificationOutbox fastOutbox = newOutbox("FAST", 2000);
+    MqNotificationOutbox slowOutbox = newOutbox("SLOW", 2000);
+    
+    slowOutbox.post(newNotification());
+    fastOutbox.post(newNotification());
+    
+    // the fast peer is notified while the slow one has yet to time out
+    long start = System.currentTimeMillis();
+    Assert.assertTrue ( fastOutbox.flush(start + 2000) );
+    Assert.assertTrue ( System.currentTimeMillis() - start < 1500 );
+    Assert.assertFalse( slowOutbox.flush(System.currentTimeMillis() + 100) );
+    Assert.assertEquals( 1, slow.mNotifications.get() );
+  }
+  
+  @Test
+  public void testNoReplyRetried() throws IOException
+  {
+    ScriptedPeer peer = newPeer("RETRY", 2);
+    MqNotificationOutbox outbox = newOutbox("RETRY", 200);
+    
+    long start = System.currentTimeMillis();
+    outbox.post(newNotification());
+    Assert.assertTrue  ( outbox.flush(start + 10000) );
+    
+    // each attempt waits for the timeout, then for the retry interval, on a new connection
+    Assert.assertTrue  ( System.currentTimeMillis() - start >= 2 * 200 + cRetryInterval + 2 * cRetryInterval );
+    Assert.assertEquals( 3, peer.mNotifications.get() );
+    Assert.assertEquals( 3, peer.mConnections.get() );
+  }
+  
+  @Test
+  public void testTermBoundedByTimeout() throws IOException, InterruptedException
+  {
+    ScriptedPeer peer = newPeer("SILENT", Integer.MAX_VALUE);
+    MqNotificationOutbox outbox = newOutbox("SILENT", 500);
+    outbox.post(newNotification());
+    
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((peer.mNotifications.get() == 0) && (System.currentTimeMillis() < deadline))
+      Thread.sleep(10);
+    Assert.assertEquals( 1, peer.mNotifications.get() );
+    
+    long start = System.currentTimeMillis();
+    outbox.term();
+    Assert.assertTrue( System.currentTimeMillis() - start < 1500 );
+  }
+}
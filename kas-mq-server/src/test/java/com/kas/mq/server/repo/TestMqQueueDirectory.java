@@ -0,0 +1,172 @@
+package com.kas.mq.server.repo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.mq.internal.MqDirectoryDelta;
+
+public class TestMqQueueDirectory
+{
+  static private final long cEpoch = 1000L;
+  
+  private MqQueueDirectory mDirectory;
+  
+  @Before
+  public void setUp()
+  {
+    mDirectory = new MqQueueDirectory(cEpoch);
+  }
+  
+  @Test
+  public void testVersioning()
+  {
+    Assert.assertEquals( 1, mDirectory.add("ALPHA") );
+    Assert.assertEquals( 2, mDirectory.add("BETA") );
+    Assert.assertEquals( 0, mDirectory.add("BETA") );
+    Assert.assertEquals( 3, mDirectory.remove("ALPHA") );
+    Assert.assertEquals( 0, mDirectory.remove("ALPHA") );
+    
+    Assert.assertEquals( 3, mDirectory.getSequence() );
+    Assert.assertEquals( 1, mDirectory.size() );
+    Assert.assertEquals( MqDirectoryDelta.hash("BETA"), mDirectory.getDigest() );
+    Assert.assertEquals( 3, mDirectory.getSequenceOf("ALPHA") );
+    Assert.assertEquals( 2, mDirectory.getSequenceOf("BETA") );
+    Assert.assertEquals( 0, mDirectory.getSequenceOf("GAMMA") );
+  }
+  
+  @Test
+  public void testChangesSinceKnownVersion()
+  {
+    mDirectory.add("ALPHA");
+    long digest = mDirectory.getDigest();
+    mDirectory.add("BETA");
+    mDirectory.add("GAMMA");
+    mDirectory.remove("ALPHA");
+    mDirectory.add("DELTA");
+    mDirectory.remove("DELTA");
+    
+    MqDirectoryDelta delta = mDirectory.changesSince(cEpoch, 1, digest);
+    Assert.assertFalse ( delta.isFull() );
+    Assert.assertEquals( 6, delta.getSequence() );
+    Assert.assertEquals( mDirectory.getDigest(), delta.getDigest() );
+    Assert.assertEquals( Arrays.asList("BETA", "GAMMA"), delta.getAdded() );
+    Assert.assertEquals( Arrays.asList("ALPHA", "DELTA"), delta.getRemoved() );
+  }
+  
+  @Test
+  public void testUpToDate()
+  {
+    mDirectory.add("ALPHA");
+    MqDirectoryDelta delta = mDirectory.changesSince(cEpoch, 1, mDirectory.getDigest());
+    Assert.assertFalse( delta.isFull() );
+    Assert.assertTrue ( delta.isEmpty() );
+  }
+  
+  @Test
+  public void testOtherEpoch()
+  {
+    mDirectory.add("ALPHA");
+    mDirectory.add("BETA");
+    
+    MqDirectoryDelta delta = mDirectory.changesSince(cEpoch - 1, 2, 0);
+    Assert.assertTrue  ( delta.isFull() );
+    Assert.assertEquals( cEpoch, delta.getEpoch() );
+    Assert.assertEquals( 2, delta.getAdded().size() );
+    Assert.assertTrue  ( delta.getAdded().containsAll(Arrays.asList("ALPHA", "BETA")) );
+    
+    // the same queues after a restart, so only the version is updated
+    delta = mDirectory.changesSince(cEpoch - 1, 5, mDirectory.getDigest());
+    Assert.assertFalse ( delta.isFull() );
+    Assert.assertTrue  ( delta.isEmpty() );
+    Assert.assertEquals( 2, delta.getSequence() );
+  }
+  
+  @Test
+  public void testVersionAhead()
+  {
+    mDirectory.add("ALPHA");
+    MqDirectoryDelta delta = mDirectory.changesSince(cEpoch, 5, 0);
+    Assert.assertTrue  ( delta.isFull() );
+    Assert.assertEquals( Arrays.asList("ALPHA"), delta.getAdded() );
+  }
+  
+  @Test
+  public void testLogOverflow()
+  {
+    mDirectory.add("ALPHA");
+    long digest = mDirectory.getDigest();
+    for (int i = 0; i <= MqQueueDirectory.cLogSize; ++i)
+      mDirectory.add("QUEUE" + i);
+    
+    MqDirectoryDelta delta = mDirectory.changesSince(cEpoch, 1, digest);
+    Assert.assertTrue  ( delta.isFull() );
+    Assert.assertEquals( MqQueueDirectory.cLogSize + 2, delta.getAdded().size() );
+    
+    // the oldest version the log still leads from
+    delta = mDirectory.changesSince(cEpoch, 2, 0);
+    Assert.assertFalse ( delta.isFull() );
+    Assert.assertEquals( MqQueueDirectory.cLogSize, delta.getAdded().size() );
+  }
+  
+  @Test
+  public void testRemoteViewFollowsDirectory()
+  {
+    MqRemoteManager mgr = new MqRemoteManager("REMOTE", "localhost", 0, new MqRemoteQueueIndex(new ArrayList<MqRemoteManager>()));
+    mDirectory.add("ALPHA");
+    mDirectory.add("BETA");
+    
+    Assert.assertTrue  ( mgr.applyDirectoryDelta(mDirectory.changesSince(mgr.getViewEpoch(), mgr.getViewSequence(), mgr.getViewDigest())) );
+    Assert.assertEquals( cEpoch, mgr.getViewEpoch() );
+    Assert.assertEquals( 2, mgr.getViewSequence() );
+    Assert.assertEquals( mDirectory.getDigest(), mgr.getViewDigest() );
+    
+    mDirectory.remove("ALPHA");
+    mDirectory.add("GAMMA");
+    MqDirectoryDelta delta = mDirectory.changesSince(mgr.getViewEpoch(), mgr.getViewSequence(), mgr.getViewDigest());
+    Assert.assertFalse ( delta.isFull() );
+    Assert.assertTrue  ( mgr.applyDirectoryDelta(delta) );
+    Assert.assertEquals( 4, mgr.getViewSequence() );
+    Assert.assertNull  ( mgr.findQueue("ALPHA") );
+    Assert.assertNotNull( mgr.findQueue("GAMMA") );
+  }
+  
+  @Test
+  public void testAdvanceView()
+  {
+    MqRemoteManager mgr = new MqRemoteManager("REMOTE", "localhost", 0, new MqRemoteQueueIndex(new ArrayList<MqRemoteManager>()));
+    mDirectory.add("ALPHA");
+    Assert.assertTrue( mgr.applyDirectoryDelta(mDirectory.changesSince(0, 0, 0)) );
+    
+    mgr.advanceView(cEpoch, 2);
+    Assert.assertEquals( 2, mgr.getViewSequence() );
+    mgr.advanceView(cEpoch, 4);
+    Assert.assertEquals( 2, mgr.getViewSequence() );
+    mgr.advanceView(cEpoch + 1, 3);
+    Assert.assertEquals( 2, mgr.getViewSequence() );
+  }
+  
+  @Test
+  public void testMismatchResetsView()
+  {
+    MqRemoteManager mgr = new MqRemoteManager("REMOTE", "localhost", 0, new MqRemoteQueueIndex(new ArrayList<MqRemoteManager>()));
+    mDirectory.add("ALPHA");
+    Assert.assertTrue( mgr.applyDirectoryDelta(mDirectory.changesSince(0, 0, 0)) );
+    
+    // a change the remote view missed, whose delta does not bring it to the directory's digest
+    mDirectory.add("BETA");
+    mDirectory.add("GAMMA");
+    MqDirectoryDelta delta = new MqDirectoryDelta(cEpoch, 3, mDirectory.getDigest(), false);
+    delta.getAdded().add("GAMMA");
+    Assert.assertFalse ( mgr.applyDirectoryDelta(delta) );
+    Assert.assertEquals( 0, mgr.getViewEpoch() );
+    Assert.assertEquals( 0, mgr.getViewSequence() );
+    
+    delta = mDirectory.changesSince(mgr.getViewEpoch(), mgr.getViewSequence(), mgr.getViewDigest());
+    Assert.assertTrue  ( delta.isFull() );
+    Assert.assertTrue  ( mgr.applyDirectoryDelta(delta) );
+    Assert.assertEquals( 3, mgr.getViewSequence() );
+    Assert.assertEquals( mDirectory.getDigest(), mgr.getViewDigest() );
+  }
+}
@@ -0,0 +1,115 @@
+package com.kas.mq.server.repo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.typedef.StringList;
+import com.kas.mq.internal.MqRemoteQueue;
+
+public class TestMqRemoteQueueIndex
+{
+  private Map<String, MqRemoteManager> mManagers = new ConcurrentHashMap<String, MqRemoteManager>();
+  private MqRemoteQueueIndex mIndex;
+  private MqRemoteManager mFirst;
+  private MqRemoteManager mSecond;
+  
+  @Before
+  public void setUp()
+  {
+    mIndex = new MqRemoteQueueIndex(mManagers.values());
+    mFirst = newManager("FIRST");
+    mSecond = newManager("SECOND");
+  }
+  
+  private MqRemoteManager newManager(String name)
+  {
+    MqRemoteManager mgr = new MqRemoteManager(name, "localhost", 0, mIndex);
+    mgr.activate();
+    mManagers.put(name, mgr);
+    return mgr;
+  }
+  
+  @Test
+  public void testLookup()
+  {
+    MqRemoteQueue queue = mFirst.addQueue("alpha");
+    Assert.assertNotNull( queue );
+    Assert.assertEquals ( 1, mIndex.size() );
+    Assert.assertSame   ( queue, mIndex.get("ALPHA") );
+    Assert.assertSame   ( queue, mIndex.get("Alpha") );
+    Assert.assertNull   ( mIndex.get("BETA") );
+    Assert.assertNull   ( mIndex.get(null) );
+  }
+  
+  @Test
+  public void testQueueAddedAgain()
+  {
+    mFirst.addQueue("ALPHA");
+    MqRemoteQueue queue = mFirst.addQueue("ALPHA");
+    Assert.assertEquals( 1, mIndex.size() );
+    Assert.assertSame  ( queue, mIndex.get("ALPHA") );
+  }
+  
+  @Test
+  public void testSetQueues()
+  {
+    StringList qlist = new StringList();
+    qlist.add("alpha");
+    qlist.add("");
+    qlist.add("beta");
+    mFirst.deactivate();
+    mFirst.setQueues(qlist);
+    
+    Assert.assertEquals( 2, mIndex.size() );
+    Assert.assertNull  ( mIndex.get("ALPHA") );
+    mFirst.activate();
+    Assert.assertSame  ( mFirst, mIndex.get("ALPHA").getManager() );
+    Assert.assertSame  ( mFirst, mIndex.get("BETA").getManager() );
+  }
+  
+  @Test
+  public void testRemoveFallsBackToOtherManager()
+  {
+    MqRemoteQueue first = mFirst.addQueue("SHARED");
+    MqRemoteQueue second = mSecond.addQueue("SHARED");
+    Assert.assertSame( second, mIndex.get("SHARED") );
+    
+    Assert.assertSame  ( second, mSecond.removeQueue("SHARED") );
+    Assert.assertEquals( 1, mIndex.size() );
+    Assert.assertSame  ( first, mIndex.get("SHARED") );
+    
+    Assert.assertSame  ( first, mFirst.removeQueue("SHARED") );
+    Assert.assertEquals( 0, mIndex.size() );
+    Assert.assertNull  ( mIndex.get("SHARED") );
+  }
+  
+  @Test
+  public void testRemoveUnindexedQueue()
+  {
+    mFirst.addQueue("SHARED");
+    MqRemoteQueue second = mSecond.addQueue("SHARED");
+    mFirst.removeQueue("SHARED");
+    Assert.assertEquals( 1, mIndex.size() );
+    Assert.assertSame  ( second, mIndex.get("SHARED") );
+  }
+  
+  @Test
+  public void testUnreachableManagerSkipped()
+  {
+    MqRemoteQueue first = mFirst.addQueue("SHARED");
+    mSecond.addQueue("SHARED");
+    mSecond.addQueue("ONLY.SECOND");
+    
+    mSecond.deactivate();
+    Assert.assertSame( first, mIndex.get("SHARED") );
+    Assert.assertNull( mIndex.get("ONLY.SECOND") );
+    
+    mFirst.deactivate();
+    Assert.assertNull( mIndex.get("SHARED") );
+    
+    mSecond.activate();
+    Assert.assertSame( mSecond, mIndex.get("SHARED").getManager() );
+  }
+}
@@ -0,0 +1,276 @@
+package com.kas.mq.server.repo;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.base.UniqueId;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.internal.EMqCode;
+import com.kas.mq.internal.EQueueDisp;
+import com.kas.mq.internal.IMqConnectionPool;
+import com.kas.mq.internal.IMqConstants;
+import com.kas.mq.internal.MqConnection;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqManager;
+
+public class TestMqTransmissionForwarder
+{
+  static private final String cQueueName = "TEST.XMITQ";
+  static private final long cRetryInterval = 50L;
+  static private final long cMaxRetryInterval = 200L;
+  
+  // a connection whose batch puts reply with scripted codes, and that records the batches it was given
+  static private class ScriptedConnection extends MqConnection
+  {
+    private ArrayDeque<EMqCode []> mScript = new ArrayDeque<EMqCode []>();
+    private List<List<UniqueId>> mBatches = new ArrayList<List<UniqueId>>();
+    private int mThrows = 0;
+    
+    ScriptedConnection()
+    {
+      super("TestMqTransmissionForwarder");
+    }
+    
+    public synchronized List<EMqCode> putBatch(List<String> queues, List<IMqMessage> messages)
+    {
+      List<UniqueId> ids = new ArrayList<UniqueId>();
+      for (IMqMessage message : messages)
+        ids.add(message.getMessageId());
+      mBatches.add(ids);
+      if (mThrows > 0)
+      {
+        --mThrows;
+        throw new IllegalStateException("Scripted failure");
+      }
+      
+      EMqCode [] codes = mScript.poll();
+      List<EMqCode> result = new ArrayList<EMqCode>();
+      for (int i = 0; i < messages.size(); ++i)
+        result.add(codes == null ? EMqCode.cOkay : codes[i]);
+      return result;
+    }
+    
+    synchronized List<List<UniqueId>> getBatches()
+    {
+      return new ArrayList<List<UniqueId>>(mBatches);
+    }
+  }
+  
+  // a pool that has no connection to give for the first few allocations, and records when they were made
+  static private class ScriptedPool implements IMqConnectionPool
+  {
+    private MqConnection mConnection;
+    private int mFailures;
+    private List<Long> mAttempts = new ArrayList<Long>();
+    private int mReleases = 0;
+    
+    ScriptedPool(MqConnection conn, int failures)
+    {
+      mConnection = conn;
+      mFailures = failures;
+    }
+    
+    public synchronized MqConnection allocate(MqManager manager)
+    {
+      mAttempts.add(System.currentTimeMillis());
+      if (mAttempts.size() <= mFailures)
+        return null;
+      return mConnection;
+    }
+    
+    public MqConnection allocate()
+    {
+      return null;
+    }
+    
+    public synchronized void release(MqConnection conn)
+    {
+      ++mReleases;
+    }
+    
+    public void shutdown()
+    {
+    }
+    
+    synchronized int getReleases()
+    {
+      return mReleases;
+    }
+    
+    synchronized List<Long> getAttempts()
+    {
+      return new ArrayList<Long>(mAttempts);
+    }
+  }
+  
+  private MqRemoteManager mManager;
+  private MqLocalQueue mQueue;
+  private MqLocalQueue mDeadQueue;
+  private MqTransmissionForwarder mForwarder;
+  
+  @Before
+  public void setUp()
+  {
+    new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo").mkdirs();
+    mManager = new MqRemoteManager("REMOTE", "localhost", 0, new MqRemoteQueueIndex(new ArrayList<MqRemoteManager>()));
+    mManager.activate();
+    mQueue = new MqLocalQueue(mManager, cQueueName, "", 100, EQueueDisp.PERMANENT);
+    mDeadQueue = new MqLocalQueue(mManager, "TEST.DEAD", "", 100, EQueueDisp.TEMPORARY);
+  }
+  
+  @After
+  public void tearDown()
+  {
+    if (mForwarder != null)
+      mForwarder.term();
+    mQueue.discard();
+  }
+  
+  private List<UniqueId> putMessages(int count)
+  {
+    List<UniqueId> ids = new ArrayList<UniqueId>();
+    for (int i = 0; i < count; ++i)
+    {
+      IMqMessage message = MqMessageFactory.createStringMessage("message " + i);
+      message.setStringProperty(IMqConstants.cKasPropertyPutQueueName, "REMOTE.QUEUE");
+      Assert.assertTrue( mQueue.put(message) );
+      ids.add(message.getMessageId());
+    }
+    return ids;
+  }
+  
+  private void startForwarder(IMqConnectionPool pool, int batchSize)
+  {
+    mForwarder = new MqTransmissionForwarder(mManager, mQueue, mDeadQueue, pool, batchSize, cRetryInterval, cMaxRetryInterval);
+    mForwarder.start();
+  }
+  
+  private void awaitAttempts(ScriptedPool pool, int attempts) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 10000;
+    while ((pool.getAttempts().size() < attempts) && (System.currentTimeMillis() < deadline))
+      Thread.sleep(10);
+    Assert.assertTrue( pool.getAttempts().size() >= attempts );
+  }
+  
+  private void awaitBatches(ScriptedConnection conn, int batches) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 10000;
+    while ((conn.getBatches().size() < batches) && (System.currentTimeMillis() < deadline))
+      Thread.sleep(10);
+    Assert.assertEquals( batches, conn.getBatches().size() );
+  }
+  
+  @Test
+  public void testRetryBackoff() throws InterruptedException
+  {
+    ScriptedConnection conn = new ScriptedConnection();
+    ScriptedPool pool = new ScriptedPool(conn, 5);
+    List<UniqueId> ids = putMessages(3);
+    startForwarder(pool, 10);
+    
+    awaitBatches(conn, 1);
+    Assert.assertEquals( ids, conn.getBatches().get(0) );
+    Assert.assertEquals( 0, mQueue.size() );
+    
+    // the interval doubles after each failure, up to the maximum
+    List<Long> attempts = pool.getAttempts();
+    long [] expected = { cRetryInterval, 2 * cRetryInterval, cMaxRetryInterval, cMaxRetryInterval, cMaxRetryInterval };
+    for (int i = 0; i < expected.length; ++i)
+    {
+      long gap = attempts.get(i + 1) - attempts.get(i);
+      Assert.assertTrue( "Attempt " + (i + 1) + " after " + gap + " ms", gap >= expected[i] - 10 );
+      Assert.assertTrue( "Attempt " + (i + 1) + " after " + gap + " ms", gap < expected[i] + 500 );
+    }
+  }
+  
+  @Test
+  public void testFailedBatchForwardedAgain() throws InterruptedException
+  {
+    ScriptedConnection conn = new ScriptedConnection();
+    conn.mScript.add(new EMqCode [] { EMqCode.cError, EMqCode.cError });
+    List<UniqueId> ids = putMessages(2);
+    startForwarder(new ScriptedPool(conn, 0), 10);
+    
+    awaitBatches(conn, 2);
+    Assert.assertEquals( ids, conn.getBatches().get(0) );
+    Assert.assertEquals( ids, conn.getBatches().get(1) );
+    Assert.assertEquals( 0, mQueue.size() );
+    Assert.assertEquals( 0, mDeadQueue.size() );
+  }
+  
+  @Test
+  public void testExceptionForwardedAgain() throws InterruptedException
+  {
+    ScriptedConnection conn = new ScriptedConnection();
+    conn.mThrows = 2;
+    ScriptedPool pool = new ScriptedPool(conn, 0);
+    List<UniqueId> ids = putMessages(2);
+    startForwarder(pool, 10);
+    
+    // the forwarder survives the exceptions, releases the connection and forwards the same batch again
+    awaitBatches(conn, 3);
+    mForwarder.term();
+    Assert.assertEquals( ids, conn.getBatches().get(0) );
+    Assert.assertEquals( ids, conn.getBatches().get(2) );
+    Assert.assertEquals( 3, pool.getReleases() );
+    Assert.assertEquals( 0, mQueue.size() );
+    Assert.assertEquals( 0, mDeadQueue.size() );
+    
+    List<Long> attempts = pool.getAttempts();
+    Assert.assertTrue( attempts.get(2) - attempts.get(1) >= 2 * cRetryInterval - 10 );
+  }
+  
+  @Test
+  public void testRefusedMessageSentToDeadQueue() throws InterruptedException
+  {
+    ScriptedConnection conn = new ScriptedConnection();
+    conn.mScript.add(new EMqCode [] { EMqCode.cOkay, EMqCode.cFail });
+    List<UniqueId> ids = putMessages(2);
+    startForwarder(new ScriptedPool(conn, 0), 10);
+    
+    awaitBatches(conn, 1);
+    mForwarder.term();
+    Assert.assertEquals( 0, mQueue.size() );
+    Assert.assertEquals( 1, mDeadQueue.size() );
+    Assert.assertEquals( ids.get(1), mDeadQueue.get(0).getMessageId() );
+  }
+  
+  @Test
+  public void testInFlightBatchKeptByCheckpoint() throws InterruptedException
+  {
+    ScriptedPool pool = new ScriptedPool(null, Integer.MAX_VALUE);
+    putMessages(3);
+    startForwarder(pool, 10);
+    awaitAttempts(pool, 1);
+    Assert.assertEquals( 0, mQueue.size() );
+    
+    // the batch is still pending while the remote server is unreachable, so it's restored after a restart
+    Assert.assertTrue( mQueue.checkpoint() );
+    MqLocalQueue restored = new MqLocalQueue(mManager, cQueueName, "", 100, EQueueDisp.PERMANENT);
+    Assert.assertTrue  ( restored.restore() );
+    Assert.assertEquals( 3, restored.size() );
+  }
+  
+  @Test
+  public void testStopReturnsBatch() throws InterruptedException
+  {
+    ScriptedPool pool = new ScriptedPool(null, Integer.MAX_VALUE);
+    putMessages(3);
+    startForwarder(pool, 2);
+    awaitAttempts(pool, 1);
+    Assert.assertEquals( 1, mQueue.size() );
+    
+    mForwarder.term();
+    mForwarder = null;
+    Assert.assertEquals( 3, mQueue.size() );
+    Assert.assertEquals( 0, mDeadQueue.size() );
+  }
+}
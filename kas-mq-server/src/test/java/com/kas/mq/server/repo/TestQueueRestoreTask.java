@@ -0,0 +1,136 @@
+package com.kas.mq.server.repo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.kas.infra.utils.RunTimeUtils;
+import com.kas.mq.impl.messages.IMqMessage;
+import com.kas.mq.impl.messages.MqMessageFactory;
+import com.kas.mq.internal.EQueueDisp;
+import com.kas.mq.internal.MqLocalQueue;
+import com.kas.mq.internal.MqManager;
+import com.kas.mq.internal.MqQueueJournal;
+
+public class TestQueueRestoreTask
+{
+  static private final String cQueuePrefix = "TEST.RESTORE.";
+  static private final int cQueues = 3;
+  
+  private List<MqLocalQueue> mQueues = new ArrayList<MqLocalQueue>();
+  
+  @Before
+  public void setUp()
+  {
+    new File(RunTimeUtils.getProductHomeDir() + File.separator + "repo").mkdirs();
+  }
+  
+  @After
+  public void tearDown()
+  {
+    for (MqLocalQueue queue : mQueues)
+      queue.discard();
+  }
+  
+  private MqLocalQueue newQueue(String name)
+  {
+    MqLocalQueue queue = new MqLocalQueue(new MqManager("QMGR", "localhost", 0), name, "", 100, EQueueDisp.PERMANENT);
+    mQueues.add(queue);
+    return queue;
+  }
+  
+  private void backupQueue(String name, int messages)
+  {
+    MqLocalQueue queue = newQueue(name);
+    for (int i = 0; i < messages; ++i)
+      Assert.assertTrue( queue.put(MqMessageFactory.createStringMessage(name + " " + i)) );
+    Assert.assertTrue( queue.backup() );
+  }
+  
+  @Test
+  public void testParallelRestore() throws InterruptedException
+  {
+    for (int i = 0; i < cQueues; ++i)
+      backupQueue(cQueuePrefix + i, i + 1);
+    
+    AtomicBoolean success = new AtomicBoolean(true);
+    List<MqLocalQueue> restored = new ArrayList<MqLocalQueue>();
+    ExecutorService executor = Executors.newFixedThreadPool(cQueues);
+    for (int i = 0; i < cQueues; ++i)
+    {
+      MqLocalQueue queue = newQueue(cQueuePrefix + i);
+      queue.beginRestore();
+      restored.add(queue);
+      executor.execute(new QueueRestoreTask(queue, null, success));
+    }
+    executor.shutdown();
+    Assert.assertTrue( executor.awaitTermination(30, TimeUnit.SECONDS) );
+    
+    Assert.assertTrue( success.get() );
+    for (int i = 0; i < cQueues; ++i)
+    {
+      Assert.assertFalse ( restored.get(i).isRestoring() );
+      Assert.assertEquals( i + 1, restored.get(i).size() );
+    }
+  }
+  
+  @Test
+  public void testLazyRestoreHoldsGets() throws InterruptedException
+  {
+    String name = cQueuePrefix + "LAZY";
+    backupQueue(name, 1);
+    
+    final MqLocalQueue queue = newQueue(name);
+    queue.beginRestore();
+    Assert.assertTrue( queue.isRestoring() );
+    Assert.assertNull( queue.get(50) );
+    
+    final IMqMessage [] received = new IMqMessage[1];
+    Thread getter = new Thread() {
+      public void run()
+      {
+        received[0] = queue.get(10000);
+      }
+    };
+    getter.start();
+    
+    new QueueRestoreTask(queue, null, new AtomicBoolean(true)).run();
+    getter.join(10000);
+    Assert.assertNotNull( received[0] );
+    Assert.assertEquals ( 0, queue.size() );
+  }
+  
+  @Test
+  public void testJournalAttachFailure()
+  {
+    String name = cQueuePrefix + "NOJOURNAL";
+    backupQueue(name, 2);
+    
+    MqQueueJournal journal = new MqQueueJournal(name, true, 0);
+    File blocker = journal.getFile();
+    Assert.assertTrue( blocker.mkdir() );
+    try
+    {
+      MqLocalQueue queue = newQueue(name);
+      queue.beginRestore();
+      AtomicBoolean success = new AtomicBoolean(true);
+      new QueueRestoreTask(queue, journal, success).run();
+      
+      Assert.assertTrue  ( success.get() );
+      Assert.assertFalse ( queue.isJournaled() );
+      Assert.assertEquals( EQueueDisp.TEMPORARY, queue.getDisposition() );
+      Assert.assertEquals( 2, queue.size() );
+    }
+    finally
+    {
+      blocker.delete();
+    }
+  }
+}
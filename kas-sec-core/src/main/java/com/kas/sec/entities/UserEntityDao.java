@@ -60,6 +60,11 @@ public class UserEntityDao
     
     DbConnectionPool dbPool = DbConnectionPool.getInstance();
     DbConnection dbConn = dbPool.allocate();
+    if (dbConn == null)
+    {
+      sLogger.trace("UserEntityDao::getByName() - OUT, No data base connection");
+      return null;
+    }
     Connection conn = dbConn.getConn();
     
     try